@@ -8,6 +8,7 @@ import emissary.command.EmissaryCommand;
 import emissary.command.EnvCommand;
 import emissary.command.FeedCommand;
 import emissary.command.HelpCommand;
+import emissary.command.KffCommand;
 import emissary.command.PeersCommand;
 import emissary.command.PoolCommand;
 import emissary.command.ServerCommand;
@@ -57,7 +58,7 @@ public class Emissary {
         List<Class<? extends EmissaryCommand>> commandClasses =
                 Arrays.asList(ServerCommand.class, HelpCommand.class, TopologyCommand.class, FeedCommand.class,
                         AgentsCommand.class, PoolCommand.class, VersionCommand.class, EnvCommand.class,
-                        PeersCommand.class, ConfigCommand.class, DirectoryCommand.class);
+                        PeersCommand.class, ConfigCommand.class, DirectoryCommand.class, KffCommand.class);
         Map<String, EmissaryCommand> staticCopy = new HashMap<>();
         for (Class<? extends EmissaryCommand> commandClass : commandClasses) {
             try {
@@ -25,6 +25,7 @@ import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
 import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
 import org.apache.hc.core5.util.Timeout;
 import org.eclipse.jetty.util.security.Password;
@@ -196,8 +197,7 @@ public class EmissaryClient {
             LOGGER.debug("Sending {} and failed to retrieve URI", method.getMethod());
         }
 
-        HttpClientContext localContext = HttpClientContext.create();
-        localContext.setAttribute(HttpClientContext.AUTH_CACHE, EmissaryClient.AUTH_CACHE);
+        HttpClientContext localContext = createContext();
 
         if (cookie != null) {
             localContext.getCookieStore().addCookie(cookie);
@@ -218,6 +218,26 @@ public class EmissaryClient {
         }
     }
 
+    /**
+     * Sends a request to the web server, handing the raw response to the given handler. Useful for responses that are not
+     * text.
+     *
+     * @param method the method to be sent
+     * @param handler reads the response
+     * @return the result of the handler
+     * @throws IOException if the request fails or the handler throws it
+     */
+    public <T> T execute(final HttpUriRequestBase method, final HttpClientResponseHandler<T> handler) throws IOException {
+        method.setConfig(requestConfig);
+        return getHttpClient().execute(method, createContext(), handler);
+    }
+
+    private static HttpClientContext createContext() {
+        HttpClientContext localContext = HttpClientContext.create();
+        localContext.setAttribute(HttpClientContext.AUTH_CACHE, EmissaryClient.AUTH_CACHE);
+        return localContext;
+    }
+
     protected CloseableHttpClient getHttpClient() {
         return client;
     }
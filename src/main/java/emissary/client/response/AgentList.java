@@ -23,6 +23,18 @@ public class AgentList implements Serializable {
     @XmlElement(name = "agents")
     private SortedSet<Agent> agents;
 
+    @XmlElement(name = "memoryUsedBytes")
+    private long memoryUsedBytes;
+
+    @XmlElement(name = "memoryBudgetBytes")
+    private long memoryBudgetBytes;
+
+    @XmlElement(name = "familiesInFlight")
+    private int familiesInFlight;
+
+    @XmlElement(name = "familiesWaiting")
+    private int familiesWaiting;
+
     public AgentList() {
         agents = new TreeSet<>();
     }
@@ -52,12 +64,48 @@ public class AgentList implements Serializable {
         this.agents.add(agent);
     }
 
+    public long getMemoryUsedBytes() {
+        return memoryUsedBytes;
+    }
+
+    public void setMemoryUsedBytes(long memoryUsedBytes) {
+        this.memoryUsedBytes = memoryUsedBytes;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    public int getFamiliesInFlight() {
+        return familiesInFlight;
+    }
+
+    public void setFamiliesInFlight(int familiesInFlight) {
+        this.familiesInFlight = familiesInFlight;
+    }
+
+    public int getFamiliesWaiting() {
+        return familiesWaiting;
+    }
+
+    public void setFamiliesWaiting(int familiesWaiting) {
+        this.familiesWaiting = familiesWaiting;
+    }
+
     public void dumpToConsole() {
         StringBuilder sb = new StringBuilder();
         sb.append("\n").append(getHost()).append(" :");
         for (Agent agent : getAgents()) {
             sb.append("\n         ").append(agent);
         }
+        if (getMemoryBudgetBytes() > 0) {
+            sb.append("\n         Family memory used/budget = ").append(getMemoryUsedBytes()).append("/").append(getMemoryBudgetBytes())
+                    .append(" bytes, families in flight/waiting = ").append(getFamiliesInFlight()).append("/").append(getFamiliesWaiting());
+        }
         logger.info("{}", sb);
     }
 }
@@ -6,6 +6,7 @@ import emissary.pickup.PriorityDirectory;
 import emissary.pickup.WorkBundle;
 import emissary.pickup.WorkSpace;
 
+import jakarta.annotation.Nullable;
 import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +16,7 @@ import picocli.CommandLine.Option;
 import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Spec;
 
+import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -86,6 +88,18 @@ public class FeedCommand extends ServiceCommand {
             description = "set the use of file timestamps to control whether a file is new enough to be added to the queue\nDefault: ${DEFAULT-VALUE}")
     private boolean fileTimestamp = false;
 
+    @Option(names = {"--walkerThreads"}, description = "number of threads listing the input directories\nDefault: ${DEFAULT-VALUE}")
+    private int walkerThreads = 1;
+
+    @Option(names = {"--bundleTargetMillis"},
+            description = "size the work given to each peer to take about this long to process, from its recent rate, 0 to turn off\n"
+                    + "Default: ${DEFAULT-VALUE}")
+    private long bundleTargetMillis = 0;
+
+    @Option(names = {"--fileIndex"},
+            description = "directory for a persistent index of queued and completed files, so completed files are not fed again on restart")
+    private Path fileIndex;
+
     @Override
     public String getCommandName() {
         return COMMAND_NAME;
@@ -200,4 +214,17 @@ public class FeedCommand extends ServiceCommand {
     public boolean isFileTimestamp() {
         return fileTimestamp;
     }
+
+    public int getWalkerThreads() {
+        return walkerThreads;
+    }
+
+    public long getBundleTargetMillis() {
+        return bundleTargetMillis;
+    }
+
+    @Nullable
+    public Path getFileIndex() {
+        return fileIndex;
+    }
 }
@@ -0,0 +1,135 @@
+package emissary.command;
+
+import emissary.command.converter.PathExistsReadableConverter;
+import emissary.kff.KffFileBuilder;
+import emissary.kff.KffPreFilter;
+
+import jakarta.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+
+@Command(description = "Sort, deduplicate and merge lists of hashes into a known file filter file", subcommands = {HelpCommand.class})
+public class KffCommand implements EmissaryCommand {
+    @Spec
+    private CommandSpec spec;
+
+    protected static final Logger LOG = LoggerFactory.getLogger(KffCommand.class);
+    public static final String COMMAND_NAME = "kff";
+
+    @Parameters(arity = "1..*", paramLabel = "LIST", description = "unsorted lists of hashes", converter = PathExistsReadableConverter.class)
+    private List<Path> inputs;
+
+    @Option(names = {"-o", "--output"}, description = "the sorted file of records to write", required = true)
+    private Path output;
+
+    @Option(names = {"-m", "--merge"}, description = "an existing sorted file to merge the lists into, which may be the output",
+            converter = PathExistsReadableConverter.class)
+    @Nullable
+    private Path existing;
+
+    @Option(names = {"-f", "--format"}, description = "layout of the lists, one of ${COMPLETION-CANDIDATES}\nDefault: ${DEFAULT-VALUE}")
+    private KffFileBuilder.Format format = KffFileBuilder.Format.HEX;
+
+    @Option(names = {"-a", "--algorithm"}, description = "algorithm of the hashes\nDefault: ${DEFAULT-VALUE}")
+    private String algorithm = "SHA-1";
+
+    @Option(names = {"--hashColumn"}, description = "CSV column of the hashes, defaults to the algorithm as in the NSRL files")
+    @Nullable
+    private String hashColumn;
+
+    @Option(names = {"--crcColumn"}, description = "CSV column of the CRC-32 values\nDefault: ${DEFAULT-VALUE}")
+    private String crcColumn = "CRC32";
+
+    @Option(names = {"--noCrc"}, description = "write the hashes alone, without the CRC-32\nDefault: ${DEFAULT-VALUE}")
+    private boolean noCrc = false;
+
+    @Option(names = {"--memory"}, description = "megabytes of records sorted at a time\nDefault: ${DEFAULT-VALUE}")
+    private long memory = KffFileBuilder.DEFAULT_MEMORY_LIMIT / (1024 * 1024);
+
+    @Option(names = {"--tempDir"}, description = "where to write sorted runs, defaults to the system temporary directory")
+    @Nullable
+    private Path tempDir;
+
+    @Option(names = {"--prefixIndex"}, description = "write the prefix index read by KffMappedFile next to the output\nDefault: ${DEFAULT-VALUE}")
+    private boolean prefixIndex = false;
+
+    @Option(names = {"--preFilter"}, description = "write the pre-filter of the output\nDefault: ${DEFAULT-VALUE}")
+    private boolean preFilter = false;
+
+    @Option(names = {"--bitsPerKey"}, description = "bits of pre-filter for each record\nDefault: ${DEFAULT-VALUE}")
+    private int bitsPerKey = KffPreFilter.DEFAULT_BITS_PER_KEY;
+
+    @Option(names = {"-q", "--quiet"}, description = "hide banner and non essential messages\nDefault: ${DEFAULT-VALUE}")
+    protected boolean quiet = false;
+
+    public boolean getQuiet() {
+        return quiet;
+    }
+
+    @Override
+    public String getCommandName() {
+        return COMMAND_NAME;
+    }
+
+    @Override
+    public void setupCommand() {
+        if (memory <= 0) {
+            throw new ParameterException(spec.commandLine(), "--memory must be positive");
+        }
+    }
+
+    @Override
+    public void run(CommandLine c) {
+        setup();
+        final int hashLength;
+        try {
+            hashLength = MessageDigest.getInstance(algorithm).getDigestLength();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ParameterException(spec.commandLine(), "Unknown algorithm " + algorithm);
+        }
+
+        final KffFileBuilder builder = new KffFileBuilder(hashLength, !noCrc);
+        builder.setFormat(format);
+        builder.setColumns(hashColumn == null ? algorithm : hashColumn, crcColumn);
+        builder.setMemoryLimit(memory * 1024 * 1024);
+        builder.setTempDir(tempDir);
+        builder.setWritePrefixIndex(prefixIndex);
+        try {
+            final KffFileBuilder.Result result = builder.build(inputs, existing, output);
+            LOG.info("Read {} records from {} lists, skipping {} bad lines", result.getRecordsRead(), inputs.size(), result.getBadLines());
+            LOG.info("Sorted {} runs in {}s, {} records/s", result.getRuns(), String.format(Locale.ROOT, "%.2f", result.getSortSeconds()),
+                    result.getSortRate());
+            LOG.info("Merged in {} passes in {}s, {} records/s", result.getMergePasses(),
+                    String.format(Locale.ROOT, "%.2f", result.getMergeSeconds()), result.getMergeRate());
+            LOG.info("Wrote {} records of {} bytes to {}, dropping {} duplicates", result.getRecordsWritten(), builder.getRecordLength(),
+                    output, result.getDuplicates());
+            if (preFilter) {
+                KffPreFilter.load(output.toString(), builder.getRecordLength(), algorithm, bitsPerKey);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot build " + output, e);
+        }
+    }
+
+    @Override
+    public void outputBanner() {
+        if (!getQuiet()) {
+            new Banner().dump();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package emissary.core;
 
+import emissary.core.channels.ConcatenateChannelFactory;
 import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.core.channels.SeekableByteChannelHelper;
 import emissary.directory.DirectoryEntry;
@@ -18,6 +19,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -26,16 +30,21 @@ import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
 import java.rmi.Remote;
 import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class to hold data, header, footer, and attributes
@@ -117,6 +126,12 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     protected Map<String, byte[]> multipartAlternative = new TreeMap<>();
 
+    /**
+     * Alternate views backed by a channel factory instead of a byte array, keyed by view name. A view name is held by at
+     * most one of this map and {@link #multipartAlternative}. Written as byte arrays when serialized.
+     */
+    protected transient Map<String, SeekableByteChannelFactory> alternateViewChannelFactories = new TreeMap<>();
+
     /**
      * Any header that goes along with the data
      */
@@ -195,6 +210,23 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     @Nullable
     protected final IBaseDataObject tld;
 
+    /**
+     * Hands out data generations, so each one is used for a single version of the data of a single object
+     */
+    private static final AtomicLong dataGenerations = new AtomicLong(UNTRACKED_DATA_GENERATION);
+
+    /**
+     * The generation of the current data, or UNTRACKED_DATA_GENERATION until one is asked for after the data is set
+     */
+    private transient long dataGeneration = UNTRACKED_DATA_GENERATION;
+
+    /**
+     * The array or channel factory that held the data when its generation was handed out, so that data replaced without
+     * going through the setters still gets a new generation
+     */
+    @Nullable
+    private transient Object dataGenerationHolder;
+
     protected enum DataState {
         NO_DATA, CHANNEL_ONLY, BYTE_ARRAY_ONLY, BYTE_ARRAY_AND_CHANNEL
     }
@@ -360,6 +392,20 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
         Validate.notNull(sbcf, "Required: SeekableByteChannelFactory not null");
         this.theData = null;
         this.seekableByteChannelFactory = sbcf;
+        this.dataGeneration = UNTRACKED_DATA_GENERATION;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDataGeneration() {
+        final Object holder = this.theData != null ? this.theData : this.seekableByteChannelFactory;
+        if (this.dataGeneration == UNTRACKED_DATA_GENERATION || holder != this.dataGenerationHolder) {
+            this.dataGeneration = dataGenerations.incrementAndGet();
+            this.dataGenerationHolder = holder;
+        }
+        return this.dataGeneration;
     }
 
     /**
@@ -440,6 +486,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     public void setData(@Nullable final byte[] newData) {
         this.seekableByteChannelFactory = null;
         this.theData = newData == null ? new byte[0] : newData;
+        this.dataGeneration = UNTRACKED_DATA_GENERATION;
     }
 
     /**
@@ -466,6 +513,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
             this.theData = new byte[length];
             System.arraycopy(newData, offset, this.theData, 0, length);
         }
+        this.dataGeneration = UNTRACKED_DATA_GENERATION;
     }
 
     /**
@@ -1177,19 +1225,36 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public int getNumAlternateViews() {
-        return this.multipartAlternative.size();
+        return this.multipartAlternative.size() + this.alternateViewChannelFactories.size();
     }
 
     /**
      * Return a specified multipart alternative view of the data WARNING: this implementation returns the actual array
-     * directly, no copy is made so the caller must be aware that modifications to the returned array are live.
+     * directly, no copy is made so the caller must be aware that modifications to the returned array are live. Views backed
+     * by a channel factory are read into a new array, truncated at {@link BaseDataObject#MAX_BYTE_ARRAY_SIZE}, on every
+     * call.
      *
      * @param s the name of the view to retrieve
      * @return byte array of alternate view data or null if none
      */
     @Override
     public byte[] getAlternateView(final String s) {
-        return this.multipartAlternative.get(s);
+        final byte[] view = this.multipartAlternative.get(s);
+        if (view != null) {
+            return view;
+        }
+
+        final SeekableByteChannelFactory sbcf = this.alternateViewChannelFactories.get(s);
+        return sbcf == null ? null : readAlternateView(s, sbcf);
+    }
+
+    private byte[] readAlternateView(final String name, final SeekableByteChannelFactory sbcf) {
+        try {
+            return SeekableByteChannelHelper.getByteArrayFromChannel(sbcf, MAX_BYTE_ARRAY_SIZE);
+        } catch (final IOException ioe) {
+            logger.error("Error when fetching alternate view {} from byte channel factory on object {}", name, shortName(), ioe);
+            return new byte[0];
+        }
     }
 
     @Override
@@ -1199,6 +1264,17 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public void appendAlternateView(final String name, final byte[] data, final int offset, final int length) {
+        final SeekableByteChannelFactory sbcf = this.alternateViewChannelFactories.get(name);
+        if (sbcf != null) {
+            // Keep channel backed views off the heap by appending a copy of the new bytes as another segment
+            if (length > 0) {
+                final byte[] appended = new byte[length];
+                System.arraycopy(data, offset, appended, 0, length);
+                this.alternateViewChannelFactories.put(name, ConcatenateChannelFactory.create(sbcf, SeekableByteChannelHelper.memory(appended)));
+            }
+            return;
+        }
+
         final byte[] av = getAlternateView(name);
         if (av != null) {
             addAlternateView(name, ByteUtil.glue(av, 0, av.length - 1, data, offset, offset + length - 1));
@@ -1233,6 +1309,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     @Override
     public void addAlternateView(final String name, @Nullable final byte[] data) {
+        this.alternateViewChannelFactories.remove(name);
         if (data == null) {
             this.multipartAlternative.remove(name);
         } else {
@@ -1242,6 +1319,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public void addAlternateView(final String name, @Nullable final byte[] data, final int offset, final int length) {
+        this.alternateViewChannelFactories.remove(name);
         if (data == null || length <= 0) {
             this.multipartAlternative.remove(name);
         } else {
@@ -1258,18 +1336,196 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     @Override
     public Set<String> getAlternateViewNames() {
-        return new TreeSet<>(this.multipartAlternative.keySet());
+        final Set<String> names = new TreeSet<>(this.multipartAlternative.keySet());
+        names.addAll(this.alternateViewChannelFactories.keySet());
+        return names;
     }
 
     /**
-     * Get the alternate view map. WARNING: this implementation returns the actual map directly, no copy is made so the
-     * caller must be aware that modifications to the returned map are live.
+     * Get the alternate view map. WARNING: this implementation returns a live map over the views, no copy is made so the
+     * caller must be aware that modifications to the returned map are live. Values are fetched as by
+     * {@link #getAlternateView(String)}, so views backed by a channel factory are read into a new array each time their
+     * value is fetched, and putting a value replaces a channel backed view with a byte array.
      *
      * @return an map of alternate views ordered by name, key = String, value = byte[]
      */
     @Override
     public Map<String, byte[]> getAlternateViews() {
-        return this.multipartAlternative;
+        return new AlternateViewMap();
+    }
+
+    /**
+     * Entry of the live alternate view map, reading the view only when its value is fetched
+     */
+    private final class AlternateViewEntry implements Map.Entry<String, byte[]> {
+        private final String name;
+
+        AlternateViewEntry(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getKey() {
+            return name;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return getAlternateView(name);
+        }
+
+        @Override
+        public byte[] setValue(final byte[] value) {
+            final byte[] previous = getValue();
+            addAlternateView(name, value);
+            return previous;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return name.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + getValue();
+        }
+    }
+
+    /**
+     * Live map over the alternate views however they are held, ordered by name
+     */
+    private final class AlternateViewMap extends AbstractMap<String, byte[]> {
+        @Override
+        public int size() {
+            return getNumAlternateViews();
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return multipartAlternative.containsKey(key) || alternateViewChannelFactories.containsKey(key);
+        }
+
+        @Override
+        public byte[] get(final Object key) {
+            return key instanceof String ? getAlternateView((String) key) : null;
+        }
+
+        @Override
+        public byte[] put(final String key, final byte[] value) {
+            final byte[] previous = get(key);
+            addAlternateView(key, value);
+            return previous;
+        }
+
+        @Override
+        public byte[] remove(final Object key) {
+            final byte[] previous = get(key);
+            if (previous != null) {
+                addAlternateView((String) key, null);
+            }
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            multipartAlternative.clear();
+            alternateViewChannelFactories.clear();
+        }
+
+        @Override
+        public Set<Map.Entry<String, byte[]>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return getNumAlternateViews();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, byte[]>> iterator() {
+                    final Iterator<String> names = getAlternateViewNames().iterator();
+                    return new Iterator<>() {
+                        @Nullable
+                        private String last = null;
+
+                        @Override
+                        public boolean hasNext() {
+                            return names.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, byte[]> next() {
+                            final String name = names.next();
+                            last = name;
+                            return new AlternateViewEntry(name);
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last == null) {
+                                throw new IllegalStateException();
+                            }
+                            addAlternateView(last, null);
+                            last = null;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Set a multipart alternative view backed by a channel factory, replacing any existing view of the same name. The
+     * factory is used as-is, so a file backed factory keeps the view off the heap until it is read.
+     *
+     * @param name the name of the view
+     * @param sbcf the factory providing the view data, or null to remove the view
+     */
+    @Override
+    public void setAlternateViewChannelFactory(final String name, @Nullable final SeekableByteChannelFactory sbcf) {
+        this.multipartAlternative.remove(name);
+        if (sbcf == null) {
+            this.alternateViewChannelFactories.remove(name);
+        } else {
+            this.alternateViewChannelFactories.put(name, sbcf);
+        }
+    }
+
+    /**
+     * Returns the channel factory backing an alternate view, or wraps a byte array view in a new factory.
+     *
+     * @param name the name of the view
+     * @return the factory for the view data or null if there is no such view
+     */
+    @Nullable
+    @Override
+    public SeekableByteChannelFactory getAlternateViewChannelFactory(final String name) {
+        final SeekableByteChannelFactory sbcf = this.alternateViewChannelFactories.get(name);
+        if (sbcf != null) {
+            return sbcf;
+        }
+
+        final byte[] view = this.multipartAlternative.get(name);
+        return view == null ? null : SeekableByteChannelHelper.memory(view);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return an unmodifiable map of the channel backed views ordered by name
+     */
+    @Override
+    public Map<String, SeekableByteChannelFactory> getAlternateViewChannelFactories() {
+        return Collections.unmodifiableMap(this.alternateViewChannelFactories);
     }
 
     @Override
@@ -1328,6 +1584,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     @Override
     public IBaseDataObject clone() throws CloneNotSupportedException {
         final BaseDataObject c = (BaseDataObject) super.clone();
+        c.dataGeneration = UNTRACKED_DATA_GENERATION;
         if ((this.theData != null) && (this.theData.length > 0)) {
             c.setData(this.theData, 0, this.theData.length);
         }
@@ -1339,6 +1596,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
         c.currentForm = new ArrayList<>(this.currentForm);
         c.history = new TransformHistory(this.history);
         c.multipartAlternative = new HashMap<>(this.multipartAlternative);
+        c.alternateViewChannelFactories = new TreeMap<>(this.alternateViewChannelFactories);
         c.priority = this.priority;
         c.creationTimestamp = this.creationTimestamp;
 
@@ -1354,6 +1612,39 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
         return c;
     }
 
+    /**
+     * Serialize the object, writing channel backed alternate views as byte arrays
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        final Map<String, byte[]> channelViews = new TreeMap<>();
+        for (final Map.Entry<String, SeekableByteChannelFactory> entry : this.alternateViewChannelFactories.entrySet()) {
+            channelViews.put(entry.getKey(), SeekableByteChannelHelper.getByteArrayFromChannel(entry.getValue(), MAX_BYTE_ARRAY_SIZE));
+        }
+        out.writeObject(channelViews);
+    }
+
+    /**
+     * Deserialize the object, restoring channel backed alternate views as in-memory channel factories
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        this.alternateViewChannelFactories = new TreeMap<>();
+        final Map<String, byte[]> channelViews;
+        try {
+            channelViews = (Map<String, byte[]>) in.readObject();
+        } catch (final OptionalDataException e) {
+            // written before channel backed views existed
+            return;
+        }
+        for (final Map.Entry<String, byte[]> entry : channelViews.entrySet()) {
+            this.alternateViewChannelFactories.put(entry.getKey(), SeekableByteChannelHelper.memory(entry.getValue()));
+        }
+    }
+
     @Override
     public Instant getCreationTimestamp() {
         return this.creationTimestamp;
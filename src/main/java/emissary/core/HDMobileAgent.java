@@ -5,6 +5,7 @@ import emissary.directory.KeyManipulator;
 import emissary.log.MDCConstants;
 import emissary.place.EmptyFormPlace;
 import emissary.place.IServiceProviderPlace;
+import emissary.pool.FamilyMemoryBudget;
 
 import jakarta.annotation.Nullable;
 import org.slf4j.Logger;
@@ -124,6 +125,20 @@ public class HDMobileAgent extends MobileAgent {
         this.payloadList.clear();
     }
 
+    /**
+     * Record the estimated size of the whole payload list with the node memory budget
+     */
+    @Override
+    protected void updateFamilyMemory() {
+        if (this.familyId != null && FamilyMemoryBudget.getInstance().isEnabled()) {
+            final List<IBaseDataObject> family;
+            synchronized (this.payloadList) {
+                family = new ArrayList<>(this.payloadList);
+            }
+            updateFamilyMemory(family);
+        }
+    }
+
     /**
      * The arrive method that takes in a list of payloads arriving on the new machine
      * 
@@ -263,6 +278,7 @@ public class HDMobileAgent extends MobileAgent {
                     if (!sprouts.isEmpty()) {
                         addPayload(sprouts);
                     }
+                    updateFamilyMemory();
                 }
             }
 
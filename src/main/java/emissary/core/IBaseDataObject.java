@@ -1,6 +1,8 @@
 package emissary.core;
 
+import emissary.core.channels.DataView;
 import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.core.channels.SeekableByteChannelHelper;
 import emissary.directory.DirectoryEntry;
 
 import jakarta.annotation.Nullable;
@@ -8,6 +10,7 @@ import org.apache.commons.collections4.CollectionUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Collection;
@@ -33,6 +36,11 @@ public interface IBaseDataObject {
      */
     String DEFAULT_PARAM_SEPARATOR = ";";
 
+    /**
+     * The data generation of an object that does not track changes to its data
+     */
+    long UNTRACKED_DATA_GENERATION = 0L;
+
     /**
      * @deprecated As of emissary 8.18.0, this method performs no operations
      */
@@ -78,6 +86,18 @@ public interface IBaseDataObject {
      */
     void setChannelFactory(final SeekableByteChannelFactory sbcf);
 
+    /**
+     * Get the generation of the data, a number that changes whenever the data is set, so anything computed from the data
+     * can be kept and reused until it changes. Changes made directly to the array returned by {@link #data()} are only
+     * seen once the array is set again with {@link #setData(byte[])}.
+     *
+     * @return a number identifying this version of the data among all data objects, or {@link #UNTRACKED_DATA_GENERATION}
+     *         if changes to the data are not tracked
+     */
+    default long getDataGeneration() {
+        return UNTRACKED_DATA_GENERATION;
+    }
+
     /**
      * Returns a new InputStream to the data that this BaseDataObject contains.
      * <p>
@@ -97,6 +117,16 @@ public interface IBaseDataObject {
      */
     SeekableByteChannelFactory getChannelFactory();
 
+    /**
+     * Returns a read-only view of the data that supports reading a bounded prefix, a random range, sequential chunks or
+     * direct access to an in-memory buffer without materializing the whole payload as {@link #data()} does.
+     * 
+     * @return a view of the data, empty if this object has no data
+     */
+    default DataView dataView() {
+        return DataView.of(getChannelFactory());
+    }
+
     /**
      * Get the size of the channel referenced by this object
      * 
@@ -523,7 +553,8 @@ public interface IBaseDataObject {
     int getNumAlternateViews();
 
     /**
-     * Return a specified multipart alternative view of the data
+     * Return a specified multipart alternative view of the data. A view backed by a channel factory may be read from its
+     * channel on every call, so prefer {@link #alternateDataView(String)} for such views.
      * 
      * @param arg1 the name of the view to retrieve
      * @return byte array of alternate view data
@@ -583,12 +614,65 @@ public interface IBaseDataObject {
     Set<String> getAlternateViewNames();
 
     /**
-     * Get the alternate view map.
+     * Get the alternate view map. Changes to the map are not guaranteed to change the views. Fetching the value of a view
+     * backed by a channel factory may read the whole view from its channel each time.
      * 
      * @return map of alternate views, key = String, value = byte[]
      */
     Map<String, byte[]> getAlternateViews();
 
+    /**
+     * Set a multipart alternative view of the data backed by a channel factory, replacing any existing view of the same
+     * name. Implementations that cannot hold channel backed views read the view into a byte array.
+     * 
+     * @param name the name of the view
+     * @param sbcf the factory providing the view data, or null to remove the view
+     */
+    default void setAlternateViewChannelFactory(final String name, @Nullable final SeekableByteChannelFactory sbcf) {
+        if (sbcf == null) {
+            addAlternateView(name, null);
+            return;
+        }
+        try {
+            addAlternateView(name, SeekableByteChannelHelper.getByteArrayFromChannel(sbcf, BaseDataObject.MAX_BYTE_ARRAY_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read alternate view " + name, e);
+        }
+    }
+
+    /**
+     * Return a factory for a specified multipart alternative view of the data, whether or not the view is backed by a
+     * channel factory
+     * 
+     * @param name the name of the view to retrieve
+     * @return the factory for the view data or null if there is no such view
+     */
+    @Nullable
+    default SeekableByteChannelFactory getAlternateViewChannelFactory(final String name) {
+        final byte[] view = getAlternateView(name);
+        return view == null ? null : SeekableByteChannelHelper.memory(view);
+    }
+
+    /**
+     * Get the alternate views that are backed by a channel factory, without reading them
+     * 
+     * @return map of channel backed alternate views, key = String, value = SeekableByteChannelFactory, empty for
+     *         implementations that hold every view in a byte array
+     */
+    default Map<String, SeekableByteChannelFactory> getAlternateViewChannelFactories() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Get a streaming, read-only view of a multipart alternative view of the data
+     * 
+     * @param name the name of the view
+     * @return a view over the alternate view data, empty if there is no such view
+     */
+    default DataView alternateDataView(final String name) {
+        return DataView.of(getAlternateViewChannelFactory(name));
+    }
+
     /**
      * Test for broken document
      * 
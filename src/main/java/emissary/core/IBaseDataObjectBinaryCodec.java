@@ -0,0 +1,1111 @@
+package emissary.core;
+
+import emissary.core.channels.FileChannelFactory;
+import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.util.io.BufferPool;
+
+import jakarta.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.InvalidClassException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>
+ * A compact, versioned binary encoding of IBaseDataObjects and families of them. It is intended as a faster and smaller
+ * alternative to Java serialization and {@link emissary.util.PayloadUtil#toXml(List)} when payloads are moved between
+ * nodes or stored for later comparison.
+ * </p>
+ *
+ * <p>
+ * A stream starts with a magic number, a format version and a flags byte. The count of objects and the objects follow,
+ * deflated if the compression flag is set. Each object is a sequence of tagged, length prefixed fields ending with an end
+ * tag, so readers skip fields they do not recognize and fields missing from older streams keep their defaults. Tags are
+ * never renumbered or reused. Strings that repeat across a family, such as forms, parameter names and place keys, are
+ * written once and then referenced by index. Their definitions are always written among the fields of the top level
+ * objects, never inside an extracted record, so a reader that skips a record still knows every string.
+ * </p>
+ *
+ * <p>
+ * Parameter values are written as strings unless they are numbers, booleans or serializable values of a class in
+ * {@link #SERIALIZED_PACKAGES}. Serialized values may come from another node, so they are read with a filter that rejects
+ * any other class.
+ * </p>
+ *
+ * <p>
+ * Data and alternate views are streamed from their channels when writing. When a spill directory is configured, those
+ * larger than the spill threshold are read back into temporary files rather than onto the heap. A temporary file is
+ * deleted once the object or view it was read into, and every channel opened on it, are no longer referenced.
+ * </p>
+ */
+public final class IBaseDataObjectBinaryCodec {
+    private static final Logger logger = LoggerFactory.getLogger(IBaseDataObjectBinaryCodec.class);
+
+    /** Marks the start of an encoded stream, "EMBD" */
+    public static final int MAGIC = 0x454D4244;
+
+    /** The format version written by this codec, and the newest version it can read */
+    public static final int VERSION = 1;
+
+    /** Data and views larger than this are spilled to disk when reading, if a spill directory is configured */
+    public static final long DEFAULT_SPILL_THRESHOLD = 64L * 1024 * 1024;
+
+    static final int FLAG_DEFLATE = 0x01;
+    private static final int KNOWN_FLAGS = FLAG_DEFLATE;
+
+    // Field tags. These are part of the format and must never be renumbered or reused.
+    static final int END = 0;
+    static final int STRING = 1;
+    static final int INTERNAL_ID = 2;
+    static final int DATA = 3;
+    static final int FILENAME = 4;
+    static final int CURRENT_FORMS = 5;
+    static final int HISTORY = 6;
+    static final int PARAMETERS = 7;
+    static final int VIEW = 8;
+    static final int HEADER = 9;
+    static final int FOOTER = 10;
+    static final int HEADER_ENCODING = 11;
+    static final int FONT_ENCODING = 12;
+    static final int CLASSIFICATION = 13;
+    static final int PROCESSING_ERROR = 14;
+    static final int BROKEN = 15;
+    static final int NUM_CHILDREN = 16;
+    static final int NUM_SIBLINGS = 17;
+    static final int BIRTH_ORDER = 18;
+    static final int PRIORITY = 19;
+    static final int CREATION_TIMESTAMP = 20;
+    static final int OUTPUTABLE = 21;
+    static final int ID = 22;
+    static final int WORK_BUNDLE_ID = 23;
+    static final int TRANSACTION_ID = 24;
+    static final int EXTRACTED_RECORD = 25;
+
+    // Parameter value types
+    private static final int VALUE_STRING_REF = 1;
+    private static final int VALUE_STRING = 2;
+    private static final int VALUE_INTEGER = 3;
+    private static final int VALUE_LONG = 4;
+    private static final int VALUE_DOUBLE = 5;
+    private static final int VALUE_BOOLEAN = 6;
+    static final int VALUE_SERIALIZED = 7;
+
+    /** Packages of the classes that may be Java serialized in parameter values, and nothing else is read back */
+    static final Set<String> SERIALIZED_PACKAGES = Set.of("java.lang", "java.math", "java.time");
+
+    /** Deepest object graph read from a serialized parameter value */
+    private static final int MAX_SERIALIZED_DEPTH = 20;
+
+    private static final ObjectInputFilter SERIALIZED_FILTER = info -> {
+        if (info.depth() > MAX_SERIALIZED_DEPTH) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+        final Class<?> serialClass = info.serialClass();
+        if (serialClass == null) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+        return isSerializedClassAllowed(serialClass) ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+    };
+
+    /** Deletes spilled files once nothing refers to them */
+    private static final Cleaner SPILL_CLEANER = Cleaner.create();
+
+    /** String parameter values longer than this are written inline rather than added to the string table */
+    private static final int MAX_INTERNED_VALUE_LENGTH = 128;
+
+    private final boolean compress;
+    @Nullable
+    private final Path spillDirectory;
+    private final long spillThreshold;
+
+    /**
+     * Create an uncompressed codec that reads everything onto the heap
+     */
+    public IBaseDataObjectBinaryCodec() {
+        this(false, null, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * Create a codec that reads everything onto the heap
+     *
+     * @param compress true to deflate the encoded objects
+     */
+    public IBaseDataObjectBinaryCodec(final boolean compress) {
+        this(compress, null, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * Create a codec
+     *
+     * @param compress true to deflate the encoded objects
+     * @param spillDirectory directory for temporary files holding large data and views, or null to read them onto the heap
+     * @param spillThreshold size in bytes above which data and views are spilled to the spill directory
+     */
+    public IBaseDataObjectBinaryCodec(final boolean compress, @Nullable final Path spillDirectory, final long spillThreshold) {
+        Validate.isTrue(spillThreshold >= 0, "Required: spillThreshold >= 0");
+
+        this.compress = compress;
+        this.spillDirectory = spillDirectory;
+        this.spillThreshold = spillThreshold;
+    }
+
+    public boolean isCompressed() {
+        return compress;
+    }
+
+    /**
+     * Check whether a class may be written to and read from a stream with Java serialization
+     *
+     * @param c the class, or the class of the elements of an array
+     * @return true if it is a primitive or in one of the {@link #SERIALIZED_PACKAGES}
+     */
+    static boolean isSerializedClassAllowed(final Class<?> c) {
+        Class<?> component = c;
+        while (component.isArray()) {
+            component = component.getComponentType();
+        }
+        return component.isPrimitive() || SERIALIZED_PACKAGES.contains(component.getPackageName());
+    }
+
+    /**
+     * Write a single object, which is read back with {@link #read(InputStream)}
+     *
+     * @param ibdo the object to write
+     * @param outputStream the destination, which is flushed but not closed
+     * @throws IOException if there is a problem reading the data or writing the stream
+     */
+    public void write(final IBaseDataObject ibdo, final OutputStream outputStream) throws IOException {
+        Validate.notNull(ibdo, "Required: ibdo not null");
+
+        writeFamily(Collections.singletonList(ibdo), outputStream);
+    }
+
+    /**
+     * Write a list of objects, typically a family, sharing a single string table
+     *
+     * @param family the objects to write
+     * @param outputStream the destination, which is flushed but not closed
+     * @throws IOException if there is a problem reading the data or writing the stream
+     */
+    public void writeFamily(final List<IBaseDataObject> family, final OutputStream outputStream) throws IOException {
+        Validate.notNull(family, "Required: family not null");
+        Validate.notNull(outputStream, "Required: outputStream not null");
+
+        final DataOutputStream header = new DataOutputStream(outputStream);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_DEFLATE : 0);
+
+        final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        try {
+            final OutputStream body =
+                    deflater == null ? outputStream : new DeflaterOutputStream(outputStream, deflater, BufferPool.DEFAULT_IO_BUFFER_SIZE);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(body, BufferPool.DEFAULT_IO_BUFFER_SIZE));
+            final Encoder encoder = new Encoder();
+
+            writeVarLong(out, family.size());
+            for (final IBaseDataObject ibdo : family) {
+                encoder.writeObject(ibdo, out);
+            }
+            out.flush();
+            if (body instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) body).finish();
+            }
+            outputStream.flush();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Encode a list of objects into an array
+     *
+     * @param family the objects to encode
+     * @return the encoded bytes
+     * @throws IOException if there is a problem reading the data
+     */
+    public byte[] toBytes(final List<IBaseDataObject> family) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeFamily(family, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a single object written by {@link #write(IBaseDataObject, OutputStream)}
+     *
+     * @param inputStream the source, which is not closed
+     * @return the object
+     * @throws IOException if the stream is not valid or does not hold exactly one object
+     */
+    public IBaseDataObject read(final InputStream inputStream) throws IOException {
+        final List<IBaseDataObject> family = readFamily(inputStream);
+        if (family.size() != 1) {
+            throw new IOException("Expected a single object but found " + family.size());
+        }
+        return family.get(0);
+    }
+
+    /**
+     * Read a list of objects. The codec reading a stream does not need to match the one that wrote it, as compression is
+     * recorded in the stream.
+     *
+     * @param inputStream the source, which is not closed but may be read past the end of the encoded objects
+     * @return the objects in the order they were written
+     * @throws IOException if the stream is not valid or was written by a newer version of the format
+     */
+    public List<IBaseDataObject> readFamily(final InputStream inputStream) throws IOException {
+        Validate.notNull(inputStream, "Required: inputStream not null");
+
+        final DataInputStream header = new DataInputStream(inputStream);
+        final int magic = header.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not an encoded payload stream, magic was 0x" + Integer.toHexString(magic));
+        }
+        final int version = header.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("Unsupported payload stream version " + version + ", newest supported is " + VERSION);
+        }
+        final int flags = header.readUnsignedByte();
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new IOException("Unsupported payload stream flags 0x" + Integer.toHexString(flags));
+        }
+
+        final Inflater inflater = (flags & FLAG_DEFLATE) != 0 ? new Inflater() : null;
+        try {
+            final InputStream body =
+                    inflater == null ? inputStream : new InflaterInputStream(inputStream, inflater, BufferPool.DEFAULT_IO_BUFFER_SIZE);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(body, BufferPool.DEFAULT_IO_BUFFER_SIZE));
+            final Decoder decoder = new Decoder();
+
+            final int count = readVarInt(in);
+            final List<IBaseDataObject> family = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                family.add(decoder.readObject(in));
+            }
+            return family;
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Decode an array produced by {@link #toBytes(List)}
+     *
+     * @param bytes the encoded bytes
+     * @return the objects in the order they were written
+     * @throws IOException if the bytes are not valid
+     */
+    public List<IBaseDataObject> fromBytes(final byte[] bytes) throws IOException {
+        return readFamily(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Encode and decode a list of objects and compare the results with the originals
+     *
+     * @param family the objects to check
+     * @return a description of each difference found, empty if the objects survived the round trip intact
+     * @throws IOException if there is a problem encoding or decoding the objects
+     */
+    public List<String> checkRoundTrip(final List<IBaseDataObject> family) throws IOException {
+        final List<IBaseDataObject> decoded = fromBytes(toBytes(family));
+        final List<String> differences = new ArrayList<>();
+
+        if (decoded.size() != family.size()) {
+            differences.add("family size: " + family.size() + " : " + decoded.size());
+            return differences;
+        }
+        for (int i = 0; i < family.size(); i++) {
+            diff(family.get(i), decoded.get(i), "[" + i + "].", differences);
+        }
+        return differences;
+    }
+
+    private static void diff(final IBaseDataObject expected, final IBaseDataObject actual, final String prefix, final List<String> differences)
+            throws IOException {
+        diff(expected.getInternalId(), actual.getInternalId(), prefix + "internalId", differences);
+        diffContent(expected.getChannelFactory(), actual.getChannelFactory(), prefix + "data", differences);
+        diff(expected.getFilename(), actual.getFilename(), prefix + "filename", differences);
+        diff(expected.getAllCurrentForms(), actual.getAllCurrentForms(), prefix + "currentForms", differences);
+        diff(expected.transformHistory(true), actual.transformHistory(true), prefix + "transformHistory", differences);
+        diff(parameterLists(expected), parameterLists(actual), prefix + "parameters", differences);
+        diff(expected.getAlternateViewNames(), actual.getAlternateViewNames(), prefix + "viewNames", differences);
+        for (final String name : expected.getAlternateViewNames()) {
+            diffContent(expected.getAlternateViewChannelFactory(name), actual.getAlternateViewChannelFactory(name), prefix + "view." + name,
+                    differences);
+        }
+        if (!Arrays.equals(expected.header(), actual.header())) {
+            differences.add(prefix + "header");
+        }
+        if (!Arrays.equals(expected.footer(), actual.footer())) {
+            differences.add(prefix + "footer");
+        }
+        diff(expected.getHeaderEncoding(), actual.getHeaderEncoding(), prefix + "headerEncoding", differences);
+        diff(expected.getFontEncoding(), actual.getFontEncoding(), prefix + "fontEncoding", differences);
+        diff(expected.getClassification(), actual.getClassification(), prefix + "classification", differences);
+        diff(expected.getProcessingError(), actual.getProcessingError(), prefix + "processingError", differences);
+        diff(expected.getBroken(), actual.getBroken(), prefix + "broken", differences);
+        diff(expected.getNumChildren(), actual.getNumChildren(), prefix + "numChildren", differences);
+        diff(expected.getNumSiblings(), actual.getNumSiblings(), prefix + "numSiblings", differences);
+        diff(expected.getBirthOrder(), actual.getBirthOrder(), prefix + "birthOrder", differences);
+        diff(expected.getPriority(), actual.getPriority(), prefix + "priority", differences);
+        diff(expected.getCreationTimestamp(), actual.getCreationTimestamp(), prefix + "creationTimestamp", differences);
+        diff(expected.isOutputable(), actual.isOutputable(), prefix + "outputable", differences);
+        diff(expected.getId(), actual.getId(), prefix + "id", differences);
+        diff(expected.getWorkBundleId(), actual.getWorkBundleId(), prefix + "workBundleId", differences);
+        diff(expected.getTransactionId(), actual.getTransactionId(), prefix + "transactionId", differences);
+
+        final List<IBaseDataObject> expectedRecords = recordsOf(expected);
+        final List<IBaseDataObject> actualRecords = recordsOf(actual);
+        if (expectedRecords.size() != actualRecords.size()) {
+            differences.add(prefix + "extractedRecords: " + expectedRecords.size() + " : " + actualRecords.size());
+        } else {
+            for (int i = 0; i < expectedRecords.size(); i++) {
+                diff(expectedRecords.get(i), actualRecords.get(i), prefix + "extractedRecords[" + i + "].", differences);
+            }
+        }
+    }
+
+    private static void diff(@Nullable final Object expected, @Nullable final Object actual, final String name, final List<String> differences) {
+        if (!Objects.equals(expected, actual)) {
+            differences.add(name + ": " + expected + " : " + actual);
+        }
+    }
+
+    private static void diffContent(@Nullable final SeekableByteChannelFactory expected, @Nullable final SeekableByteChannelFactory actual,
+            final String name, final List<String> differences) throws IOException {
+        if (expected == null || actual == null) {
+            if (expected != actual) {
+                differences.add(name + ": only one is present");
+            }
+            return;
+        }
+        try (InputStream e = Channels.newInputStream(expected.create()); InputStream a = Channels.newInputStream(actual.create())) {
+            if (!IOUtils.contentEquals(e, a)) {
+                differences.add(name + ": content differs");
+            }
+        }
+    }
+
+    private static Map<String, List<Object>> parameterLists(final IBaseDataObject ibdo) {
+        final Map<String, List<Object>> lists = new HashMap<>();
+        for (final Map.Entry<String, Collection<Object>> entry : ibdo.getParameters().entrySet()) {
+            lists.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return lists;
+    }
+
+    private static List<IBaseDataObject> recordsOf(final IBaseDataObject ibdo) {
+        final List<IBaseDataObject> records = ibdo.getExtractedRecords();
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    /**
+     * Writes objects to a stream, tracking the strings already written
+     */
+    private static final class Encoder {
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        // Where string definitions go, the stream of the top level object being written
+        @Nullable
+        private DataOutputStream definitions;
+
+        void writeObject(final IBaseDataObject ibdo, final DataOutputStream out) throws IOException {
+            definitions = out;
+            try {
+                writeFields(ibdo, out);
+            } finally {
+                definitions = null;
+            }
+        }
+
+        private void writeFields(final IBaseDataObject ibdo, final DataOutputStream out) throws IOException {
+            final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+            final DataOutputStream field = new DataOutputStream(fieldBytes);
+
+            final UUID internalId = ibdo.getInternalId();
+            field.writeLong(internalId.getMostSignificantBits());
+            field.writeLong(internalId.getLeastSignificantBits());
+            endField(out, INTERNAL_ID, fieldBytes);
+
+            writeRefField(out, FILENAME, ibdo.getFilename(), fieldBytes, field);
+
+            final List<String> forms = ibdo.getAllCurrentForms();
+            if (!forms.isEmpty()) {
+                final int[] refs = new int[forms.size()];
+                for (int i = 0; i < refs.length; i++) {
+                    refs[i] = intern(forms.get(i));
+                }
+                writeVarLong(field, refs.length);
+                for (final int ref : refs) {
+                    writeVarLong(field, ref);
+                }
+                endField(out, CURRENT_FORMS, fieldBytes);
+            }
+
+            writeHistory(ibdo.getTransformHistory(), out, fieldBytes, field);
+            writeParameters(ibdo.getParameters(), out, fieldBytes, field);
+
+            final SeekableByteChannelFactory sbcf = ibdo.getChannelFactory();
+            if (sbcf != null) {
+                writeContent(out, DATA, -1, sbcf);
+            }
+
+            final Map<String, SeekableByteChannelFactory> channelViews = ibdo.getAlternateViewChannelFactories();
+            for (final String name : ibdo.getAlternateViewNames()) {
+                final SeekableByteChannelFactory viewSbcf = channelViews.get(name);
+                writeContent(out, VIEW, intern(name),
+                        viewSbcf == null ? ibdo.getAlternateViewChannelFactory(name) : viewSbcf);
+            }
+
+            writeBytesField(out, HEADER, ibdo.header());
+            writeBytesField(out, FOOTER, ibdo.footer());
+            writeRefField(out, HEADER_ENCODING, ibdo.getHeaderEncoding(), fieldBytes, field);
+            writeRefField(out, FONT_ENCODING, ibdo.getFontEncoding(), fieldBytes, field);
+            writeRefField(out, CLASSIFICATION, ibdo.getClassification(), fieldBytes, field);
+            writeTextField(out, PROCESSING_ERROR, ibdo.getProcessingError());
+            writeTextField(out, BROKEN, ibdo.getBroken());
+            writeIntField(out, NUM_CHILDREN, ibdo.getNumChildren(), fieldBytes, field);
+            writeIntField(out, NUM_SIBLINGS, ibdo.getNumSiblings(), fieldBytes, field);
+            writeIntField(out, BIRTH_ORDER, ibdo.getBirthOrder(), fieldBytes, field);
+            writeIntField(out, PRIORITY, ibdo.getPriority(), fieldBytes, field);
+
+            final Instant creationTimestamp = ibdo.getCreationTimestamp();
+            if (creationTimestamp != null) {
+                field.writeLong(creationTimestamp.getEpochSecond());
+                field.writeInt(creationTimestamp.getNano());
+                endField(out, CREATION_TIMESTAMP, fieldBytes);
+            }
+
+            field.writeBoolean(ibdo.isOutputable());
+            endField(out, OUTPUTABLE, fieldBytes);
+
+            writeRefField(out, ID, ibdo.getId(), fieldBytes, field);
+            writeRefField(out, WORK_BUNDLE_ID, ibdo.getWorkBundleId(), fieldBytes, field);
+            writeRefField(out, TRANSACTION_ID, ibdo.getTransactionId(), fieldBytes, field);
+
+            for (final IBaseDataObject extractedRecord : recordsOf(ibdo)) {
+                final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+                final DataOutputStream record = new DataOutputStream(recordBytes);
+                writeFields(extractedRecord, record);
+                record.flush();
+                endField(out, EXTRACTED_RECORD, recordBytes);
+            }
+
+            writeVarLong(out, END);
+        }
+
+        /**
+         * Add a string to the table, writing its definition to the top level stream the first time it is seen
+         */
+        private int intern(final String s) throws IOException {
+            Integer ref = strings.get(s);
+            if (ref == null) {
+                ref = strings.size();
+                strings.put(s, ref);
+                writeTextField(definitions, STRING, s);
+            }
+            return ref;
+        }
+
+        private void writeHistory(final TransformHistory history, final DataOutputStream out, final ByteArrayOutputStream fieldBytes,
+                final DataOutputStream field) throws IOException {
+            final List<TransformHistory.History> visits = history.getHistory();
+            if (visits.isEmpty()) {
+                return;
+            }
+
+            final List<int[]> refs = new ArrayList<>(visits.size());
+            for (final TransformHistory.History visit : visits) {
+                final List<String> coordinated = visit.getCoordinated();
+                final int[] visitRefs = new int[coordinated.size() + 1];
+                visitRefs[0] = intern(visit.getKey());
+                for (int i = 0; i < coordinated.size(); i++) {
+                    visitRefs[i + 1] = intern(coordinated.get(i));
+                }
+                refs.add(visitRefs);
+            }
+
+            writeVarLong(field, refs.size());
+            for (final int[] visitRefs : refs) {
+                writeVarLong(field, visitRefs.length);
+                for (final int ref : visitRefs) {
+                    writeVarLong(field, ref);
+                }
+            }
+            endField(out, HISTORY, fieldBytes);
+        }
+
+        private void writeParameters(final Map<String, Collection<Object>> parameters, final DataOutputStream out,
+                final ByteArrayOutputStream fieldBytes, final DataOutputStream field) throws IOException {
+            if (parameters.isEmpty()) {
+                return;
+            }
+
+            // Intern everything first, so the definitions precede the field that refers to them
+            final Map<String, Integer> keyRefs = new LinkedHashMap<>();
+            for (final Map.Entry<String, Collection<Object>> entry : parameters.entrySet()) {
+                keyRefs.put(entry.getKey(), intern(entry.getKey()));
+                for (final Object value : entry.getValue()) {
+                    if (value instanceof String && ((String) value).length() <= MAX_INTERNED_VALUE_LENGTH) {
+                        intern((String) value);
+                    }
+                }
+            }
+
+            writeVarLong(field, parameters.size());
+            for (final Map.Entry<String, Collection<Object>> entry : parameters.entrySet()) {
+                writeVarLong(field, keyRefs.get(entry.getKey()));
+                writeVarLong(field, entry.getValue().size());
+                for (final Object value : entry.getValue()) {
+                    writeValue(field, value);
+                }
+            }
+            endField(out, PARAMETERS, fieldBytes);
+        }
+
+        private void writeValue(final DataOutputStream field, final Object value) throws IOException {
+            if (value instanceof String) {
+                final Integer ref = strings.get(value);
+                if (ref != null) {
+                    field.writeByte(VALUE_STRING_REF);
+                    writeVarLong(field, ref);
+                } else {
+                    field.writeByte(VALUE_STRING);
+                    writeText(field, (String) value);
+                }
+            } else if (value instanceof Integer) {
+                field.writeByte(VALUE_INTEGER);
+                writeVarLong(field, zigZag((Integer) value));
+            } else if (value instanceof Long) {
+                field.writeByte(VALUE_LONG);
+                writeVarLong(field, zigZag((Long) value));
+            } else if (value instanceof Double) {
+                field.writeByte(VALUE_DOUBLE);
+                field.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                field.writeByte(VALUE_BOOLEAN);
+                field.writeBoolean((Boolean) value);
+            } else {
+                final byte[] serialized = serialize(value);
+                if (serialized != null) {
+                    field.writeByte(VALUE_SERIALIZED);
+                    writeVarLong(field, serialized.length);
+                    field.write(serialized);
+                } else {
+                    logger.debug("Parameter value of {} is not serialized, writing it as a string", value.getClass().getName());
+                    field.writeByte(VALUE_STRING);
+                    writeText(field, String.valueOf(value));
+                }
+            }
+        }
+
+        /**
+         * Java serialize a parameter value if it and everything it refers to would be accepted when read back. The value is
+         * read back through the same filter as a reader uses, since a class that is allowed may hold others that are not.
+         *
+         * @return the serialized value, or null if it should be written as a string
+         */
+        @Nullable
+        private byte[] serialize(final Object value) throws IOException {
+            if (!(value instanceof Serializable) || !isSerializedClassAllowed(value.getClass())) {
+                return null;
+            }
+            final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+                oos.writeObject(value);
+            } catch (NotSerializableException e) {
+                return null;
+            }
+            final byte[] bytes = serialized.toByteArray();
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                ois.setObjectInputFilter(SERIALIZED_FILTER);
+                ois.readObject();
+            } catch (InvalidClassException | ClassNotFoundException e) {
+                return null;
+            }
+            return bytes;
+        }
+
+        private void writeRefField(final DataOutputStream out, final int tag, @Nullable final String value,
+                final ByteArrayOutputStream fieldBytes, final DataOutputStream field) throws IOException {
+            if (value != null) {
+                final int ref = intern(value);
+                writeVarLong(field, ref);
+                endField(out, tag, fieldBytes);
+            }
+        }
+
+        private static void writeIntField(final DataOutputStream out, final int tag, final int value, final ByteArrayOutputStream fieldBytes,
+                final DataOutputStream field) throws IOException {
+            writeVarLong(field, zigZag(value));
+            endField(out, tag, fieldBytes);
+        }
+
+        private static void writeTextField(final DataOutputStream out, final int tag, @Nullable final String value) throws IOException {
+            if (value != null) {
+                writeBytesField(out, tag, value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private static void writeBytesField(final DataOutputStream out, final int tag, @Nullable final byte[] value) throws IOException {
+            if (value != null) {
+                writeVarLong(out, tag);
+                writeVarLong(out, value.length);
+                out.write(value);
+            }
+        }
+
+        private static void endField(final DataOutputStream out, final int tag, final ByteArrayOutputStream fieldBytes) throws IOException {
+            writeVarLong(out, tag);
+            writeVarLong(out, fieldBytes.size());
+            fieldBytes.writeTo(out);
+            fieldBytes.reset();
+        }
+
+        /**
+         * Stream the content of a channel as a field, prefixed with a string reference if ref is not negative
+         */
+        private static void writeContent(final DataOutputStream out, final int tag, final int ref, final SeekableByteChannelFactory sbcf)
+                throws IOException {
+            final BufferPool pool = BufferPool.getInstance();
+            final byte[] buffer = pool.acquireArray(BufferPool.DEFAULT_IO_BUFFER_SIZE);
+            try (SeekableByteChannel channel = sbcf.create()) {
+                final long size = channel.size();
+                writeVarLong(out, tag);
+                writeVarLong(out, (ref < 0 ? 0 : varLongSize(ref)) + size);
+                if (ref >= 0) {
+                    writeVarLong(out, ref);
+                }
+
+                final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                long remaining = size;
+                while (remaining > 0) {
+                    byteBuffer.clear().limit((int) Math.min(buffer.length, remaining));
+                    final int count = channel.read(byteBuffer);
+                    if (count < 0) {
+                        throw new EOFException("Channel ended " + remaining + " bytes before its reported size of " + size);
+                    }
+                    out.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads objects from a stream, tracking the strings already defined
+     */
+    private final class Decoder {
+        private final List<String> strings = new ArrayList<>();
+
+        IBaseDataObject readObject(final DataInputStream in) throws IOException {
+            IBaseDataObject ibdo = null;
+
+            while (true) {
+                final int tag = readVarInt(in);
+                if (tag == END) {
+                    return ibdo == null ? DataObjectFactory.getInstance() : ibdo;
+                }
+                final long length = readVarLong(in);
+
+                if (tag == STRING) {
+                    strings.add(new String(readBytes(in, length), StandardCharsets.UTF_8));
+                    continue;
+                }
+                if (ibdo == null) {
+                    if (tag == INTERNAL_ID) {
+                        final DataInputStream field = field(in, length);
+                        ibdo = new IBaseDataObjectHelper.InternalIdBaseDataObject(new UUID(field.readLong(), field.readLong()));
+                        continue;
+                    }
+                    ibdo = DataObjectFactory.getInstance();
+                }
+                readField(ibdo, tag, length, in);
+            }
+        }
+
+        private void readField(final IBaseDataObject ibdo, final int tag, final long length, final DataInputStream in) throws IOException {
+            switch (tag) {
+                case DATA:
+                    final Object data = readContent(in, length);
+                    if (data instanceof byte[]) {
+                        ibdo.setData((byte[]) data);
+                    } else {
+                        ibdo.setChannelFactory((SeekableByteChannelFactory) data);
+                    }
+                    break;
+                case VIEW:
+                    final int ref = readVarInt(in);
+                    final String name = string(ref);
+                    final Object view = readContent(in, length - varLongSize(ref));
+                    if (view instanceof byte[]) {
+                        ibdo.addAlternateView(name, (byte[]) view);
+                    } else {
+                        ibdo.setAlternateViewChannelFactory(name, (SeekableByteChannelFactory) view);
+                    }
+                    break;
+                case FILENAME:
+                    ibdo.setFilename(string(readVarInt(field(in, length))));
+                    break;
+                case CURRENT_FORMS:
+                    final DataInputStream forms = field(in, length);
+                    for (int i = readVarInt(forms); i > 0; i--) {
+                        ibdo.enqueueCurrentForm(string(readVarInt(forms)));
+                    }
+                    break;
+                case HISTORY:
+                    ibdo.setHistory(readHistory(field(in, length)));
+                    break;
+                case PARAMETERS:
+                    ibdo.putParameters(readParameters(field(in, length)));
+                    break;
+                case HEADER:
+                    ibdo.setHeader(readBytes(in, length));
+                    break;
+                case FOOTER:
+                    ibdo.setFooter(readBytes(in, length));
+                    break;
+                case HEADER_ENCODING:
+                    ibdo.setHeaderEncoding(string(readVarInt(field(in, length))));
+                    break;
+                case FONT_ENCODING:
+                    ibdo.setFontEncoding(string(readVarInt(field(in, length))));
+                    break;
+                case CLASSIFICATION:
+                    ibdo.setClassification(string(readVarInt(field(in, length))));
+                    break;
+                case PROCESSING_ERROR:
+                    final String error = new String(readBytes(in, length), StandardCharsets.UTF_8);
+                    // Each error is stored with a trailing newline which addProcessingError adds back
+                    ibdo.addProcessingError(error.endsWith("\n") ? error.substring(0, error.length() - 1) : error);
+                    break;
+                case BROKEN:
+                    ibdo.setBroken(new String(readBytes(in, length), StandardCharsets.UTF_8));
+                    break;
+                case NUM_CHILDREN:
+                    ibdo.setNumChildren(readZigZagInt(field(in, length)));
+                    break;
+                case NUM_SIBLINGS:
+                    ibdo.setNumSiblings(readZigZagInt(field(in, length)));
+                    break;
+                case BIRTH_ORDER:
+                    ibdo.setBirthOrder(readZigZagInt(field(in, length)));
+                    break;
+                case PRIORITY:
+                    ibdo.setPriority(readZigZagInt(field(in, length)));
+                    break;
+                case CREATION_TIMESTAMP:
+                    final DataInputStream timestamp = field(in, length);
+                    ibdo.setCreationTimestamp(Instant.ofEpochSecond(timestamp.readLong(), timestamp.readInt()));
+                    break;
+                case OUTPUTABLE:
+                    ibdo.setOutputable(field(in, length).readBoolean());
+                    break;
+                case ID:
+                    ibdo.setId(string(readVarInt(field(in, length))));
+                    break;
+                case WORK_BUNDLE_ID:
+                    ibdo.setWorkBundleId(string(readVarInt(field(in, length))));
+                    break;
+                case TRANSACTION_ID:
+                    ibdo.setTransactionId(string(readVarInt(field(in, length))));
+                    break;
+                case EXTRACTED_RECORD:
+                    ibdo.addExtractedRecord(readObject(field(in, length)));
+                    break;
+                default:
+                    // Written by a newer version of the format
+                    logger.debug("Skipping unknown field {} of {} bytes", tag, length);
+                    IOUtils.skipFully(in, length);
+                    break;
+            }
+        }
+
+        private TransformHistory readHistory(final DataInputStream field) throws IOException {
+            final TransformHistory history = new TransformHistory();
+            for (int visits = readVarInt(field); visits > 0; visits--) {
+                final int keys = readVarInt(field);
+                history.append(string(readVarInt(field)));
+                for (int i = 1; i < keys; i++) {
+                    history.append(string(readVarInt(field)), true);
+                }
+            }
+            return history;
+        }
+
+        private Map<String, Collection<Object>> readParameters(final DataInputStream field) throws IOException {
+            final Map<String, Collection<Object>> parameters = new LinkedHashMap<>();
+            for (int entries = readVarInt(field); entries > 0; entries--) {
+                final String key = string(readVarInt(field));
+                final int count = readVarInt(field);
+                final List<Object> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(readValue(field));
+                }
+                parameters.put(key, values);
+            }
+            return parameters;
+        }
+
+        private Object readValue(final DataInputStream field) throws IOException {
+            final int type = field.readUnsignedByte();
+            switch (type) {
+                case VALUE_STRING_REF:
+                    return string(readVarInt(field));
+                case VALUE_STRING:
+                    return new String(readBytes(field, readVarLong(field)), StandardCharsets.UTF_8);
+                case VALUE_INTEGER:
+                    return readZigZagInt(field);
+                case VALUE_LONG:
+                    return unZigZag(readVarLong(field));
+                case VALUE_DOUBLE:
+                    return field.readDouble();
+                case VALUE_BOOLEAN:
+                    return field.readBoolean();
+                case VALUE_SERIALIZED:
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(field, readVarLong(field))))) {
+                        ois.setObjectInputFilter(SERIALIZED_FILTER);
+                        return ois.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException("Cannot read parameter value", e);
+                    }
+                default:
+                    throw new IOException("Unknown parameter value type " + type);
+            }
+        }
+
+        private String string(final int ref) throws IOException {
+            if (ref < 0 || ref >= strings.size()) {
+                throw new IOException("String reference " + ref + " is not defined");
+            }
+            return strings.get(ref);
+        }
+
+        /**
+         * Read content onto the heap, or into a temporary file if it is large and a spill directory is configured
+         *
+         * @return a byte array or a channel factory for the spilled file
+         */
+        private Object readContent(final DataInputStream in, final long length) throws IOException {
+            if (spillDirectory == null || length <= spillThreshold) {
+                return readBytes(in, length);
+            }
+
+            final Path spill = Files.createTempFile(spillDirectory, "ibdo", ".spill");
+            try (OutputStream os = Files.newOutputStream(spill)) {
+                if (IOUtils.copyLarge(in, os, 0, length) != length) {
+                    throw new EOFException("Stream ended before the end of a " + length + " byte field");
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(spill);
+                throw e;
+            }
+            return new SpillChannelFactory(spill);
+        }
+    }
+
+    /**
+     * Reads a file spilled to by a decoder, and deletes the file once the factory and every channel it created are no
+     * longer reachable, which is when the object or view it was read into is released
+     */
+    private static final class SpillChannelFactory implements SeekableByteChannelFactory {
+        private final SeekableByteChannelFactory file;
+
+        SpillChannelFactory(final Path path) {
+            this.file = FileChannelFactory.create(path);
+            SPILL_CLEANER.register(this, () -> deleteSpill(path));
+        }
+
+        @Override
+        public SeekableByteChannel create() {
+            return new SpillChannel(this, file.create());
+        }
+    }
+
+    /**
+     * A channel over a spilled file that keeps the file from being deleted while it is in use
+     */
+    private static final class SpillChannel implements SeekableByteChannel {
+        private final SpillChannelFactory owner;
+        private final SeekableByteChannel channel;
+
+        SpillChannel(final SpillChannelFactory owner, final SeekableByteChannel channel) {
+            this.owner = owner;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Reference.reachabilityFence(owner);
+            }
+        }
+    }
+
+    private static void deleteSpill(final Path spill) {
+        try {
+            Files.deleteIfExists(spill);
+        } catch (IOException e) {
+            logger.warn("Could not delete spill file {}", spill, e);
+        }
+    }
+
+    private static DataInputStream field(final DataInputStream in, final long length) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(readBytes(in, length)));
+    }
+
+    private static byte[] readBytes(final DataInputStream in, final long length) throws IOException {
+        if (length < 0 || length > BaseDataObject.MAX_BYTE_ARRAY_SIZE) {
+            throw new IOException("Field of " + length + " bytes cannot be read onto the heap");
+        }
+        final byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeText(final DataOutput out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write an unsigned variable length integer, seven bits per byte with the high bit set on all but the last
+     */
+    static void writeVarLong(final DataOutput out, final long value) throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(final DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    static int readVarInt(final DataInput in) throws IOException {
+        final long value = readVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Variable length integer " + value + " out of range");
+        }
+        return (int) value;
+    }
+
+    private static int varLongSize(final long value) {
+        int size = 1;
+        for (long v = value >>> 7; v != 0; v >>>= 7) {
+            size++;
+        }
+        return size;
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readZigZagInt(final DataInput in) throws IOException {
+        return (int) unZigZag(readVarLong(in));
+    }
+}
@@ -29,8 +29,8 @@ public final class IBaseDataObjectHelper {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(IBaseDataObjectHelper.class);
 
-    private static class InternalIdBaseDataObject extends BaseDataObject {
-        private InternalIdBaseDataObject(final UUID internalId) {
+    static class InternalIdBaseDataObject extends BaseDataObject {
+        InternalIdBaseDataObject(final UUID internalId) {
             this.internalId = internalId;
         }
     }
@@ -74,8 +74,14 @@ public final class IBaseDataObjectHelper {
         }
         bdo.setHistory(iBaseDataObject.getTransformHistory());
         bdo.putParameters(iBaseDataObject.getParameters());
-        for (final Map.Entry<String, byte[]> entry : iBaseDataObject.getAlternateViews().entrySet()) {
-            bdo.addAlternateView(entry.getKey(), entry.getValue());
+        final Map<String, SeekableByteChannelFactory> channelViews = iBaseDataObject.getAlternateViewChannelFactories();
+        for (final String viewName : iBaseDataObject.getAlternateViewNames()) {
+            final SeekableByteChannelFactory viewSbcf = channelViews.get(viewName);
+            if (viewSbcf != null) {
+                bdo.setAlternateViewChannelFactory(viewName, viewSbcf);
+            } else {
+                bdo.addAlternateView(viewName, iBaseDataObject.getAlternateView(viewName));
+            }
         }
         bdo.setPriority(iBaseDataObject.getPriority());
         bdo.setCreationTimestamp(iBaseDataObject.getCreationTimestamp());
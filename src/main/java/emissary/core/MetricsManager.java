@@ -2,6 +2,7 @@ package emissary.core;
 
 import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
+import emissary.pool.FamilyMemoryBudget;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
@@ -130,6 +131,11 @@ public class MetricsManager {
         } else {
             logger.debug("JVM Metrics are disabled");
         }
+
+        if (this.conf.findBooleanEntry("FAMILY_MEMORY_METRICS_ENABLED", true)) {
+            logger.debug("Family memory metrics are enabled");
+            this.metrics.registerAll(FamilyMemoryBudget.getInstance());
+        }
     }
 
     protected void initJmxReporter() {
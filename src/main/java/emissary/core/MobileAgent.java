@@ -9,6 +9,7 @@ import emissary.place.EmptyFormPlace;
 import emissary.place.IServiceProviderPlace;
 import emissary.pool.AgentPool;
 import emissary.pool.AgentThreadGroup;
+import emissary.pool.FamilyMemoryBudget;
 import emissary.util.JMXUtil;
 import emissary.util.PayloadUtil;
 
@@ -18,10 +19,12 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -90,6 +93,14 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
     // Track moveErrors on all parts of a given payload
     protected int moveErrorsOccurred = 0;
 
+    // Family this agent is working on, for memory accounting
+    @Nullable
+    protected transient UUID familyId = null;
+
+    // What the family looked like when it was last estimated, and when
+    protected transient long familySignature = 0;
+    protected transient long familyEstimateTime = 0;
+
     /**
      * Still have an uncaught exception handler but not really in a true ThreadGroup with other agents
      */
@@ -231,6 +242,9 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
         logger.debug("Clearing payload");
         setPayload(null);
         setAgentId(NO_AGENT_ID);
+        this.familyId = null;
+        this.familySignature = 0;
+        this.familyEstimateTime = 0;
         this.moveErrorsOccurred = 0;
         this.nextKeyQueue.clear();
         clearParallelTrackingInfo();
@@ -280,6 +294,7 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
             // between the go() and arrive() methods for details
             if ((loopCount > 1 || getProcessFirstPlace()) && !controlError) {
                 atPlace(currentPlace, mypayload);
+                updateFamilyMemory();
             }
 
             // Choose next place
@@ -395,6 +410,38 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
         }
     }
 
+    /**
+     * Record the current estimated size of the family with the node memory budget
+     */
+    protected void updateFamilyMemory() {
+        final IBaseDataObject p = getPayload();
+        if (p != null) {
+            updateFamilyMemory(Collections.singletonList(p));
+        }
+    }
+
+    /**
+     * Record the estimated size of the family with the node memory budget when the budget is enabled. Estimating walks the
+     * whole family, so it is only done when the data, views, parameter keys or members of the family have changed, or the
+     * last estimate is older than {@link FamilyMemoryBudget#ESTIMATE_REFRESH_MILLIS}.
+     *
+     * @param family the payloads of the family
+     */
+    protected void updateFamilyMemory(final List<IBaseDataObject> family) {
+        final FamilyMemoryBudget budget = FamilyMemoryBudget.getInstance();
+        if (this.familyId == null || !budget.isEnabled()) {
+            return;
+        }
+        final long signature = FamilyMemoryBudget.signature(family);
+        final long now = System.currentTimeMillis();
+        if (signature == this.familySignature && now - this.familyEstimateTime < FamilyMemoryBudget.ESTIMATE_REFRESH_MILLIS) {
+            return;
+        }
+        this.familySignature = signature;
+        this.familyEstimateTime = now;
+        budget.update(this.familyId, FamilyMemoryBudget.estimate(family));
+    }
+
     protected TimedResource resourceWatcherStart(final IServiceProviderPlace place) {
         TimedResource tr = TimedResource.EMPTY;
         // CoordinationPlaces are tracked individually
@@ -412,6 +459,10 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
      * Clean up, idle, and return agent to pool
      */
     protected synchronized void agentReturn() {
+        final FamilyMemoryBudget budget = FamilyMemoryBudget.getInstance();
+        if (budget.isEnabled()) {
+            budget.release(this.familyId);
+        }
         clear();
         setArrivalPlace(null);
         this.lastPlaceProcessed = null;
@@ -685,6 +736,9 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
             setAgentId(d.shortName());
         }
 
+        final IBaseDataObject first = getPayload();
+        this.familyId = first == null ? null : first.getInternalId();
+
         // Likewise...
         if (arrivalPlaceArg != null) {
             setArrivalPlace(arrivalPlaceArg);
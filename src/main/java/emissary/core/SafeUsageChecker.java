@@ -69,13 +69,15 @@ public class SafeUsageChecker {
     }
 
     /**
-     * Stores a new integrity snapshot
+     * Stores a new integrity snapshot, unless the array already has one since the cache was last reset. An array handed
+     * out again keeps the snapshot from when it was first handed out, so changes made to it in between are still detected
+     * and it is not hashed again.
      * 
      * @param bytes byte[] for which a snapshot should be captured
      */
     public void recordSnapshot(final byte[] bytes) {
         if (enabled) {
-            cache.put(bytes, ByteUtil.sha256Bytes(bytes));
+            cache.computeIfAbsent(bytes, ByteUtil::sha256Bytes);
         }
     }
 
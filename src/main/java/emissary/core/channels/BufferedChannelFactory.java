@@ -1,5 +1,7 @@
 package emissary.core.channels;
 
+import emissary.util.io.BufferPool;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 
@@ -104,11 +106,12 @@ public final class BufferedChannelFactory {
         public BufferedSeekableByteChannel(final SeekableByteChannel seekableByteChannel, final int bufferSize) {
             this.seekableByteChannel = seekableByteChannel;
             this.bufferSize = bufferSize;
-            this.buffer = ByteBuffer.allocate(bufferSize);
+            this.buffer = BufferPool.getInstance().acquireHeap(bufferSize);
         }
 
         @Override
         protected void closeImpl() throws IOException {
+            BufferPool.getInstance().release(buffer);
             seekableByteChannel.close();
         }
 
@@ -0,0 +1,87 @@
+package emissary.core.channels;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Provide a {@link ByteBuffer} backed implementation for streaming data to a consumer. The buffer may be a heap buffer,
+ * a direct buffer or a {@link java.nio.MappedByteBuffer}; in all cases no copy of the data is made.
+ */
+public final class ByteBufferChannelFactory {
+    private ByteBufferChannelFactory() {}
+
+    /**
+     * Create a new instance of the factory using the remaining bytes of the provided buffer. The position and limit of the
+     * provided buffer are not modified.
+     * 
+     * @param byteBuffer containing the data to provide to consumers in an immutable manner
+     * @return a new instance
+     */
+    public static SeekableByteChannelFactory create(final ByteBuffer byteBuffer) {
+        return ImmutableChannelFactory.create(new ByteBufferChannelFactoryImpl(byteBuffer));
+    }
+
+    /**
+     * Private class to hide implementation details from callers
+     */
+    private static final class ByteBufferChannelFactoryImpl implements SeekableByteChannelFactory, ByteBufferSource {
+        /**
+         * Read-only slice of the buffer this factory represents.
+         */
+        private final ByteBuffer byteBuffer;
+
+        private ByteBufferChannelFactoryImpl(final ByteBuffer byteBuffer) {
+            Validate.notNull(byteBuffer, "Required: byteBuffer not null");
+
+            this.byteBuffer = byteBuffer.slice().asReadOnlyBuffer();
+        }
+
+        @Override
+        public SeekableByteChannel create() {
+            return new ByteBufferChannel(getByteBuffer());
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return byteBuffer.duplicate();
+        }
+    }
+
+    /**
+     * Channel implementation reading from a private duplicate of the buffer.
+     */
+    private static final class ByteBufferChannel extends AbstractSeekableByteChannel {
+        /**
+         * Duplicate of the backing buffer, so each channel has an independent position.
+         */
+        private final ByteBuffer byteBuffer;
+
+        private ByteBufferChannel(final ByteBuffer byteBuffer) {
+            this.byteBuffer = byteBuffer;
+        }
+
+        @Override
+        protected void closeImpl() {
+            // Nothing to do.
+        }
+
+        @Override
+        protected int readImpl(final ByteBuffer dst) throws IOException {
+            final int start = (int) position();
+            final int bytesToRead = dst.remaining();
+
+            byteBuffer.limit(start + bytesToRead).position(start);
+            dst.put(byteBuffer);
+
+            return bytesToRead;
+        }
+
+        @Override
+        protected long sizeImpl() {
+            return byteBuffer.capacity();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package emissary.core.channels;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by {@link SeekableByteChannelFactory} instances whose data is already resident in a {@link ByteBuffer}
+ * (either a heap array or a memory mapping), allowing consumers to access the bytes without copying them through a
+ * channel.
+ */
+public interface ByteBufferSource {
+
+    /**
+     * Returns a read-only view of all the data. Each call returns a new buffer positioned at zero so callers are free to
+     * change its position and limit.
+     * 
+     * @return a read-only buffer over the data
+     */
+    ByteBuffer getByteBuffer();
+}
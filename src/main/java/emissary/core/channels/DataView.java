@@ -0,0 +1,206 @@
+package emissary.core.channels;
+
+import emissary.util.io.BufferPool;
+
+import jakarta.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Optional;
+
+/**
+ * <p>
+ * Read-only access to data referenced by a {@link SeekableByteChannelFactory} that avoids materialising the whole
+ * payload as a byte array.
+ * </p>
+ * 
+ * <p>
+ * Consumers that only need the start of the data, a particular range, or a single sequential pass should prefer these
+ * methods over {@link emissary.core.IBaseDataObject#data()}.
+ * </p>
+ */
+public final class DataView {
+
+    /** Default size of the chunks handed to a {@link ChunkVisitor} */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /** A view with no data */
+    public static final DataView EMPTY = new DataView(SeekableByteChannelHelper.EMPTY_CHANNEL_FACTORY);
+
+    /**
+     * Callback used when iterating over the data in sequential chunks
+     */
+    @FunctionalInterface
+    public interface ChunkVisitor {
+        /**
+         * Visit the next chunk of data. The buffer is only valid for the duration of the call and must not be retained, as
+         * it may be reused for the following chunk.
+         * 
+         * @param chunk read-only buffer positioned at the start of the chunk
+         * @param position offset of the first byte of the chunk within the data
+         * @return true to continue to the next chunk, false to stop iterating
+         * @throws IOException if the visitor fails
+         */
+        boolean visit(ByteBuffer chunk, long position) throws IOException;
+    }
+
+    private final SeekableByteChannelFactory sbcf;
+
+    private DataView(final SeekableByteChannelFactory sbcf) {
+        this.sbcf = sbcf;
+    }
+
+    /**
+     * Create a view of the data referenced by a channel factory
+     * 
+     * @param sbcf the factory providing the data, or null if there is no data
+     * @return the view, which will be {@link #EMPTY} if sbcf is null
+     */
+    public static DataView of(@Nullable final SeekableByteChannelFactory sbcf) {
+        return sbcf == null ? EMPTY : new DataView(sbcf);
+    }
+
+    /**
+     * The factory backing this view
+     * 
+     * @return the channel factory
+     */
+    public SeekableByteChannelFactory getChannelFactory() {
+        return sbcf;
+    }
+
+    /**
+     * Get the size of the data
+     * 
+     * @return the number of bytes available through this view
+     * @throws IOException if an error occurs with the underlying channel
+     */
+    public long size() throws IOException {
+        final Optional<ByteBuffer> buffer = directBuffer();
+        if (buffer.isPresent()) {
+            return buffer.get().remaining();
+        }
+
+        try (SeekableByteChannel sbc = sbcf.create()) {
+            return sbc.size();
+        }
+    }
+
+    /**
+     * Read the start of the data
+     * 
+     * @param maxLength the maximum number of bytes to read
+     * @return a new array holding up to maxLength bytes from the start of the data
+     * @throws IOException if an error occurs with the underlying channel
+     */
+    public byte[] readPrefix(final int maxLength) throws IOException {
+        return readRange(0, maxLength);
+    }
+
+    /**
+     * Read a range of the data. The range is truncated if it extends beyond the end of the data.
+     * 
+     * @param offset the position of the first byte to read
+     * @param maxLength the maximum number of bytes to read
+     * @return a new array holding up to maxLength bytes starting at offset
+     * @throws IOException if an error occurs with the underlying channel
+     */
+    public byte[] readRange(final long offset, final int maxLength) throws IOException {
+        Validate.isTrue(offset >= 0, "Required: offset >= 0");
+        Validate.isTrue(maxLength >= 0, "Required: maxLength >= 0");
+
+        final Optional<ByteBuffer> direct = directBuffer();
+        if (direct.isPresent()) {
+            final ByteBuffer buffer = direct.get();
+            final int length = (int) Math.max(0, Math.min(maxLength, buffer.remaining() - offset));
+            final byte[] bytes = new byte[length];
+
+            if (length > 0) {
+                buffer.position((int) offset);
+                buffer.get(bytes);
+            }
+            return bytes;
+        }
+
+        try (SeekableByteChannel sbc = sbcf.create()) {
+            final int length = (int) Math.max(0, Math.min(maxLength, sbc.size() - offset));
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+
+            if (length > 0) {
+                sbc.position(offset);
+                IOUtils.readFully(sbc, buffer);
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Iterate over the data in sequential chunks of {@link #DEFAULT_CHUNK_SIZE} bytes
+     * 
+     * @param visitor called for each chunk, in order
+     * @throws IOException if an error occurs with the underlying channel or the visitor
+     * @see #forEachChunk(int, ChunkVisitor)
+     */
+    public void forEachChunk(final ChunkVisitor visitor) throws IOException {
+        forEachChunk(DEFAULT_CHUNK_SIZE, visitor);
+    }
+
+    /**
+     * Iterate over the data in sequential chunks. Every chunk except the last holds exactly chunkSize bytes. When the data
+     * is already held in a buffer the chunks are slices of it, otherwise the data is read through a single channel into a
+     * reused buffer.
+     * 
+     * @param chunkSize the number of bytes in each chunk
+     * @param visitor called for each chunk, in order, until it returns false or the data is exhausted
+     * @throws IOException if an error occurs with the underlying channel or the visitor
+     */
+    public void forEachChunk(final int chunkSize, final ChunkVisitor visitor) throws IOException {
+        Validate.isTrue(chunkSize > 0, "Required: chunkSize > 0");
+        Validate.notNull(visitor, "Required: visitor not null");
+
+        final Optional<ByteBuffer> direct = directBuffer();
+        if (direct.isPresent()) {
+            final ByteBuffer buffer = direct.get();
+            final int size = buffer.remaining();
+
+            for (int position = 0; position < size; position += chunkSize) {
+                buffer.limit(Math.min(size, position + chunkSize)).position(position);
+                if (!visitor.visit(buffer.slice(), position)) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        try (SeekableByteChannel sbc = sbcf.create()) {
+            final long size = sbc.size();
+            final int bufferSize = (int) Math.min(chunkSize, size);
+            final ByteBuffer buffer = BufferPool.getInstance().acquireHeap(bufferSize);
+
+            try {
+                for (long position = 0; position < size; position += buffer.limit()) {
+                    buffer.clear().limit(bufferSize);
+                    IOUtils.read(sbc, buffer);
+                    buffer.flip();
+                    if (!buffer.hasRemaining() || !visitor.visit(buffer.asReadOnlyBuffer(), position)) {
+                        return;
+                    }
+                }
+            } finally {
+                BufferPool.getInstance().release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Get direct, zero-copy access to the data when it is already held in memory (a byte array or a mapped file).
+     * 
+     * @return a read-only buffer over all the data, or empty if the data can only be read through a channel
+     */
+    public Optional<ByteBuffer> directBuffer() {
+        return SeekableByteChannelHelper.byteBuffer(sbcf);
+    }
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.SeekableByteChannel;
+import java.util.Optional;
 
 /**
  * Wrap {@link SeekableByteChannelFactory} objects to make them immutable
@@ -29,6 +30,25 @@ public final class ImmutableChannelFactory {
         return new ImmutableChannelFactoryImpl(sbcf);
     }
 
+    /**
+     * Get a read-only buffer over the data of a factory when the factory, or the factory made immutable by this class, is a
+     * {@link ByteBufferSource}.
+     * 
+     * @param sbcf to get the buffer from
+     * @return a read-only buffer over the data, or empty if the data is not held in a buffer
+     */
+    static Optional<ByteBuffer> getByteBuffer(final SeekableByteChannelFactory sbcf) {
+        SeekableByteChannelFactory source = sbcf;
+        if (source instanceof ImmutableChannelFactoryImpl) {
+            source = ((ImmutableChannelFactoryImpl) source).sbcf;
+        }
+
+        if (source instanceof ByteBufferSource) {
+            return Optional.of(((ByteBufferSource) source).getByteBuffer().asReadOnlyBuffer());
+        }
+        return Optional.empty();
+    }
+
     /**
      * Wraps an existing channel factory in immutability.
      */
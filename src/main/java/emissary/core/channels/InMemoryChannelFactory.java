@@ -3,6 +3,7 @@ package emissary.core.channels;
 import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.apache.commons.lang3.Validate;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 
 /**
@@ -24,7 +25,7 @@ public final class InMemoryChannelFactory {
     /**
      * Private class to hide implementation details from callers
      */
-    private static final class InMemoryChannelFactoryImpl implements SeekableByteChannelFactory {
+    private static final class InMemoryChannelFactoryImpl implements SeekableByteChannelFactory, ByteBufferSource {
         /**
          * The byte array this SeekableByteChannel is to represent.
          */
@@ -46,5 +47,15 @@ public final class InMemoryChannelFactory {
         public SeekableByteChannel create() {
             return new SeekableInMemoryByteChannel(bytes);
         }
+
+        /**
+         * Wrap the existing byte array in a read-only buffer (no copy)
+         * 
+         * @return the read-only buffer
+         */
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
     }
 }
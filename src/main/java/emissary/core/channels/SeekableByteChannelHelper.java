@@ -1,6 +1,7 @@
 package emissary.core.channels;
 
 import emissary.core.IBaseDataObject;
+import emissary.util.io.BufferPool;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
@@ -12,6 +13,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
+import java.util.Optional;
 
 /**
  * Helper methods to handle {@link java.nio.channels.SeekableByteChannel} objects
@@ -55,6 +57,28 @@ public final class SeekableByteChannelHelper {
         return FileChannelFactory.create(path);
     }
 
+    /**
+     * Create a {@link java.nio.ByteBuffer} SBC factory. No copy of the buffer contents is made.
+     * 
+     * @param byteBuffer containing the data, from its position to its limit
+     * @return the factory
+     */
+    public static SeekableByteChannelFactory buffer(final ByteBuffer byteBuffer) {
+        return ByteBufferChannelFactory.create(byteBuffer);
+    }
+
+    /**
+     * Get direct access to the data of a factory when it is already held in memory, either as a byte array or a mapping.
+     * 
+     * @param sbcf to get the data from
+     * @return a read-only buffer over the data, or empty if the data can only be reached through a channel
+     */
+    public static Optional<ByteBuffer> byteBuffer(final SeekableByteChannelFactory sbcf) {
+        Validate.notNull(sbcf, "Required: sbcf not null");
+
+        return ImmutableChannelFactory.getByteBuffer(sbcf);
+    }
+
     /**
      * Create a fill SBC factory.
      * 
@@ -167,12 +191,17 @@ public final class SeekableByteChannelHelper {
             }
             return bytesRead;
         } else {
-            final byte[] internalBuff = new byte[bytesToRead];
-            final int bytesRead = inputStream.read(internalBuff);
-            if (bytesRead > 0) {
-                byteBuffer.put(internalBuff, 0, bytesRead);
+            final int length = Math.min(bytesToRead, BufferPool.DEFAULT_IO_BUFFER_SIZE);
+            final byte[] internalBuff = BufferPool.getInstance().acquireArray(length);
+            try {
+                final int bytesRead = inputStream.read(internalBuff, 0, length);
+                if (bytesRead > 0) {
+                    byteBuffer.put(internalBuff, 0, bytesRead);
+                }
+                return bytesRead;
+            } finally {
+                BufferPool.getInstance().release(internalBuff);
             }
-            return bytesRead;
         }
     }
 }
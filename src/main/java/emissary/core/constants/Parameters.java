@@ -7,6 +7,7 @@ public class Parameters {
     public static final String EVENT_DATE = "EventDate";
     public static final String FILEXT = "FILEXT";
     public static final String FILE_ABSOLUTEPATH = "FILE_ABSOLUTEPATH";
+    public static final String FILE_COMPRESSION = "FILE_COMPRESSION";
     public static final String FILE_DATE = "FILE_DATE";
     public static final String FILE_NAME = "FILE_NAME";
     public static final String INPUT_FILEDATE = "INPUT_FILEDATE";
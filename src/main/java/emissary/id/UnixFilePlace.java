@@ -3,6 +3,7 @@ package emissary.id;
 import emissary.config.Configurator;
 import emissary.core.Form;
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.DataView;
 import emissary.util.UnixFile;
 
 import jakarta.annotation.Nullable;
@@ -30,6 +31,11 @@ public class UnixFilePlace extends IdPlace {
     protected Set<String> chopAtTwo = new HashSet<>();
     protected Map<String, Integer> minSizeMap = new HashMap<>();
 
+    /**
+     * Number of leading bytes of the data examined by the magic rules
+     */
+    protected int sampleLength = 0;
+
     /**
      * The {@link UnixFile} instance
      */
@@ -80,6 +86,7 @@ public class UnixFilePlace extends IdPlace {
         this.unixFileUtil = new UnixFile(magicPaths, this.swallowIgnorableExceptions);
         logger.debug(
                 "Created unixFile with {} magic files containing {} magic rules", magicPaths.size(), this.unixFileUtil.magicEntryCount());
+        this.sampleLength = this.unixFileUtil.getSampleLength();
 
         this.chop = configG.findBooleanEntry("CHOP", this.chop);
         this.chopAtTwo = configG.findEntriesAsSet("CHOP_AT_TWO");
@@ -102,16 +109,26 @@ public class UnixFilePlace extends IdPlace {
      */
     @Override
     public void process(final IBaseDataObject d) {
-        final byte[] bytes = d.data();
+        final DataView view = d.dataView();
+        final long size;
+        try {
+            size = view.size();
+        } catch (IOException e) {
+            logger.error("Could not read data from {}", d.shortName(), e);
+            d.addProcessingError(e.getMessage());
+            return;
+        }
 
         // Bail out on empty data
-        if (bytes == null || bytes.length == 0) {
+        if (size == 0) {
             d.setCurrentForm(Form.EMPTY);
             d.setFileType(Form.EMPTY);
             return;
         }
 
         try {
+            // Only the prefix the magic rules can reach is needed
+            final byte[] bytes = view.readPrefix(this.sampleLength);
             String currentForm = this.unixFileUtil.evaluateByMagicNumber(bytes);
             if (currentForm != null && !currentForm.isEmpty()) {
                 if (this.chop && currentForm.indexOf(" ") > 0) {
@@ -137,10 +154,10 @@ public class UnixFilePlace extends IdPlace {
                     currentForm = currentForm.replace("", "_");
                 }
 
-                if (this.minSizeMap.containsKey(currentForm) && (bytes.length < this.minSizeMap.get(currentForm))) {
+                if (this.minSizeMap.containsKey(currentForm) && (size < this.minSizeMap.get(currentForm))) {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Type {} does not meet min size requirement {} < {}", currentForm, this.minSizeMap.get(currentForm),
-                                bytes.length);
+                                size);
                     }
                 } else {
                     d.setCurrentForm(currentForm);
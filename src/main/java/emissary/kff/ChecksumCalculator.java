@@ -1,25 +1,41 @@
 package emissary.kff;
 
 import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.util.io.BufferPool;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import jakarta.annotation.Nullable;
 import org.apache.commons.collections4.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 
 /**
  * <p>
  * ChecksumCalculator is a utility class which computes SHA-1 and CRC32 checksums for use with a {@link KffChain} to
  * support document similarity analysis. It can also be configured to compute various other message digests or SSDEEP
- * hashes over the same data.
+ * hashes over the same data, and to split the data into content-defined chunks with a {@link ChunkHasher} so that known
+ * parts of it can be recognized. Data that makes only one chunk gets none.
  * </p>
  * <p>
  * NOTE: This class is to support Kff ONLY. It is not meant to provide cryptographically secure hashes or checksums.
@@ -30,16 +46,42 @@ import java.util.zip.CRC32;
  * @see java.security.MessageDigest java.security.MessageDigest
  */
 class ChecksumCalculator {
+    private static final Logger logger = LoggerFactory.getLogger(ChecksumCalculator.class);
+
+    /** Size of the chunks data is read in and handed to each hasher */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    /** Number of chunks that may be in use by the hashers at once when hashing in parallel */
+    static final int CHUNKS_IN_FLIGHT = 4;
+
+    /** Default size of data from which the hashers run in parallel */
+    static final long DEFAULT_PARALLEL_THRESHOLD = 16L * 1024 * 1024;
+
+    /** Number of threads shared by every calculator to run hashers in parallel */
+    static final int HASH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** Hash threads not taken by a digest, which gets all it asks for or hashes in turn */
+    static final Semaphore hashThreads = new Semaphore(HASH_THREADS);
+
+    /** Shared by every calculator to run hashers in parallel, created on first use */
+    @Nullable
+    private static ExecutorService hashExecutor = null;
+
     /** Used for CRC32 calculations */
     @Nullable
     private CRC32 crc = null;
     /** Used for SSDEEP calculations */
     @Nullable
     private Ssdeep ssdeep = null;
+    /** Whether to hash content-defined chunks */
+    private boolean useChunks = false;
 
     /** Used for hash calculations */
     private final List<MessageDigest> digest = new ArrayList<>();
 
+    /** Size of data from which the hashers run in parallel */
+    private long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
     /**
      * Constructor initializes SHA-1 generator and turns on the CRC32 processing as well
      * 
@@ -76,6 +118,8 @@ class ChecksumCalculator {
                     setUseCrc(true);
                 } else if (alg.equals("SSDEEP")) {
                     setUseSsdeep(true);
+                } else if (alg.equals("CHUNKS")) {
+                    setUseChunks(true);
                 } else {
                     digest.add(MessageDigest.getInstance(alg));
                 }
@@ -96,6 +140,8 @@ class ChecksumCalculator {
                     setUseCrc(true);
                 } else if (alg.equals("SSDEEP")) {
                     setUseSsdeep(true);
+                } else if (alg.equals("CHUNKS")) {
+                    setUseChunks(true);
                 } else {
                     digest.add(MessageDigest.getInstance(alg));
                 }
@@ -144,6 +190,22 @@ class ChecksumCalculator {
         }
     }
 
+    /**
+     * Determine if we are hashing content-defined chunks
+     */
+    public boolean getUseChunks() {
+        return useChunks;
+    }
+
+    /**
+     * Turn on or off content-defined chunk hashing
+     *
+     * @param use true if chunk hashing is desired
+     */
+    public void setUseChunks(boolean use) {
+        useChunks = use;
+    }
+
     /**
      * Calculates a CRC32 and a digest on a byte array.
      * 
@@ -173,53 +235,345 @@ class ChecksumCalculator {
             res.setSsdeep(ssdeep.fuzzyHash(buffer));
         }
 
+        if (useChunks) {
+            setChunks(res, ChunkHasher.chunk(buffer));
+        }
+
         return res;
     }
 
     /**
      * Calculates a CRC32 and a digest on a {@link java.nio.channels.SeekableByteChannel} of data.
      *
+     * <p>
+     * The data is read once, in large chunks that are handed to every hasher in turn. Data larger than the
+     * {@link #setParallelThreshold(long) parallel threshold} has the hashers share out up to {@link #HASH_THREADS} threads,
+     * each working through the same chunks as they are read, when those threads are free. Otherwise it is hashed in turn on
+     * the calling thread. Either way the results are the same as for {@link #digest(byte[])} of the same
+     * bytes. If the data cannot be read, no results are set for it.
+     * </p>
+     *
      * @param sbcf Provider of data to compute results for
      * @return results of computing the requested hashes on the data
      */
     public ChecksumResults digest(final SeekableByteChannelFactory sbcf) {
         final ChecksumResults res = new ChecksumResults();
-        final byte[] b = new byte[1024];
 
+        try (SeekableByteChannel sbc = sbcf.create()) {
+            final long size = sbc.size();
+            final List<Hasher> hashers = hashers(size);
+            if (hashers.isEmpty()) {
+                return res;
+            }
+            final boolean complete;
+            final int threads = Math.min(hashers.size(), HASH_THREADS);
+            if (threads > 1 && size >= parallelThreshold && hashThreads.tryAcquire(threads)) {
+                try {
+                    complete = digestInParallel(sbc, share(hashers, threads));
+                } finally {
+                    hashThreads.release(threads);
+                }
+            } else {
+                complete = digestInTurn(sbc, hashers);
+            }
+            if (complete) {
+                for (final Hasher hasher : hashers) {
+                    hasher.finish(res);
+                }
+            }
+        } catch (final IOException e) {
+            logger.debug("Unable to read data to digest", e);
+        }
+
+        return res;
+    }
+
+    /**
+     * Set the size of data from which the hashers are run in parallel
+     *
+     * @param parallelThreshold the number of bytes, or {@link Long#MAX_VALUE} to always hash on the calling thread
+     */
+    public void setParallelThreshold(final long parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Get the size of data from which the hashers are run in parallel
+     */
+    public long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Something that hashes the data a chunk at a time and adds its result
+     */
+    private interface Hasher {
+        void update(byte[] buffer, int length);
+
+        void finish(ChecksumResults res);
+    }
+
+    private List<Hasher> hashers(final long size) {
+        final List<Hasher> hashers = new ArrayList<>();
         for (final MessageDigest d : digest) {
-            try (InputStream is = Channels.newInputStream(sbcf.create())) {
-                d.reset();
+            d.reset();
+            hashers.add(new Hasher() {
+                @Override
+                public void update(final byte[] buffer, final int length) {
+                    d.update(buffer, 0, length);
+                }
 
-                int bytesRead;
-                while ((bytesRead = is.read(b)) != -1) {
-                    d.update(b, 0, bytesRead);
+                @Override
+                public void finish(final ChecksumResults res) {
+                    res.setHash(d.getAlgorithm(), d.digest());
+                }
+            });
+        }
+        final CRC32 c = crc;
+        if (c != null) {
+            c.reset();
+            hashers.add(new Hasher() {
+                @Override
+                public void update(final byte[] buffer, final int length) {
+                    c.update(buffer, 0, length);
                 }
 
-                res.setHash(d.getAlgorithm(), d.digest());
-            } catch (final IOException ignored) {
-                // Ignore
-            }
+                @Override
+                public void finish(final ChecksumResults res) {
+                    res.setCrc(c.getValue());
+                }
+            });
         }
+        if (ssdeep != null) {
+            final Ssdeep.Hasher s = new Ssdeep.Hasher(size);
+            hashers.add(new Hasher() {
+                @Override
+                public void update(final byte[] buffer, final int length) {
+                    s.update(buffer, 0, length);
+                }
 
-        if (crc != null) {
-            try (InputStream is = Channels.newInputStream(sbcf.create())) {
-                crc.reset();
+                @Override
+                public void finish(final ChecksumResults res) {
+                    res.setSsdeep(s.finish());
+                }
+            });
+        }
+        if (useChunks) {
+            final ChunkHasher chunker = new ChunkHasher();
+            hashers.add(new Hasher() {
+                @Override
+                public void update(final byte[] buffer, final int length) {
+                    chunker.update(buffer, 0, length);
+                }
 
-                int bytesRead;
-                while ((bytesRead = is.read(b)) != -1) {
-                    crc.update(b, 0, bytesRead);
+                @Override
+                public void finish(final ChecksumResults res) {
+                    setChunks(res, chunker.finish());
                 }
+            });
+        }
+        return hashers;
+    }
 
-                res.setCrc(crc.getValue());
-            } catch (final IOException ignored) {
-                // Ignore
+    /**
+     * Share the hashers out between a number of hashers that each update theirs in turn
+     */
+    private static List<Hasher> share(final List<Hasher> hashers, final int count) {
+        if (hashers.size() <= count) {
+            return hashers;
+        }
+        final List<List<Hasher>> groups = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (int i = 0; i < hashers.size(); i++) {
+            groups.get(i % count).add(hashers.get(i));
+        }
+        final List<Hasher> shared = new ArrayList<>(count);
+        for (final List<Hasher> group : groups) {
+            shared.add(new Hasher() {
+                @Override
+                public void update(final byte[] buffer, final int length) {
+                    for (final Hasher hasher : group) {
+                        hasher.update(buffer, length);
+                    }
+                }
+
+                @Override
+                public void finish(final ChecksumResults res) {
+                    for (final Hasher hasher : group) {
+                        hasher.finish(res);
+                    }
+                }
+            });
+        }
+        return shared;
+    }
+
+    /**
+     * Keep the chunks if there is more than one, a single chunk being the whole of the data
+     */
+    private static void setChunks(final ChecksumResults res, final List<ChunkHasher.Chunk> chunks) {
+        if (chunks.size() > 1) {
+            res.setChunks(chunks);
+        }
+    }
+
+    /**
+     * Read a chunk, filling the buffer unless the end of the data is reached
+     *
+     * @return the number of bytes read, 0 at the end of the data
+     */
+    private static int read(final SeekableByteChannel sbc, final byte[] buffer) throws IOException {
+        final ByteBuffer bb = ByteBuffer.wrap(buffer);
+        while (bb.hasRemaining() && sbc.read(bb) >= 0) {
+            // keep filling
+        }
+        return bb.position();
+    }
+
+    private static boolean digestInTurn(final SeekableByteChannel sbc, final List<Hasher> hashers) throws IOException {
+        final byte[] b = BufferPool.getInstance().acquireArray(CHUNK_SIZE);
+        try {
+            int bytesRead;
+            while ((bytesRead = read(sbc, b)) > 0) {
+                for (final Hasher hasher : hashers) {
+                    hasher.update(b, bytesRead);
+                }
             }
+        } finally {
+            BufferPool.getInstance().release(b);
         }
+        return true;
+    }
 
-        if (ssdeep != null) {
-            res.setSsdeep(ssdeep.fuzzyHash(sbcf));
+    /**
+     * A chunk of the data handed to the hashers, returned for reuse once all of them are done with it
+     */
+    private static final class Chunk {
+        final byte[] buffer;
+        final int length;
+        final AtomicInteger remaining;
+
+        Chunk(final byte[] buffer, final int length, final int hashers) {
+            this.buffer = buffer;
+            this.length = length;
+            this.remaining = new AtomicInteger(hashers);
         }
+    }
 
-        return res;
+    private static boolean digestInParallel(final SeekableByteChannel sbc, final List<Hasher> hashers) throws IOException {
+        // Enough chunks that the faster hashers can run ahead of the slowest
+        final int chunkCount = CHUNKS_IN_FLIGHT;
+        final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(chunkCount);
+        final List<byte[]> buffers = new ArrayList<>(chunkCount);
+        final List<BlockingQueue<Chunk>> queues = new ArrayList<>(hashers.size());
+        final List<Future<?>> tasks = new ArrayList<>(hashers.size());
+        final AtomicBoolean failed = new AtomicBoolean();
+        final Chunk end = new Chunk(new byte[0], -1, 0);
+        Throwable hashFailure = null;
+
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                final byte[] b = BufferPool.getInstance().acquireArray(CHUNK_SIZE);
+                buffers.add(b);
+                free.add(b);
+            }
+            for (final Hasher hasher : hashers) {
+                final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(chunkCount + 1);
+                queues.add(queue);
+                tasks.add(getHashExecutor().submit(() -> {
+                    hash(hasher, queue, free, failed);
+                    return null;
+                }));
+            }
+
+            boolean readAll = false;
+            try {
+                while (!failed.get()) {
+                    final byte[] b = free.take();
+                    final int bytesRead = read(sbc, b);
+                    if (bytesRead == 0) {
+                        break;
+                    }
+                    final Chunk chunk = new Chunk(b, bytesRead, hashers.size());
+                    for (final BlockingQueue<Chunk> queue : queues) {
+                        queue.put(chunk);
+                    }
+                }
+                readAll = true;
+            } finally {
+                if (!readAll) {
+                    // the hashers skip the chunks still queued on a read failure or interrupt
+                    failed.set(true);
+                }
+                for (final BlockingQueue<Chunk> queue : queues) {
+                    queue.offer(end);
+                }
+            }
+        } catch (final InterruptedException e) {
+            failed.set(true);
+            Thread.currentThread().interrupt();
+        } finally {
+            // every hasher reaches the end marker, and the buffers go back to the pool only once none can still be read
+            for (final Future<?> task : tasks) {
+                try {
+                    Uninterruptibles.getUninterruptibly(task);
+                } catch (final ExecutionException e) {
+                    failed.set(true);
+                    if (hashFailure == null) {
+                        hashFailure = e.getCause();
+                    }
+                }
+            }
+            for (final byte[] b : buffers) {
+                BufferPool.getInstance().release(b);
+            }
+        }
+        if (hashFailure != null) {
+            throw new IllegalStateException("Hashing failed", hashFailure);
+        }
+        return !failed.get();
+    }
+
+    /**
+     * Hash each chunk handed over until the end is reached, returning each chunk for reuse once every hasher is done
+     */
+    private static void hash(final Hasher hasher, final BlockingQueue<Chunk> queue, final BlockingQueue<byte[]> free, final AtomicBoolean failed)
+            throws InterruptedException {
+        while (true) {
+            final Chunk chunk = queue.take();
+            if (chunk.length < 0) {
+                return;
+            }
+            try {
+                if (!failed.get()) {
+                    hasher.update(chunk.buffer, chunk.length);
+                }
+            } catch (final RuntimeException e) {
+                // keep taking chunks so the reader is never left waiting
+                failed.set(true);
+                logger.warn("Hashing failed", e);
+            } finally {
+                if (chunk.remaining.decrementAndGet() == 0) {
+                    free.add(chunk.buffer);
+                }
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getHashExecutor() {
+        if (hashExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(HASH_THREADS, HASH_THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        final Thread thread = new Thread(r, "Checksum Hasher " + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            hashExecutor = executor;
+        }
+        return hashExecutor;
     }
 }
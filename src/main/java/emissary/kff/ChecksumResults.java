@@ -5,6 +5,7 @@ import emissary.util.Hexl;
 import jakarta.annotation.Nullable;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -21,6 +22,8 @@ public class ChecksumResults implements Serializable {
     private long crc = -1L;
     @Nullable
     private String ssdeep = null;
+    @Nullable
+    private List<ChunkHasher.Chunk> chunks = null;
     Map<String, byte[]> hashComp = new TreeMap<>();
 
     /**
@@ -61,6 +64,26 @@ public class ChecksumResults implements Serializable {
         this.ssdeep = ssdeep;
     }
 
+    /**
+     * Gets the content-defined chunks of the data and their hashes
+     *
+     * @see #getHashString(String)
+     * @return the chunks in order, or null if the data was not chunked
+     */
+    @Nullable
+    public List<ChunkHasher.Chunk> getChunks() {
+        return this.chunks;
+    }
+
+    /**
+     * Sets the content-defined chunks of the data and their hashes
+     *
+     * @param chunks the chunks in order
+     */
+    public void setChunks(@Nullable List<ChunkHasher.Chunk> chunks) {
+        this.chunks = chunks;
+    }
+
     /**
      * Gets the value of requested computation
      *
@@ -74,6 +97,9 @@ public class ChecksumResults implements Serializable {
         if ("SSDEEP".equals(alg) && ssdeep != null) {
             return ssdeep.getBytes();
         }
+        if ("CHUNKS".equals(alg) && chunks != null) {
+            return ChunkHasher.format(chunks).getBytes();
+        }
         return hashComp.get(alg);
     }
 
@@ -93,6 +119,9 @@ public class ChecksumResults implements Serializable {
             if ("SSDEEP".equals(alg) && ssdeep != null) {
                 return ssdeep;
             }
+            if ("CHUNKS".equals(alg) && chunks != null) {
+                return ChunkHasher.format(chunks);
+            }
             return null;
         }
 
@@ -122,6 +151,9 @@ public class ChecksumResults implements Serializable {
         if (ssdeep != null) {
             set.add("SSDEEP");
         }
+        if (chunks != null) {
+            set.add("CHUNKS");
+        }
         return set;
     }
 }
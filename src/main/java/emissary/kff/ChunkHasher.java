@@ -0,0 +1,277 @@
+package emissary.kff;
+
+import emissary.util.Hexl;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Splits data into content-defined chunks, FastCDC style, and hashes each chunk, so that data differing from known data
+ * in only a few places can be recognized chunk by chunk. A chunk ends where a gear hash over the preceding bytes has
+ * enough zero bits, so an insertion or deletion only changes the chunks around it and the chunks after it line up again.
+ * </p>
+ * <p>
+ * Nothing is cut before the minimum chunk size, and the gear hash is not even computed there. Up to the average size the
+ * hash must have two more zero bits than the average calls for, after it two fewer, which keeps most chunks near the
+ * average, and a chunk is always cut at the maximum size.
+ * </p>
+ * <p>
+ * The chunk boundaries depend on the gear table and the sizes, so neither may change without making every stored chunk
+ * hash unknown.
+ * </p>
+ */
+public final class ChunkHasher {
+
+    /** Algorithm of the chunk hashes, matching the default of {@link KffFile} */
+    public static final String ALGORITHM = "SHA-1";
+
+    /** Length in bytes of the chunk hashes, and so of the records of a file of known chunks */
+    public static final int HASH_LENGTH = 20;
+
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    public static final int DEFAULT_AVERAGE_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    /** Random values added into the gear hash for each byte, from a fixed seed so they never change */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x454d495353415259L;
+        for (int i = 0; i < GEAR.length; i++) {
+            // SplitMix64
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+
+    /**
+     * Bits that must all be zero to cut before and after the average size. The hash shifts left a bit a byte, so its top
+     * bits depend on the last 64 bytes.
+     */
+    private final long smallMask;
+    private final long largeMask;
+
+    private final MessageDigest digest;
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    /** Offset of the current chunk */
+    private long offset = 0;
+    /** Bytes of the current chunk so far */
+    private int length = 0;
+    private long fingerprint = 0;
+
+    /**
+     * Create a hasher with the default chunk sizes
+     */
+    public ChunkHasher() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a hasher with other chunk sizes, whose hashes will only match those from the same sizes
+     *
+     * @param minSize the smallest chunk but the last
+     * @param averageSize the size chunks are cut around, a power of two
+     * @param maxSize the largest chunk
+     */
+    public ChunkHasher(int minSize, int averageSize, int maxSize) {
+        Validate.isTrue(Integer.bitCount(averageSize) == 1 && averageSize >= 256, "Average chunk size must be a power of two of at least 256");
+        Validate.isTrue(minSize > 0 && minSize < averageSize && averageSize < maxSize, "Chunk sizes must be increasing");
+        this.minSize = minSize;
+        this.averageSize = averageSize;
+        this.maxSize = maxSize;
+        final int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.smallMask = -1L << (Long.SIZE - bits - 2);
+        this.largeMask = -1L << (Long.SIZE - bits + 2);
+        try {
+            this.digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Split data into chunks and hash them with the default chunk sizes
+     *
+     * @param data the data
+     * @return the chunks in order, none for no data
+     */
+    public static List<Chunk> chunk(byte[] data) {
+        final ChunkHasher hasher = new ChunkHasher();
+        hasher.update(data, 0, data.length);
+        return hasher.finish();
+    }
+
+    /**
+     * Hash the next piece of the data
+     *
+     * @param buffer holds the data
+     * @param offset where the data starts in the buffer
+     * @param length the number of bytes of data
+     */
+    public void update(byte[] buffer, int offset, int length) {
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            final int cut = cutPoint(buffer, i, end);
+            final int stop = cut < 0 ? end : cut;
+            digest.update(buffer, i, stop - i);
+            if (cut >= 0) {
+                endChunk();
+            }
+            i = stop;
+        }
+    }
+
+    /**
+     * End the last chunk and get them all
+     *
+     * @return the chunks in order, none if there was no data
+     */
+    public List<Chunk> finish() {
+        if (length > 0) {
+            endChunk();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(chunks));
+    }
+
+    /**
+     * Find where the current chunk ends, counting the bytes up to there or to the end of the buffer into it
+     *
+     * @return the index just past the end of the chunk, or -1 if it does not end in the buffer
+     */
+    private int cutPoint(final byte[] buffer, final int from, final int end) {
+        int i = from;
+        if (length < minSize) {
+            final int skip = minSize - length;
+            if (end - i <= skip) {
+                length += end - i;
+                return -1;
+            }
+            i += skip;
+        }
+        long h = fingerprint;
+        final int smallEnd = (int) Math.min(end, i + Math.max(0L, (long) averageSize - length - (i - from)));
+        while (i < smallEnd) {
+            h = (h << 1) + GEAR[buffer[i++] & 0xff];
+            if ((h & smallMask) == 0) {
+                length += i - from;
+                return i;
+            }
+        }
+        final int largeEnd = (int) Math.min(end, i + ((long) maxSize - length - (i - from)));
+        while (i < largeEnd) {
+            h = (h << 1) + GEAR[buffer[i++] & 0xff];
+            if ((h & largeMask) == 0) {
+                length += i - from;
+                return i;
+            }
+        }
+        length += i - from;
+        if (length == maxSize) {
+            return i;
+        }
+        fingerprint = h;
+        return -1;
+    }
+
+    private void endChunk() {
+        chunks.add(new Chunk(offset, length, digest.digest()));
+        offset += length;
+        length = 0;
+        fingerprint = 0;
+    }
+
+    /**
+     * Write chunks as their lengths and hashes in hex, each joined by a colon and separated by commas
+     *
+     * @param chunks the chunks in order
+     * @return the chunks as text
+     */
+    public static String format(List<Chunk> chunks) {
+        final StringBuilder sb = new StringBuilder(chunks.size() * (HASH_LENGTH * 2 + 8));
+        for (Chunk chunk : chunks) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(chunk.getLength()).append(':').append(Hexl.toUnformattedHexString(chunk.getHash()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read chunks written by {@link #format(List)}
+     *
+     * @param formatted the chunks as text
+     * @return the chunks in order
+     * @throws IllegalArgumentException if the text is not chunks
+     */
+    public static List<Chunk> parse(String formatted) {
+        final List<Chunk> parsed = new ArrayList<>();
+        if (formatted.isEmpty()) {
+            return parsed;
+        }
+        long offset = 0;
+        for (String chunk : formatted.split(",")) {
+            final int colon = chunk.indexOf(':');
+            Validate.isTrue(colon > 0 && chunk.length() - colon - 1 == HASH_LENGTH * 2, "Not a chunk: %s", chunk);
+            final int length = Integer.parseInt(chunk.substring(0, colon));
+            final byte[] hash = new byte[HASH_LENGTH];
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                hash[i] = (byte) Integer.parseInt(chunk.substring(colon + 1 + 2 * i, colon + 3 + 2 * i), 16);
+            }
+            parsed.add(new Chunk(offset, length, hash));
+            offset += length;
+        }
+        return parsed;
+    }
+
+    /**
+     * A range of the data and its hash
+     */
+    public static final class Chunk implements Serializable {
+        private static final long serialVersionUID = 4279610536187260935L;
+
+        private final long offset;
+        private final int length;
+        private final byte[] hash;
+
+        Chunk(long offset, int length, byte[] hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        /** Where the chunk starts in the data */
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /** Where the chunk ends in the data, exclusive */
+        public long getEnd() {
+            return offset + length;
+        }
+
+        public byte[] getHash() {
+            return hash.clone();
+        }
+    }
+}
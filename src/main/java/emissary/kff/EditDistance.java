@@ -8,8 +8,13 @@ import jakarta.annotation.Nullable;
  * https://opensourceprojects.eu/p/triplecheck/code/23/tree/tool/src/ssdeep/
  * 
  * A new ssdeep hash gets calculated and saved at each level of unwrapping.
+ *
+ * Changing a character costs more than deleting it and inserting another, and swapping two costs more than deleting
+ * and inserting both, so the distance is the number of characters in one string or the other but not in their longest
+ * common subsequence. For strings that fit in a long that subsequence is found a column at a time with bit operations
+ * (Hyyr&ouml;, "Bit-Parallel LCS-length Computation Revisited"), and longer strings use the dynamic programming below.
+ * Nothing is shared between calls except per-thread scratch space, so any number of threads can compare at once.
  */
-@SuppressWarnings("NonFinalStaticField")
 public class EditDistance {
     /*
      * This edit distance code is taken from trn3.6. A few minor modifications have been made by Andrew Tridgell
@@ -48,144 +53,85 @@ public class EditDistance {
      * terminate if the edit distance is known to exceed MIN_DIST
      */
 
-    private static final int THRESHOLD = 4000; /*
-                                                * worry about allocating more memory only when this # of bytes is exceeded
-                                                */
+    private static final int INSERT_COST = 1;
+    private static final int DELETE_COST = 1;
+    private static final int CHANGE_COST = 3;
+    private static final int SWAP_COST = 5;
 
-    private static final int STRLENTHRESHOLD = (THRESHOLD / (Integer.SIZE / 8) - 3) / 2;
+    /** The longest strings compared a column at a time */
+    static final int MAX_BIT_PARALLEL_LENGTH = Long.SIZE;
 
-    // #define SAFE_ASSIGN(x,y) (((x) != NULL) ? (*(x) = (y)) : (y))
-
-    // #define swap_int(x,y) (_iswap = (x), (x) = (y), (y) = _iswap)
-    private static void swapInt(int[] x, int[] y) {
-        int iswap = x[0];
-        x[0] = y[0];
-        y[0] = iswap;
-    }
-
-    // #define swap_char(x,y) (_cswap = (x), (x) = (y), (y) = _cswap)
-    private static void swapChar(/* ref */byte[][] x, /* ref */byte[][] y) {
-        byte[] cswap = x[0];
-        x[0] = y[0];
-        y[0] = cswap;
-    }
-
-    // #define min3(x,y,z) (_mx = (x), _my = (y), _mz = (z), (_mx < _my ? (_mx < _mz ? _mx : _mz) : (_mz < _my) ? _mz :
-    // _my))
-    private static int min3(int x, int y, int z) {
-        int mx = x;
-        int my = y;
-        int mz = z;
-        return mx < my ? (mx < mz ? mx : mz) : (mz < my) ? mz : my;
-    }
-
-    // #define min2(x,y) (_mx = (x), _my = (y), (_mx < _my ? _mx : _my))
-    private static int min2(int x, int y) {
-        int mx = x;
-        int my = y;
-        return mx < my ? mx : my;
-    }
-
-    static int insertCost = 1;
-    static int deleteCost = 1;
-
-    // dynamic programming counters
-    static int row;
-    static int col;
-    static int index = 0;
-    static int radix; // radix for modular indexing
-    static int low;
-    static int[] buffer; /*
-                          * pointer to storage for one row of the d.p. array
-                          */
-
-    static int[] store = new int[THRESHOLD / (Integer.SIZE / 8)];
-    /*
-     * a small amount of static storage, to be used when the input strings are small enough
+    /**
+     * Work space reused by the calls on one thread
      */
+    private static final class Scratch {
+        /** For each byte value, a bit set for each position it appears at, all clear between calls */
+        final long[] matches = new long[256];
 
-    /* Handle trivial cases when one string is empty */
-
-    static int ins = 1;
-    static int del = 1;
-    static int ch = 3;
-    static int swapCost = 5;
-
-    static int fromLen;
-    static int toLen;
-
-    private static int ar(int x, int y, int index) {
-        return (x == 0) ? y * del : (y == 0) ? x * ins : buffer[mod(index)];
-    }
-
-    private static int nw(int x, int y) {
-        return ar(x, y, index + fromLen + 2);
-    }
-
-    private static int n(int x, int y) {
-        return ar(x, y, index + fromLen + 3);
+        /** The last three rows of the dynamic programming */
+        int[] rows = new int[0];
     }
 
-    private static int w(int x, int y) {
-        return ar(x, y, index + radix - 1);
-    }
-
-    private static int nnww(int x, int y) {
-        return ar(x, y, index + 1);
-    }
-
-    private static int mod(int x) {
-        return x % radix;
-    }
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
 
     /*
-     * returns the edit distance between two strings, or -1 on failure
+     * returns the edit distance between two strings
      */
     public static int calculateEditDistance(@Nullable byte[] from, int fromLen, @Nullable byte[] to, int toLen) {
-        EditDistance.fromLen = fromLen;
-        EditDistance.toLen = toLen;
-
         if (from == null) {
             if (to == null) {
                 return 0;
             } else {
-                return EditDistance.toLen * insertCost;
+                return toLen * INSERT_COST;
             }
         } else if (to == null) {
-            return EditDistance.fromLen * deleteCost;
+            return fromLen * DELETE_COST;
         }
 
-        /* Initialize registers */
-
-        radix = 2 * EditDistance.fromLen + 3;
-
-        /* Make from short enough to fit in the static storage, if it's at all possible */
-
-        if (EditDistance.fromLen > EditDistance.toLen && EditDistance.fromLen > STRLENTHRESHOLD) {
-            int[] x = new int[1];
-            int[] y = new int[1];
-            x[0] = EditDistance.fromLen;
-            y[0] = EditDistance.toLen;
-            swapInt(x, y);
-            byte[][] xx = new byte[1][];
-            byte[][] yy = new byte[1][];
-            xx[0] = from;
-            yy[0] = to;
-            swapChar(xx, yy);
-        } // if from_len > to_len
+        /* Handle trivial cases when one string is empty */
+        if (fromLen == 0) {
+            return toLen * INSERT_COST;
+        } else if (toLen == 0) {
+            return fromLen * DELETE_COST;
+        }
 
-        /* Allocate the array storage (from the heap if necessary) */
+        if (fromLen <= MAX_BIT_PARALLEL_LENGTH && toLen <= MAX_BIT_PARALLEL_LENGTH) {
+            // no row of the matrix can be all above MIN_DIST, so the whole distance is always wanted
+            final int common = lcsLength(from, fromLen, to, toLen);
+            return (fromLen - common) * DELETE_COST + (toLen - common) * INSERT_COST;
+        }
+        return dynamicProgramming(from, fromLen, to, toLen);
+    }
 
-        if (EditDistance.fromLen <= STRLENTHRESHOLD) {
-            buffer = store;
-        } else {
-            buffer = new int[radix];
+    /**
+     * Find the length of the longest common subsequence of two strings, the first of at most 64 bytes
+     */
+    private static int lcsLength(byte[] from, int fromLen, byte[] to, int toLen) {
+        final long[] matches = scratch.get().matches;
+        for (int i = 0; i < fromLen; i++) {
+            matches[from[i] & 0xff] |= 1L << i;
+        }
+        // a clear bit for each position of from used in the subsequence so far
+        long v = -1L;
+        for (int j = 0; j < toLen; j++) {
+            final long u = v & matches[to[j] & 0xff];
+            v = (v + u) | (v - u);
+        }
+        for (int i = 0; i < fromLen; i++) {
+            matches[from[i] & 0xff] = 0;
         }
+        final long used = fromLen == Long.SIZE ? ~v : ~v & ((1L << fromLen) - 1);
+        return Long.bitCount(used);
+    }
 
+    /**
+     * Find the edit distance by dynamic programming, giving up once it is known to exceed MIN_DIST
+     */
+    static int dynamicProgramming(byte[] from, int fromLen, byte[] to, int toLen) {
         /*
          * Here's where the fun begins. We will find the minimum edit distance using dynamic programming. We only need to store
-         * two rows of the matrix at a time, since we always progress down the matrix. For example, given the strings "one" and
-         * "two", and insert, delete and change costs equal to 1:
+         * three rows of the matrix at a time, since we always progress down the matrix. For example, given the strings "one"
+         * and "two", and insert, delete and change costs equal to 1:
          * 
          * _ o n e _ 0 1 2 3 t 1 1 2 3 w 2 2 2 3 o 3 2 3 3
          * 
@@ -194,57 +140,41 @@ public class EditDistance {
          * ar(x,0) := x * insert_cost ar(0,y) := y * delete_cost ar(x,y) := min(a(x - 1, y - 1) + (from[x] == to[y] ? 0 :
          * change), a(x - 1, y) + insert_cost, a(x, y - 1) + delete_cost, a(x - 2, y - 2) + (from[x] == to[y-1] && from[x-1] ==
          * to[y] ? swap_cost : infinity))
-         * 
-         * Since this only looks at most two rows and three columns back, we need only store the values for the two preceeding
-         * rows. In this implementation, we do not explicitly store the zero column, so only 2 * from_len + 2 words are needed.
-         * However, in the implementation of the swap_cost check, the current matrix value is used as a buffer; we can't
-         * overwrite the earlier value until the swap_cost check has been performed. So we use 2 * from_len + 3 elements in the
-         * buffer.
          */
-
-        // /#define ar(x,y,index) (((x) == 0) ? (y) * del : (((y) == 0) ? (x) * ins :
-        // \ buffer[mod(index)]))
-        // /#define NW(x,y) ar(x, y, index + from_len + 2)
-        // /#define N(x,y) ar(x, y, index + from_len + 3)
-        // /#define W(x,y) ar(x, y, index + radix - 1)
-        // /#define NNWW(x,y) ar(x, y, index + 1)
-        // /#define mod(x) ((x) % radix)
-
-
-        buffer[index++] = min2(ins + del, from[0] == to[0] ? 0 : ch);
-
-        low = buffer[mod(index + radix - 1)];
-        for (col = 1; col < EditDistance.fromLen; col++) {
-            buffer[index] = min3(col * del + ((from[col] == to[0]) ? 0 : ch), (col + 1) * del + ins, buffer[index - 1] + del);
-            if (buffer[index] < low) {
-                low = buffer[index];
-            }
-            index++;
+        final int width = fromLen + 1;
+        final Scratch s = scratch.get();
+        if (s.rows.length < 3 * width) {
+            s.rows = new int[3 * width];
+        }
+        final int[] rows = s.rows;
+        // row r of the matrix is at ((r % 3) * width)
+        for (int col = 0; col <= fromLen; col++) {
+            rows[col] = col * DELETE_COST;
         }
 
-        /* Now handle the rest of the matrix */
-        for (row = 1; row < EditDistance.toLen; row++) {
-            for (col = 0; col < EditDistance.fromLen; col++) {
-                buffer[index] = min3(nw(row, col) + ((from[col] == to[row]) ? 0 : ch), n(row, col + 1) + ins, w(row + 1, col) + del);
-
-                if (from[col] == to[row - 1] && col > 0 && from[col - 1] == to[row]) {
-                    buffer[index] = min2(buffer[index], nnww(row - 1, col - 1) + swapCost);
-                }
-
-                if (buffer[index] < low || col == 0) {
-                    low = buffer[index];
+        int row;
+        for (row = 1; row <= toLen; row++) {
+            final int cur = (row % 3) * width;
+            final int prev = ((row - 1) % 3) * width;
+            final int prev2 = ((row + 1) % 3) * width;
+            rows[cur] = row * INSERT_COST;
+            int low = Integer.MAX_VALUE;
+            for (int col = 1; col <= fromLen; col++) {
+                int d = Math.min(rows[prev + col - 1] + (from[col - 1] == to[row - 1] ? 0 : CHANGE_COST),
+                        Math.min(rows[prev + col] + INSERT_COST, rows[cur + col - 1] + DELETE_COST));
+                if (row > 1 && col > 1 && from[col - 1] == to[row - 2] && from[col - 2] == to[row - 1]) {
+                    d = Math.min(d, rows[prev2 + col - 2] + SWAP_COST);
                 }
-                index = mod(index + 1);
+                rows[cur + col] = d;
+                low = Math.min(low, d);
             }
-            if (low > MIN_DIST) {
+            // the first row is always finished
+            if (row > 1 && low > MIN_DIST) {
                 break;
             }
         }
-
-        row = buffer[mod(index + radix - 1)];
-
-        return row;
-    } // edit_distn
+        return rows[(Math.min(row, toLen) % 3) * width + fromLen];
+    }
 
     /** This class is not meant to be instantiated. */
     private EditDistance() {}
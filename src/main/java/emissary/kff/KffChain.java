@@ -15,13 +15,19 @@ import java.util.List;
 
 /**
  * Keep a list of hash algorithm names and compute them and compare the results to the ordered chain of KFF filter when
- * data is submitted.
+ * data is submitted. When the CHUNKS algorithm is used and the data as a whole is not found, each of its content-defined
+ * chunks is compared to a separate list of filter of known chunk hashes, so the known parts of the data are reported.
+ * Large data has thousands of chunks, each looked up on its own, so filters of known chunks are limited to local sorted
+ * files and never remote ones such as {@link KffMemcached}.
  */
 public class KffChain {
     private static final Logger logger = LoggerFactory.getLogger(KffChain.class);
 
     protected List<KffFilter> list = new ArrayList<>();
 
+    // Filters of known chunk hashes, local files so that looking up every chunk is cheap
+    protected List<KffFile> chunkList = new ArrayList<>();
+
     // Smaller than this and we don't report a hit
     protected static final int DEFAULT_KFF_MIN_DATA_SIZE = 0;
     protected int kffMinDataSize = DEFAULT_KFF_MIN_DATA_SIZE;
@@ -43,6 +49,22 @@ public class KffChain {
         }
     }
 
+    /**
+     * Add a new file of known chunk hashes, checked for the {@link ChunkHasher#ALGORITHM} hash of each chunk with no CRC
+     */
+    public void addChunkFilter(@Nullable KffFile f) {
+        if (f != null) {
+            chunkList.add(f);
+        }
+    }
+
+    /**
+     * Return the count of filters of known chunks
+     */
+    public int chunkFilterSize() {
+        return chunkList.size();
+    }
+
     /**
      * Return the filter count we are chaining
      */
@@ -123,7 +145,7 @@ public class KffChain {
     public KffResult check(final String itemName, final byte[] content) throws NoSuchAlgorithmException {
         final ChecksumResults sums = computeSums(content);
         KffResult answer = null;
-        if (content.length < kffMinDataSize || list.isEmpty()) {
+        if (content.length < kffMinDataSize || (list.isEmpty() && chunkList.isEmpty())) {
             answer = new KffResult(sums);
             answer.setItemName(itemName);
         } else {
@@ -133,6 +155,9 @@ public class KffChain {
             // and nulled out in the output
             try {
                 answer = checkAgainst(list, itemName, sums);
+                if (!answer.isHit()) {
+                    checkChunks(chunkList, itemName, answer);
+                }
             } catch (final Exception e) {
                 logger.debug("Problem running KffFilter list.  Using only Checksums", e);
                 answer = new KffResult(sums);
@@ -157,7 +182,7 @@ public class KffChain {
         try (SeekableByteChannel sbc = sbcf.create()) {
             sbcSize = sbc.size();
         }
-        if (sbcSize < kffMinDataSize || list.isEmpty()) {
+        if (sbcSize < kffMinDataSize || (list.isEmpty() && chunkList.isEmpty())) {
             answer = new KffResult(sums);
             answer.setItemName(itemName);
         } else {
@@ -167,6 +192,9 @@ public class KffChain {
             // and nulled out in the output
             try {
                 answer = checkAgainst(list, itemName, sums);
+                if (!answer.isHit()) {
+                    checkChunks(chunkList, itemName, answer);
+                }
             } catch (final Exception e) {
                 logger.debug("Problem running KffFilter list.  Using only Checksums", e);
                 answer = new KffResult(sums);
@@ -189,8 +217,7 @@ public class KffChain {
         r.setItemName(itemName);
 
         for (KffFilter k : l) {
-            boolean hit = k.check(itemName, csum);
-            if (hit) {
+            if (check(k, itemName, csum)) {
                 r.setFilterName(k.getName());
                 r.setHitAndType(k.getFilterType());
                 break;
@@ -199,6 +226,47 @@ public class KffChain {
         return r;
     }
 
+    /**
+     * Check each chunk of the content against a list of filters of known chunks, marking those found in any
+     *
+     * @param l list of KffFilter objects to test against
+     * @param itemName name of the current item
+     * @param r the results of testing the whole content, holding its chunks
+     */
+    private static void checkChunks(List<KffFile> l, String itemName, KffResult r) throws Exception {
+        final List<ChunkHasher.Chunk> chunks = r.getChunks();
+        if (chunks == null || l.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            final ChecksumResults csum = new ChecksumResults();
+            csum.setHash(ChunkHasher.ALGORITHM, chunks.get(i).getHash());
+            for (KffFile k : l) {
+                if (check(k, itemName, csum)) {
+                    r.setChunkKnown(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check sums against one filter, consulting its pre-filter first
+     */
+    private static boolean check(KffFilter k, String itemName, ChecksumResults csum) throws Exception {
+        // A definite miss in the pre-filter saves looking in the filter itself
+        KffPreFilter pre = k.getPreFilter();
+        if (pre != null && !pre.mightContain(csum)) {
+            return false;
+        }
+        boolean hit = k.check(itemName, csum);
+        // a miss on a hash that is in the file with another CRC, or that the pre-filter could not key, is not its fault
+        if (pre != null && !hit && pre.isKeyed(csum) && !k.checkHash(itemName, csum)) {
+            pre.falsePositive();
+        }
+        return hit;
+    }
+
     /**
      * Compute the sums once for the whole chain
      *
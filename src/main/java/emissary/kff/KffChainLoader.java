@@ -3,8 +3,11 @@ package emissary.kff;
 import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
 import emissary.core.Factory;
+import emissary.core.MetricsManager;
+import emissary.core.NamespaceException;
 import emissary.kff.KffFilter.FilterType;
 
+import com.codahale.metrics.MetricRegistry;
 import jakarta.annotation.Nullable;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -22,7 +25,9 @@ import java.util.Set;
  * list containing class names that implement known or dupe type filter working either against file stores of hashes or
  * database tables of hashes, plus a list of the algorithms that are desired to use. This should be a superset of the
  * algorithms required by all of the filter in the chain and those desired as end product in their own right. This is a
- * singleton implementation.
+ * singleton implementation. Setting KFF_PREFILTER loads a {@link KffPreFilter} in front of each file filter. Each
+ * KFF_FILE_CHUNK_ entry names a sorted file of known {@link ChunkHasher} chunk hashes, with no CRC, that the chunks of
+ * data are looked up in when the CHUNKS algorithm is used.
  */
 public class KffChainLoader {
 
@@ -35,6 +40,12 @@ public class KffChainLoader {
     @SuppressWarnings("NonFinalStaticField")
     private static Map<String, String> classes;
 
+    // Whether to load a pre-filter for each file filter, and its size when one is built
+    @SuppressWarnings("NonFinalStaticField")
+    private static boolean preFilter = false;
+    @SuppressWarnings("NonFinalStaticField")
+    private static int preFilterBitsPerKey = KffPreFilter.DEFAULT_BITS_PER_KEY;
+
     /**
      * Take away the public constructor
      */
@@ -49,8 +60,11 @@ public class KffChainLoader {
             try {
                 Configurator configG = ConfigUtil.getConfigInfo(KffChain.class);
                 classes = configG.findStringMatchMap("KFF_IMPL_");
+                preFilter = configG.findBooleanEntry("KFF_PREFILTER", false);
+                preFilterBitsPerKey = configG.findIntEntry("KFF_PREFILTER_BITS_PER_KEY", KffPreFilter.DEFAULT_BITS_PER_KEY);
                 loadFrom(chain, configG.findStringMatchMap("KFF_FILE_KNOWN_"), FilterType.IGNORE);
                 loadFrom(chain, configG.findStringMatchMap("KFF_FILE_DUPE_"), FilterType.DUPLICATE);
+                loadChunkFiles(chain, configG.findStringMatchMap("KFF_FILE_CHUNK_"));
 
                 chain.setMinDataSize(configG.findIntEntry("KFF_MIN_SIZE", 0));
                 Set<String> algs = configG.findEntriesAsSet("KFF_ALG");
@@ -59,7 +73,8 @@ public class KffChainLoader {
                 logger.debug("No configuration for Known File Filter. Continuing...");
             }
             theInstance = chain;
-            logger.debug("KFF Chain loaded with {} filter using algorithms {}", theInstance.size(), theInstance.getAlgorithms());
+            logger.debug("KFF Chain loaded with {} filter and {} chunk filter using algorithms {}", theInstance.size(),
+                    theInstance.chunkFilterSize(), theInstance.getAlgorithms());
         }
         return theInstance;
     }
@@ -96,6 +111,10 @@ public class KffChainLoader {
                     k = new KffFile(name, key, filterType);
                 }
 
+                if (preFilter && k instanceof KffFile) {
+                    loadPreFilter((KffFile) k);
+                }
+
                 chain.addFilter(k);
                 countLoaded++;
             } catch (IOException e) {
@@ -105,6 +124,55 @@ public class KffChainLoader {
         return countLoaded;
     }
 
+    /**
+     * Load the files of known chunk hashes into the chain
+     *
+     * @param chain the chain we are loading
+     * @param m map of config entries items
+     * @return number of files loaded onto chain
+     */
+    private static int loadChunkFiles(KffChain chain, Map<String, String> m) {
+        int countLoaded = 0;
+        for (Map.Entry<String, String> entry : m.entrySet()) {
+            try {
+                KffMappedFile k = new KffMappedFile(entry.getValue(), entry.getKey(), FilterType.IGNORE, ChunkHasher.HASH_LENGTH);
+                k.setPreferredAlgorithm(ChunkHasher.ALGORITHM);
+                if (preFilter) {
+                    loadPreFilter(k);
+                }
+                chain.addChunkFilter(k);
+                countLoaded++;
+            } catch (IOException e) {
+                logger.error("Exception creating KFF chunk filter", e);
+            }
+        }
+        return countLoaded;
+    }
+
+    /**
+     * Load the pre-filter for a file filter and register its metrics if there is a node to register them with. A filter
+     * whose pre-filter cannot be loaded is still used, just without a pre-filter.
+     *
+     * @param k the filter to load for
+     */
+    private static void loadPreFilter(KffFile k) {
+        try {
+            k.loadPreFilter(preFilterBitsPerKey);
+        } catch (IOException e) {
+            logger.warn("Cannot load the pre-filter for {}, checking the file without one", k.getName(), e);
+            return;
+        }
+        KffPreFilter pre = k.getPreFilter();
+        if (pre == null) {
+            return;
+        }
+        try {
+            pre.registerMetrics(MetricsManager.lookup().getMetricRegistry(), MetricRegistry.name(KffChain.class, k.getName()));
+        } catch (NamespaceException e) {
+            logger.debug("No metrics manager for KFF pre-filter metrics");
+        }
+    }
+
     /**
      * Load the configured chain and run some data
      */
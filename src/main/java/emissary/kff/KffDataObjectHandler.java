@@ -13,7 +13,11 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.channels.SeekableByteChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,6 +33,10 @@ public class KffDataObjectHandler {
     public static final String KFF_PARAM_SHA384 = KFF_PARAM_BASE + "SHA-384";
     public static final String KFF_PARAM_SHA512 = KFF_PARAM_BASE + "SHA-512";
     public static final String KFF_PARAM_SSDEEP = KFF_PARAM_BASE + "SSDEEP";
+    public static final String KFF_PARAM_CHUNKS = KFF_PARAM_BASE + "CHUNKS";
+    public static final String KFF_PARAM_CHUNK_COUNT = KFF_PARAM_BASE + "CHUNK_COUNT";
+    public static final String KFF_PARAM_KNOWN_CHUNKS = KFF_PARAM_BASE + "KNOWN_CHUNKS";
+    public static final String KFF_PARAM_KNOWN_CHUNK_BYTES = KFF_PARAM_BASE + "KNOWN_CHUNK_BYTES";
     public static final String KFF_PARAM_DUPE_HIT = KFF_PARAM_BASE + "KNOWN_FILE";
     public static final String KFF_PARAM_PARENT_HIT = KFF_PARAM_BASE + "PARENT_IS_KNOWN_FILE";
     public static final String KFF_PARAM_KNOWN_FILTER_NAME = KFF_PARAM_BASE + "FILTERED_BY";
@@ -36,9 +44,41 @@ public class KffDataObjectHandler {
     public static final String KFF_DUPE_CURRENT_FORM = "KNOWN_FILE";
     public static final String MD5_ORIGINAL = "MD5_ORIGINAL";
 
+    // The most chunks listed in the chunks parameter, about 16MB of data at the default average chunk size
+    public static final int MAX_RECORDED_CHUNKS = 256;
+
     // Our kff impl
     protected KffChain kff = KffChainLoader.getChainInstance();
 
+    // The most data generations to keep digests for, enough for the payloads in flight at once
+    static final int DIGEST_CACHE_SIZE = 1024;
+
+    // Digests recently computed by any handler by the data generation they were computed for, so a payload whose data has
+    // not been set since it was last hashed is not hashed again by the next place it visits
+    private static final Map<Long, CachedDigests> digestCache = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedDigests> eldest) {
+            return size() > DIGEST_CACHE_SIZE;
+        }
+    });
+
+    /**
+     * The parameters from hashing one generation of data
+     */
+    private static final class CachedDigests {
+        private final KffChain chain;
+        private final boolean useSbc;
+        private final Map<String, String> parameters;
+
+        CachedDigests(KffChain chain, boolean useSbc, Map<String, String> parameters) {
+            this.chain = chain;
+            this.useSbc = useSbc;
+            this.parameters = parameters;
+        }
+    }
+
     // Logger
     protected static final Logger logger = LoggerFactory.getLogger(KffDataObjectHandler.class);
 
@@ -157,6 +197,14 @@ public class KffDataObjectHandler {
         if (result != null) {
             // Store all computed results in data object params
             for (String alg : result.getResultNames()) {
+                if ("CHUNKS".equals(alg) && result.getChunks() != null) {
+                    // only the count of the chunks of large data, as listing them all would make a huge parameter
+                    int chunkCount = result.getChunks().size();
+                    results.put(prefix + KFF_PARAM_CHUNK_COUNT, Integer.toString(chunkCount));
+                    if (chunkCount > MAX_RECORDED_CHUNKS) {
+                        continue;
+                    }
+                }
                 results.put(prefix + KFF_PARAM_BASE + alg, result.getResultString(alg));
             }
 
@@ -167,6 +215,11 @@ public class KffDataObjectHandler {
             if (result.isDupe()) {
                 results.put(prefix + KFF_PARAM_DUPE_FILTER_NAME, result.getFilterName());
             }
+            String knownChunks = result.getKnownChunkRanges();
+            if (knownChunks != null) {
+                results.put(prefix + KFF_PARAM_KNOWN_CHUNKS, knownChunks);
+                results.put(prefix + KFF_PARAM_KNOWN_CHUNK_BYTES, Long.toString(result.getKnownChunkBytes()));
+            }
         }
 
         return results;
@@ -198,10 +251,8 @@ public class KffDataObjectHandler {
             removeHash(d);
 
             // Compute and add the hashes
-            if (useSbc && d.getChannelSize() > 0) {
-                d.putParameters(hashData(d.getChannelFactory(), d.shortName(), ""), MergePolicy.DROP_EXISTING);
-            } else if (!useSbc && d.dataLength() > 0) {
-                d.putParameters(hashData(d.data(), d.shortName()), MergePolicy.DROP_EXISTING);
+            if ((useSbc && d.getChannelSize() > 0) || (!useSbc && d.dataLength() > 0)) {
+                d.putParameters(digests(d, useSbc), MergePolicy.DROP_EXISTING);
             } else {
                 return; // NOSONAR
             }
@@ -231,6 +282,32 @@ public class KffDataObjectHandler {
         }
     }
 
+    /**
+     * Get the hash parameters for a data object's data, computing them only if its data has been set since they were last
+     * computed
+     *
+     * @param d the data object
+     * @param useSbc use the {@link SeekableByteChannel} interface
+     * @return parameter entries suitable for the data object
+     */
+    private Map<String, String> digests(final IBaseDataObject d, final boolean useSbc) {
+        final long generation = d.getDataGeneration();
+        if (generation != IBaseDataObject.UNTRACKED_DATA_GENERATION) {
+            final CachedDigests cached = digestCache.get(generation);
+            if (cached != null && cached.chain == kff && cached.useSbc == useSbc) {
+                logger.debug("Data of {} unchanged since it was hashed", d.shortName());
+                return cached.parameters;
+            }
+        }
+
+        final Map<String, String> parameters = useSbc ? hashData(d.getChannelFactory(), d.shortName(), "") : hashData(d.data(), d.shortName());
+        // nothing is kept when hashing failed, so it is tried again
+        if (generation != IBaseDataObject.UNTRACKED_DATA_GENERATION && !parameters.isEmpty()) {
+            digestCache.put(generation, new CachedDigests(kff, useSbc, Collections.unmodifiableMap(parameters)));
+        }
+        return parameters;
+    }
+
     /**
      * Capture the current CHECKSUM_MD5 parameter value, unless we've already preserved one in the MD5_ORIGINAL parameter
      *
@@ -308,6 +385,10 @@ public class KffDataObjectHandler {
         d.deleteParameter(KFF_PARAM_SHA384);
         d.deleteParameter(KFF_PARAM_SHA512);
         d.deleteParameter(KFF_PARAM_SSDEEP);
+        d.deleteParameter(KFF_PARAM_CHUNKS);
+        d.deleteParameter(KFF_PARAM_CHUNK_COUNT);
+        d.deleteParameter(KFF_PARAM_KNOWN_CHUNKS);
+        d.deleteParameter(KFF_PARAM_KNOWN_CHUNK_BYTES);
     }
 
     /**
@@ -468,6 +549,46 @@ public class KffDataObjectHandler {
         d.setParameter(KFF_PARAM_SSDEEP, hash);
     }
 
+    /**
+     * Get the content-defined chunks of the data and their hashes
+     *
+     * @param d the payload
+     * @return the chunks in order, none if the data was not chunked or made more than {@link #MAX_RECORDED_CHUNKS}
+     */
+    public static List<ChunkHasher.Chunk> getChunks(IBaseDataObject d) {
+        String chunks = d.getParameterAsString(KFF_PARAM_CHUNKS);
+        return StringUtils.isBlank(chunks) ? Collections.emptyList() : ChunkHasher.parse(chunks);
+    }
+
+    /**
+     * Get the number of content-defined chunks of the data, including those of data with too many to list
+     *
+     * @param d the payload
+     * @return the number of chunks, 0 if the data was not chunked
+     */
+    public static int getChunkCount(IBaseDataObject d) {
+        String count = d.getParameterAsString(KFF_PARAM_CHUNK_COUNT);
+        return StringUtils.isBlank(count) ? 0 : Integer.parseInt(count);
+    }
+
+    /**
+     * Get the ranges of the data found in a filter of known chunks, which places may choose not to analyze again
+     *
+     * @param d the payload
+     * @return the start and exclusive end of each range in order, none if no chunk is known
+     */
+    public static List<long[]> getKnownChunkRanges(IBaseDataObject d) {
+        String ranges = d.getParameterAsString(KFF_PARAM_KNOWN_CHUNKS);
+        List<long[]> known = new ArrayList<>();
+        if (StringUtils.isNotBlank(ranges)) {
+            for (String range : ranges.split(",")) {
+                int dash = range.indexOf('-');
+                known.add(new long[] {Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1))});
+            }
+        }
+        return known;
+    }
+
     /**
      * Get the best of the available hashes, might be null of none are enabled
      * 
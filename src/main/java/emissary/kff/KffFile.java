@@ -1,6 +1,7 @@
 package emissary.kff;
 
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +29,9 @@ import java.util.concurrent.locks.ReentrantLock;
 public class KffFile implements KffFilter {
     private static final Logger logger = LoggerFactory.getLogger(KffFile.class);
 
+    /** Name of the file containing SHA-1/CRC32 results of known files */
+    protected final String filename;
+
     /** File containing SHA-1/CRC32 results of known files */
     protected RandomAccessFile knownFile;
 
@@ -49,6 +53,10 @@ public class KffFile implements KffFilter {
 
     protected ReentrantLock reentrantLock = new ReentrantLock();
 
+    /** Pre-filter of the file, if one has been loaded */
+    @Nullable
+    protected KffPreFilter preFilter = null;
+
     /**
      * Creates a new instance of KffFile
      *
@@ -77,6 +85,7 @@ public class KffFile implements KffFilter {
         this.ftype = ftype;
         this.filterName = filterName;
         this.recordLength = recordLength;
+        this.filename = filename;
 
         // Open file in read-only mode
         knownFile = new RandomAccessFile(filename, "r");
@@ -129,6 +138,23 @@ public class KffFile implements KffFilter {
         return myPreferredAlgorithm;
     }
 
+    /**
+     * Load the pre-filter persisted next to the file, building it if the file has changed, so that hashes that are
+     * definitely not in the file are not searched for. The preferred algorithm should be set first.
+     *
+     * @param bitsPerKey bits of filter for each record when building a new one
+     * @throws IOException if the file cannot be read
+     */
+    public void loadPreFilter(int bitsPerKey) throws IOException {
+        preFilter = KffPreFilter.load(filename, recordLength, myPreferredAlgorithm, bitsPerKey);
+    }
+
+    @Nullable
+    @Override
+    public KffPreFilter getPreFilter() {
+        return preFilter;
+    }
+
     /**
      * Performs a binary search on the file to see if a given HASH/CRC is in the list.
      *
@@ -229,4 +255,11 @@ public class KffFile implements KffFilter {
         }
         return binaryFileSearch(hash, csum.getCrc());
     }
+
+    @Override
+    public boolean checkHash(String fname, ChecksumResults csum) throws Exception {
+        byte[] hash = csum.getHash(myPreferredAlgorithm);
+        // a CRC of -1 matches any record with the hash
+        return hash != null && binaryFileSearch(hash, -1L);
+    }
 }
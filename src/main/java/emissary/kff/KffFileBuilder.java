@@ -0,0 +1,675 @@
+package emissary.kff;
+
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Builds the sorted binary file read by {@link KffFile} and {@link KffMappedFile} from unsorted lists of hashes, such as
+ * the NSRL CSV files or hex hash lists, and merges new lists into an existing file. Each record is the hash followed,
+ * when the file has them, by the big endian CRC-32.
+ * </p>
+ * <p>
+ * The lists are read a bounded buffer of records at a time. Each full buffer is sorted, first into buckets by the two
+ * byte prefix and then within each bucket, and written to a temporary run without duplicates. The runs, and any
+ * existing file, are then merged a limited number at a time until one pass writes the output, dropping duplicates
+ * between them. The output is written aside and moved into place, so readers never see a part written file, and the
+ * prefix index of {@link KffMappedFile} can be written next to it as the records are counted.
+ * </p>
+ */
+public class KffFileBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(KffFileBuilder.class);
+
+    /** Layouts of the lists of hashes */
+    public enum Format {
+        /** One record a line, the hash in hex optionally followed by the CRC-32 in hex, anything after is ignored */
+        HEX,
+        /** Comma separated values with a header row naming the columns, as in the NSRL files */
+        CSV
+    }
+
+    public static final long DEFAULT_MEMORY_LIMIT = 256L * 1024 * 1024;
+
+    /** The most runs merged at once, each needs a read buffer */
+    static final int DEFAULT_MERGE_WIDTH = 64;
+
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+
+    /** How many bad lines are logged before the rest are only counted */
+    private static final int BAD_LINES_LOGGED = 10;
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final int hashLength;
+    private final boolean withCrc;
+    private final int recordLength;
+
+    private Format format = Format.HEX;
+    private String hashColumn = "SHA-1";
+    private String crcColumn = "CRC32";
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    @Nullable
+    private Path tempDir = null;
+    private boolean writePrefixIndex = false;
+    int mergeWidth = DEFAULT_MERGE_WIDTH;
+
+    /**
+     * Create a builder of files of one record length
+     *
+     * @param hashLength length in bytes of the hashes, 20 for SHA-1
+     * @param withCrc true to follow each hash with the CRC-32
+     */
+    public KffFileBuilder(int hashLength, boolean withCrc) {
+        Validate.isTrue(hashLength >= 2, "Hashes must be at least two bytes long");
+        this.hashLength = hashLength;
+        this.withCrc = withCrc;
+        this.recordLength = hashLength + (withCrc ? Integer.BYTES : 0);
+    }
+
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    public void setFormat(Format format) {
+        this.format = Validate.notNull(format, "Format");
+    }
+
+    /**
+     * Set the CSV columns to read
+     *
+     * @param hashColumn header of the column of hashes
+     * @param crcColumn header of the column of CRC-32 values, only read when records have them
+     */
+    public void setColumns(String hashColumn, String crcColumn) {
+        this.hashColumn = Validate.notBlank(hashColumn, "Hash column");
+        this.crcColumn = Validate.notBlank(crcColumn, "CRC column");
+    }
+
+    /**
+     * Set the memory used to sort records, which sets the length of each run
+     *
+     * @param memoryLimit bytes for records and their sort order
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        Validate.isTrue(memoryLimit > 0, "Memory limit must be positive");
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Set where the runs are written, the default temporary directory if null
+     */
+    public void setTempDir(@Nullable Path tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Write the prefix index of {@link KffMappedFile} next to the output
+     */
+    public void setWritePrefixIndex(boolean writePrefixIndex) {
+        this.writePrefixIndex = writePrefixIndex;
+    }
+
+    /**
+     * Sort, deduplicate and merge lists of hashes into a file of records
+     *
+     * @param inputs the lists of hashes, which need not be sorted
+     * @param existing a file of records to merge the lists into, or null to start afresh. It may be the output.
+     * @param output the file to write
+     * @return counts and timings of the build
+     * @throws IOException if a file cannot be read or written, or the existing file is not a sorted file of records
+     */
+    public Result build(List<Path> inputs, @Nullable Path existing, Path output) throws IOException {
+        if (existing != null) {
+            checkRecordFile(existing);
+        }
+        final Result result = new Result();
+        // every temporary file, deleted when done with or if the build fails
+        final List<Path> temps = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            final List<Path> runs = sortRuns(inputs, temps, result);
+            result.sortNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            // every pass but the last leaves room for the existing file in the final merge
+            final int finalWidth = existing == null ? mergeWidth : mergeWidth - 1;
+            while (runs.size() > finalWidth) {
+                final List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += mergeWidth) {
+                    final List<Path> group = runs.subList(i, Math.min(i + mergeWidth, runs.size()));
+                    final Path run = createTempFile(temps);
+                    merged.add(run);
+                    merge(group, run, null, result);
+                    for (Path done : group) {
+                        Files.deleteIfExists(done);
+                    }
+                }
+                runs.clear();
+                runs.addAll(merged);
+                result.mergePasses++;
+            }
+
+            final List<Path> sources = new ArrayList<>(runs);
+            if (existing != null) {
+                sources.add(existing);
+            }
+            final Path temp = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+            try {
+                final long[] prefixCounts = new long[KffMappedFile.PREFIXES];
+                result.written = merge(sources, temp, prefixCounts, result);
+                result.mergePasses++;
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (writePrefixIndex) {
+                    final long[] starts = new long[KffMappedFile.PREFIXES + 1];
+                    for (int i = 0; i < KffMappedFile.PREFIXES; i++) {
+                        starts[i + 1] = starts[i] + prefixCounts[i];
+                    }
+                    KffMappedFile.writePrefixIndex(output.toString(), recordLength, starts);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            result.mergeNanos = System.nanoTime() - start;
+        } finally {
+            for (Path file : temps) {
+                Files.deleteIfExists(file);
+            }
+        }
+        logger.debug("Built {}: {}", output, result);
+        return result;
+    }
+
+    private void checkRecordFile(Path file) throws IOException {
+        final long size = Files.size(file);
+        if (size % recordLength != 0) {
+            throw new IOException(file + " is " + size + " bytes, not a whole number of " + recordLength + " byte records");
+        }
+    }
+
+    private Path createTempFile(List<Path> temps) throws IOException {
+        final Path temp = tempDir == null ? Files.createTempFile("kff", ".run") : Files.createTempFile(tempDir, "kff", ".run");
+        temps.add(temp);
+        return temp;
+    }
+
+    /**
+     * Read the lists into a bounded buffer, writing a sorted run each time it fills
+     *
+     * @return the runs written
+     */
+    private List<Path> sortRuns(List<Path> inputs, List<Path> temps, Result result) throws IOException {
+        final List<Path> runs = new ArrayList<>();
+        final int capacity = (int) Math.max(1, Math.min(memoryLimit / (recordLength + Integer.BYTES), Integer.MAX_VALUE / recordLength - 1));
+        final RunBuffer buffer = new RunBuffer(capacity);
+        for (Path input : inputs) {
+            // NSRL file names are not all UTF-8 and only the hex columns are needed
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.ISO_8859_1)) {
+                final LineParser parser = format == Format.CSV ? new CsvParser(input) : new HexParser();
+                long lineNumber = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (!parser.parse(line, buffer.records, buffer.count * recordLength)) {
+                        continue;
+                    }
+                    if (parser.bad) {
+                        parser.bad = false;
+                        if (result.badLines++ < BAD_LINES_LOGGED) {
+                            logger.warn("Skipping bad line {} of {}: {}", lineNumber, input, line);
+                        }
+                        continue;
+                    }
+                    result.recordsRead++;
+                    if (++buffer.count == capacity) {
+                        runs.add(buffer.writeRun(temps, result));
+                    }
+                }
+            }
+        }
+        if (buffer.count > 0) {
+            runs.add(buffer.writeRun(temps, result));
+        }
+        result.runs = runs.size();
+        return runs;
+    }
+
+    /**
+     * Merge sorted sources, dropping duplicates
+     *
+     * @param prefixCounts counts of the records written for each two byte prefix, or null not to count
+     * @return the number of records written
+     */
+    private long merge(List<Path> sources, Path target, @Nullable long[] prefixCounts, Result result) throws IOException {
+        final PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> Arrays.compareUnsigned(a.current, b.current));
+        final List<RunReader> readers = new ArrayList<>();
+        long written = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target), IO_BUFFER_SIZE)) {
+            for (Path source : sources) {
+                final RunReader reader = new RunReader(source);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            final byte[] last = new byte[recordLength];
+            while (!queue.isEmpty()) {
+                final RunReader reader = queue.poll();
+                if (written > 0 && Arrays.equals(last, reader.current)) {
+                    result.duplicates++;
+                } else {
+                    out.write(reader.current);
+                    System.arraycopy(reader.current, 0, last, 0, recordLength);
+                    if (prefixCounts != null) {
+                        prefixCounts[((last[0] & 0xff) << 8) | (last[1] & 0xff)]++;
+                    }
+                    written++;
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Reads the records of a sorted file in turn
+     */
+    private final class RunReader {
+        private final Path path;
+        private final InputStream in;
+        private byte[] current = new byte[recordLength];
+        private byte[] previous = new byte[recordLength];
+        private boolean started = false;
+
+        RunReader(Path path) throws IOException {
+            this.path = path;
+            this.in = new BufferedInputStream(Files.newInputStream(path), IO_BUFFER_SIZE);
+        }
+
+        boolean next() throws IOException {
+            final byte[] swap = previous;
+            previous = current;
+            current = swap;
+            final int read = in.readNBytes(current, 0, recordLength);
+            if (read == 0) {
+                return false;
+            }
+            if (read < recordLength) {
+                throw new IOException("Unexpected end of " + path);
+            }
+            if (started && Arrays.compareUnsigned(previous, current) > 0) {
+                throw new IOException(path + " is not sorted");
+            }
+            started = true;
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * The records read but not yet sorted
+     */
+    private final class RunBuffer {
+        private final byte[] records;
+        private final int[] order;
+        private final int[] bucketStart = new int[KffMappedFile.PREFIXES + 1];
+        private int count = 0;
+
+        RunBuffer(int capacity) {
+            // one spare record to parse into when the buffer is full
+            records = new byte[(capacity + 1) * recordLength];
+            order = new int[capacity];
+        }
+
+        Path writeRun(List<Path> temps, Result result) throws IOException {
+            sort();
+            final Path run = createTempFile(temps);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE)) {
+                int last = -1;
+                for (int i = 0; i < count; i++) {
+                    final int offset = order[i] * recordLength;
+                    if (last >= 0 && Arrays.equals(records, last, last + recordLength, records, offset, offset + recordLength)) {
+                        result.duplicates++;
+                        continue;
+                    }
+                    out.write(records, offset, recordLength);
+                    last = offset;
+                }
+            }
+            count = 0;
+            return run;
+        }
+
+        private int prefix(int record) {
+            final int offset = record * recordLength;
+            return ((records[offset] & 0xff) << 8) | (records[offset + 1] & 0xff);
+        }
+
+        /**
+         * Counting sort on the two byte prefix, then a three way quicksort on the rest of each bucket
+         */
+        private void sort() {
+            Arrays.fill(bucketStart, 0);
+            for (int i = 0; i < count; i++) {
+                bucketStart[prefix(i) + 1]++;
+            }
+            for (int p = 0; p < KffMappedFile.PREFIXES; p++) {
+                bucketStart[p + 1] += bucketStart[p];
+            }
+            // fill each bucket from its start, which leaves bucketStart[p] at the start of bucket p + 1
+            for (int i = 0; i < count; i++) {
+                order[bucketStart[prefix(i)]++] = i;
+            }
+            int from = 0;
+            for (int p = 0; p < KffMappedFile.PREFIXES; p++) {
+                final int to = bucketStart[p];
+                if (to - from > 1) {
+                    quicksort(from, to);
+                }
+                from = to;
+            }
+        }
+
+        private int compare(int a, int b) {
+            final int offsetA = a * recordLength;
+            final int offsetB = b * recordLength;
+            return Arrays.compareUnsigned(records, offsetA + 2, offsetA + recordLength, records, offsetB + 2, offsetB + recordLength);
+        }
+
+        private void quicksort(int from, int to) {
+            while (to - from > INSERTION_SORT_THRESHOLD) {
+                final int pivot = order[medianOfThree(from, from + (to - from) / 2, to - 1)];
+                // order[from, lt) < pivot, order[lt, i) == pivot, order(gt, to) > pivot
+                int lt = from;
+                int i = from;
+                int gt = to - 1;
+                while (i <= gt) {
+                    final int c = compare(order[i], pivot);
+                    if (c < 0) {
+                        swap(lt++, i++);
+                    } else if (c > 0) {
+                        swap(i, gt--);
+                    } else {
+                        i++;
+                    }
+                }
+                // recurse into the smaller side to bound the stack
+                if (lt - from < to - gt - 1) {
+                    quicksort(from, lt);
+                    from = gt + 1;
+                } else {
+                    quicksort(gt + 1, to);
+                    to = lt;
+                }
+            }
+            for (int i = from + 1; i < to; i++) {
+                final int record = order[i];
+                int j = i - 1;
+                while (j >= from && compare(order[j], record) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = record;
+            }
+        }
+
+        private int medianOfThree(int a, int b, int c) {
+            if (compare(order[a], order[b]) < 0) {
+                return compare(order[b], order[c]) < 0 ? b : compare(order[a], order[c]) < 0 ? c : a;
+            }
+            return compare(order[a], order[c]) < 0 ? a : compare(order[b], order[c]) < 0 ? c : b;
+        }
+
+        private void swap(int i, int j) {
+            final int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+    }
+
+    /**
+     * Parses lines of a list into records
+     */
+    private abstract class LineParser {
+        /** Set when the last line parsed held no valid record */
+        boolean bad = false;
+
+        /**
+         * Parse a line into a record
+         *
+         * @return false if the line is to be skipped without being counted, true if it holds a record or is bad
+         */
+        abstract boolean parse(String line, byte[] record, int offset);
+
+        /**
+         * Decode hex into bytes
+         *
+         * @return false if the value is not the given number of bytes of hex
+         */
+        boolean decode(String value, int begin, int end, byte[] record, int offset, int bytes) {
+            if (end - begin != bytes * 2) {
+                return false;
+            }
+            for (int i = 0; i < bytes; i++) {
+                final int high = Character.digit(value.charAt(begin + 2 * i), 16);
+                final int low = Character.digit(value.charAt(begin + 2 * i + 1), 16);
+                if (high < 0 || low < 0) {
+                    return false;
+                }
+                record[offset + i] = (byte) ((high << 4) | low);
+            }
+            return true;
+        }
+
+        boolean record(String value, int begin, int end, @Nullable String crc, int crcBegin, int crcEnd, byte[] record, int offset) {
+            bad = !decode(value, begin, end, record, offset, hashLength)
+                    || (withCrc && (crc == null || !decode(crc, crcBegin, crcEnd, record, offset + hashLength, Integer.BYTES)));
+            return true;
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == ':' || Character.isWhitespace(c);
+    }
+
+    /**
+     * The hash in hex and then, separated by white space, a comma or a colon, the CRC-32 in hex. The CRC may also directly
+     * follow the hash. Blank lines and lines starting with # are skipped.
+     */
+    private final class HexParser extends LineParser {
+        @Override
+        boolean parse(String line, byte[] record, int offset) {
+            int begin = 0;
+            while (begin < line.length() && Character.isWhitespace(line.charAt(begin))) {
+                begin++;
+            }
+            if (begin == line.length() || line.charAt(begin) == '#') {
+                return false;
+            }
+            int end = begin;
+            while (end < line.length() && !isSeparator(line.charAt(end))) {
+                end++;
+            }
+            if (withCrc && end - begin == recordLength * 2) {
+                return record(line, begin, end - 2 * Integer.BYTES, line, end - 2 * Integer.BYTES, end, record, offset);
+            }
+            int crcBegin = end;
+            while (crcBegin < line.length() && isSeparator(line.charAt(crcBegin))) {
+                crcBegin++;
+            }
+            int crcEnd = crcBegin;
+            while (crcEnd < line.length() && !isSeparator(line.charAt(crcEnd))) {
+                crcEnd++;
+            }
+            return record(line, begin, end, crcBegin < crcEnd ? line : null, crcBegin, crcEnd, record, offset);
+        }
+    }
+
+    /**
+     * Comma separated values, optionally quoted with double quotes, the first line naming the columns
+     */
+    private final class CsvParser extends LineParser {
+        private final Path input;
+        private int hashIndex = -1;
+        private int crcIndex = -1;
+
+        CsvParser(Path input) {
+            this.input = input;
+        }
+
+        @Override
+        boolean parse(String line, byte[] record, int offset) {
+            if (line.isEmpty()) {
+                return false;
+            }
+            final List<String> fields = split(line);
+            if (hashIndex < 0) {
+                for (int i = 0; i < fields.size(); i++) {
+                    final String name = fields.get(i).trim().toUpperCase(Locale.ROOT);
+                    if (name.equals(hashColumn.toUpperCase(Locale.ROOT))) {
+                        hashIndex = i;
+                    } else if (name.equals(crcColumn.toUpperCase(Locale.ROOT))) {
+                        crcIndex = i;
+                    }
+                }
+                if (hashIndex < 0 || (withCrc && crcIndex < 0)) {
+                    throw new IllegalArgumentException("The header of " + input + " does not name the " + hashColumn
+                            + (withCrc ? " and " + crcColumn : "") + " columns: " + line);
+                }
+                return false;
+            }
+            if (fields.size() <= Math.max(hashIndex, crcIndex)) {
+                bad = true;
+                return true;
+            }
+            final String hash = fields.get(hashIndex).trim();
+            final String crc = withCrc ? fields.get(crcIndex).trim() : null;
+            return record(hash, 0, hash.length(), crc, 0, crc == null ? 0 : crc.length(), record, offset);
+        }
+
+        /**
+         * Split a line on commas outside of quotes, removing the quotes, where a doubled quote is a quote
+         */
+        private List<String> split(String line) {
+            final List<String> fields = new ArrayList<>();
+            final StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                final char c = line.charAt(i);
+                if (c == '"') {
+                    if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = !quoted;
+                    }
+                } else if (c == ',' && !quoted) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * Counts and timings of a build
+     */
+    public static final class Result {
+        private long recordsRead;
+        private long badLines;
+        private int runs;
+        private int mergePasses;
+        private long duplicates;
+        private long written;
+        private long sortNanos;
+        private long mergeNanos;
+
+        /** Records parsed from the lists */
+        public long getRecordsRead() {
+            return recordsRead;
+        }
+
+        /** Lines of the lists that held no valid record */
+        public long getBadLines() {
+            return badLines;
+        }
+
+        /** Sorted runs written from the lists */
+        public int getRuns() {
+            return runs;
+        }
+
+        /** Passes over the records to merge the runs, including the one writing the output */
+        public int getMergePasses() {
+            return mergePasses;
+        }
+
+        /** Records dropped as already read or already in the existing file */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /** Records in the output */
+        public long getRecordsWritten() {
+            return written;
+        }
+
+        public double getSortSeconds() {
+            return sortNanos / 1e9;
+        }
+
+        public double getMergeSeconds() {
+            return mergeNanos / 1e9;
+        }
+
+        /** Records read, sorted and written to runs each second */
+        public long getSortRate() {
+            return sortNanos == 0 ? 0 : (long) (recordsRead / getSortSeconds());
+        }
+
+        /** Records written each second of merging */
+        public long getMergeRate() {
+            return mergeNanos == 0 ? 0 : (long) (written / getMergeSeconds());
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d records read, %d bad lines, %d runs, %d duplicates, %d records written, "
+                            + "sorted in %.2fs (%d records/s), merged in %d passes in %.2fs (%d records/s)",
+                    recordsRead, badLines, runs, duplicates, written, getSortSeconds(), getSortRate(), mergePasses, getMergeSeconds(),
+                    getMergeRate());
+        }
+    }
+}
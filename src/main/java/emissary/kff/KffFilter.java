@@ -1,5 +1,7 @@
 package emissary.kff;
 
+import jakarta.annotation.Nullable;
+
 /**
  * Interface for a KFF Implementation to follow
  */
@@ -18,4 +20,27 @@ public interface KffFilter {
 
     boolean check(String fname, ChecksumResults sums) throws Exception;
 
+    /**
+     * Get the pre-filter checked before this filter, if it has one
+     *
+     * @return the pre-filter, or null to always check this filter
+     */
+    @Nullable
+    default KffPreFilter getPreFilter() {
+        return null;
+    }
+
+    /**
+     * Check whether the hash of the sums is in this filter, whatever the CRC. A miss that passed the pre-filter is only a
+     * false positive of the pre-filter when the hash is not here at all.
+     *
+     * @param fname name of the item being checked
+     * @param sums the computed sums
+     * @return true if a record has the hash
+     * @throws Exception if the filter cannot be checked
+     */
+    default boolean checkHash(String fname, ChecksumResults sums) throws Exception {
+        return check(fname, sums);
+    }
+
 }
@@ -0,0 +1,304 @@
+package emissary.kff;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * <p>
+ * KffMappedFile is a {@link KffFile} that memory maps the sorted file of known values instead of seeking through it, so
+ * any number of threads can check values at once without taking a lock or making a system call for each probe.
+ * </p>
+ * <p>
+ * Files larger than a single mapping are mapped in segments that each hold a whole number of records. When the file is
+ * opened a table is built of where the records for each value of the first two bytes of the hash begin, so each search
+ * only covers the records sharing those two bytes, a few probes into pages that are mostly already resident. The table
+ * can be persisted next to the file, as {@link KffFileBuilder} does, and is then read instead of being built, which
+ * saves touching pages all through a large file at startup.
+ * </p>
+ */
+public class KffMappedFile extends KffFile {
+    private static final Logger logger = LoggerFactory.getLogger(KffMappedFile.class);
+
+    /** Number of distinct values of the two byte prefix */
+    static final int PREFIXES = 1 << 16;
+
+    /** Marks a persisted prefix index, "EKPI" */
+    static final int PREFIX_INDEX_MAGIC = 0x454b5049;
+
+    static final int PREFIX_INDEX_VERSION = 1;
+
+    static final int PREFIX_INDEX_HEADER_SIZE = 28;
+
+    /** Suffix of the persisted prefix index, added to the file name */
+    public static final String PREFIX_INDEX_SUFFIX = ".prefixes";
+
+    /** The largest number of bytes mapped in one segment */
+    static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    /** Read only mappings of the file, each holding recordsPerSegment records */
+    private final ByteBuffer[] segments;
+
+    private final long recordsPerSegment;
+
+    private final long recordCount;
+
+    /** Index of the first record with each prefix, with the record count at the end */
+    private final long[] prefixStart = new long[PREFIXES + 1];
+
+    /**
+     * Creates a new instance of KffMappedFile
+     *
+     * @param filename Name of binary file containing sorted RECORD_LENGTH records that are the hash codes possibly
+     *        concatenated with the CRC-32
+     * @param filterName the name of this filter
+     * @param ftype type of this filter
+     * @throws IOException if thrown by file I/O
+     */
+    public KffMappedFile(String filename, String filterName, FilterType ftype) throws IOException {
+        this(filename, filterName, ftype, DEFAULT_RECORD_LENGTH);
+    }
+
+    /**
+     * Creates a new instance of KffMappedFile
+     *
+     * @param filename Name of binary file containing sorted RECORD_LENGTH records that are the hash codes possibly
+     *        concatenated with the CRC-32
+     * @param filterName the name of this filter
+     * @param ftype type of this filter
+     * @param recordLength fixed record length in file
+     * @throws IOException if thrown by file I/O
+     */
+    public KffMappedFile(String filename, String filterName, FilterType ftype, int recordLength) throws IOException {
+        this(filename, filterName, ftype, recordLength, MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a new instance of KffMappedFile with a given segment size
+     *
+     * @param filename Name of binary file containing sorted RECORD_LENGTH records
+     * @param filterName the name of this filter
+     * @param ftype type of this filter
+     * @param recordLength fixed record length in file
+     * @param maxSegmentSize the largest number of bytes to map in one segment
+     * @throws IOException if thrown by file I/O
+     */
+    KffMappedFile(String filename, String filterName, FilterType ftype, int recordLength, long maxSegmentSize) throws IOException {
+        super(filename, filterName, ftype, recordLength);
+
+        final FileChannel channel = knownFile.getChannel();
+        recordCount = channel.size() / recordLength;
+        recordsPerSegment = Math.max(1, maxSegmentSize / recordLength);
+        final int segmentCount = (int) ((recordCount + recordsPerSegment - 1) / recordsPerSegment);
+        segments = new ByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            final long first = i * recordsPerSegment;
+            final long records = Math.min(recordsPerSegment, recordCount - first);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, first * recordLength, records * recordLength);
+        }
+        final long[] persisted = readPrefixIndex(filename, recordLength);
+        if (persisted != null && persisted[PREFIXES] == recordCount) {
+            System.arraycopy(persisted, 0, prefixStart, 0, prefixStart.length);
+        } else {
+            buildPrefixIndex();
+        }
+
+        logger.debug("KFF File {} mapped {} records in {} segments", filename, recordCount, segmentCount);
+    }
+
+    /**
+     * Read the prefix index persisted next to a file
+     *
+     * @param filename the sorted file of known values
+     * @param recordLength fixed record length in the file
+     * @return the index of the first record with each prefix followed by the record count, or null if there is no index
+     *         for the file as it is now
+     * @throws IOException if the index cannot be read
+     */
+    @Nullable
+    static long[] readPrefixIndex(String filename, int recordLength) throws IOException {
+        final File source = new File(filename);
+        final Path persisted = Path.of(filename + PREFIX_INDEX_SUFFIX);
+        if (!Files.isRegularFile(persisted) || Files.size(persisted) != PREFIX_INDEX_HEADER_SIZE + (PREFIXES + 1L) * Long.BYTES) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(persisted), 64 * 1024))) {
+            if (in.readInt() != PREFIX_INDEX_MAGIC || in.readInt() != PREFIX_INDEX_VERSION || in.readLong() != source.length()
+                    || in.readLong() != source.lastModified() || in.readInt() != recordLength) {
+                logger.info("Ignoring prefix index {} built from a different file", persisted);
+                return null;
+            }
+            final long[] starts = new long[PREFIXES + 1];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = in.readLong();
+                if (starts[i] < (i == 0 ? 0 : starts[i - 1])) {
+                    logger.info("Ignoring corrupt prefix index {}", persisted);
+                    return null;
+                }
+            }
+            return starts;
+        }
+    }
+
+    /**
+     * Persist the prefix index of a file, so that it is read rather than built when the file is opened
+     *
+     * @param filename the sorted file of known values, which must not change afterwards
+     * @param recordLength fixed record length in the file
+     * @param starts the index of the first record with each prefix followed by the record count
+     * @throws IOException if the index cannot be written
+     */
+    static void writePrefixIndex(String filename, int recordLength, long[] starts) throws IOException {
+        final File source = new File(filename);
+        final Path persisted = Path.of(filename + PREFIX_INDEX_SUFFIX);
+        // written aside and moved into place so an index is never read part written
+        final Path temp = Files.createTempFile(persisted.toAbsolutePath().getParent(), persisted.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                out.writeInt(PREFIX_INDEX_MAGIC);
+                out.writeInt(PREFIX_INDEX_VERSION);
+                out.writeLong(source.length());
+                out.writeLong(source.lastModified());
+                out.writeInt(recordLength);
+                for (long start : starts) {
+                    out.writeLong(start);
+                }
+            }
+            Files.move(temp, persisted, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Find where the records for each prefix begin. Since the records are sorted, each start is found by a binary search
+     * from the start of the one before.
+     */
+    private void buildPrefixIndex() {
+        long low = 0;
+        for (int prefix = 0; prefix < PREFIXES; prefix++) {
+            long high = recordCount;
+            while (low < high) {
+                final long mid = (low + high) >>> 1;
+                if (prefixOf(mid) < prefix) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            prefixStart[prefix] = low;
+        }
+        prefixStart[PREFIXES] = recordCount;
+    }
+
+    private int prefixOf(long index) {
+        return ((byteAt(index, 0) & 0xff) << 8) | (byteAt(index, 1) & 0xff);
+    }
+
+    /**
+     * Get a byte of a record. Only absolute reads are made of the shared buffers, so this is safe from any thread.
+     */
+    private byte byteAt(long index, int offset) {
+        final ByteBuffer segment = segments[(int) (index / recordsPerSegment)];
+        return segment.get((int) ((index % recordsPerSegment) * recordLength) + offset);
+    }
+
+    /**
+     * Get the number of records in the file
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Performs a binary search of the records sharing the first two bytes of the hash to see if a given HASH/CRC is in
+     * the list.
+     *
+     * @param hash Result of HASH calculation
+     * @param crc Result of CRC calculation
+     * @return true if the record is in the list, false if it isn't
+     */
+    boolean mappedSearch(@Nonnull byte[] hash, long crc) {
+        long low = 0;
+        long high = recordCount - 1;
+        if (hash.length >= 2 && recordLength >= 2) {
+            final int prefix = ((hash[0] & 0xff) << 8) | (hash[1] & 0xff);
+            low = prefixStart[prefix];
+            high = prefixStart[prefix + 1] - 1;
+        }
+
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+            final int c = compare(mid, hash, crc);
+            if (c < 0) {
+                high = mid - 1;
+            } else if (c > 0) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the given hash/crc to a record, in the same way as {@link KffFile} does.
+     *
+     * @param index the record to compare to
+     * @param hash HASH to compare to record
+     * @param crc CRC to compare to record
+     * @return &lt;0 if given value is less than record, &gt;0 if given value is greater than record, 0 if they match
+     */
+    private int compare(long index, @Nonnull byte[] hash, long crc) {
+        int i;
+        for (i = 0; i < hash.length && i < recordLength; i++) {
+            final int ihash = hash[i] & 0xff;
+            final int irec = byteAt(index, i) & 0xff;
+            if (ihash != irec) {
+                return ihash < irec ? -1 : 1;
+            }
+        }
+
+        // If the hashes match, check the CRCs.
+        if (crc != -1L) {
+            for (int j = 24; i < recordLength; i++, j -= 8) {
+                final int icrc = ((int) crc >> j) & 0xff;
+                final int irec = byteAt(index, i) & 0xff;
+                if (icrc != irec) {
+                    return icrc < irec ? -1 : 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean check(String fname, ChecksumResults csum) throws Exception {
+        final byte[] hash = csum.getHash(myPreferredAlgorithm);
+        if (hash == null) {
+            logger.warn("Filter cannot be used, {} not computed on {}", myPreferredAlgorithm, fname);
+            return false;
+        }
+        return mappedSearch(hash, csum.getCrc());
+    }
+
+    @Override
+    public boolean checkHash(String fname, ChecksumResults csum) throws Exception {
+        final byte[] hash = csum.getHash(myPreferredAlgorithm);
+        // a CRC of -1 matches any record with the hash
+        return hash != null && mappedSearch(hash, -1L);
+    }
+}
@@ -15,10 +15,19 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * KffMemcached checks Emissary hashes against a set of external memcached servers. If a given Emissary hash does not
@@ -40,6 +49,14 @@ import java.util.concurrent.TimeUnit;
  * MEMCACHED_IGNORE_VALUE_PATTERN: do not store values that contain this pattern (non-regexO MEMCACHED_FAILURE_MODE:
  * what to do in case of server failure MEMCACHED_STORE_ID_DUPE: boolean to store the id if it's hash is already
  * contained in memcached PREF_ALG: Which Emissary hash to use as the key stored in memcached
+ *
+ * To save a network round trip on each check, these options can also be set:
+ *
+ * MEMCACHED_NEAR_CACHE_SIZE: how many hashes to hold locally once they are known to be in memcached, 0 for none
+ * MEMCACHED_NEAR_CACHE_TTL_MILLIS: how long to hold a hash locally, no longer than the age-off MEMCACHED_BATCH_GETS:
+ * boolean to combine the lookups from concurrent checks into bulk gets MEMCACHED_MAX_BATCH_SIZE: the most keys in one
+ * bulk get MEMCACHED_WRITE_QUEUE_SIZE: how many writes may wait to be sent by a background thread, 0 to send them
+ * from the checking thread. Writes that do not fit are dropped, costing only a later miss that stores the hash again.
  */
 public class KffMemcached implements KffFilter {
 
@@ -101,6 +118,40 @@ public class KffMemcached implements KffFilter {
      */
     protected MemcachedClient client;
 
+    /**
+     * The number of hashes held locally once they are known to be in memcached, 0 for no near-cache
+     */
+    protected int nearCacheSize = 0;
+
+    /**
+     * How long a hash is held locally in milliseconds
+     */
+    protected long nearCacheTtlMillis = 60000L;
+
+    /**
+     * Whether to combine the lookups from concurrent checks into bulk gets
+     */
+    protected boolean batchGets = false;
+
+    /**
+     * The most keys in one bulk get
+     */
+    protected int maxBatchSize = 256;
+
+    /**
+     * How many writes may wait to be sent by a background thread, 0 to send them from the checking thread
+     */
+    protected int writeQueueSize = 0;
+
+    @Nullable
+    private NearCache nearCache = null;
+
+    @Nullable
+    private GetBatcher batcher = null;
+
+    @Nullable
+    private Writer writer = null;
+
     /**
      *
      * @param filename Unused
@@ -121,8 +172,22 @@ public class KffMemcached implements KffFilter {
      * @param testClient Memcached client to be used if specified (will instantiate a client if null)
      * @throws IOException is thrown if either the file cannot be read of memcached cannot be contacted
      */
-    @SuppressWarnings("PMD.UnusedFormalParameter")
     public KffMemcached(String testIdWithSpaces, String filterName, FilterType duplicate, @Nullable MemcachedClient testClient) throws IOException {
+        this(testIdWithSpaces, filterName, duplicate, testClient, ConfigUtil.getConfigInfo(KffMemcached.class));
+    }
+
+    /**
+     *
+     * @param testIdWithSpaces Unused
+     * @param filterName Name of the filter (typically sent in by KffChainLoader)
+     * @param duplicate Filter type (again, sent in by KffChainLoader)
+     * @param testClient Memcached client to be used if specified (will instantiate a client if null)
+     * @param configG the configuration to use
+     * @throws IOException is thrown if memcached cannot be contacted
+     */
+    @SuppressWarnings("PMD.UnusedFormalParameter")
+    public KffMemcached(String testIdWithSpaces, String filterName, FilterType duplicate, @Nullable MemcachedClient testClient, Configurator configG)
+            throws IOException {
         // Set logger to run time class
         logger = LoggerFactory.getLogger(this.getClass().getName());
         // Set the logger impl to use log4j
@@ -132,8 +197,6 @@ public class KffMemcached implements KffFilter {
         this.ftype = duplicate;
         this.filterName = filterName;
 
-        Configurator configG = ConfigUtil.getConfigInfo(KffMemcached.class);
-
         // Load up the list of servers
         Set<String> serversFromConfig = configG.findEntriesAsSet("MEMCACHED_SERVER");
         List<InetSocketAddress> servers = new ArrayList<>();
@@ -198,7 +261,31 @@ public class KffMemcached implements KffFilter {
             client = testClient;
         }
 
-        // logger.debug(client.toString());
+        // Ways to avoid waiting on the network
+        nearCacheSize = configG.findIntEntry("MEMCACHED_NEAR_CACHE_SIZE", nearCacheSize);
+        // Never hold a hash longer than memcached does
+        nearCacheTtlMillis = Math.min(configG.findLongEntry("MEMCACHED_NEAR_CACHE_TTL_MILLIS", nearCacheTtlMillis), ageoff * 1000L);
+        batchGets = configG.findBooleanEntry("MEMCACHED_BATCH_GETS", batchGets);
+        maxBatchSize = configG.findIntEntry("MEMCACHED_MAX_BATCH_SIZE", maxBatchSize);
+        writeQueueSize = configG.findIntEntry("MEMCACHED_WRITE_QUEUE_SIZE", writeQueueSize);
+
+        if (nearCacheSize > 0 && nearCacheTtlMillis > 0) {
+            nearCache = new NearCache(nearCacheSize, nearCacheTtlMillis);
+        }
+        if (batchGets) {
+            batcher = new GetBatcher(Math.max(1, maxBatchSize));
+            startDaemon(batcher, "batcher");
+        }
+        if (writeQueueSize > 0) {
+            writer = new Writer(writeQueueSize);
+            startDaemon(writer, "writer");
+        }
+    }
+
+    private void startDaemon(Runnable r, String role) {
+        Thread thread = new Thread(r, "KffMemcached " + filterName + " " + role);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
@@ -235,32 +322,96 @@ public class KffMemcached implements KffFilter {
 
         String key = Hexl.toUnformattedHexString(hash);
 
-        // Send the query
-        Future<Object> future = client.asyncGet(key);
-
-
-        // Let the TimeoutException propagate up
-        Object result = future.get(opTimeoutMillis, TimeUnit.MILLISECONDS);
+        // A hash known to be in memcached needs no query
+        Object result = nearCache == null ? null : nearCache.get(key);
+        if (result == null) {
+            // Let the TimeoutException propagate up
+            result = lookup(key);
+        }
 
         if (result != null) {
             if (storeIdDupe && !result.equals(id)) {
                 // As long as the id is not the same as what was already stored, then
                 // store it on its own
-                var unused = client.set(id, ageoff, key);
+                store(id, key);
                 // logger.debug("Storing duplicate Id: {} with value (hash) {}", id, key);
             }
+            if (nearCache != null) {
+                nearCache.put(key, result);
+            }
             // logger.debug("Found key: {} with value {}", key, (String) result);
             // Found the key
             return true;
         }
         // logger.debug("Did not find key: {}", key);
         // Did not find the key...store it and move on
-        var unused = client.set(key, ageoff, id);
+        store(key, id);
+        if (nearCache != null) {
+            // the next check of this hash finds what was just stored
+            nearCache.put(key, id);
+        }
         return false;
 
 
     }
 
+    /**
+     * Look up a key in memcached, on its own or in a bulk get with the keys of other checks
+     *
+     * @param key the key to look up
+     * @return the value stored for the key, or null if there is none
+     * @throws Exception if memcached cannot be queried in time
+     */
+    @Nullable
+    protected Object lookup(String key) throws Exception {
+        if (batcher == null) {
+            Future<Object> future = client.asyncGet(key);
+            return future.get(opTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        // the wait covers a bulk get already in progress as well as the one for this key
+        return batcher.request(key).get(2 * opTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Store a key in memcached without waiting for the result
+     *
+     * @param key the key to store
+     * @param value the value for the key
+     */
+    protected void store(String key, Object value) {
+        if (writer == null) {
+            var unused = client.set(key, ageoff, value);
+        } else {
+            writer.offer(key, value);
+        }
+    }
+
+    /**
+     * Get the number of writes dropped because the write queue was full
+     */
+    public long getDroppedWrites() {
+        return writer == null ? 0 : writer.dropped.get();
+    }
+
+    /**
+     * Get the number of bulk gets sent
+     */
+    public long getBulkGets() {
+        return batcher == null ? 0 : batcher.bulkGets.get();
+    }
+
+    /**
+     * Stop the background threads, sending the writes still waiting
+     */
+    public void shutdown() {
+        if (batcher != null) {
+            batcher.stop();
+        }
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
     public String getPreferredAlgorithm() {
         return preferredAlgorithm;
     }
@@ -279,4 +430,178 @@ public class KffMemcached implements KffFilter {
         return ftype;
     }
 
+    /**
+     * Hashes known to be in memcached, least recently used first, each held until it expires
+     */
+    private static final class NearCache {
+        private final long ttlMillis;
+        private final Map<String, Held> entries;
+
+        private static final class Held {
+            final Object value;
+            final long expires;
+
+            Held(Object value, long expires) {
+                this.value = value;
+                this.expires = expires;
+            }
+        }
+
+        NearCache(int size, long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Held> eldest) {
+                    return size() > size;
+                }
+            };
+        }
+
+        @Nullable
+        synchronized Object get(String key) {
+            Held held = entries.get(key);
+            if (held == null) {
+                return null;
+            }
+            if (held.expires - System.nanoTime() < 0) {
+                entries.remove(key);
+                return null;
+            }
+            return held.value;
+        }
+
+        synchronized void put(String key, Object value) {
+            entries.put(key, new Held(value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis)));
+        }
+    }
+
+    /**
+     * Collects the keys looked up by concurrent checks and sends them in bulk gets from one thread. Keys that arrive
+     * while a bulk get is out go in the next one, and checks of the same key share a lookup.
+     */
+    private final class GetBatcher implements Runnable {
+        private final int maxBatchSize;
+        private final Map<String, CompletableFuture<Object>> pending = new LinkedHashMap<>();
+        private final AtomicLong bulkGets = new AtomicLong();
+        private boolean stopped = false;
+
+        GetBatcher(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        synchronized CompletableFuture<Object> request(String key) {
+            if (stopped) {
+                CompletableFuture<Object> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("KffMemcached " + filterName + " is shut down"));
+                return failed;
+            }
+            CompletableFuture<Object> future = pending.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                pending.put(key, future);
+                notifyAll();
+            }
+            return future;
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+
+        @Nullable
+        private synchronized Map<String, CompletableFuture<Object>> nextBatch() throws InterruptedException {
+            while (pending.isEmpty() && !stopped) {
+                wait();
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            Map<String, CompletableFuture<Object>> batch = new LinkedHashMap<>();
+            Iterator<Map.Entry<String, CompletableFuture<Object>>> it = pending.entrySet().iterator();
+            while (it.hasNext() && batch.size() < maxBatchSize) {
+                Map.Entry<String, CompletableFuture<Object>> e = it.next();
+                batch.put(e.getKey(), e.getValue());
+                it.remove();
+            }
+            return batch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Map<String, CompletableFuture<Object>> batch;
+                while ((batch = nextBatch()) != null) {
+                    try {
+                        bulkGets.incrementAndGet();
+                        Map<String, Object> found = client.asyncGetBulk(batch.keySet()).get(opTimeoutMillis, TimeUnit.MILLISECONDS);
+                        for (Map.Entry<String, CompletableFuture<Object>> e : batch.entrySet()) {
+                            e.getValue().complete(found.get(e.getKey()));
+                        }
+                    } catch (ExecutionException | TimeoutException | RuntimeException e) {
+                        // each check waiting on this batch fails as a single get would
+                        for (CompletableFuture<Object> future : batch.values()) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends writes from a bounded queue, dropping those that do not fit rather than holding up a check
+     */
+    private final class Writer implements Runnable {
+        private final BlockingQueue<Object[]> queue;
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean stopped = false;
+
+        Writer(int size) {
+            queue = new ArrayBlockingQueue<>(size);
+        }
+
+        void offer(String key, Object value) {
+            if (stopped || !queue.offer(new Object[] {key, value})) {
+                if (dropped.incrementAndGet() % 1000 == 1) {
+                    logger.warn("Dropped {} writes to memcached, the write queue is full", dropped.get());
+                }
+            }
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        private void send(Object[] write) {
+            try {
+                var unused = client.set((String) write[0], ageoff, write[1]);
+            } catch (RuntimeException e) {
+                logger.debug("Could not write {} to memcached", write[0], e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    Object[] write = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (write != null) {
+                        send(write);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // whatever was queued before the stop is still sent
+            Object[] write;
+            while ((write = queue.poll()) != null) {
+                send(write);
+            }
+        }
+    }
 }
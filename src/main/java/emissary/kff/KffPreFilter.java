@@ -0,0 +1,368 @@
+package emissary.kff;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A blocked Bloom filter of the hashes in a sorted known file filter, checked before the file itself so that hashes
+ * that are definitely not in the file never cost a search of it. Almost every hash checked is not in any known file,
+ * so almost every check is answered here.
+ * </p>
+ * <p>
+ * Each hash is keyed by its first eight bytes, which are already uniformly distributed for any digest the filters are
+ * built on. A key picks one 512 bit block and sets one bit in each of the block's eight words, so a check reads a
+ * single cache line. The filter can only give false positives, never false negatives, which the backing filter then
+ * rules out.
+ * </p>
+ * <p>
+ * The filter is persisted next to the file it was built from and reused while that file is unchanged.
+ * </p>
+ */
+public class KffPreFilter {
+    private static final Logger logger = LoggerFactory.getLogger(KffPreFilter.class);
+
+    static final int MAGIC = 0x454b5046; // EKPF
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+
+    /** Suffix of the persisted filter, added to the name of the file it was built from */
+    public static final String SUFFIX = ".prefilter";
+
+    /** Default number of bits for each key, giving a false positive rate of well under one percent */
+    public static final int DEFAULT_BITS_PER_KEY = 12;
+
+    /** Number of bytes of each hash used as the key */
+    static final int KEY_LENGTH = 8;
+
+    private static final int WORDS_PER_BLOCK = 8;
+
+    /** Odd multipliers picking the bit set in each word of a block */
+    private static final int[] SALT = {0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d, 0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31};
+
+    private final long[] bits;
+    private final int blockCount;
+    private final long keyCount;
+    private final String algorithm;
+
+    private final Meter lookups = new Meter();
+    private final Meter definiteMisses = new Meter();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Create an empty filter sized for a number of keys
+     *
+     * @param keyCount the number of keys that will be added
+     * @param bitsPerKey bits of filter for each key
+     * @param algorithm the algorithm of the hashes that are added
+     */
+    KffPreFilter(long keyCount, int bitsPerKey, String algorithm) {
+        this(new long[blocks(keyCount, bitsPerKey) * WORDS_PER_BLOCK], keyCount, algorithm);
+    }
+
+    private KffPreFilter(long[] bits, long keyCount, String algorithm) {
+        this.bits = bits;
+        this.blockCount = bits.length / WORDS_PER_BLOCK;
+        this.keyCount = keyCount;
+        this.algorithm = algorithm;
+    }
+
+    private static int blocks(long keyCount, int bitsPerKey) {
+        Validate.isTrue(bitsPerKey > 0, "bitsPerKey must be positive");
+        final long blocks = Math.max(1, (keyCount * bitsPerKey + 511) / 512);
+        Validate.isTrue(blocks <= Integer.MAX_VALUE / WORDS_PER_BLOCK, "Too many keys for a pre-filter: " + keyCount);
+        return (int) blocks;
+    }
+
+    /**
+     * Finish spreading the bits of a key, from MurmurHash3
+     */
+    static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private int blockOf(long h) {
+        return (int) (((h >>> 32) * blockCount) >>> 32) * WORDS_PER_BLOCK;
+    }
+
+    private static long bitOf(long h, int word) {
+        return 1L << ((((int) h) * SALT[word]) >>> 26);
+    }
+
+    /**
+     * Add a key
+     *
+     * @param key the first eight bytes of a hash, big endian
+     */
+    void add(long key) {
+        final long h = mix(key);
+        final int block = blockOf(h);
+        for (int word = 0; word < WORDS_PER_BLOCK; word++) {
+            bits[block + word] |= bitOf(h, word);
+        }
+    }
+
+    /**
+     * Test a key
+     *
+     * @param key the first eight bytes of a hash, big endian
+     * @return false if the key was definitely not added
+     */
+    boolean mightContainKey(long key) {
+        final long h = mix(key);
+        final int block = blockOf(h);
+        for (int word = 0; word < WORDS_PER_BLOCK; word++) {
+            if ((bits[block + word] & bitOf(h, word)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether the hash for this filter's algorithm might be in the known file. Hashes that were not computed or are
+     * too short to key always might be.
+     *
+     * @param csum the computed sums
+     * @return false if the hash is definitely not in the file
+     */
+    public boolean mightContain(ChecksumResults csum) {
+        lookups.mark();
+        if (!isKeyed(csum)) {
+            return true;
+        }
+        if (mightContainKey(ByteBuffer.wrap(csum.getHash(algorithm)).getLong())) {
+            return true;
+        }
+        definiteMisses.mark();
+        return false;
+    }
+
+    /**
+     * Test whether the sums hold a hash this filter can look up. Sums without one always pass.
+     *
+     * @param csum the computed sums
+     * @return true if the hash for this filter's algorithm was computed and is long enough to key
+     */
+    public boolean isKeyed(ChecksumResults csum) {
+        final byte[] hash = csum.getHash(algorithm);
+        return hash != null && hash.length >= KEY_LENGTH;
+    }
+
+    /**
+     * Record that a keyed hash that passed this filter was not in the file after all
+     */
+    public void falsePositive() {
+        falsePositives.increment();
+    }
+
+    /**
+     * Get the fraction of hashes not in the file that this filter passed on to the file
+     */
+    public double getFalsePositiveRate() {
+        final long fp = falsePositives.sum();
+        final long negatives = fp + definiteMisses.getCount();
+        return negatives == 0 ? 0.0 : (double) fp / negatives;
+    }
+
+    /**
+     * Get the number of hashes checked against this filter
+     */
+    public long getLookupCount() {
+        return lookups.getCount();
+    }
+
+    /**
+     * Get the number of hashes this filter found were definitely not in the file
+     */
+    public long getDefiniteMissCount() {
+        return definiteMisses.getCount();
+    }
+
+    /**
+     * Get the algorithm of the hashes in this filter
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Get the number of keys this filter was built from
+     */
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Register the lookup rates and false positive rate of this filter
+     *
+     * @param registry where to register the metrics
+     * @param name the prefix for the metric names
+     */
+    public void registerMetrics(MetricRegistry registry, String name) {
+        register(registry, MetricRegistry.name(name, "preFilter", "lookups"), lookups);
+        register(registry, MetricRegistry.name(name, "preFilter", "definiteMisses"), definiteMisses);
+        register(registry, MetricRegistry.name(name, "preFilter", "falsePositiveRate"), (Gauge<Double>) this::getFalsePositiveRate);
+    }
+
+    private static void register(MetricRegistry registry, String name, Metric metric) {
+        // a reloaded filter replaces the one before it
+        registry.remove(name);
+        registry.register(name, metric);
+    }
+
+    /**
+     * Load the persisted filter for a sorted known file, or build and persist one if there is none for the file as it is
+     * now. A filter that cannot be written is still used.
+     *
+     * @param filename the sorted known file
+     * @param recordLength fixed record length in the file, starting with the hash
+     * @param algorithm the algorithm of the hashes in the file
+     * @param bitsPerKey bits of filter for each record when building a new one
+     * @return the filter, or null if the records are too short to key
+     * @throws IOException if the known file cannot be read
+     */
+    @Nullable
+    public static KffPreFilter load(String filename, int recordLength, String algorithm, int bitsPerKey) throws IOException {
+        if (recordLength < KEY_LENGTH) {
+            logger.info("Records of {} are too short for a pre-filter", filename);
+            return null;
+        }
+        final File source = new File(filename);
+        final Path persisted = Path.of(filename + SUFFIX);
+        final KffPreFilter existing = read(persisted, source, recordLength, algorithm);
+        if (existing != null) {
+            logger.debug("Loaded pre-filter {} of {} keys", persisted, existing.keyCount);
+            return existing;
+        }
+
+        final KffPreFilter built = build(source, recordLength, bitsPerKey, algorithm);
+        try {
+            built.write(persisted, source, recordLength);
+            logger.debug("Built pre-filter {} of {} keys", persisted, built.keyCount);
+        } catch (IOException e) {
+            logger.warn("Cannot persist pre-filter {}, it will be built again next time: {}", persisted, e.getMessage());
+        }
+        return built;
+    }
+
+    static KffPreFilter build(File source, int recordLength, int bitsPerKey, String algorithm) throws IOException {
+        final long records = source.length() / recordLength;
+        final KffPreFilter filter = new KffPreFilter(records, bitsPerKey, algorithm);
+        final byte[] buffer = new byte[recordLength * 4096];
+        try (InputStream is = Files.newInputStream(source.toPath())) {
+            long remaining = records;
+            while (remaining > 0) {
+                final int wanted = (int) Math.min(buffer.length / recordLength, remaining) * recordLength;
+                final int read = is.readNBytes(buffer, 0, wanted);
+                if (read < wanted) {
+                    throw new IOException("Unexpected end of " + source);
+                }
+                final ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+                for (int offset = 0; offset < read; offset += recordLength) {
+                    filter.add(bb.getLong(offset));
+                }
+                remaining -= read / recordLength;
+            }
+        }
+        return filter;
+    }
+
+    @Nullable
+    private static KffPreFilter read(Path persisted, File source, int recordLength, String algorithm) throws IOException {
+        if (!Files.isRegularFile(persisted)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(persisted, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != source.length()
+                    || header.getLong() != source.lastModified() || header.getInt() != recordLength) {
+                logger.info("Ignoring pre-filter {} built from a different file", persisted);
+                return null;
+            }
+            final long keyCount = header.getLong();
+            final int blockCount = header.getInt();
+            if (blockCount <= 0 || channel.size() != HEADER_SIZE + (long) blockCount * WORDS_PER_BLOCK * Long.BYTES) {
+                logger.info("Ignoring truncated pre-filter {}", persisted);
+                return null;
+            }
+            final long[] bits = new long[blockCount * WORDS_PER_BLOCK];
+            final ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            int filled = 0;
+            while (filled < bits.length) {
+                chunk.clear();
+                chunk.limit(Math.min(chunk.capacity(), (bits.length - filled) * Long.BYTES));
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk) < 0) {
+                        throw new IOException("Unexpected end of " + persisted);
+                    }
+                }
+                chunk.flip();
+                final LongBuffer longs = chunk.asLongBuffer();
+                final int count = longs.remaining();
+                longs.get(bits, filled, count);
+                filled += count;
+            }
+            return new KffPreFilter(bits, keyCount, algorithm);
+        }
+    }
+
+    private void write(Path persisted, File source, int recordLength) throws IOException {
+        // written aside and moved into place so a filter is never read part written
+        final Path temp = Files.createTempFile(persisted.toAbsolutePath().getParent(), persisted.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(source.length()).putLong(source.lastModified()).putInt(recordLength)
+                        .putLong(keyCount).putInt(blockCount).flip();
+                writeFully(channel, header);
+                final ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+                for (int written = 0; written < bits.length;) {
+                    chunk.clear();
+                    final int count = Math.min(chunk.capacity() / Long.BYTES, bits.length - written);
+                    chunk.asLongBuffer().put(bits, written, count);
+                    chunk.limit(count * Long.BYTES);
+                    writeFully(channel, chunk);
+                    written += count;
+                }
+            }
+            Files.move(temp, persisted, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import emissary.util.Hexl;
 import jakarta.annotation.Nullable;
 
 import java.io.Serializable;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -34,6 +36,12 @@ public class KffResult implements Serializable {
     @Nullable
     String ssdeep = null;
 
+    @Nullable
+    List<ChunkHasher.Chunk> chunks = null;
+
+    // Chunks found in a filter of known chunks, by their index
+    BitSet knownChunks = new BitSet();
+
     Map<String, byte[]> hashComp = new TreeMap<>();
 
     /**
@@ -49,6 +57,7 @@ public class KffResult implements Serializable {
     public KffResult(ChecksumResults csum) {
         this.setCrc32(csum.getCrc());
         this.setSsdeep(csum.getSsdeep());
+        this.setChunks(csum.getChunks());
         for (String alg : csum.getResultsPresent()) {
             hashComp.put(alg, csum.getHash(alg));
         }
@@ -148,6 +157,80 @@ public class KffResult implements Serializable {
         this.ssdeep = ssdeep;
     }
 
+    /**
+     * Gets the content-defined chunks of the data
+     *
+     * @return the chunks in order, or null if the data was not chunked
+     */
+    @Nullable
+    public List<ChunkHasher.Chunk> getChunks() {
+        return this.chunks;
+    }
+
+    /**
+     * Sets the content-defined chunks of the data
+     *
+     * @param chunks the chunks in order
+     */
+    public void setChunks(@Nullable List<ChunkHasher.Chunk> chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * Record that one of the chunks is known
+     *
+     * @param index the index of the chunk
+     */
+    public void setChunkKnown(int index) {
+        knownChunks.set(index);
+    }
+
+    /**
+     * Determine whether one of the chunks is known
+     *
+     * @param index the index of the chunk
+     */
+    public boolean isChunkKnown(int index) {
+        return knownChunks.get(index);
+    }
+
+    /**
+     * Get the number of bytes of data in known chunks
+     */
+    public long getKnownChunkBytes() {
+        long bytes = 0;
+        if (chunks != null) {
+            for (int i = knownChunks.nextSetBit(0); i >= 0 && i < chunks.size(); i = knownChunks.nextSetBit(i + 1)) {
+                bytes += chunks.get(i).getLength();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the ranges of the data in known chunks, adjoining chunks merged into one range
+     *
+     * @return the ranges in order, each as its start and its exclusive end joined by a dash, separated by commas, or null
+     *         if no chunk is known
+     */
+    @Nullable
+    public String getKnownChunkRanges() {
+        if (chunks == null || knownChunks.isEmpty()) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder();
+        int i = knownChunks.nextSetBit(0);
+        while (i >= 0 && i < chunks.size()) {
+            final int last = Math.min(knownChunks.nextClearBit(i), chunks.size()) - 1;
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(chunks.get(i).getOffset()).append('-').append(chunks.get(last).getEnd());
+            i = knownChunks.nextSetBit(last + 1);
+        }
+        return sb.toString();
+    }
+
     /**
      * Gets the value of sha[]
      *
@@ -227,6 +310,9 @@ public class KffResult implements Serializable {
         if (alg.equals("SSDEEP")) {
             return getSsdeep();
         }
+        if (alg.equals("CHUNKS")) {
+            return chunks == null ? null : ChunkHasher.format(chunks);
+        }
 
         byte[] digest = hashComp.get(alg);
         if (digest == null) {
@@ -1,6 +1,7 @@
 package emissary.kff;
 
 import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.util.io.BufferPool;
 
 import jakarta.annotation.Nullable;
 import org.apache.commons.io.IOUtils;
@@ -10,7 +11,6 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
@@ -28,17 +28,17 @@ public final class Ssdeep {
 
     private static final Logger logger = LoggerFactory.getLogger(Ssdeep.class);
 
-    private static final int SPAMSUM_LENGTH = 64;
+    static final int SPAMSUM_LENGTH = 64;
     private static final int MIN_BLOCKSIZE = 3;
 
     @SuppressWarnings("PMD.UselessParentheses")
     public static final int FUZZY_MAX_RESULT = SPAMSUM_LENGTH + (SPAMSUM_LENGTH / 2 + 20);
 
     /** The window size for the rolling hash. */
-    private static final int ROLLING_WINDOW_SIZE = 7;
+    static final int ROLLING_WINDOW_SIZE = 7;
 
-    /** The buffer size to use when reading data from a file. */
-    private static final int BUFFER_SIZE = 8192;
+    /** The buffer size to use when reading data from a file or channel. */
+    private static final int BUFFER_SIZE = 1024 * 1024;
 
     /** FNV hash initial value, 32-bit unsigned. */
     private static final long HASH_INIT = 0x28021967;
@@ -61,336 +61,262 @@ public final class Ssdeep {
      * @param v The value to encode.
      * @return The base64 encoding of the low 6 bits of {@code v}. The returned value is a code point expressed as a byte.
      */
-    private static byte b64EncodeLowBits(final long v) {
-        return b64Table[((int) v) & 0x3f];
+    private static byte b64EncodeLowBits(final int v) {
+        return b64Table[v & 0x3f];
     }
 
-    private static final class SsContext {
+    /**
+     * Incremental SpamSum hashing of data that is supplied in pieces and only read once.
+     *
+     * <p>
+     * Rather than hashing the data again with a smaller block size when the estimate from the expected length turns out to
+     * be too large, the estimated block size and each smaller one are hashed together, fed from the same rolling hash. The
+     * smaller ones are dropped as soon as a larger block size is known to produce a long enough signature. Block sizes are
+     * always MIN_BLOCKSIZE times a power of two, so the rolling hash h is at a reset point for block size {@code 3 << k}
+     * exactly when h + 1 is a multiple of 3 and of {@code 1 << k}, and one test of h + 1 finds every block size that resets
+     * at a byte.
+     * </p>
+     * <p>
+     * Only the low six bits of each FNV sum reach the signature, and they depend only on the low six bits of the sum
+     * before, so each sum is kept in an int that is left to overflow and multiplied by the prime modulo 64. A reset
+     * point for a block size is also one for every smaller block size, so block sizes last reset at the same byte have
+     * the same sum, and the sum for the second part at one block size is the sum for the first part at twice that block
+     * size. The sums are kept once for each run of block sizes sharing them, which for most data is one or two runs.
+     * The rolling hash is kept in local variables while a piece is hashed, reading the bytes leaving its window from
+     * the piece itself. The signature is the same as the original SpamSum gives for the same bytes.
+     * </p>
+     */
+    static final class Hasher {
 
-        /** A buffer for the main hash output. */
-        private final byte[] fuzzHash1 = new byte[SPAMSUM_LENGTH + 1];
+        /** The low six bits of HASH_INIT */
+        private static final int SUM_INIT = (int) (HASH_INIT & 0x3f);
 
-        /** A buffer for the secondary hash output. */
-        private final byte[] fuzzHash2 = new byte[SPAMSUM_LENGTH / 2 + 1];
+        /** HASH_PRIME modulo 64, all of it that reaches the low six bits of a sum */
+        private static final int SUM_PRIME = (int) (HASH_PRIME & 0x3f);
 
-        /** The count of output bytes currently stored in {@link #fuzzHash1}, initially zero. */
-        private int fuzzLen1;
+        /** The rolling window, each value in the range 0..255 */
+        private final int[] window = new int[ROLLING_WINDOW_SIZE];
 
-        /** The count of output bytes currently stored in {@link #fuzzHash2}, initially zero. */
-        private int fuzzLen2;
+        private int windowPosition;
 
-        private long sumHash1; // Initially zero.
-        private long sumHash2; // Initially zero.
-        private long blockSize; // Initialized by constructor.
+        /** The parts of the rolling hash, 32-bit unsigned in 32-bit ints */
+        private int h1;
+        private int h2;
+        private int h3;
 
-        /**
-         * Estimate the block size to use.
-         *
-         * @param expectedInputLength The expected amount of data to be processed, in bytes. A 0 value can be used if the length
-         *        is unknown, in which case a default block size is returned.
-         * @return The estimated block size to use.
-         */
-        private static long estimateBlockSize(final long expectedInputLength) {
-            long blockSize = MIN_BLOCKSIZE;
-            while ((blockSize * SPAMSUM_LENGTH) < expectedInputLength) {
-                blockSize *= 2;
-            }
-            return blockSize;
-        }
-
-        /**
-         * Construct a spam sum context to process a file.
-         *
-         * @param f The file that will be processed, if known. If non-{@code null}, the length of the file is used to guess the
-         *        hash block size to use.
-         */
-        public SsContext(@Nullable final File f) {
-            final long expectedInputLength = (f != null) ? f.length() : 0;
-            this.blockSize = estimateBlockSize(expectedInputLength);
-        }
+        /** The largest block size is {@code MIN_BLOCKSIZE << maxLevel} */
+        private final int maxLevel;
 
-        /**
-         * Construct a spam sum context to process a byte array.
-         *
-         * @param data The bytes that will be processed, if known. If non-{@code null}, the length of the array is used to guess
-         *        the hash block size to use.
-         */
-        public SsContext(@Nullable final byte[] data) {
-            final long expectedInputLength = (data != null) ? data.length : 0;
-            this.blockSize = estimateBlockSize(expectedInputLength);
-        }
+        /** The smallest block size that may still give the signature is {@code MIN_BLOCKSIZE << minLevel} */
+        private int minLevel;
 
         /**
-         * Construct a spam sum context to process a {@link SeekableByteChannel}
-         *
-         * @param sbcf The channel that will be processed, if known. If non-{@code null}, the length of the channel is used to
-         *        guess the hash block size to use.
+         * Runs of levels sharing a sum, from minLevel up to maxLevel + 1, whose sum is the second part's at maxLevel. Run i
+         * ends at level runEnd[i] and starts after the end of the run before it.
          */
-        public SsContext(final SeekableByteChannelFactory sbcf) {
-            long expectedInputLength = 0;
+        private final int[] runEnd;
+        private final int[] runSum;
+        private int runs;
 
-            try (SeekableByteChannel sbc = sbcf.create()) {
-                expectedInputLength = sbc.size();
-            } catch (final IOException ignored) {
-                // Ignore
-            }
+        /** Scratch space for rebuilding the runs */
+        private final int[] nextRunEnd;
+        private final int[] nextRunSum;
 
-            this.blockSize = estimateBlockSize(expectedInputLength);
-        }
+        /** For each block size, the two parts of the signature so far */
+        private final byte[][] fuzzHash1;
+        private final byte[][] fuzzHash2;
+        private final int[] fuzzLen1;
+        private final int[] fuzzLen2;
 
         /**
-         * A simple non-rolling hash, based on the FNV hash
-         * 
-         * @param b The next byte value, assumed to be in the range 0..255.
-         * @param h The existing hash value, 32-bit unsigned.
-         * @return The updated hash value, 32-bit unsigned.
+         * Start hashing
+         *
+         * @param expectedInputLength The expected amount of data in bytes, used to estimate the block size, 0 if unknown.
          */
-        private static long updateSumHash(final int b, final long h) {
-            return ((h * HASH_PRIME) ^ b) & MASK32;
+        Hasher(final long expectedInputLength) {
+            int level = 0;
+            while ((((long) MIN_BLOCKSIZE << level) * SPAMSUM_LENGTH) < expectedInputLength) {
+                level++;
+            }
+            this.maxLevel = level;
+            this.runEnd = new int[level + 2];
+            this.runSum = new int[level + 2];
+            this.nextRunEnd = new int[level + 2];
+            this.nextRunSum = new int[level + 2];
+            this.runEnd[0] = level + 1;
+            this.runSum[0] = SUM_INIT;
+            this.runs = 1;
+            this.fuzzHash1 = new byte[level + 1][SPAMSUM_LENGTH];
+            this.fuzzHash2 = new byte[level + 1][SPAMSUM_LENGTH / 2];
+            this.fuzzLen1 = new int[level + 1];
+            this.fuzzLen2 = new int[level + 1];
         }
 
         /**
-         * Apply some bytes to a SpamSum context.
+         * Hash some more of the data
          *
-         * @param rollState The rolling hash state to use.
          * @param buffer A buffer containing the input bytes.
          * @param start The starting offset in {@code buffer}, inclusive.
          * @param end The ending offset in {@code buffer}, exclusive.
          */
-        @SuppressWarnings("PMD.CollapsibleIfStatements")
-        private void applyBytes(final RollingState rollState, final byte[] buffer, final int start, final int end) {
-            // At each byte we update the rolling hash and the normal
-            // hash. When the rolling hash hits the reset value, we
-            // emit the normal hash as an element of the signature and
-            // reset both hashes.
+        void update(final byte[] buffer, final int start, final int end) {
+            final int[] win = this.window;
+            final int[] sums = this.runSum;
+            final int inBuffer = start + ROLLING_WINDOW_SIZE;
+            int pos = this.windowPosition;
+            int r1 = this.h1;
+            int r2 = this.h2;
+            int r3 = this.h3;
+            int count = this.runs;
+            int s0 = sums[0];
+            int s1 = sums[1];
+            long resetMask = (1L << this.minLevel) - 1;
+
             for (int i = start; i < end; i++) {
-                // Get the next input byte and normalize to 0..255.
-                final int nextByte = ((int) buffer[i]) & 0xff;
-
-                // Apply the next byte to the hashes.
-                this.sumHash1 = updateSumHash(nextByte, this.sumHash1);
-                this.sumHash2 = updateSumHash(nextByte, this.sumHash2);
-                final long rollingHash = rollState.roll(nextByte);
-
-                if ((rollingHash % this.blockSize) == (this.blockSize - 1)) {
-                    // We have hit a reset point. We now emit a hash
-                    // which is based on all bytes in the input
-                    // between the last reset point and this one.
-                    if (this.fuzzLen1 < (SPAMSUM_LENGTH - 1)) {
-                        // We can have a problem with the tail
-                        // overflowing. The easiest way to cope with
-                        // this is to only reset the second hash if we
-                        // have room for more characters in our
-                        // signature. This has the effect of combining
-                        // the last few pieces of the message into a
-                        // single piece
-                        this.fuzzHash1[this.fuzzLen1++] = b64EncodeLowBits(this.sumHash1);
-                        this.sumHash1 = HASH_INIT;
-                    }
+                final int b = buffer[i] & 0xff;
 
-                    // This produces a second signature with a block size
-                    // of blockSize*2. By producing dual signatures in
-                    // this way the effect of small changes in the message
-                    // size near a block size boundary is greatly reduced.
-                    //
-                    // NOTE: we only have to check this when the main
-                    // signature has hit a reset point, because
-                    // mathematically:
-                    //
-                    // [ h === -1 (mod 2*bs) ] --implies--> [ h === -1 (mod bs) ]
-                    //
-                    // In other words, if this condition is true then the
-                    // main signature condition must always also be true.
-                    // Therefore this secondary signature condition can
-                    // only potentially be true if the main signature
-                    // condition (which we've already checked) is true.
-                    if ((rollingHash % (this.blockSize * 2)) == ((this.blockSize * 2) - 1)) {
-                        if (this.fuzzLen2 < (SPAMSUM_LENGTH / 2 - 1)) {
-                            this.fuzzHash2[this.fuzzLen2++] = b64EncodeLowBits(this.sumHash2);
-                            this.sumHash2 = HASH_INIT;
-                        }
+                // The rolling hash, wrapping at 32 bits. The byte leaving the window is in the buffer unless it came in an
+                // earlier piece.
+                final int leaving;
+                if (i >= inBuffer) {
+                    leaving = buffer[i - ROLLING_WINDOW_SIZE] & 0xff;
+                } else {
+                    leaving = win[pos];
+                    win[pos] = b;
+                    pos = (pos == ROLLING_WINDOW_SIZE - 1) ? 0 : pos + 1;
+                }
+                r2 += ROLLING_WINDOW_SIZE * b - r1;
+                r1 += b - leaving;
+                r3 = (r3 << 5) ^ b;
+
+                s0 = (s0 * SUM_PRIME) ^ b;
+                if (count > 1) {
+                    s1 = (s1 * SUM_PRIME) ^ b;
+                    for (int run = 2; run < count; run++) {
+                        sums[run] = (sums[run] * SUM_PRIME) ^ b;
                     }
                 }
-            }
-        }
 
-        /**
-         * Discard any existing hash state and prepare to compute a new hash. This should be followed by calls to
-         * {@link #applyBytes(RollingState, byte[], int, int)} to provide the data, and then
-         * {@link #finishHashing(RollingState)} to complete the computations.
-         */
-        private void beginHashing() {
-            this.fuzzLen1 = 0;
-            this.fuzzLen2 = 0;
-            this.sumHash1 = HASH_INIT;
-            this.sumHash2 = HASH_INIT;
-        }
+                final long next = ((r1 + r2 + r3) & MASK32) + 1;
+                if ((next & resetMask) == 0 && (next % MIN_BLOCKSIZE) == 0) {
+                    sums[0] = s0;
+                    sums[1] = s1;
+                    reset(Long.numberOfTrailingZeros(next));
+                    s0 = sums[0];
+                    s1 = sums[1];
+                    count = this.runs;
+                    resetMask = (1L << this.minLevel) - 1;
+                }
+            }
+            sums[0] = s0;
+            sums[1] = s1;
 
-        /**
-         * Truncate an array if larger than the given length.
-         *
-         * @param input The input array.
-         * @param maxLength The desired maximum array length.
-         * @return If {@code input} is no larger than {@code maxLength}, this just returns {@code input}. Otherwise this returns
-         *         a new array with the same content as {@code input} but with the length truncated to {@code maxLength}.
-         */
-        private static byte[] truncateArray(final byte[] input, final int maxLength) {
-            if (input.length == maxLength) {
-                return input;
-            } else {
-                return Arrays.copyOf(input, maxLength);
+            if (end - start >= ROLLING_WINDOW_SIZE) {
+                for (int i = 0; i < ROLLING_WINDOW_SIZE; i++) {
+                    win[i] = buffer[end - ROLLING_WINDOW_SIZE + i] & 0xff;
+                }
+                pos = 0;
             }
+            this.windowPosition = pos;
+            this.h1 = r1;
+            this.h2 = r2;
+            this.h3 = r3;
         }
 
         /**
-         * Finish hashing and generate the final signature. This should be done after all bytes have been applied with
-         * {@link #applyBytes(RollingState, byte[], int, int)}.
-         *
-         * @param rollState The rolling hash state used during hashing.
-         * @return The final signature.
+         * Get the sum for the first part of the signature at a level, or for the second part at the level below
          */
-        private SpamSumSignature finishHashing(final RollingState rollState) {
-            if (rollState.getHash() != 0) {
-                this.fuzzHash1[this.fuzzLen1++] = b64EncodeLowBits(this.sumHash1);
-                this.fuzzHash2[this.fuzzLen2++] = b64EncodeLowBits(this.sumHash2);
+        private int sum(final int level) {
+            int run = 0;
+            while (this.runEnd[run] < level) {
+                run++;
             }
-
-            final byte[] finalHash1 = truncateArray(this.fuzzHash1, this.fuzzLen1);
-            final byte[] finalHash2 = truncateArray(this.fuzzHash2, this.fuzzLen2);
-            return new SpamSumSignature(this.blockSize, finalHash1, finalHash2);
+            return this.runSum[run];
         }
 
         /**
-         * Generate the hash for some input.
-         *
-         * <p>
-         * The computations will use the current block size from the context, but any other existing hash state will be
-         * discarded.
+         * Emit a character of the signature for each block size at a reset point
          *
-         * @param data The bytes to hash.
-         * @return The signature for the given data.
+         * @param twos The power of two dividing the rolling hash plus one, so every level up to it is at a reset point
          */
-        public SpamSumSignature generateHash(@Nullable final byte[] data) {
-            beginHashing();
-            final RollingState rollState = new RollingState();
-
-            if (data != null) {
-                applyBytes(rollState, data, 0, data.length);
-            }
-
-            return finishHashing(rollState);
-        }
-
-        public SpamSumSignature generateHash(final SeekableByteChannelFactory sbcf) {
-            beginHashing();
-            final RollingState rollState = new RollingState();
-
-            try (InputStream is = Channels.newInputStream(sbcf.create())) {
-                final byte[] b = new byte[1024];
-
-                int bytesRead;
-                while ((bytesRead = is.read(b)) != -1) {
-                    applyBytes(rollState, b, 0, bytesRead);
+        private void reset(final int twos) {
+            final int bottom = this.minLevel;
+            final int last = Math.min(twos, this.maxLevel);
+            // Only the smallest block size can have a full first part, any larger one with half of it would have ruled it
+            // out, and only the largest has a second part that is not the first part of the next
+            final boolean bottomFull = this.fuzzLen1[bottom] >= SPAMSUM_LENGTH - 1;
+            final boolean topFull = this.fuzzLen2[this.maxLevel] >= SPAMSUM_LENGTH / 2 - 1;
+
+            int run = 0;
+            for (int level = bottom; level <= last; level++) {
+                while (this.runEnd[run] < level) {
+                    run++;
+                }
+                // Only reset the first sum if there is room for more characters, combining the last few pieces of a long
+                // message into one
+                if (this.fuzzLen1[level] < (SPAMSUM_LENGTH - 1)) {
+                    this.fuzzHash1[level][this.fuzzLen1[level]++] = b64EncodeLowBits(this.runSum[run]);
+                    // The signature never shrinks, so a block size with a long enough one rules out all smaller ones
+                    if (this.fuzzLen1[level] == SPAMSUM_LENGTH / 2 && level > this.minLevel) {
+                        this.minLevel = level;
+                    }
+                }
+                // The second part is for twice the block size
+                if (twos > level && this.fuzzLen2[level] < (SPAMSUM_LENGTH / 2 - 1)) {
+                    final int second = this.runEnd[run] > level ? run : run + 1;
+                    this.fuzzHash2[level][this.fuzzLen2[level]++] = b64EncodeLowBits(this.runSum[second]);
                 }
-            } catch (final IOException ignored) {
-                // Ignore
             }
 
-            return finishHashing(rollState);
-        }
-
-        /**
-         * Generate the hash for some input.
-         *
-         * <p>
-         * The computations will use the current block size from the context, but any other existing hash state will be
-         * discarded.
-         *
-         * @param stream A file containing the bytes to hash. Assumed non-{@code null}. The processing will start reading at the
-         *        current file position and hash all of the data from there to the end of the file. The file position when this
-         *        returns is unspecified. The file is not closed by this operation.
-         * @return The signature for the given stream content.
-         * @throws IOException If there is some I/O problem while reading the stream.
-         */
-        public SpamSumSignature generateHash(final RandomAccessFile stream) throws IOException {
-            beginHashing();
-            final RollingState rollState = new RollingState();
-
-            final byte[] buffer = new byte[BUFFER_SIZE];
-            while (true) {
-                final int bytesRead = stream.read(buffer, 0, buffer.length);
-                if (bytesRead <= 0) {
-                    break; // No more input.
+            // The levels reset here become one run, the rest keep theirs
+            final int first = bottomFull ? bottom + 1 : bottom;
+            final int end = twos > this.maxLevel ? (topFull ? this.maxLevel : this.maxLevel + 1) : twos;
+            int count = 0;
+            if (bottomFull) {
+                this.nextRunEnd[count] = bottom;
+                this.nextRunSum[count++] = this.runSum[0];
+            }
+            if (end >= first) {
+                this.nextRunEnd[count] = end;
+                this.nextRunSum[count++] = SUM_INIT;
+            }
+            final int covered = Math.max(end, bottom);
+            for (run = 0; run < this.runs; run++) {
+                if (this.runEnd[run] > covered) {
+                    this.nextRunEnd[count] = this.runEnd[run];
+                    this.nextRunSum[count++] = this.runSum[run];
                 }
-                applyBytes(rollState, buffer, 0, bytesRead);
             }
-
-            return finishHashing(rollState);
-        }
-    }
-
-    /**
-     * A rolling hash, based on the Adler checksum. By using a rolling hash we can perform auto resynchronisation after
-     * inserts/deletes.
-     */
-    private static final class RollingState {
-
-        /** Rolling window. Each value is in the range 0..255. Initially all 0. */
-        private final int[] window = new int[ROLLING_WINDOW_SIZE];
-
-        /** An index into {@link #window}. Initially 0. */
-        private int windowPosition;
-
-        /** The sum of the values in {@link #window}. Initially 0. */
-        private long h1;
-
-        /**
-         * The original documentation says this is the sum of the bytes times the index, but I'm not sure about that. 32-bit
-         * unsigned, initially 0.
-         */
-        private long h2;
-
-        /**
-         * A shift/xor based rolling hash, mostly needed to ensure that we can cope with large blocksize values. 32-bit
-         * unsigned, initially 0.
-         */
-        private long h3;
-
-        /**
-         * Construct a new rolling hash state.
-         */
-        public RollingState() {}
-
-        /**
-         * Get the current hash value.
-         *
-         * @return The current 32-bit unsigned hash value.
-         */
-        public long getHash() {
-            return (this.h1 + this.h2 + this.h3) & MASK32;
+            // Runs below a new smallest level are dropped
+            int dropped = 0;
+            while (this.nextRunEnd[dropped] < this.minLevel) {
+                dropped++;
+            }
+            this.runs = count - dropped;
+            System.arraycopy(this.nextRunEnd, dropped, this.runEnd, 0, this.runs);
+            System.arraycopy(this.nextRunSum, dropped, this.runSum, 0, this.runs);
         }
 
         /**
-         * Update the rolling hash state with another input byte.
+         * Finish hashing
          *
-         * @param b The byte value to apply. Assumed to be in the range 0..255.
-         * @return The state is updated and the resulting unsigned 32-bit hash value is returned.
+         * @return The SpamSum signature of all of the data.
          */
-        public long roll(final int b) {
-            this.h2 = (this.h2 - this.h1 + (ROLLING_WINDOW_SIZE * ((long) b))) & MASK32;
-            this.h1 = (this.h1 + b - this.window[this.windowPosition]) & MASK32;
-            this.window[this.windowPosition] = b;
-
-            // Advance the window position, wrappping around at the end.
-            if (this.windowPosition == (ROLLING_WINDOW_SIZE - 1)) {
-                this.windowPosition = 0;
-            } else {
-                this.windowPosition++;
+        String finish() {
+            final boolean tail = ((this.h1 + this.h2 + this.h3) & MASK32) != 0;
+            final int extra = tail ? 1 : 0;
+            int level = this.maxLevel;
+            // Use the largest block size giving a long enough signature
+            while (level > this.minLevel && (this.fuzzLen1[level] + extra) < (SPAMSUM_LENGTH / 2)) {
+                level--;
             }
-
-            this.h3 = ((this.h3 << 5) & MASK32) ^ b;
-
-            return (this.h1 + this.h2 + this.h3) & MASK32;
+            final byte[] hash1 = Arrays.copyOf(this.fuzzHash1[level], this.fuzzLen1[level] + extra);
+            final byte[] hash2 = Arrays.copyOf(this.fuzzHash2[level], this.fuzzLen2[level] + extra);
+            if (tail) {
+                hash1[hash1.length - 1] = b64EncodeLowBits(sum(level));
+                hash2[hash2.length - 1] = b64EncodeLowBits(sum(level + 1));
+            }
+            return new SpamSumSignature((long) MIN_BLOCKSIZE << level, hash1, hash2).toString();
         }
     }
 
@@ -403,33 +329,32 @@ public final class Ssdeep {
      * @return The SpamSum signature for the bytes.
      */
     public String fuzzyHash(final byte[] data) {
-        final SsContext ctx = new SsContext(data);
-        while (true) {
-            final SpamSumSignature signature = ctx.generateHash(data);
-
-            // Our blocksize guess may have been way off, repeat with
-            // a smaller block size if necessary.
-            if ((ctx.blockSize > MIN_BLOCKSIZE) && (ctx.fuzzLen1 < (SPAMSUM_LENGTH / 2))) {
-                ctx.blockSize = ctx.blockSize / 2;
-            } else {
-                return signature.toString();
-            }
-        }
+        final Hasher hasher = new Hasher(data.length);
+        hasher.update(data, 0, data.length);
+        return hasher.finish();
     }
 
+    /**
+     * Calculate the SpamSum hash for a channel of data, reading it only once.
+     *
+     * @param sbcf The provider of the data to be hashed.
+     * @return The SpamSum signature for the data.
+     */
     public String fuzzyHash(final SeekableByteChannelFactory sbcf) {
-        final SsContext ctx = new SsContext(sbcf);
-        while (true) {
-            final SpamSumSignature signature = ctx.generateHash(sbcf);
-
-            // Our blocksize guess may have been way off, repeat with
-            // a smaller block size if necessary.
-            if ((ctx.blockSize > MIN_BLOCKSIZE) && (ctx.fuzzLen1 < (SPAMSUM_LENGTH / 2))) {
-                ctx.blockSize = ctx.blockSize / 2;
-            } else {
-                return signature.toString();
+        final byte[] b = BufferPool.getInstance().acquireArray(BUFFER_SIZE);
+        Hasher hasher = null;
+        try (SeekableByteChannel sbc = sbcf.create(); InputStream is = Channels.newInputStream(sbc)) {
+            hasher = new Hasher(sbc.size());
+            int bytesRead;
+            while ((bytesRead = is.read(b)) != -1) {
+                hasher.update(b, 0, bytesRead);
             }
+        } catch (final IOException ignored) {
+            // Ignore
+        } finally {
+            BufferPool.getInstance().release(b);
         }
+        return (hasher == null ? new Hasher(0) : hasher).finish();
     }
 
     /**
@@ -440,20 +365,16 @@ public final class Ssdeep {
      * @throws IOException If there is some I/O problem accessing the file.
      */
     public String fuzzyHashFile(final File file) throws IOException {
-        try (RandomAccessFile stream = new RandomAccessFile(file, "r")) {
-            final SsContext ctx = new SsContext(file);
-            while (true) {
-                stream.seek(0);
-                final SpamSumSignature signature = ctx.generateHash(stream);
-
-                // Our blocksize guess may have been way off, repeat with
-                // a smaller block size if necessary.
-                if ((ctx.blockSize > MIN_BLOCKSIZE) && (ctx.fuzzLen1 < (SPAMSUM_LENGTH / 2))) {
-                    ctx.blockSize = ctx.blockSize / 2;
-                } else {
-                    return signature.toString();
-                }
+        final byte[] buffer = BufferPool.getInstance().acquireArray(BUFFER_SIZE);
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            final Hasher hasher = new Hasher(file.length());
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                hasher.update(buffer, 0, bytesRead);
             }
+            return hasher.finish();
+        } finally {
+            BufferPool.getInstance().release(buffer);
         }
     }
 
@@ -536,7 +457,7 @@ public final class Ssdeep {
      * @return An array containing the same content as {@code in}, except that any sequences of more than 3 identical bytes
      *         are truncated to 3 bytes. For example "aaabbbbcddddd" becomes "aaabbbcddd".
      */
-    private static byte[] eliminateLongSequences(final byte[] in) {
+    static byte[] eliminateLongSequences(final byte[] in) {
         if (in.length < 4) {
             return in; // There is not enough input to require any change.
         }
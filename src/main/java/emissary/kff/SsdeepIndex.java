@@ -0,0 +1,329 @@
+package emissary.kff;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * An index of known ssdeep signatures that finds the ones similar to a given signature without comparing it to every
+ * one of them.
+ * </p>
+ * <p>
+ * Two signatures only score above zero in {@link Ssdeep#compare} when, at a block size they share, their hashes have a
+ * run of seven characters in common once long repeats of a character are cut short. So each part of each signature is
+ * indexed under each of its seven character runs together with the block size of that part, which is the signature's
+ * block size for the first part and twice that for the second. A query looks up its own runs the same way, and only
+ * the signatures found are scored. No signature that could score above zero is missed.
+ * </p>
+ * <p>
+ * The keys are 40 bit hashes of the block size and run, stored with the signature number in a single sorted array of
+ * longs. A collision of the hashes only adds a candidate that scores zero. The index cannot change once built, so it can
+ * be queried from any number of threads, and it can be written to a file and read back without being built again.
+ * </p>
+ */
+public final class SsdeepIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SsdeepIndex.class);
+
+    /** Marks a persisted index, "EKSI" */
+    private static final int MAGIC = 0x454b5349;
+
+    private static final int VERSION = 1;
+
+    /** Bits of each entry holding the signature number */
+    private static final int ID_BITS = 24;
+
+    /** The most signatures one index can hold */
+    public static final int MAX_SIGNATURES = 1 << ID_BITS;
+
+    private static final long ID_MASK = MAX_SIGNATURES - 1L;
+
+    /** The run length that must be shared, as in {@link Ssdeep} */
+    private static final int RUN_LENGTH = Ssdeep.ROLLING_WINDOW_SIZE;
+
+    private static final long RUN_MASK = (1L << (8 * RUN_LENGTH)) - 1;
+
+    private final String[] signatures;
+
+    private final String[] names;
+
+    /** Key in the high bits and signature number in the low bits, sorted and without repeats */
+    private final long[] entries;
+
+    private final Ssdeep ssdeep = new Ssdeep();
+
+    /**
+     * A known signature similar to the one queried
+     */
+    public static final class Match {
+        private final String name;
+        private final String signature;
+        private final int score;
+
+        Match(String name, String signature, int score) {
+            this.name = name;
+            this.signature = signature;
+            this.score = score;
+        }
+
+        /**
+         * Get the name the signature was added with
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        /**
+         * Get the score from {@link Ssdeep#compare}, 1 to 100
+         */
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + signature + " " + score;
+        }
+    }
+
+    /**
+     * Collects signatures for an index
+     */
+    public static final class Builder {
+        private final List<String> signatures = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private long[] entries = new long[1024];
+        private int entryCount = 0;
+
+        /**
+         * Add a known signature
+         *
+         * @param signature the ssdeep signature, as from {@link Ssdeep#fuzzyHash(byte[])}
+         * @param name what to call the signature when it matches, such as the name of the file it was taken from
+         * @return this builder
+         * @throws IllegalArgumentException if the signature cannot be parsed or the index is full
+         */
+        public Builder add(String signature, String name) {
+            Validate.isTrue(signatures.size() < MAX_SIGNATURES, "An index holds at most %d signatures", MAX_SIGNATURES);
+            final long[] keys = keys(new SpamSumSignature(signature));
+            final long id = signatures.size();
+            if (entryCount + keys.length > entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(entries.length * 2, entryCount + keys.length));
+            }
+            for (long key : keys) {
+                entries[entryCount++] = (key << ID_BITS) | id;
+            }
+            signatures.add(signature);
+            names.add(name);
+            return this;
+        }
+
+        /**
+         * Build the index of the signatures added so far
+         */
+        public SsdeepIndex build() {
+            final long[] sorted = Arrays.copyOf(entries, entryCount);
+            Arrays.sort(sorted);
+            // a run that appears more than once in a signature is only kept once
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (unique == 0 || sorted[i] != sorted[unique - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            return new SsdeepIndex(signatures.toArray(new String[0]), names.toArray(new String[0]), Arrays.copyOf(sorted, unique));
+        }
+    }
+
+    private SsdeepIndex(String[] signatures, String[] names, long[] entries) {
+        this.signatures = signatures;
+        this.names = names;
+        this.entries = entries;
+        logger.debug("Indexed {} ssdeep signatures with {} entries", signatures.length, entries.length);
+    }
+
+    /**
+     * Start building an index
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the keys of the runs in both parts of a signature
+     */
+    private static long[] keys(SpamSumSignature signature) {
+        final byte[] part1 = Ssdeep.eliminateLongSequences(signature.getHashPart1());
+        final byte[] part2 = Ssdeep.eliminateLongSequences(signature.getHashPart2());
+        final long[] keys = new long[runs(part1) + runs(part2)];
+        final int count = keys(signature.getBlockSize(), part1, keys, 0);
+        keys(signature.getBlockSize() * 2, part2, keys, count);
+        return keys;
+    }
+
+    private static int runs(byte[] part) {
+        // parts too long are never scored
+        return part.length > Ssdeep.SPAMSUM_LENGTH ? 0 : Math.max(0, part.length - RUN_LENGTH + 1);
+    }
+
+    private static int keys(long blockSize, byte[] part, long[] keys, int start) {
+        int count = start;
+        if (runs(part) > 0) {
+            long run = 0;
+            for (int i = 0; i < part.length; i++) {
+                run = ((run << 8) | (part[i] & 0xff)) & RUN_MASK;
+                if (i >= RUN_LENGTH - 1) {
+                    keys[count++] = KffPreFilter.mix(run ^ (blockSize * 0x9e3779b97f4a7c15L)) >>> ID_BITS;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of signatures in the index
+     */
+    public int size() {
+        return signatures.length;
+    }
+
+    /**
+     * Get the numbers of the signatures sharing a run with the given signature at a compatible block size, in order
+     */
+    int[] candidates(SpamSumSignature signature) {
+        int[] ids = new int[16];
+        int count = 0;
+        for (long key : keys(signature)) {
+            for (int i = lowerBound(key << ID_BITS); i < entries.length && (entries[i] >>> ID_BITS) == key; i++) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = (int) (entries[i] & ID_MASK);
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || ids[i] != ids[unique - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, unique);
+    }
+
+    private int lowerBound(long entry) {
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (entries[mid] < entry) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the known signatures similar to a signature
+     *
+     * @param signature the ssdeep signature to look for
+     * @param minScore the lowest score from {@link Ssdeep#compare} to report, at least 1
+     * @return the matches, best first, or an empty list if there are none
+     * @throws IllegalArgumentException if the signature cannot be parsed
+     */
+    public List<Match> query(String signature, int minScore) {
+        final SpamSumSignature parsed = new SpamSumSignature(signature);
+        final int threshold = Math.max(1, minScore);
+        final List<Match> matches = new ArrayList<>();
+        for (int id : candidates(parsed)) {
+            final int score = ssdeep.compare(parsed, new SpamSumSignature(signatures[id]));
+            if (score >= threshold) {
+                matches.add(new Match(names[id], signatures[id], score));
+            }
+        }
+        // stable, so equal scores stay in the order they were added
+        matches.sort(Comparator.comparingInt(Match::getScore).reversed());
+        return matches;
+    }
+
+    /**
+     * Write the index to a file, replacing it whole so the file is never read part written
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        final Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(signatures.length);
+                out.writeInt(entries.length);
+                for (int i = 0; i < signatures.length; i++) {
+                    out.writeUTF(signatures[i]);
+                    out.writeUTF(names[i]);
+                }
+                for (long entry : entries) {
+                    out.writeLong(entry);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read an index written by {@link #write(Path)}
+     *
+     * @param path the file to read
+     * @return the index
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static SsdeepIndex read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an ssdeep index: " + path);
+            }
+            final int count = in.readInt();
+            final int entryCount = in.readInt();
+            if (count < 0 || count > MAX_SIGNATURES || entryCount < 0) {
+                throw new IOException("Corrupt ssdeep index: " + path);
+            }
+            final String[] signatures = new String[count];
+            final String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                signatures[i] = in.readUTF();
+                names[i] = in.readUTF();
+            }
+            final long[] entries = new long[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+                entries[i] = in.readLong();
+                if ((entries[i] & ID_MASK) >= count || (i > 0 && entries[i] <= entries[i - 1])) {
+                    throw new IOException("Corrupt ssdeep index: " + path);
+                }
+            }
+            return new SsdeepIndex(signatures, names, entries);
+        }
+    }
+}
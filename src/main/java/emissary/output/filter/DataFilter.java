@@ -3,14 +3,18 @@ package emissary.output.filter;
 import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.output.DropOffPlace;
 import emissary.output.DropOffUtil;
 
 import jakarta.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
@@ -70,7 +74,7 @@ public class DataFilter extends AbstractFilter {
         for (final String viewName : d.getAlternateViewNames()) {
             if (isViewOutputtable(lang, fileType, currentForm, viewName)) {
                 final String fixedViewName = viewName.replace(" ", "_");
-                final boolean status = writeDataFile(d, tld, baseFileName, d.getAlternateView(viewName), fixedViewName);
+                final boolean status = writeDataFile(d, tld, baseFileName, d.getAlternateViewChannelFactory(viewName), fixedViewName);
                 writeCount += (status ? 1 : -1);
             }
         }
@@ -111,7 +115,7 @@ public class DataFilter extends AbstractFilter {
         for (final String viewName : d.getAlternateViewNames()) {
             if (isViewOutputtable(lang, fileType, currentForm, viewName)) {
                 final String fixedViewName = viewName.replace(" ", "_");
-                final boolean status = writeDataStream(d, tld, output, d.getAlternateView(viewName), fixedViewName);
+                final boolean status = writeDataStream(d, tld, output, d.getAlternateViewChannelFactory(viewName), fixedViewName);
                 writeCount += (status ? 1 : -1);
             }
         }
@@ -148,24 +152,42 @@ public class DataFilter extends AbstractFilter {
      */
     protected boolean writeDataFile(final IBaseDataObject d, final IBaseDataObject tld, final String baseFileName, final byte[] data,
             @Nullable final String type) {
-        String fileName = baseFileName;
-        if (type != null) {
-            fileName += "." + type;
+        final String fileName = prepareFile(baseFileName, type);
+        if (fileName == null) {
+            return false;
         }
 
-        if (!dropOffUtil.setupPath(fileName)) {
-            logger.error("Cannot setup path for {}", fileName);
+        // Write it out
+        try (FileOutputStream fos = new FileOutputStream(fileName)) {
+            fos.write(data, 0, data.length);
+        } catch (IOException ex) {
+            logger.error("Cannot write output to {}", fileName, ex);
             return false;
         }
 
-        if (!dropOffUtil.removeExistingFile(fileName)) {
-            logger.error("Cannot remove existing file at {}", fileName);
+        return true;
+    }
+
+    /**
+     * Write a file from a channel factory, streaming the data rather than reading it into memory
+     * 
+     * @param d the DataObject to output
+     * @param tld the TLD Object to extract metadata (if applicable)
+     * @param baseFileName the base file name
+     * @param sbcf the factory providing the bytes to write
+     * @param type of data
+     */
+    protected boolean writeDataFile(final IBaseDataObject d, final IBaseDataObject tld, final String baseFileName,
+            final SeekableByteChannelFactory sbcf, @Nullable final String type) {
+        final String fileName = prepareFile(baseFileName, type);
+        if (fileName == null) {
             return false;
         }
 
         // Write it out
-        try (FileOutputStream fos = new FileOutputStream(fileName)) {
-            fos.write(data, 0, data.length);
+        try (InputStream is = Channels.newInputStream(sbcf.create());
+                FileOutputStream fos = new FileOutputStream(fileName)) {
+            IOUtils.copy(is, fos);
         } catch (IOException ex) {
             logger.error("Cannot write output to {}", fileName, ex);
             return false;
@@ -174,6 +196,33 @@ public class DataFilter extends AbstractFilter {
         return true;
     }
 
+    /**
+     * Set up the path for an output file and remove any existing file
+     * 
+     * @param baseFileName the base file name
+     * @param type of data
+     * @return the name of the file to write or null if it could not be set up
+     */
+    @Nullable
+    private String prepareFile(final String baseFileName, @Nullable final String type) {
+        String fileName = baseFileName;
+        if (type != null) {
+            fileName += "." + type;
+        }
+
+        if (!dropOffUtil.setupPath(fileName)) {
+            logger.error("Cannot setup path for {}", fileName);
+            return null;
+        }
+
+        if (!dropOffUtil.removeExistingFile(fileName)) {
+            logger.error("Cannot remove existing file at {}", fileName);
+            return null;
+        }
+
+        return fileName;
+    }
+
     protected boolean writeDataStream(final IBaseDataObject d, final IBaseDataObject tld, final OutputStream output, final byte[] data,
             @Nullable final String type) {
         try {
@@ -185,6 +234,17 @@ public class DataFilter extends AbstractFilter {
         return true;
     }
 
+    protected boolean writeDataStream(final IBaseDataObject d, final IBaseDataObject tld, final OutputStream output,
+            final SeekableByteChannelFactory sbcf, @Nullable final String type) {
+        try (InputStream is = Channels.newInputStream(sbcf.create())) {
+            IOUtils.copy(is, output);
+        } catch (IOException ex) {
+            logger.error("Cannot write output", ex);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Main to test output types
      */
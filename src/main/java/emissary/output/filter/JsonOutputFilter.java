@@ -305,6 +305,9 @@ public class JsonOutputFilter extends AbstractRollableFilter {
         @JsonIgnore
         abstract Set<String> getAlternateViewNames();
 
+        @JsonIgnore
+        abstract Map<String, SeekableByteChannelFactory> getAlternateViewChannelFactories();
+
         @JsonIgnore
         abstract boolean isBroken();
 
@@ -1,5 +1,7 @@
 package emissary.output.roller.journal;
 
+import emissary.util.io.BufferPool;
+
 import jakarta.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +37,7 @@ public class JournaledChannel extends OutputStream implements SeekableByteChanne
         this.path = path;
         this.index = index;
         this.journal = new JournalWriter(path.getParent(), path.getFileName().toString(), key);
-        this.directBuff = ByteBuffer.allocateDirect(BUFF_SIZE);
+        this.directBuff = BufferPool.getInstance().acquireDirect(BUFF_SIZE);
         writeEntry();
     }
 
@@ -152,13 +154,16 @@ public class JournaledChannel extends OutputStream implements SeekableByteChanne
      */
     @Override
     public void close() throws IOException {
+        if (this.directBuff != null) {
+            BufferPool.getInstance().release(this.directBuff);
+            this.directBuff = null;
+        }
         if (this.fc != null) {
             this.fc.close();
             this.fc = null;
         }
         this.journal.close();
         this.e = null;
-        this.directBuff = null;
     }
 
     /**
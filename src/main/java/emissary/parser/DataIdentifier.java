@@ -10,12 +10,19 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A simple base class for doing data type identification This simple implementation can only match constant strings
- * against data. The things to match are read from a config file
+ * against data. The things to match are read from a config file and compiled into a trie of their bytes, so the data is
+ * identified in a single walk over its start whatever the number of types. When more than one type matches, the type
+ * with the longest string wins. Each character of a string stands for one byte of ISO-8859-1 whatever the platform
+ * charset, so a byte above 0x7f is configured as the unicode escape of the same value. A string with a character above
+ * 0xff stands for no bytes and its type is dropped with a warning.
  */
 public class DataIdentifier {
     // Logger
@@ -31,6 +38,9 @@ public class DataIdentifier {
     // Things we know how to identify
     protected Map<String, String> typesMap = new HashMap<>();
 
+    // The typesMap compiled for matching
+    private Node trie = new Node();
+
     /**
      * Create the id engine
      */
@@ -55,6 +65,33 @@ public class DataIdentifier {
         } catch (IOException iox) {
             logger.debug("No configuration info found");
         }
+        compileTypes();
+    }
+
+    /**
+     * Compile the typesMap into the trie used for identification. Subclasses that change the typesMap after configuration
+     * must call this for the changes to be used. Types whose string cannot be written in ISO-8859-1 are left out.
+     */
+    protected void compileTypes() {
+        final Builder root = new Builder();
+        // sorted so that the same type wins every time when two types have the same string
+        for (Map.Entry<String, String> entry : new TreeMap<>(typesMap).entrySet()) {
+            if (!StandardCharsets.ISO_8859_1.newEncoder().canEncode(entry.getValue())) {
+                // the encoding would turn the character into '?' and match data it was never meant to
+                logger.warn("Type {} has a character above 0xff in its string and is not used", entry.getKey());
+                continue;
+            }
+            Builder node = root;
+            for (byte b : entry.getValue().getBytes(StandardCharsets.ISO_8859_1)) {
+                node = node.children.computeIfAbsent(b, k -> new Builder());
+            }
+            if (node.type == null) {
+                node.type = entry.getKey();
+            } else {
+                logger.warn("Types {} and {} have the same string, using {}", node.type, entry.getKey(), node.type);
+            }
+        }
+        trie = root.build(true);
     }
 
     /**
@@ -86,23 +123,21 @@ public class DataIdentifier {
      * @param data array of data to identify
      */
     public String identify(byte[] data) {
-        for (Map.Entry<String, String> entry : typesMap.entrySet()) {
-            byte[] pattern = entry.getValue().getBytes();
-            if (data.length < pattern.length) {
-                continue;
-            }
-            boolean match = true;
-            for (int i = 0; i < pattern.length; i++) {
-                if (data[i] != pattern[i]) {
-                    match = false;
-                    break;
-                }
+        Node node = trie;
+        String type = node.type;
+        for (int i = 0; i < data.length; i++) {
+            node = node.next(data[i]);
+            if (node == null) {
+                break;
             }
-            if (match) {
-                logger.debug("Data identified as " + entry.getKey());
-                return entry.getKey();
+            if (node.type != null) {
+                type = node.type;
             }
         }
+        if (type != null) {
+            logger.debug("Data identified as {}", type);
+            return type;
+        }
         logger.debug("No identification possible, returning UNKNOWN_TYPE");
         return UNKNOWN_TYPE;
     }
@@ -117,6 +152,67 @@ public class DataIdentifier {
         return DATA_ID_STR_SZ;
     }
 
+    /**
+     * A node of the compiled trie. The root has a table indexed by every byte value, other nodes are small and keep their
+     * sorted bytes for a binary search.
+     */
+    private static final class Node {
+        @Nullable
+        final String type;
+        final byte[] labels;
+        final Node[] children;
+        final boolean table;
+
+        Node() {
+            this(null, new byte[0], new Node[0], false);
+        }
+
+        Node(@Nullable String type, byte[] labels, Node[] children, boolean table) {
+            this.type = type;
+            this.labels = labels;
+            this.children = children;
+            this.table = table;
+        }
+
+        @Nullable
+        Node next(byte b) {
+            if (table) {
+                return children[b & 0xff];
+            }
+            final int i = Arrays.binarySearch(labels, b);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+    /**
+     * A node of the trie as it is built
+     */
+    private static final class Builder {
+        @Nullable
+        String type;
+        final TreeMap<Byte, Builder> children = new TreeMap<>();
+
+        Node build(boolean table) {
+            if (table) {
+                final Node[] all = new Node[256];
+                for (Map.Entry<Byte, Builder> child : children.entrySet()) {
+                    all[child.getKey() & 0xff] = child.getValue().build(false);
+                }
+                return new Node(type, new byte[0], all, true);
+            }
+            final byte[] labels = new byte[children.size()];
+            final Node[] next = new Node[children.size()];
+            int i = 0;
+            // the TreeMap orders the bytes as signed values, as Arrays.binarySearch expects
+            for (Map.Entry<Byte, Builder> child : children.entrySet()) {
+                labels[i] = child.getKey();
+                next[i] = child.getValue().build(false);
+                i++;
+            }
+            return new Node(type, labels, next, false);
+        }
+    }
+
     @SuppressWarnings("SystemOut")
     public static void main(String[] args) throws Exception {
         DataIdentifier dataIdentifier = new DataIdentifier();
@@ -1,6 +1,7 @@
 package emissary.parser;
 
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.SeekableByteChannelFactory;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
@@ -34,6 +35,8 @@ public class DecomposedSession {
     @Nullable
     protected byte[] data = null;
     @Nullable
+    protected SeekableByteChannelFactory dataChannelFactory = null;
+    @Nullable
     protected String classification = null;
     protected List<String> initialForms = new ArrayList<>();
     protected ArrayListMultimap<String, Object> metadata = ArrayListMultimap.create(100, 1);
@@ -91,6 +94,7 @@ public class DecomposedSession {
      * @param copy make a copy when true
      */
     public void setData(@Nullable byte[] d, boolean copy) {
+        dataChannelFactory = null;
         if (d == null || !copy) {
             data = d;
         } else {
@@ -106,6 +110,7 @@ public class DecomposedSession {
      * @param end ending offset
      */
     public void setData(byte[] d, int start, int end) {
+        dataChannelFactory = null;
         data = new byte[end - start];
         System.arraycopy(d, start, data, 0, data.length);
     }
@@ -113,12 +118,33 @@ public class DecomposedSession {
     /**
      * Get the data entry
      *
-     * @return the data bytes or null if none
+     * @return the data bytes or null if none or held in a channel factory
      */
     public byte[] getData() {
         return data;
     }
 
+    /**
+     * Set the data entry to bytes that are read through a channel factory instead of held in an array. Previously existing
+     * data is lost
+     *
+     * @param sbcf the factory for the data
+     */
+    public void setDataChannelFactory(@Nullable SeekableByteChannelFactory sbcf) {
+        data = null;
+        dataChannelFactory = sbcf;
+    }
+
+    /**
+     * Get the channel factory for the data entry
+     *
+     * @return the factory or null if the data is not held in one
+     */
+    @Nullable
+    public SeekableByteChannelFactory getDataChannelFactory() {
+        return dataChannelFactory;
+    }
+
     /**
      * Set the classification
      *
@@ -205,7 +231,7 @@ public class DecomposedSession {
      * @return true if there is a data entry
      */
     public boolean hasData() {
-        return data != null;
+        return data != null || dataChannelFactory != null;
     }
 
     /**
@@ -3,24 +3,63 @@ package emissary.parser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 
 /**
  * Encapsulate the behavior necessary to slide a window through a channel and parse sessions from it. nextChunkOrDie
- * will load the next region.
+ * will load the next region. Subclasses move sessionStart past each session before returning it, so the next session
+ * always starts at chunkStart + sessionStart and parsing can be resumed from there.
  */
 public abstract class FillingNIOParser extends NIOSessionParser {
 
     private final static Logger logger = LoggerFactory.getLogger(FillingNIOParser.class);
 
-    /** position of the session start relative to the start of the current chunk */
+    /**
+     * position of the session start relative to the start of the current chunk. Subclasses must move it to the end of
+     * each session before returning the session from {@link #getNextSession()}, since {@link #getPosition()} is read as
+     * soon as a session is returned.
+     */
     protected int sessionStart = 0;
 
     public FillingNIOParser(SeekableByteChannel channel) {
         super(channel);
     }
 
+    /**
+     * The start of the next session, just after the last one returned. This relies on subclasses moving
+     * {@link #sessionStart} past each session before returning it. A subclass that does not must override this to return
+     * -1, otherwise a resumed file would start part way through a session that was already dispatched.
+     */
+    @Override
+    public long getPosition() {
+        return (long) chunkStart + sessionStart;
+    }
+
+    /**
+     * Continue reading the channel from the start of a session found by an earlier parser
+     */
+    @Override
+    public boolean seek(long position) throws ParserException {
+        if (position > Integer.MAX_VALUE) {
+            // beyond what chunkStart can hold, so the sessions before it are parsed again
+            return false;
+        }
+        try {
+            if (position < 0 || position > channel.size()) {
+                throw new ParserException("Cannot seek to " + position + " in " + channel.size() + " bytes");
+            }
+            channel.position(position);
+        } catch (IOException ex) {
+            throw new ParserException("Exception seeking in channel", ex);
+        }
+        chunkStart = (int) position;
+        sessionStart = 0;
+        writeOffset = 0;
+        return true;
+    }
+
     /**
      * Get and set all stats for loading the next chunk This is specified to the RAF parser families
      * 
@@ -0,0 +1,348 @@
+package emissary.parser;
+
+import emissary.core.channels.ByteBufferChannelFactory;
+import emissary.core.channels.ConcatenateChannelFactory;
+import emissary.core.channels.SeekableByteChannelFactory;
+
+import jakarta.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Base for session parsers that memory map their input instead of reading it into heap arrays. Subclasses find the
+ * session boundaries by looking at the mapped data through {@link #map(long, int)} and {@link #indexOf(byte[], long)}
+ * and return them as an {@link InputSession}. The data of each session is handed out as a
+ * {@link SeekableByteChannelFactory} over the mapping, so the bytes are never copied onto the heap by the parser and are
+ * only paged in when they are read. Headers, footers and metadata records are small and are copied as before.
+ * </p>
+ *
+ * <p>
+ * A file is mapped through a window of at most <code>windowSize</code> bytes, so files larger than a single mapping can
+ * hold are handled by moving the window along the file. Sessions larger than the window are made from several mappings.
+ * A mapping stays valid after the channel is closed, until the last session using it is garbage collected.
+ * </p>
+ */
+public abstract class MappedSessionParser extends SessionParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedSessionParser.class);
+
+    /** The largest window a single mapping can hold */
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    protected static final int WINDOW_SIZE_DEFAULT = 1024 * 1024 * 1024; // 1Gb
+
+    /** The data source for this parser */
+    protected FileChannel channel;
+
+    /** The size of the data source */
+    protected long size;
+
+    /** Largest part of the file that is mapped at once */
+    protected int windowSize = WINDOW_SIZE_DEFAULT;
+
+    /** The current mapping */
+    @Nullable
+    protected MappedByteBuffer window = null;
+
+    /** The position of the current mapping in the file */
+    protected long windowStart = 0;
+
+    /** Number of mappings made, for tuning the window size */
+    protected int mapCount = 0;
+
+    /** The end of the last session found */
+    protected long lastSessionEnd = -1L;
+
+    /**
+     * Create the parser with the supplied data source
+     *
+     * @param channel the source of data, must be a {@link FileChannel}
+     * @throws ParserException if the channel cannot be mapped
+     */
+    public MappedSessionParser(SeekableByteChannel channel) throws ParserException {
+        if (!(channel instanceof FileChannel)) {
+            throw new ParserException("Memory mapping requires a FileChannel, not " + (channel == null ? null : channel.getClass().getName()));
+        }
+        this.channel = (FileChannel) channel;
+        try {
+            this.size = channel.size();
+        } catch (IOException ex) {
+            throw new ParserException("Exception getting channel size", ex);
+        }
+    }
+
+    /**
+     * Get the size of the window
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Set the size of the window, used from the next time the window moves
+     */
+    public void setWindowSize(int value) {
+        if (value > 0) {
+            windowSize = value;
+        }
+    }
+
+    /**
+     * Get the number of mappings made so far
+     */
+    public int getMapCount() {
+        return mapCount;
+    }
+
+    /**
+     * Find the next session in the data. Implementations call {@link #setFullyParsed(boolean)} once the last session has
+     * been found.
+     *
+     * @return the positions of the parts of the next session
+     * @throws ParserEOFException when there are no more sessions
+     * @throws ParserException when the data cannot be parsed
+     */
+    protected abstract InputSession nextInputSession() throws ParserException;
+
+    @Override
+    public DecomposedSession getNextSession() throws ParserException {
+        if (isFullyParsed()) {
+            throw new ParserEOFException("Past end of data");
+        }
+        final InputSession session = nextInputSession();
+        if (session != null) {
+            lastSessionEnd = session.getStart() + session.getLength();
+        }
+        return decomposeSession(session);
+    }
+
+    @Override
+    public long getPosition() {
+        return lastSessionEnd;
+    }
+
+    /**
+     * Get a read-only view of part of the file, moving the window if it does not hold all of the part. The returned buffer
+     * starts at zero and is valid for as long as the caller holds it.
+     *
+     * @param position the position in the file
+     * @param length the number of bytes, no more than the window size
+     * @return buffer over the bytes
+     * @throws ParserException if the part is outside of the file or cannot be mapped
+     */
+    protected ByteBuffer map(long position, int length) throws ParserException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new ParserException("Cannot map " + length + " bytes at " + position + " from " + size + " bytes");
+        }
+        if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+            final long mapSize = Math.min(Math.max(windowSize, length), size - position);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, mapSize);
+            } catch (IOException ex) {
+                throw new ParserException("Exception mapping " + mapSize + " bytes at " + position, ex);
+            }
+            windowStart = position;
+            mapCount++;
+            logger.debug("Mapped {} bytes at {}", mapSize, position);
+        }
+        final ByteBuffer b = window.asReadOnlyBuffer();
+        final int start = (int) (position - windowStart);
+        b.limit(start + length).position(start);
+        return b.slice();
+    }
+
+    /**
+     * Find the next occurrence of a pattern in the file
+     *
+     * @param pattern the bytes to look for
+     * @param from the position to start looking at
+     * @return the position of the pattern or -1 if it does not occur after <code>from</code>
+     * @throws ParserException if the file cannot be mapped
+     */
+    protected long indexOf(byte[] pattern, long from) throws ParserException {
+        if (pattern.length == 0) {
+            return from;
+        }
+        final byte first = pattern[0];
+        long start = Math.max(0, from);
+        while (start + pattern.length <= size) {
+            final int length = (int) Math.min(Math.max(windowSize, pattern.length), size - start);
+            final ByteBuffer b = map(start, length);
+            final int last = length - pattern.length;
+            for (int i = 0; i <= last; i++) {
+                if (b.get(i) == first && matches(b, i, pattern)) {
+                    return start + i;
+                }
+            }
+            // the next view overlaps this one so a pattern across the boundary is found
+            start += last + 1;
+        }
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer b, int offset, byte[] pattern) {
+        for (int j = 1; j < pattern.length; j++) {
+            if (b.get(offset + j) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a hashtable of elements from the session: header, footer, body, and other meta data values extracted from the
+     * session data. The body is not copied.
+     *
+     * @param session The session to be decomposed into separate elements.
+     * @return A map of session elements
+     */
+    protected DecomposedSession decomposeSession(@Nullable InputSession session) throws ParserException {
+        final DecomposedSession d = new DecomposedSession();
+        if (session != null) {
+            d.setHeader(makeDataSlice(session.getHeader()));
+            d.setFooter(makeDataSlice(session.getFooter()));
+
+            long length = -1L;
+            final List<PositionRecord> data = session.getData();
+            if (data != null && !data.isEmpty()) {
+                final SeekableByteChannelFactory sbcf = makeChannelFactory(data);
+                d.setDataChannelFactory(sbcf);
+                length = 0;
+                for (PositionRecord r : data) {
+                    length += r.getLength();
+                }
+            }
+
+            // Cook the raw metadata and transfer to DecomposedSession
+            final Map<String, Object> md = session.getMetaData();
+            if (md != null) {
+                for (Map.Entry<String, String> entry : cookMetaRecords(md).entrySet()) {
+                    d.addMetaData(entry.getKey(), entry.getValue());
+                }
+            }
+
+            // Use session length if no data length
+            if (length < 0) {
+                length = session.getLength();
+            }
+            d.addMetaData(ORIG_DOC_SIZE_KEY, Long.toString(length));
+        }
+        return d;
+    }
+
+    /**
+     * Turn the metadata PositionRecord elements into real data
+     *
+     * @param raw map of PositionRecord objects
+     * @return map of metadata
+     */
+    protected Map<String, String> cookMetaRecords(Map<String, Object> raw) throws ParserException {
+        final Map<String, String> cooked = new HashMap<>();
+        for (Map.Entry<String, Object> entry : raw.entrySet()) {
+            final Object tmp = entry.getValue();
+            if (tmp != null) {
+                final String value;
+                if (tmp instanceof PositionRecord) {
+                    value = new String(makeDataSlice((PositionRecord) tmp), StandardCharsets.UTF_8).trim();
+                } else {
+                    value = tmp.toString();
+                }
+                cooked.put(renameMetadataRecord(entry.getKey()), value);
+            }
+        }
+        return cooked;
+    }
+
+    /**
+     * Allow subclasses to arbitrarily rename metadata fields This is a do nothing function in the base class.
+     *
+     * @param s the name of the field to consider renaming
+     * @return the renamed field or the original name if no change
+     */
+    protected String renameMetadataRecord(String s) {
+        return s;
+    }
+
+    /**
+     * Make a channel factory over the mapped bytes of the records, without copying them
+     *
+     * @param records the position records indicating absolute offsets
+     * @return the data of all the records in order
+     */
+    protected SeekableByteChannelFactory makeChannelFactory(List<PositionRecord> records) throws ParserException {
+        SeekableByteChannelFactory sbcf = null;
+        for (PositionRecord r : records) {
+            long position = r.getPosition();
+            long remaining = r.getLength();
+            do {
+                final int length = (int) Math.min(remaining, windowSize);
+                final SeekableByteChannelFactory piece = ByteBufferChannelFactory.create(map(position, length));
+                sbcf = sbcf == null ? piece : ConcatenateChannelFactory.create(sbcf, piece);
+                position += length;
+                remaining -= length;
+            } while (remaining > 0);
+        }
+        return sbcf;
+    }
+
+    /**
+     * Copy data from the file based on a single position record
+     *
+     * @param r the position record indicating absolute offsets
+     */
+    byte[] makeDataSlice(PositionRecord r) throws ParserException {
+        if (r.getLength() > MAX_ARRAY_SIZE_LONG) {
+            throw new IllegalStateException("Implementation currently only handles up to Intger.MAX_VALUE lengths");
+        }
+        final byte[] n = new byte[(int) r.getLength()];
+        int offset = 0;
+        while (offset < n.length) {
+            final int length = Math.min(n.length - offset, windowSize);
+            map(r.getPosition() + offset, length).get(n, offset, length);
+            offset += length;
+        }
+        return n;
+    }
+
+    /**
+     * Copy data from the file based on a list of position records
+     *
+     * @param records the list of position records indicating absolute offsets
+     */
+    @Nullable
+    byte[] makeDataSlice(@Nullable List<PositionRecord> records) throws ParserException {
+        if (records == null || records.isEmpty()) {
+            return null;
+        }
+        if (records.size() == 1) {
+            return makeDataSlice(records.get(0));
+        }
+
+        long total = 0;
+        for (PositionRecord r : records) {
+            total += r.getLength();
+        }
+        if (total > MAX_ARRAY_SIZE_LONG) {
+            throw new IllegalStateException("This implementation cannot create data larger than " + MAX_ARRAY_SIZE);
+        }
+        final byte[] n = new byte[(int) total];
+        int offset = 0;
+        for (PositionRecord r : records) {
+            final byte[] piece = makeDataSlice(r);
+            System.arraycopy(piece, 0, n, offset, piece.length);
+            offset += piece.length;
+        }
+        return n;
+    }
+}
@@ -1,5 +1,7 @@
 package emissary.parser;
 
+import emissary.util.io.BufferPool;
+
 import jakarta.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +33,10 @@ public abstract class NIOSessionParser extends SessionParser {
     @Nullable
     protected byte[] data = null;
 
+    /** The chunk buffer acquired from the pool and not yet returned, which the trimmed final chunk is not */
+    @Nullable
+    private byte[] pooled = null;
+
     /** The current write position for the current chunk buffer */
     protected int writeOffset = 0;
 
@@ -70,6 +76,11 @@ public abstract class NIOSessionParser extends SessionParser {
 
     /**
      * Read more data, starting where the last read left off. Read in <code>chunksize</code> bytes.
+     * <p>
+     * Chunk buffers come from the node-wide {@link BufferPool} and may be larger than requested. When a buffer is replaced
+     * by a larger one, or trimmed at the end of the channel, the buffer passed in is returned to the pool and must not be
+     * used by the caller afterwards. The trimmed buffer is a copy that is not pooled, and {@link #close()} only returns the
+     * buffer still held from the pool.
      *
      * @param data the byte array to (re)load or null if one should be created
      * @return the byte array of data
@@ -85,7 +96,8 @@ public abstract class NIOSessionParser extends SessionParser {
 
         // Optionally create the array or recreate if old is too small
         if (data == null) {
-            data = new byte[minChunkSize];
+            data = BufferPool.getInstance().acquireArray(minChunkSize, maxChunkSize);
+            pooled = data;
         }
 
         if (writeOffset >= data.length) {
@@ -100,9 +112,11 @@ public abstract class NIOSessionParser extends SessionParser {
                 throw new ParserException("buffer size required to read session " + chunkStart + " is larger than maxChunkSize " + maxChunkSize);
             }
 
-            byte[] newData = new byte[newSize];
+            byte[] newData = BufferPool.getInstance().acquireArray(newSize, maxChunkSize);
             System.arraycopy(data, 0, newData, 0, data.length);
+            releasePooled(data);
             data = newData;
+            pooled = data;
         }
 
         final ByteBuffer b = ByteBuffer.wrap(data);
@@ -124,9 +138,30 @@ public abstract class NIOSessionParser extends SessionParser {
         writeOffset = data.length - b.remaining();
         if (writeOffset < data.length) {
             logger.debug("trimming byte[] from {} to size {}", data.length, writeOffset);
-            data = Arrays.copyOfRange(data, 0, writeOffset);
+            byte[] trimmed = Arrays.copyOfRange(data, 0, writeOffset);
+            releasePooled(data);
+            data = trimmed;
         }
 
         return data;
     }
+
+    /**
+     * Return the current chunk buffer to the {@link BufferPool}
+     */
+    @Override
+    public void close() {
+        releasePooled(pooled);
+        data = null;
+    }
+
+    /**
+     * Return a chunk buffer to the pool if it is the one acquired from it
+     */
+    private void releasePooled(@Nullable byte[] buffer) {
+        if (buffer != null && buffer == pooled) {
+            BufferPool.getInstance().release(buffer);
+            pooled = null;
+        }
+    }
 }
@@ -1,9 +1,11 @@
 package emissary.parser;
 
+import java.io.Closeable;
+
 /**
  * Base for all session parsers returned from ParserFactory
  */
-public abstract class SessionParser {
+public abstract class SessionParser implements Closeable {
     public static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 10;
     public static final long MAX_ARRAY_SIZE_LONG = MAX_ARRAY_SIZE;
     public static final String ORIG_DOC_SIZE_KEY = "OrigDocumentSize";
@@ -45,4 +47,32 @@ public abstract class SessionParser {
      * @return the next session from the input
      */
     public abstract DecomposedSession getNextSession() throws ParserException;
+
+    /**
+     * Get the position in the input just after the last session returned, used to resume parsing later
+     * 
+     * @return the position or -1 if the parser cannot tell
+     */
+    public long getPosition() {
+        return -1L;
+    }
+
+    /**
+     * Move to a position returned by {@link #getPosition()} on an earlier parser of the same input, so that the next
+     * session returned is the one that followed it. Only called before the first session is asked for.
+     * 
+     * @param position the position to continue from
+     * @return true if the parser moved, false if it cannot resume from a position
+     * @throws ParserException if the position is not in the input
+     */
+    public boolean seek(long position) throws ParserException {
+        return false;
+    }
+
+    /**
+     * Release anything the parser holds between sessions. The channel being parsed belongs to the caller and is not
+     * closed. The parser must not be used afterwards.
+     */
+    @Override
+    public void close() {}
 }
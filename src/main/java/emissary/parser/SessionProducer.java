@@ -90,7 +90,13 @@ public class SessionProducer {
             sName = defaultSessionName;
         }
 
-        IBaseDataObject dataObject = DataObjectFactory.getInstance(new Object[] {theData, sName});
+        IBaseDataObject dataObject;
+        if (session.getDataChannelFactory() != null) {
+            dataObject = DataObjectFactory.getInstance(new Object[] {new byte[0], sName});
+            dataObject.setChannelFactory(session.getDataChannelFactory());
+        } else {
+            dataObject = DataObjectFactory.getInstance(new Object[] {theData, sName});
+        }
 
         // Pop default form if we have something to say
         if (initialForms != null && !initialForms.isEmpty()) {
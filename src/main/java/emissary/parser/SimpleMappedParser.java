@@ -0,0 +1,34 @@
+package emissary.parser;
+
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * The memory mapped equivalent of {@link SimpleNioParser}, each input channel is one session. The data of the session
+ * is a mapping of the file rather than a copy of it on the heap.
+ */
+public class SimpleMappedParser extends MappedSessionParser {
+
+    /**
+     * Create a session parser on the data
+     *
+     * @param channel the source of data, must be a {@link java.nio.channels.FileChannel}
+     * @throws ParserException if the channel cannot be mapped
+     */
+    public SimpleMappedParser(SeekableByteChannel channel) throws ParserException {
+        super(channel);
+    }
+
+    @Override
+    protected InputSession nextInputSession() throws ParserException {
+        final InputSession i = new InputSession(new PositionRecord(0, size), // overall record
+                new PositionRecord(0, size)); // data record
+        i.setValid(true);
+        setFullyParsed(true);
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return SimpleMappedParser.class.getName() + " isa" + this.getClass().getName();
+    }
+}
@@ -0,0 +1,226 @@
+package emissary.pickup;
+
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>
+ * Works out how much work to hand each consumer of a {@link WorkSpace} at once. The time each consumer spends on a
+ * bundle is measured from when the bundle was taken, or from when the consumer completed its previous bundle if that was
+ * later, until the bundle is completed. Bundles reported completed together are measured as one sample. Smoothed file
+ * and byte rates are kept for each consumer, and a consumer is given enough files and bytes to keep it busy for the
+ * target time, whichever limit is reached first.
+ * </p>
+ *
+ * <p>
+ * Neither limit is allowed to go over an even share of the queued work between the consumers, so a fast consumer does
+ * not take the last of the work while the others sit idle, and one large bundle does not hold up the end of a run.
+ * </p>
+ */
+public class BundleSizer {
+
+    // Weight of the newest measurement in the smoothed rates
+    static final double ALPHA = 0.3;
+
+    private final long targetMillis;
+    private final Map<String, Rate> rates = new HashMap<>();
+    private final Map<String, Sent> sent = new HashMap<>();
+
+    /**
+     * The files and bytes to give a consumer
+     */
+    public static final class Target {
+        private final int files;
+        private final long bytes;
+
+        Target(final int files, final long bytes) {
+            this.files = files;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the most files to give at once
+         */
+        public int getFiles() {
+            return this.files;
+        }
+
+        /**
+         * @return the most bytes to give at once
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "files=" + this.files + ", bytes=" + this.bytes;
+        }
+    }
+
+    private static final class Rate {
+        double filesPerMilli;
+        double bytesPerMilli;
+        long lastCompletionNanos;
+        int samples;
+    }
+
+    private static final class Sent {
+        final String consumer;
+        final int files;
+        final long bytes;
+        final long nanos;
+
+        Sent(final String consumer, final int files, final long bytes, final long nanos) {
+            this.consumer = consumer;
+            this.files = files;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final class Batch {
+        int files;
+        long bytes;
+        long firstNanos = Long.MAX_VALUE;
+
+        void add(final Sent s) {
+            this.files += s.files;
+            this.bytes += s.bytes;
+            this.firstNanos = Math.min(this.firstNanos, s.nanos);
+        }
+    }
+
+    /**
+     * Create a sizer
+     *
+     * @param targetMillis how long each consumer should spend on the work it is given at once
+     */
+    public BundleSizer(final long targetMillis) {
+        Validate.isTrue(targetMillis > 0, "Required: targetMillis > 0");
+        this.targetMillis = targetMillis;
+    }
+
+    public long getTargetMillis() {
+        return this.targetMillis;
+    }
+
+    /**
+     * Get the amount of work to give a consumer
+     *
+     * @param consumer the name of the consumer
+     * @param queuedFiles the number of files waiting to be taken
+     * @param queuedBytes the number of bytes waiting to be taken
+     * @param consumers the number of consumers sharing the work
+     * @return the target, or null if nothing has been measured for the consumer yet
+     */
+    @Nullable
+    public synchronized Target getTarget(final String consumer, final long queuedFiles, final long queuedBytes, final int consumers) {
+        final Rate rate = this.rates.get(consumer);
+        if (rate == null || rate.samples == 0) {
+            return null;
+        }
+        long files = (long) Math.ceil(rate.filesPerMilli * this.targetMillis);
+        long bytes = (long) Math.ceil(rate.bytesPerMilli * this.targetMillis);
+        if (consumers > 1) {
+            files = Math.min(files, (queuedFiles + consumers - 1) / consumers);
+            bytes = Math.min(bytes, (queuedBytes + consumers - 1) / consumers);
+        }
+        return new Target((int) Math.max(1L, Math.min(files, WorkBundle.MAX_UNITS)), Math.max(1L, bytes));
+    }
+
+    /**
+     * Record that a bundle was given to a consumer
+     *
+     * @param consumer the name of the consumer
+     * @param bundle the bundle given
+     */
+    public void bundleSent(final String consumer, final WorkBundle bundle) {
+        bundleSent(consumer, bundle, System.nanoTime());
+    }
+
+    synchronized void bundleSent(final String consumer, final WorkBundle bundle, final long nanos) {
+        this.sent.put(bundle.getBundleId(), new Sent(consumer, bundle.size(), bundle.getTotalFileSize(), nanos));
+    }
+
+    /**
+     * Record that a bundle was completed. Only bundles that worked are measured.
+     *
+     * @param bundleId the id of the bundle
+     * @param itWorked true if the bundle was processed normally
+     */
+    public void bundleCompleted(final String bundleId, final boolean itWorked) {
+        bundlesCompleted(Collections.singletonMap(bundleId, itWorked), System.nanoTime());
+    }
+
+    /**
+     * Record that a batch of bundles was reported completed at once. Consumers that report completions in batches do not
+     * say when each bundle finished, so the bundles each consumer completed in the batch are measured together as one
+     * sample. Only bundles that worked are measured.
+     *
+     * @param completed whether each bundle was processed normally, by bundle id
+     */
+    public void bundlesCompleted(final Map<String, Boolean> completed) {
+        bundlesCompleted(completed, System.nanoTime());
+    }
+
+    void bundleCompleted(final String bundleId, final boolean itWorked, final long nanos) {
+        bundlesCompleted(Collections.singletonMap(bundleId, itWorked), nanos);
+    }
+
+    synchronized void bundlesCompleted(final Map<String, Boolean> completed, final long nanos) {
+        final Map<String, Batch> batches = new HashMap<>();
+        for (Map.Entry<String, Boolean> entry : completed.entrySet()) {
+            final Sent s = this.sent.remove(entry.getKey());
+            if (s != null && Boolean.TRUE.equals(entry.getValue())) {
+                batches.computeIfAbsent(s.consumer, k -> new Batch()).add(s);
+            }
+        }
+        for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+            measure(entry.getKey(), entry.getValue(), nanos);
+        }
+    }
+
+    private void measure(final String consumer, final Batch batch, final long nanos) {
+        final Rate rate = this.rates.computeIfAbsent(consumer, k -> new Rate());
+        final long start = rate.samples == 0 ? batch.firstNanos : Math.max(batch.firstNanos, rate.lastCompletionNanos);
+        final double millis = Math.max(1.0, (nanos - start) / 1_000_000.0);
+        final double filesPerMilli = batch.files / millis;
+        final double bytesPerMilli = batch.bytes / millis;
+        if (rate.samples == 0) {
+            rate.filesPerMilli = filesPerMilli;
+            rate.bytesPerMilli = bytesPerMilli;
+        } else {
+            rate.filesPerMilli += ALPHA * (filesPerMilli - rate.filesPerMilli);
+            rate.bytesPerMilli += ALPHA * (bytesPerMilli - rate.bytesPerMilli);
+        }
+        rate.lastCompletionNanos = Math.max(rate.lastCompletionNanos, nanos);
+        rate.samples++;
+    }
+
+    /**
+     * Forget a consumer and the bundles it was given
+     *
+     * @param consumer the name of the consumer
+     */
+    public synchronized void consumerRemoved(final String consumer) {
+        this.rates.remove(consumer);
+        for (Iterator<Sent> i = this.sent.values().iterator(); i.hasNext();) {
+            if (consumer.equals(i.next().consumer)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of consumers with a measured rate
+     */
+    public synchronized int getConsumerCount() {
+        return this.rates.size();
+    }
+}
@@ -0,0 +1,214 @@
+package emissary.pickup;
+
+import emissary.util.ByteUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Journal of the sessions of an input file that have been dispatched, so that a file left part way through when a node
+ * dies is resumed after the last dispatched session instead of being processed again from the start.
+ * </p>
+ *
+ * <p>
+ * The journal is a small file in the checkpoint area. It starts with the length and modification time of the input, so
+ * a journal left for a different file of the same name is ignored, followed by a fixed size record for each checkpoint
+ * holding the number of sessions dispatched and the parser position after the last of them. Records are only appended,
+ * and a record torn by a crash is ignored when the journal is read back, leaving the checkpoint before it.
+ * </p>
+ *
+ * <p>
+ * Sessions may be completed out of order when they are dispatched by several threads. A checkpoint is only written when
+ * every session before it has also completed, so the journal never claims a session that was not dispatched.
+ * </p>
+ */
+public class CheckpointJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointJournal.class);
+
+    static final int MAGIC = 0x454d434b; // EMCK
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 16;
+
+    // Hex characters of the path digest in a journal name, 128 bits
+    private static final int DIGEST_CHARS = 32;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean force;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    // The last checkpoint written
+    private int sessions = 0;
+    private long position = -1L;
+
+    // Sessions completed after a session that has not, by session number
+    private final Map<Integer, Long> pending = new HashMap<>();
+
+    /**
+     * Open the journal for an input file, reading back any checkpoint left from an earlier attempt
+     *
+     * @param dir the checkpoint area
+     * @param input the input file
+     * @param force true to force each checkpoint to disk before going on
+     * @throws IOException if the journal cannot be read or written
+     */
+    public CheckpointJournal(Path dir, File input, boolean force) throws IOException {
+        this.path = dir.resolve(journalName(input));
+        this.force = force;
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!readBack(input)) {
+                start(input);
+            }
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the name of the journal for an input file, unique to the path of the file by a digest of the path
+     */
+    static String journalName(File input) {
+        final String digest = ByteUtil.sha256Bytes(input.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        if (digest == null) {
+            throw new IllegalStateException("No SHA-256 digest for the journal name of " + input.getName());
+        }
+        return input.getName() + "." + digest.substring(0, DIGEST_CHARS) + ".checkpoint";
+    }
+
+    private boolean readBack(File input) throws IOException {
+        final long size = this.channel.size();
+        if (size < HEADER_SIZE) {
+            return false;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        this.channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != input.length()
+                || header.getLong() != input.lastModified()) {
+            logger.info("Ignoring checkpoint journal {} left for a different {}", this.path, input.getName());
+            return false;
+        }
+
+        // a record torn by a crash is dropped
+        final long records = (size - HEADER_SIZE) / RECORD_SIZE;
+        final long end = HEADER_SIZE + records * RECORD_SIZE;
+        if (records > 0) {
+            final ByteBuffer last = ByteBuffer.allocate(RECORD_SIZE);
+            this.channel.read(last, end - RECORD_SIZE);
+            last.flip();
+            this.sessions = (int) last.getLong();
+            this.position = last.getLong();
+        }
+        this.channel.truncate(end);
+        this.channel.position(end);
+        if (this.sessions > 0) {
+            logger.info("Resuming {} after {} dispatched sessions at position {}", input.getName(), this.sessions, this.position);
+        }
+        return true;
+    }
+
+    private void start(File input) throws IOException {
+        this.channel.truncate(0);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(input.length()).putLong(input.lastModified()).flip();
+        while (header.hasRemaining()) {
+            this.channel.write(header, header.position());
+        }
+        this.channel.position(HEADER_SIZE);
+        if (this.force) {
+            this.channel.force(false);
+        }
+    }
+
+    /**
+     * Get the number of sessions dispatched before the last checkpoint
+     */
+    public synchronized int getSessions() {
+        return this.sessions;
+    }
+
+    /**
+     * Get the parser position after the last checkpointed session, or -1 if the parser could not tell
+     */
+    public synchronized long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Record that a session was dispatched
+     *
+     * @param sessionNum the number of the session, counting from one
+     * @param position the parser position after the session, or -1 if the parser cannot tell
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void completed(int sessionNum, long position) throws IOException {
+        if (sessionNum <= this.sessions) {
+            return;
+        }
+        this.pending.put(sessionNum, position);
+        int next = this.sessions;
+        Long nextPosition = null;
+        while (this.pending.containsKey(next + 1)) {
+            next++;
+            nextPosition = this.pending.remove(next);
+        }
+        if (nextPosition != null) {
+            write(next, nextPosition);
+        }
+    }
+
+    /**
+     * Append a checkpoint record
+     */
+    protected void write(int sessions, long position) throws IOException {
+        this.record.clear();
+        this.record.putLong(sessions).putLong(position).flip();
+        while (this.record.hasRemaining()) {
+            this.channel.write(this.record);
+        }
+        if (this.force) {
+            this.channel.force(false);
+        }
+        this.sessions = sessions;
+        this.position = position;
+    }
+
+    /**
+     * Get the path of the journal
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Close and remove the journal once the input has been dealt with
+     *
+     * @throws IOException if the journal cannot be removed
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(this.path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,128 @@
+package emissary.pickup;
+
+import jakarta.annotation.Nullable;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Streaming decompression of compressed input files for the pickup places. The compression is recognized by the
+ * signature at the start of the file rather than by its name, and the file is only ever read as a stream, so the
+ * compressed bytes are never held on the heap. Gzip and bzip2 are always handled, xz and zstd when their optional
+ * libraries are on the classpath.
+ */
+public final class Decompression {
+
+    private static final Logger logger = LoggerFactory.getLogger(Decompression.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Decompression() {}
+
+    /**
+     * Find the compression of a file
+     *
+     * @param file the file to look at
+     * @return the commons-compress name of the compression, or null if the file is not compressed in a way that can be
+     *         decompressed
+     * @throws IOException if the file cannot be read
+     */
+    @Nullable
+    public static String detect(File file) throws IOException {
+        final String compression;
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            compression = CompressorStreamFactory.detect(is);
+        } catch (CompressorException e) {
+            // no known signature
+            return null;
+        }
+
+        switch (compression) {
+            case CompressorStreamFactory.GZIP:
+            case CompressorStreamFactory.BZIP2:
+                return compression;
+            case CompressorStreamFactory.XZ:
+                if (XZUtils.isXZCompressionAvailable()) {
+                    return compression;
+                }
+                break;
+            case CompressorStreamFactory.ZSTANDARD:
+                if (ZstdUtils.isZstdCompressionAvailable()) {
+                    return compression;
+                }
+                break;
+            default:
+                // other formats are left for the places to handle
+                return null;
+        }
+        logger.warn("{} is {} compressed but that cannot be decompressed without its library", file.getName(), compression);
+        return null;
+    }
+
+    /**
+     * Open a stream of the decompressed contents of a file. Concatenated compressed streams are decompressed as one.
+     *
+     * @param file the compressed file
+     * @param compression the compression found by {@link #detect(File)}
+     * @return the decompressed data
+     * @throws IOException if the file cannot be read or decompressed
+     */
+    public static InputStream open(File file, String compression) throws IOException {
+        final InputStream is = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+        try {
+            return new CompressorStreamFactory(true).createCompressorInputStream(compression, is);
+        } catch (CompressorException e) {
+            is.close();
+            throw new IOException("Cannot decompress " + file.getName() + " as " + compression, e);
+        }
+    }
+
+    /**
+     * Decompress a file into a temporary file, so it can be read through a file channel and memory mapped. The size is
+     * known once the file is written and seeking never decompresses again.
+     *
+     * @param file the compressed file
+     * @param compression the compression found by {@link #detect(File)}
+     * @param dir the directory to create the temporary file in
+     * @return the temporary file, which the caller must remove with {@link #deleteSpool(Path)}
+     * @throws IOException if the file cannot be decompressed or written
+     */
+    public static Path spool(File file, String compression, Path dir) throws IOException {
+        final Path spooled = Files.createTempFile(dir, file.getName() + ".", ".spool");
+        try (InputStream is = open(file, compression)) {
+            final long size = Files.copy(is, spooled, StandardCopyOption.REPLACE_EXISTING);
+            logger.debug("Decompressed {} bytes of {} to {}", size, file.getName(), spooled);
+        } catch (IOException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        return spooled;
+    }
+
+    /**
+     * Remove a file made by {@link #spool(File, String, Path)}. Any channel over it must be closed first. Sessions mapped
+     * from the file may still be held by agents, and where the platform cannot remove a mapped file it is removed at exit
+     * instead.
+     *
+     * @param spooled the temporary file
+     */
+    public static void deleteSpool(Path spooled) {
+        try {
+            Files.deleteIfExists(spooled);
+        } catch (IOException e) {
+            logger.warn("Cannot remove {} yet, it will be removed at exit", spooled, e);
+            spooled.toFile().deleteOnExit();
+        }
+    }
+}
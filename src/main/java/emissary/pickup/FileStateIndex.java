@@ -0,0 +1,751 @@
+package emissary.pickup;
+
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A persistent index of the files a {@link WorkSpace} has queued and completed, keyed by path and recording the size and
+ * modification time each file had when it was collected.
+ * </p>
+ *
+ * <p>
+ * Every change is appended to a log. A memory-mapped, open addressing hash table locates the latest state of each path,
+ * so the heap used does not grow with the number of files tracked. Paths are identified in the table by a 128-bit
+ * fingerprint and are only stored in the log. When the index is closed cleanly the table is reused on the next open.
+ * Otherwise the table is rebuilt by replaying the log, which is truncated at the first incomplete or corrupt record.
+ * The log is compacted once it holds many more records than there are live entries. Completed files that no longer
+ * exist are removed by {@link #removeMissing()}, and before the table would grow beyond its largest capacity.
+ * </p>
+ *
+ * <p>
+ * All methods are synchronized, so one instance may be shared by the threads of a WorkSpace. An index directory must
+ * only be opened by one instance at a time.
+ * </p>
+ */
+public final class FileStateIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileStateIndex.class);
+
+    /**
+     * The state of a tracked file
+     */
+    public enum State {
+        /** Collected into a bundle that is outbound or pending completion */
+        SEEN,
+        /** Processed by a pickup client */
+        DONE
+    }
+
+    static final String LOG_FILE = "files.log";
+    static final String INDEX_FILE = "files.idx";
+
+    private static final int LOG_MAGIC = 0x454D464C; // "EMFL"
+    private static final int INDEX_MAGIC = 0x454D4649; // "EMFI"
+    private static final int FORMAT_VERSION = 1;
+    private static final int LOG_HEADER_SIZE = 8;
+
+    // Log record types
+    private static final byte RECORD_SEEN = 1;
+    private static final byte RECORD_DONE = 2;
+    private static final byte RECORD_REMOVE = 3;
+
+    // Log records are a body length, the body and a CRC32 of the body
+    private static final int RECORD_FIXED_BODY = 1 + 8 + 8;
+    private static final int MAX_PATH_BYTES = 64 * 1024;
+
+    // Index header: magic, version, capacity, count, used, clean, log length, records
+    private static final int INDEX_HEADER_SIZE = 64;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_COUNT = 12;
+    private static final int HEADER_USED = 16;
+    private static final int HEADER_CLEAN = 20;
+    private static final int HEADER_LOG_LENGTH = 24;
+    private static final int HEADER_RECORDS = 32;
+    private static final int HEADER_SEEN = 40;
+
+    // Slots: two hashes of the path, size, modification time, offset of the latest log record, state
+    private static final int SLOT_SIZE = 48;
+    private static final int SLOT_HASH1 = 0;
+    private static final int SLOT_HASH2 = 8;
+    private static final int SLOT_FILE_SIZE = 16;
+    private static final int SLOT_MODIFIED = 24;
+    private static final int SLOT_OFFSET = 32;
+    private static final int SLOT_STATE = 40;
+
+    private static final int SLOT_EMPTY = 0;
+    private static final int SLOT_SEEN = 1;
+    private static final int SLOT_DONE = 2;
+    private static final int SLOT_DELETED = 3;
+
+    static final int MIN_CAPACITY = 1024;
+    /** Largest table that fits in a single mapping */
+    static final int MAX_CAPACITY = 1 << 25;
+    private static final double MAX_LOAD = 0.7;
+
+    /** Compact the log when it holds more than this many records beyond twice the live entries */
+    private static final long COMPACTION_SLACK = 100_000;
+
+    private final Path directory;
+    private final Path logPath;
+    private final Path indexPath;
+
+    private final int maxCapacity;
+
+    private FileChannel log;
+    private long logLength;
+    private long records;
+
+    private MappedByteBuffer table;
+    private int capacity;
+    private int count;
+    private int seen;
+    private int used;
+
+    private boolean closed = false;
+    private boolean replaying = false;
+
+    /**
+     * Open an index, creating it if needed
+     *
+     * @param directory the directory holding the index files
+     * @return the index
+     * @throws IOException if the index cannot be opened or recovered
+     */
+    public static FileStateIndex open(final Path directory) throws IOException {
+        return open(directory, MAX_CAPACITY);
+    }
+
+    static FileStateIndex open(final Path directory, final int maxCapacity) throws IOException {
+        Validate.notNull(directory, "Required: directory not null");
+        Validate.isTrue(Integer.bitCount(maxCapacity) == 1 && maxCapacity >= MIN_CAPACITY && maxCapacity <= MAX_CAPACITY,
+                "Required: maxCapacity a power of two between MIN_CAPACITY and MAX_CAPACITY");
+
+        Files.createDirectories(directory);
+        return new FileStateIndex(directory, maxCapacity);
+    }
+
+    private FileStateIndex(final Path directory, final int maxCapacity) throws IOException {
+        this.directory = directory;
+        this.maxCapacity = maxCapacity;
+        this.logPath = directory.resolve(LOG_FILE);
+        this.indexPath = directory.resolve(INDEX_FILE);
+
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            openLog();
+            if (!loadTable()) {
+                rebuildTable();
+            }
+            // Mark the table as in use, so it is rebuilt if we do not close cleanly
+            table.putInt(HEADER_CLEAN, 0);
+            table.force();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        logger.info("Opened file state index {} with {} entries", directory, count);
+    }
+
+    private void openLog() throws IOException {
+        if (log.size() < LOG_HEADER_SIZE) {
+            final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            header.putInt(LOG_MAGIC).putInt(FORMAT_VERSION).flip();
+            log.truncate(0);
+            writeFully(log, header, 0);
+            log.force(true);
+        } else {
+            final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            readFully(log, header, 0);
+            header.flip();
+            if (header.getInt() != LOG_MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a file state log: " + logPath);
+            }
+        }
+        logLength = log.size();
+    }
+
+    /**
+     * Reuse the table from a clean close, if it matches the log
+     */
+    private boolean loadTable() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < INDEX_HEADER_SIZE) {
+                return false;
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            final int storedCapacity = mapped.getInt(HEADER_CAPACITY);
+            if (mapped.getInt(0) != INDEX_MAGIC || mapped.getInt(4) != FORMAT_VERSION || mapped.getInt(HEADER_CLEAN) != 1
+                    || mapped.getLong(HEADER_LOG_LENGTH) != logLength || Integer.bitCount(storedCapacity) != 1
+                    || channel.size() != INDEX_HEADER_SIZE + (long) storedCapacity * SLOT_SIZE) {
+                logger.info("File state index {} was not closed cleanly, rebuilding it from the log", directory);
+                return false;
+            }
+            table = mapped;
+            capacity = storedCapacity;
+            count = mapped.getInt(HEADER_COUNT);
+            seen = mapped.getInt(HEADER_SEEN);
+            used = mapped.getInt(HEADER_USED);
+            records = mapped.getLong(HEADER_RECORDS);
+            return true;
+        }
+    }
+
+    /**
+     * Create a new table and replay the log into it, truncating the log after the last good record
+     */
+    private void rebuildTable() throws IOException {
+        final long estimate = (logLength - LOG_HEADER_SIZE) / 64;
+        table = createTable(indexPath, capacityFor(estimate));
+        capacity = table.getInt(HEADER_CAPACITY);
+        count = 0;
+        seen = 0;
+        used = 0;
+        records = 0;
+        replaying = true;
+
+        long position = LOG_HEADER_SIZE;
+        final CRC32 crc = new CRC32();
+        try (FileChannel reader = FileChannel.open(logPath, StandardOpenOption.READ);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(reader.position(position)), 64 * 1024))) {
+            while (position < logLength) {
+                final int length = in.readInt();
+                if (length < RECORD_FIXED_BODY || length > RECORD_FIXED_BODY + MAX_PATH_BYTES || position + 8 + length > logLength) {
+                    break;
+                }
+                final byte[] body = new byte[length];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body, 0, body.length);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+
+                final ByteBuffer record = ByteBuffer.wrap(body);
+                final byte type = record.get();
+                final long size = record.getLong();
+                final long modified = record.getLong();
+                final byte[] path = new byte[length - RECORD_FIXED_BODY];
+                record.get(path);
+                apply(path, type, size, modified, position);
+                records++;
+                position += 8 + length;
+            }
+        } catch (EOFException e) {
+            // a partial record at the end of the log
+        } finally {
+            replaying = false;
+        }
+
+        if (position < logLength) {
+            logger.warn("Discarding {} bytes of incomplete or corrupt records from {}", logLength - position, logPath);
+            log.truncate(position);
+            log.force(true);
+            logLength = position;
+        }
+        logger.info("Rebuilt file state index {} from {} log records", directory, records);
+    }
+
+    private static MappedByteBuffer createTable(final Path path, final int tableCapacity) throws IOException {
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) tableCapacity * SLOT_SIZE);
+            mapped.putInt(0, INDEX_MAGIC);
+            mapped.putInt(4, FORMAT_VERSION);
+            mapped.putInt(HEADER_CAPACITY, tableCapacity);
+            return mapped;
+        }
+    }
+
+    private int capacityFor(final long entries) {
+        long wanted = MIN_CAPACITY;
+        while (wanted < maxCapacity && entries > wanted * MAX_LOAD) {
+            wanted <<= 1;
+        }
+        return (int) wanted;
+    }
+
+    /**
+     * Check whether a file is tracked with the given size and modification time, in any state
+     *
+     * @param path the path of the file
+     * @param size the current size of the file
+     * @param modified the current modification time of the file
+     * @return true if the file is tracked and has not changed
+     */
+    public synchronized boolean contains(final String path, final long size, final long modified) {
+        final int slot = find(bytes(path));
+        return slot >= 0 && table.getLong(slotOffset(slot) + SLOT_FILE_SIZE) == size
+                && table.getLong(slotOffset(slot) + SLOT_MODIFIED) == modified;
+    }
+
+    /**
+     * Get the state of a file
+     *
+     * @param path the path of the file
+     * @return the state, or null if the file is not tracked
+     */
+    @Nullable
+    public synchronized State getState(final String path) {
+        final int slot = find(bytes(path));
+        if (slot < 0) {
+            return null;
+        }
+        return table.getInt(slotOffset(slot) + SLOT_STATE) == SLOT_DONE ? State.DONE : State.SEEN;
+    }
+
+    /**
+     * Track a file
+     *
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param modified the modification time of the file
+     * @param state the state of the file
+     * @throws IOException if the change cannot be logged
+     */
+    public synchronized void put(final String path, final long size, final long modified, final State state) throws IOException {
+        Validate.notNull(state, "Required: state not null");
+        final byte[] pathBytes = bytes(path);
+        final long offset = append(state == State.DONE ? RECORD_DONE : RECORD_SEEN, size, modified, pathBytes);
+        apply(pathBytes, state == State.DONE ? RECORD_DONE : RECORD_SEEN, size, modified, offset);
+    }
+
+    /**
+     * Change the state of a tracked file, keeping its recorded size and modification time
+     *
+     * @param path the path of the file
+     * @param state the new state
+     * @return false if the file is not tracked
+     * @throws IOException if the change cannot be logged
+     */
+    public synchronized boolean setState(final String path, final State state) throws IOException {
+        final int slot = find(bytes(path));
+        if (slot < 0) {
+            return false;
+        }
+        put(path, table.getLong(slotOffset(slot) + SLOT_FILE_SIZE), table.getLong(slotOffset(slot) + SLOT_MODIFIED), state);
+        return true;
+    }
+
+    /**
+     * Stop tracking a file
+     *
+     * @param path the path of the file
+     * @return true if the file was tracked
+     * @throws IOException if the change cannot be logged
+     */
+    public synchronized boolean remove(final String path) throws IOException {
+        return remove(path, null);
+    }
+
+    /**
+     * Stop tracking a file if it is in the given state
+     *
+     * @param path the path of the file
+     * @param state only remove the file if it is in this state, or null for any state
+     * @return true if the file was removed
+     * @throws IOException if the change cannot be logged
+     */
+    public synchronized boolean remove(final String path, @Nullable final State state) throws IOException {
+        final byte[] pathBytes = bytes(path);
+        final int slot = find(pathBytes);
+        if (slot < 0 || (state != null && slotState(slot) != state)) {
+            return false;
+        }
+        final long offset = append(RECORD_REMOVE, 0, 0, pathBytes);
+        apply(pathBytes, RECORD_REMOVE, 0, 0, offset);
+        return true;
+    }
+
+    /**
+     * Stop tracking every file in a state, for example to forget work that was in flight when the WorkSpace stopped
+     *
+     * @param state the state to remove
+     * @return the number of files removed
+     * @throws IOException if the changes cannot be logged
+     */
+    public synchronized int removeAll(final State state) throws IOException {
+        int removed = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            final int slotState = table.getInt(slotOffset(slot) + SLOT_STATE);
+            if ((slotState == SLOT_SEEN || slotState == SLOT_DONE) && slotState(slot) == state) {
+                final byte[] path = readPath(table.getLong(slotOffset(slot) + SLOT_OFFSET));
+                append(RECORD_REMOVE, 0, 0, path);
+                table.putInt(slotOffset(slot) + SLOT_STATE, SLOT_DELETED);
+                count--;
+                if (state == State.SEEN) {
+                    seen--;
+                }
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stop tracking completed files that no longer exist. Files are usually deleted or moved once processed, and the index
+     * would otherwise keep growing with every file ever completed. This is done when the table cannot grow any further,
+     * and may be done periodically to keep the index small.
+     *
+     * @return the number of files removed
+     * @throws IOException if the changes cannot be logged
+     */
+    public synchronized int removeMissing() throws IOException {
+        int removed = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (table.getInt(slotOffset(slot) + SLOT_STATE) == SLOT_DONE) {
+                final byte[] path = readPath(table.getLong(slotOffset(slot) + SLOT_OFFSET));
+                if (!Files.exists(Paths.get(new String(path, StandardCharsets.UTF_8)))) {
+                    append(RECORD_REMOVE, 0, 0, path);
+                    table.putInt(slotOffset(slot) + SLOT_STATE, SLOT_DELETED);
+                    count--;
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            logger.debug("Removed {} completed files that no longer exist from file state index {}", removed, directory);
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of files tracked
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param state the state to count
+     * @return the number of files tracked in the state
+     */
+    public synchronized int size(final State state) {
+        return state == State.SEEN ? seen : count - seen;
+    }
+
+    /**
+     * @return the number of slots in the hash table
+     */
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the length of the log in bytes
+     */
+    public synchronized long getLogLength() {
+        return logLength;
+    }
+
+    /**
+     * Force changes to disk, compacting the log first if it has grown much larger than needed
+     *
+     * @throws IOException if the changes cannot be written
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        if (records > 2L * count + COMPACTION_SLACK) {
+            compact();
+        }
+        log.force(false);
+        writeHeader();
+        table.force();
+    }
+
+    /**
+     * Rewrite the log holding only the latest record for each tracked file
+     *
+     * @throws IOException if the log cannot be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        final Path compactPath = directory.resolve(LOG_FILE + ".compact");
+        try (FileChannel compacted = FileChannel.open(compactPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            header.putInt(LOG_MAGIC).putInt(FORMAT_VERSION).flip();
+            writeFully(compacted, header, 0);
+
+            long position = LOG_HEADER_SIZE;
+            for (int slot = 0; slot < capacity; slot++) {
+                final int base = slotOffset(slot);
+                final int slotState = table.getInt(base + SLOT_STATE);
+                if (slotState == SLOT_SEEN || slotState == SLOT_DONE) {
+                    final ByteBuffer record = encode(slotState == SLOT_DONE ? RECORD_DONE : RECORD_SEEN, table.getLong(base + SLOT_FILE_SIZE),
+                            table.getLong(base + SLOT_MODIFIED), readPath(table.getLong(base + SLOT_OFFSET)));
+                    table.putLong(base + SLOT_OFFSET, position);
+                    position += record.remaining();
+                    writeFully(compacted, record, position - record.remaining());
+                }
+            }
+            compacted.force(true);
+
+            log.close();
+            Files.move(compactPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            logger.debug("Compacted file state log from {} to {} records", records, count);
+            logLength = position;
+            records = count;
+        }
+        writeHeader();
+        table.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        log.force(true);
+        writeHeader();
+        table.putInt(HEADER_CLEAN, 1);
+        table.force();
+        log.close();
+        closed = true;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("File state index " + directory + " is closed");
+        }
+    }
+
+    private void writeHeader() {
+        table.putInt(HEADER_COUNT, count);
+        table.putInt(HEADER_SEEN, seen);
+        table.putInt(HEADER_USED, used);
+        table.putLong(HEADER_LOG_LENGTH, logLength);
+        table.putLong(HEADER_RECORDS, records);
+    }
+
+    private State slotState(final int slot) {
+        return table.getInt(slotOffset(slot) + SLOT_STATE) == SLOT_DONE ? State.DONE : State.SEEN;
+    }
+
+    private long append(final byte type, final long size, final long modified, final byte[] path) throws IOException {
+        checkOpen();
+        final ByteBuffer record = encode(type, size, modified, path);
+        final long offset = logLength;
+        logLength += record.remaining();
+        writeFully(log, record, offset);
+        records++;
+        return offset;
+    }
+
+    private static ByteBuffer encode(final byte type, final long size, final long modified, final byte[] path) {
+        final int length = RECORD_FIXED_BODY + path.length;
+        final ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+        record.putInt(length).put(type).putLong(size).putLong(modified).put(path);
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private byte[] readPath(final long offset) throws IOException {
+        final ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(log, length, offset);
+        final ByteBuffer body = ByteBuffer.allocate(length.getInt(0));
+        readFully(log, body, offset + 4);
+        final byte[] path = new byte[body.capacity() - RECORD_FIXED_BODY];
+        body.position(RECORD_FIXED_BODY);
+        body.get(path);
+        return path;
+    }
+
+    /**
+     * Apply a log record to the table
+     */
+    private void apply(final byte[] path, final byte type, final long size, final long modified, final long offset) throws IOException {
+        final long hash1 = hash1(path);
+        final long hash2 = hash2(path);
+        int slot = find(hash1, hash2);
+
+        if (slot >= 0 && table.getInt(slotOffset(slot) + SLOT_STATE) == SLOT_SEEN) {
+            seen--;
+        }
+        if (type == RECORD_REMOVE) {
+            if (slot >= 0) {
+                table.putInt(slotOffset(slot) + SLOT_STATE, SLOT_DELETED);
+                count--;
+            }
+            return;
+        }
+
+        if (slot < 0) {
+            if (used + 1 > capacity * MAX_LOAD) {
+                resize();
+            }
+            slot = insertionSlot(hash1);
+            if (table.getInt(slotOffset(slot) + SLOT_STATE) == SLOT_EMPTY) {
+                used++;
+            }
+            count++;
+            table.putLong(slotOffset(slot) + SLOT_HASH1, hash1);
+            table.putLong(slotOffset(slot) + SLOT_HASH2, hash2);
+        }
+
+        final int base = slotOffset(slot);
+        table.putLong(base + SLOT_FILE_SIZE, size);
+        table.putLong(base + SLOT_MODIFIED, modified);
+        table.putLong(base + SLOT_OFFSET, offset);
+        table.putInt(base + SLOT_STATE, type == RECORD_DONE ? SLOT_DONE : SLOT_SEEN);
+        if (type != RECORD_DONE) {
+            seen++;
+        }
+    }
+
+    private int find(final byte[] path) {
+        return find(hash1(path), hash2(path));
+    }
+
+    private int find(final long hash1, final long hash2) {
+        final int mask = capacity - 1;
+        for (int i = 0, slot = home(hash1, mask); i < capacity; i++, slot = (slot + 1) & mask) {
+            final int base = slotOffset(slot);
+            final int state = table.getInt(base + SLOT_STATE);
+            if (state == SLOT_EMPTY) {
+                return -1;
+            }
+            if (state != SLOT_DELETED && table.getLong(base + SLOT_HASH1) == hash1 && table.getLong(base + SLOT_HASH2) == hash2) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int insertionSlot(final long hash1) {
+        final int mask = capacity - 1;
+        int slot = home(hash1, mask);
+        while (true) {
+            final int state = table.getInt(slotOffset(slot) + SLOT_STATE);
+            if (state == SLOT_EMPTY || state == SLOT_DELETED) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Rehash into a new table, doubling the capacity unless most of the used slots are deleted entries. At the largest
+     * capacity, completed files that no longer exist are removed first.
+     */
+    private void resize() throws IOException {
+        int newCapacity = count * 2L < used ? capacity : capacity * 2;
+        if (newCapacity > maxCapacity && !replaying) {
+            // make room by forgetting completed files that are gone, keeping the capacity if it will not fill again soon
+            removeMissing();
+            if (count * 2L < capacity * MAX_LOAD) {
+                newCapacity = capacity;
+            }
+        }
+        if (newCapacity > maxCapacity || newCapacity < 0) {
+            throw new IOException("File state index " + directory + " is full with " + count + " entries");
+        }
+
+        final Path resizePath = directory.resolve(INDEX_FILE + ".resize");
+        final MappedByteBuffer resized = createTable(resizePath, newCapacity);
+        final int mask = newCapacity - 1;
+        for (int slot = 0; slot < capacity; slot++) {
+            final int base = slotOffset(slot);
+            final int state = table.getInt(base + SLOT_STATE);
+            if (state == SLOT_SEEN || state == SLOT_DONE) {
+                int target = home(table.getLong(base + SLOT_HASH1), mask);
+                while (resized.getInt(slotOffset(target) + SLOT_STATE) != SLOT_EMPTY) {
+                    target = (target + 1) & mask;
+                }
+                for (int i = 0; i < SLOT_SIZE; i += 8) {
+                    resized.putLong(slotOffset(target) + i, table.getLong(base + i));
+                }
+            }
+        }
+        resized.force();
+        Files.move(resizePath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.debug("Resized file state index {} from {} to {} slots", directory, capacity, newCapacity);
+        table = resized;
+        capacity = newCapacity;
+        used = count;
+    }
+
+    private static int home(final long hash1, final int mask) {
+        return (int) ((hash1 ^ (hash1 >>> 32)) & mask);
+    }
+
+    private static int slotOffset(final int slot) {
+        return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static byte[] bytes(final String path) {
+        Validate.notNull(path, "Required: path not null");
+        final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        Validate.isTrue(bytes.length <= MAX_PATH_BYTES, "Required: path shorter than " + MAX_PATH_BYTES + " bytes");
+        return bytes;
+    }
+
+    /**
+     * 64-bit FNV-1a
+     */
+    static long hash1(final byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * An independent multiply and shift hash, so that two paths must collide in both to be confused
+     */
+    static long hash2(final byte[] bytes) {
+        long hash = bytes.length * 0x9E3779B97F4A7C15L;
+        for (final byte b : bytes) {
+            hash = (hash ^ (b & 0xff)) * 0xC2B2AE3D27D4EB4FL;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            p += channel.write(buffer, p);
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, p);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + channel);
+            }
+            p += read;
+        }
+    }
+}
@@ -43,6 +43,15 @@ public interface IPickUpSpace {
      */
     boolean take();
 
+    /**
+     * Whether the space takes work ahead of processing, so that another take can follow a successful one without pausing
+     * 
+     * @return true if takes need no pause between them
+     */
+    default boolean isPrefetching() {
+        return false;
+    }
+
     /**
      * Count consecutive times a WorkSpace.take() made an error
      */
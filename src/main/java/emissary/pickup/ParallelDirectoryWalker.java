@@ -0,0 +1,267 @@
+package emissary.pickup;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Walks directory trees using a bounded pool of threads. Each directory is listed by its own task and the
+ * subdirectories found are queued as new tasks, so a wide or deep tree is spread over all the threads and files are
+ * handed to the {@link Visitor} as soon as their directory has been listed.
+ * </p>
+ *
+ * <p>
+ * One walker can be shared by several concurrent walks. Queued directories are listed in order of the priority of
+ * their walk, lowest value first as with {@link PriorityDirectory}, and then in the order they were found.
+ * </p>
+ *
+ * <p>
+ * Symbolic links are followed, but each directory is listed at most once per walk, identified by its file key or real
+ * path, so links that form a cycle do not make the walk run forever.
+ * </p>
+ */
+public class ParallelDirectoryWalker implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelDirectoryWalker.class);
+
+    /**
+     * Receives the entries found by a walk. Methods are called from the walker threads, possibly concurrently, and must
+     * be thread safe.
+     */
+    public interface Visitor {
+        /**
+         * Called for each directory below the root, before it is listed
+         *
+         * @param directory the directory
+         * @return false to skip the directory and everything below it
+         */
+        default boolean visitDirectory(final Path directory) {
+            return true;
+        }
+
+        /**
+         * Called for each entry that is not a directory
+         *
+         * @param file the file
+         * @param attributes the attributes of the file, following symbolic links
+         */
+        void visitFile(Path file, BasicFileAttributes attributes);
+
+        /**
+         * Called to find out if the walk should stop early
+         *
+         * @return true to stop listing further directories
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Create a walker
+     *
+     * @param threads the number of threads listing directories
+     */
+    public ParallelDirectoryWalker(final int threads) {
+        Validate.isTrue(threads > 0, "Required: threads > 0");
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, "WorkSpace Walker " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Walk a directory tree, returning when every directory in it has been listed
+     *
+     * @param root the top of the tree
+     * @param priority the priority of the walk, lower values are listed first
+     * @param visitor receives the entries found
+     * @throws IOException if the root cannot be read
+     * @throws InterruptedException if interrupted while waiting for the walk to finish
+     */
+    public void walk(final Path root, final int priority, final Visitor visitor) throws IOException, InterruptedException {
+        Validate.notNull(root, "Required: root not null");
+        Validate.notNull(visitor, "Required: visitor not null");
+
+        if (!Files.isReadable(root)) {
+            throw new IOException("File not Found:" + root);
+        }
+        final BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+        if (!attributes.isDirectory()) {
+            visitor.visitFile(root, attributes);
+            return;
+        }
+
+        final Walk walk = new Walk(priority, visitor);
+        walk.firstVisit(root, attributes);
+        walk.submit(root);
+        walk.await();
+    }
+
+    /**
+     * @return the number of directories waiting to be listed
+     */
+    public int getQueuedDirectoryCount() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The state of a single walk
+     */
+    private final class Walk {
+        private final int priority;
+        private final Visitor visitor;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Set<Object> visited = ConcurrentHashMap.newKeySet();
+
+        Walk(final int priority, final Visitor visitor) {
+            this.priority = priority;
+            this.visitor = visitor;
+        }
+
+        void submit(final Path directory) {
+            outstanding.incrementAndGet();
+            try {
+                executor.execute(new DirectoryTask(this, directory, sequence.getAndIncrement()));
+            } catch (RejectedExecutionException e) {
+                logger.debug("Walker is closed, not listing {}", directory);
+                done();
+            }
+        }
+
+        void list(final Path directory) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (final Path entry : stream) {
+                    if (visitor.isCancelled()) {
+                        return;
+                    }
+                    final BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        logger.debug("Cannot read attributes of {}", entry, e);
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (!firstVisit(entry, attributes)) {
+                            logger.debug("Already listed {}, not following it again", entry);
+                        } else if (visitor.visitDirectory(entry)) {
+                            submit(entry);
+                        }
+                    } else {
+                        visitor.visitFile(entry, attributes);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Cannot list directory {}: {}", directory, e.toString());
+            } catch (RuntimeException e) {
+                logger.error("Failed walking directory {}", directory, e);
+            }
+        }
+
+        /**
+         * Record a directory as visited
+         *
+         * @return false if it was already visited in this walk
+         */
+        boolean firstVisit(final Path directory, final BasicFileAttributes attributes) {
+            Object key = attributes.fileKey();
+            if (key == null) {
+                try {
+                    key = directory.toRealPath();
+                } catch (IOException e) {
+                    logger.debug("Cannot resolve {}", directory, e);
+                    key = directory.toAbsolutePath().normalize();
+                }
+            }
+            return visited.add(key);
+        }
+
+        void done() {
+            if (outstanding.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void await() throws InterruptedException {
+            // queued directories are dropped if the walker is closed
+            while (outstanding.get() > 0 && !executor.isTerminated()) {
+                wait(1000);
+            }
+        }
+    }
+
+    /**
+     * Lists one directory, ordered by the priority of its walk and then by when it was found
+     */
+    private static final class DirectoryTask implements Runnable, Comparable<DirectoryTask> {
+        private final Walk walk;
+        private final Path directory;
+        private final long sequence;
+
+        DirectoryTask(final Walk walk, final Path directory, final long sequence) {
+            this.walk = walk;
+            this.directory = directory;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!walk.visitor.isCancelled()) {
+                    walk.list(directory);
+                }
+            } finally {
+                walk.done();
+            }
+        }
+
+        @Override
+        public int compareTo(final DirectoryTask that) {
+            if (this.walk.priority != that.walk.priority) {
+                return Integer.compare(this.walk.priority, that.walk.priority);
+            }
+            return Long.compare(this.sequence, that.sequence);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(sequence);
+        }
+    }
+}
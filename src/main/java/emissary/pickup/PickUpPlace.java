@@ -17,6 +17,7 @@ import emissary.place.AgentsNotSupportedPlace;
 import emissary.place.IServiceProviderPlace;
 import emissary.place.ServiceProviderPlace;
 import emissary.pool.AgentPool;
+import emissary.pool.FamilyMemoryBudget;
 import emissary.spi.ObjectTracing;
 import emissary.spi.ObjectTracingService;
 import emissary.util.ClassComparator;
@@ -30,11 +31,29 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static emissary.core.constants.Parameters.FILE_COMPRESSION;
 import static emissary.core.constants.Parameters.FILE_DATE;
 import static emissary.core.constants.Parameters.FILE_NAME;
 
@@ -53,6 +72,9 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
     protected long maximumContentLength = 1048567;
     protected String oversizeArea = "OversizeData";
 
+    // Largest payload a decompressed file can be read into
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
     // Directory store original data while processing
     protected String holdingArea;
 
@@ -81,6 +103,33 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
 
     protected boolean useObjectTraceLogger = false;
 
+    // Threads handing the sessions of a file to agents while the next sessions are parsed, zero to hand each session
+    // to an agent before parsing the next one
+    protected int sessionDispatchers = 0;
+
+    // Most parsed sessions of a file waiting for a dispatcher
+    protected int sessionQueueSize = 16;
+
+    // Most threads dispatching sessions at once, shared by all the files being processed
+    protected int sessionDispatchThreads = 0;
+
+    @Nullable
+    private ExecutorService dispatchExecutor = null;
+
+    // True to decompress compressed input files as they are picked up
+    protected boolean decompressInput = false;
+
+    // Directory to decompress into so the parser can read a file channel, null for the system temporary directory
+    @Nullable
+    protected String decompressSpoolArea = null;
+
+    // Directory for the journals of dispatched sessions used to resume files after a crash, null for no journals
+    @Nullable
+    protected String checkpointArea = null;
+
+    // True to force each checkpoint to disk before dispatching the next session
+    protected boolean checkpointForce = true;
+
     public PickUpPlace() throws IOException {
         super();
         configurePickUpPlace();
@@ -152,6 +201,17 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
      * <li>DONE_DATA: where it goes when done</li>
      * <li>SIMPLE_MODE: boolean when true turns off DataIdentification engine</li>
      * <li>INITIAL_FORM: one or more forms for new payloads</li>
+     * <li>SESSION_DISPATCHERS: threads dispatching the sessions of a file while it is parsed, 0 to dispatch each session
+     * before parsing the next</li>
+     * <li>SESSION_QUEUE_SIZE: most parsed sessions waiting to be dispatched</li>
+     * <li>SESSION_DISPATCH_THREADS: most threads dispatching sessions at once across all files, default
+     * SESSION_DISPATCHERS</li>
+     * <li>DECOMPRESS_INPUT: true to decompress gzip, bzip2, xz and zstd input as it is read</li>
+     * <li>DECOMPRESS_SPOOL_AREA: directory to decompress input into before parsing, default the system temporary
+     * directory</li>
+     * <li>CHECKPOINT_AREA: directory to journal the dispatched sessions of each file in, so a file is resumed after a crash
+     * instead of started again</li>
+     * <li>CHECKPOINT_FORCE: false to let the operating system decide when checkpoints reach the disk</li>
      * </ul>
      */
     protected void configurePickUpPlace() {
@@ -187,6 +247,16 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
 
         // Whether or not to use the objectTrace logger
         useObjectTraceLogger = configG.findBooleanEntry("USE_OBJECT_TRACE_LOGGER", useObjectTraceLogger);
+
+        sessionDispatchers = configG.findIntEntry("SESSION_DISPATCHERS", sessionDispatchers);
+        sessionQueueSize = Math.max(1, configG.findIntEntry("SESSION_QUEUE_SIZE", sessionQueueSize));
+        sessionDispatchThreads = configG.findIntEntry("SESSION_DISPATCH_THREADS", sessionDispatchers);
+
+        decompressInput = configG.findBooleanEntry("DECOMPRESS_INPUT", decompressInput);
+        decompressSpoolArea = configG.findCanonicalFileNameEntry("DECOMPRESS_SPOOL_AREA", decompressSpoolArea);
+
+        checkpointArea = configG.findCanonicalFileNameEntry("CHECKPOINT_AREA", checkpointArea);
+        checkpointForce = configG.findBooleanEntry("CHECKPOINT_FORCE", checkpointForce);
     }
 
     /**
@@ -360,8 +430,34 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
      * @return true if the file is processed successfully
      */
     protected boolean handleSimplePayload(File theFile, String fixedName) throws EmissaryException {
-        byte[] theContent = Executrix.readDataFromFile(theFile.getAbsolutePath());
-        return processDataObject(theContent, fixedName, theFile, true);
+        String compression = null;
+        if (decompressInput) {
+            try {
+                compression = Decompression.detect(theFile);
+            } catch (IOException e) {
+                throw new EmissaryException("Cannot read " + theFile.getName(), e);
+            }
+        }
+        if (compression == null) {
+            byte[] theContent = Executrix.readDataFromFile(theFile.getAbsolutePath());
+            return processDataObject(theContent, fixedName, theFile, true);
+        }
+
+        // the compressed size says nothing of the decompressed size, so stop reading past the limit
+        final int limit = maximumContentLength == -1 ? MAX_ARRAY_SIZE : (int) Math.min(maximumContentLength, MAX_ARRAY_SIZE);
+        byte[] theContent;
+        try (InputStream is = Decompression.open(theFile, compression)) {
+            theContent = is.readNBytes(limit);
+            if (is.read() != -1) {
+                logger.warn("Sorry, This file decompresses to more than {} bytes: {}", limit, theFile.getPath());
+                return handleOversizePayload(theFile, fixedName, true);
+            }
+        } catch (IOException e) {
+            throw new EmissaryException("Cannot decompress " + theFile.getName(), e);
+        }
+        IBaseDataObject d = DataObjectFactory.getInstance(new Object[] {theContent, fixedName});
+        d.putParameter(FILE_COMPRESSION, compression);
+        return processDataObject(d, fixedName, theFile, true);
     }
 
     /**
@@ -537,7 +633,10 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
     }
 
     /**
-     * Set up the dataobject and send it on the way
+     * Set up the dataobject and send it on the way. When SESSION_DISPATCHERS is set, this is called for the sessions of a
+     * file from several dispatcher threads at once, along with {@link #dataObjectCreated(IBaseDataObject, File)} and
+     * {@link #assignToPooledAgent(IBaseDataObject, long)}, so overrides of them must be thread safe. Each data object is
+     * only ever handed to one thread.
      * 
      * @param d the nascent data object
      * @param fixedName the short name of it
@@ -574,54 +673,375 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
      * @throws IOException If there is some I/O problem.
      */
     public int processSessions(File theFile, String fixedName) throws IOException, ParserException {
-        // We are going to prefer a RAF parser if one
-        // is available so start by getting the file opened
         logger.debug("PickUpPlace: Starting on {}", theFile.getName());
-        int sessionNum = 0;
-        try (RandomAccessFile raf = new RandomAccessFile(theFile, "r")) {
+        CheckpointJournal journal = openCheckpoint(theFile);
+        boolean finished = false;
+        try {
+            String compression = decompressInput ? Decompression.detect(theFile) : null;
+            int sessionNum;
+            if (compression != null) {
+                sessionNum = processCompressedSessions(theFile, fixedName, compression, journal);
+            } else {
+                // We are going to prefer a RAF parser if one
+                // is available so start by getting the file opened
+                try (RandomAccessFile raf = new RandomAccessFile(theFile, "r")) {
+                    sessionNum = processSessions(raf.getChannel(), theFile, fixedName, null, journal);
+                }
+            }
+            finished = true;
+            return sessionNum;
+        } catch (ParserException ex) {
+            // the file is done with, it goes to the error area
+            finished = true;
+            throw ex;
+        } finally {
+            closeCheckpoint(journal, finished);
+        }
+    }
+
+    /**
+     * Open the journal of the dispatched sessions of a file, picking up where an earlier attempt left off
+     * 
+     * @param theFile file to process
+     * @return the journal or null if checkpoints are not configured
+     * @throws IOException if the journal cannot be opened
+     */
+    @Nullable
+    protected CheckpointJournal openCheckpoint(File theFile) throws IOException {
+        if (checkpointArea == null) {
+            return null;
+        }
+        return new CheckpointJournal(Paths.get(checkpointArea), theFile, checkpointForce);
+    }
+
+    /**
+     * Close the journal of a file, removing it when the file is done with. A journal is left behind when processing is cut
+     * short so that the file can be resumed.
+     */
+    private void closeCheckpoint(@Nullable CheckpointJournal journal, boolean finished) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            if (finished) {
+                journal.delete();
+            } else {
+                journal.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot close checkpoint journal {}", journal.getPath(), e);
+        }
+    }
+
+    /**
+     * Skip the sessions of a file that were dispatched before, moving the parser straight to them if it can
+     * 
+     * @return the number of sessions skipped
+     */
+    private int resume(SessionParser sp, File theFile, @Nullable CheckpointJournal journal) throws ParserException {
+        if (journal == null || journal.getSessions() == 0) {
+            return 0;
+        }
+        int done = journal.getSessions();
+        if (journal.getPosition() >= 0 && sp.seek(journal.getPosition())) {
+            logger.info("Resumed {} at position {} after {} sessions", theFile.getName(), journal.getPosition(), done);
+            return done;
+        }
+
+        logger.info("Skipping {} sessions of {} dispatched before", done, theFile.getName());
+        for (int i = 0; i < done; i++) {
+            try {
+                sp.getNextSession();
+            } catch (ParserEOFException eof) {
+                logger.warn("Only {} of {} sessions of {} were found again", i, done, theFile.getName());
+                return i;
+            }
+        }
+        return done;
+    }
 
-            // Get the right type of session parser
-            SessionParser sp = parserFactory.makeSessionParser(raf.getChannel());
+    /**
+     * Parse out sessions and process data from the decompressed contents of a file. The data is decompressed into a file
+     * in the spool area so the parser gets a file channel of known size that it can seek in without decompressing again.
+     * 
+     * @param theFile compressed file to process
+     * @param fixedName the good short name of the file
+     * @param compression the compression of the file
+     * @param journal the journal of dispatched sessions, or null
+     * @return count of sessions parsed
+     * @throws IOException If there is some I/O problem.
+     */
+    protected int processCompressedSessions(File theFile, String fixedName, String compression, @Nullable CheckpointJournal journal)
+            throws IOException, ParserException {
+        logger.debug("Decompressing {} input {}", compression, theFile.getName());
+        Path spoolArea = Paths.get(decompressSpoolArea != null ? decompressSpoolArea : System.getProperty("java.io.tmpdir"));
+        Path spooled = Decompression.spool(theFile, compression, spoolArea);
+        try {
+            // the channel is closed before the file is removed
+            try (FileChannel channel = FileChannel.open(spooled, StandardOpenOption.READ)) {
+                return processSessions(channel, theFile, fixedName, compression, journal);
+            }
+        } finally {
+            Decompression.deleteSpool(spooled);
+        }
+    }
+
+    /**
+     * Parse out sessions and process data from a channel over the contents of a file
+     * 
+     * @param channel the contents of the file
+     * @param theFile file to process
+     * @param fixedName the good short name of the file
+     * @param compression the compression the contents were decompressed from, or null
+     * @param journal the journal of dispatched sessions, or null
+     * @return count of sessions parsed
+     * @throws IOException If there is some I/O problem.
+     */
+    protected int processSessions(SeekableByteChannel channel, File theFile, String fixedName, @Nullable String compression,
+            @Nullable CheckpointJournal journal) throws IOException, ParserException {
+        // Get the right type of session parser
+        int sessionNum;
+        try (SessionParser sp = parserFactory.makeSessionParser(channel)) {
             logger.debug("Using session parser from raf ident {}", sp.getClass().getName());
 
             // ... and a session producer to crank out the data objects...
             SessionProducer dof = new SessionProducer(sp);
 
-            long fileStart = System.currentTimeMillis();
-            long totalSize = 0;
+            if (sessionDispatchers > 0) {
+                sessionNum = processSessionsPipelined(sp, dof, theFile, fixedName, compression, journal);
+            } else {
+                sessionNum = processSessionsSequentially(sp, dof, theFile, fixedName, compression, journal);
+            }
+        }
 
-            // For each session get a data object from the producer
-            boolean isParserComplete = false;
-            while (!isParserComplete) {
+        logger.debug("Done processing {} sessions from {}", sessionNum, theFile.getName());
+        return sessionNum;
+    }
+
+    /**
+     * Parse each session and hand it to an agent before parsing the next
+     */
+    private int processSessionsSequentially(SessionParser sp, SessionProducer dof, File theFile, String fixedName, @Nullable String compression,
+            @Nullable CheckpointJournal journal) throws IOException, ParserException {
+        int sessionNum = resume(sp, theFile, journal);
+        long fileStart = System.currentTimeMillis();
+        long totalSize = 0;
+
+        // For each session get a data object from the producer
+        boolean isParserComplete = false;
+        while (!isParserComplete) {
+            long sessionStart = System.currentTimeMillis();
+            try {
+                // Use filename-xx for default name
+                String sessionName = fixedName + "-" + (sessionNum + 1);
+
+                IBaseDataObject dataObject = dof.getNextSession(sessionName);
+                long position = sp.getPosition();
+                logger.debug("Pulled session {} from {} shortName={}", sessionName, theFile.getName(), dataObject.shortName());
+                sessionNum++;
+                long sessionEnd = System.currentTimeMillis();
+                long sessionSize = dataObject.getChannelSize();
+                totalSize += sessionSize;
+                logger.info("sessionParseMetric:{},{},{},{},{},{}", sessionEnd - sessionStart, sp.getClass().getName(), theFile, sessionName,
+                        sessionNum, sessionSize);
+                if (compression != null) {
+                    dataObject.putParameter(FILE_COMPRESSION, compression);
+                }
+                processDataObject(dataObject, sessionName, theFile, false);
+                if (journal != null) {
+                    journal.completed(sessionNum, position);
+                }
+            } catch (ParserEOFException eof) {
+                // expected at end of file
+                isParserComplete = true;
+                long fileEnd = System.currentTimeMillis();
+                logger.info("fileParseMetric:{},{},{},{},{}", fileEnd - fileStart, sp.getClass().getName(), theFile, sessionNum, totalSize);
+            } catch (EmissaryException ex) {
+                logger.error("Could not dispatch {}", theFile.getName(), ex);
+                throw new ParserException("Could not process " + theFile.getName(), ex);
+            }
+        }
+        return sessionNum;
+    }
+
+    /**
+     * Parse sessions on this thread while other threads hand the parsed sessions to agents. Returns once every parsed
+     * session has been dispatched, so the file can be moved to the done area just as when sessions are dispatched one at
+     * a time. Parsing stops at the first session that cannot be dispatched.
+     *
+     * @param sp the parser for the file
+     * @param dof the producer of data objects from the parser
+     * @param theFile file to process
+     * @param fixedName the good short name of the file
+     * @param compression the compression the contents were decompressed from, or null
+     * @param journal the journal of dispatched sessions, or null
+     * @return count of sessions parsed
+     * @throws ParserException if the file cannot be parsed or a session cannot be dispatched
+     */
+    protected int processSessionsPipelined(SessionParser sp, SessionProducer dof, File theFile, String fixedName, @Nullable String compression,
+            @Nullable CheckpointJournal journal) throws ParserException {
+        int sessionNum = resume(sp, theFile, journal);
+        final BlockingQueue<ParsedSession> queue = new ArrayBlockingQueue<>(sessionQueueSize);
+        final AtomicBoolean parsed = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger dispatched = new AtomicInteger();
+        final List<Future<?>> dispatchers = new ArrayList<>(sessionDispatchers);
+        for (int i = 0; i < sessionDispatchers; i++) {
+            dispatchers.add(getDispatchExecutor().submit(() -> dispatchSessions(queue, parsed, failure, dispatched, theFile, journal)));
+        }
+
+        long fileStart = System.currentTimeMillis();
+        long totalSize = 0;
+        try {
+            while (failure.get() == null) {
                 long sessionStart = System.currentTimeMillis();
+                // Use filename-xx for default name
+                String sessionName = fixedName + "-" + (sessionNum + 1);
+                IBaseDataObject dataObject;
                 try {
-                    // Use filename-xx for default name
-                    String sessionName = fixedName + "-" + (sessionNum + 1);
-
-                    IBaseDataObject dataObject = dof.getNextSession(sessionName);
-                    logger.debug("Pulled session {} from {} shortName={}", sessionName, theFile.getName(), dataObject.shortName());
-                    sessionNum++;
-                    long sessionEnd = System.currentTimeMillis();
-                    totalSize += dataObject.data().length;
-                    logger.info("sessionParseMetric:{},{},{},{},{},{}", sessionEnd - sessionStart, sp.getClass().getName(), theFile, sessionName,
-                            sessionNum, dataObject.data().length);
-                    processDataObject(dataObject, sessionName, theFile, false);
+                    dataObject = dof.getNextSession(sessionName);
                 } catch (ParserEOFException eof) {
                     // expected at end of file
-                    isParserComplete = true;
-                    long fileEnd = System.currentTimeMillis();
-                    logger.info("fileParseMetric:{},{},{},{},{}", fileEnd - fileStart, sp.getClass().getName(), theFile, sessionNum, totalSize);
-                } catch (EmissaryException ex) {
-                    logger.error("Could not dispatch {}", theFile.getName(), ex);
-                    throw new ParserException("Could not process" + theFile.getName(), ex);
+                    break;
+                }
+                long position = sp.getPosition();
+                logger.debug("Pulled session {} from {} shortName={}", sessionName, theFile.getName(), dataObject.shortName());
+                sessionNum++;
+                long sessionEnd = System.currentTimeMillis();
+                long sessionSize = dataObject.getChannelSize();
+                totalSize += sessionSize;
+                logger.info("sessionParseMetric:{},{},{},{},{},{}", sessionEnd - sessionStart, sp.getClass().getName(), theFile, sessionName,
+                        sessionNum, sessionSize);
+                if (compression != null) {
+                    dataObject.putParameter(FILE_COMPRESSION, compression);
+                }
+
+                final ParsedSession session = new ParsedSession(dataObject, sessionName, sessionNum, position);
+                while (!queue.offer(session, 100, TimeUnit.MILLISECONDS)) {
+                    if (failure.get() != null) {
+                        break;
+                    }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            parsed.set(true);
+            awaitDispatchers(dispatchers, failure);
         }
 
-        logger.debug("Done processing {} sessions from {}", sessionNum, theFile.getName());
+        if (failure.get() instanceof Error) {
+            // not something to send the file to the error area for
+            throw (Error) failure.get();
+        }
+        if (failure.get() != null) {
+            logger.error("Could not dispatch {}, {} of {} sessions dispatched", theFile.getName(), dispatched.get(), sessionNum, failure.get());
+            throw new ParserException("Could not process " + theFile.getName(), failure.get());
+        }
+        long fileEnd = System.currentTimeMillis();
+        logger.info("fileParseMetric:{},{},{},{},{}", fileEnd - fileStart, sp.getClass().getName(), theFile, sessionNum, totalSize);
         return sessionNum;
     }
 
+    /**
+     * Hand sessions from the queue to agents until parsing is finished and the queue is empty, or something fails
+     */
+    private void dispatchSessions(BlockingQueue<ParsedSession> queue, AtomicBoolean parsed, AtomicReference<Throwable> failure,
+            AtomicInteger dispatched, File theFile, @Nullable CheckpointJournal journal) {
+        while (failure.get() == null) {
+            final ParsedSession session;
+            try {
+                session = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+                return;
+            }
+            if (session == null) {
+                if (parsed.get() && queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                processDataObject(session.dataObject, session.sessionName, theFile, false);
+                dispatched.incrementAndGet();
+                if (journal != null) {
+                    journal.completed(session.sessionNum, session.position);
+                }
+            } catch (EmissaryException | IOException | RuntimeException | Error ex) {
+                failure.compareAndSet(null, ex);
+            }
+        }
+    }
+
+    /**
+     * Wait for the dispatchers of a file to finish
+     */
+    private static void awaitDispatchers(List<Future<?>> dispatchers, AtomicReference<Throwable> failure) {
+        for (Future<?> dispatcher : dispatchers) {
+            try {
+                dispatcher.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+                dispatchers.forEach(d -> d.cancel(true));
+                return;
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Get the threads shared by the dispatchers of all files, creating them when first used. There are at most
+     * {@link #sessionDispatchThreads} of them, and dispatchers beyond that wait for a thread. Idle threads are let go.
+     */
+    private synchronized ExecutorService getDispatchExecutor() {
+        if (dispatchExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            final int threads = Math.max(1, sessionDispatchThreads);
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                final Thread thread = new Thread(r, getPlaceName() + " Session Dispatcher " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            dispatchExecutor = executor;
+        }
+        return dispatchExecutor;
+    }
+
+    @Override
+    public void shutDown() {
+        synchronized (this) {
+            if (dispatchExecutor != null) {
+                dispatchExecutor.shutdown();
+            }
+        }
+        super.shutDown();
+    }
+
+    /**
+     * A parsed session waiting to be dispatched
+     */
+    private static final class ParsedSession {
+        final IBaseDataObject dataObject;
+        final String sessionName;
+        final int sessionNum;
+        final long position;
+
+        ParsedSession(IBaseDataObject dataObject, String sessionName, int sessionNum, long position) {
+            this.dataObject = dataObject;
+            this.sessionName = sessionName;
+            this.sessionNum = sessionNum;
+            this.position = position;
+        }
+    }
+
     /**
      * Parse out sessions and process data from a byte array
      * 
@@ -637,26 +1057,26 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
         int sessionNum = 0;
 
         // Get the right type of session parser
-        SessionParser sp = parserFactory.makeSessionParser(InMemoryChannelFactory.create(data).create());
-
-        // .. and a session producer to crank out the data objects...
-        SessionProducer dof = new SessionProducer(sp);
+        try (SessionParser sp = parserFactory.makeSessionParser(InMemoryChannelFactory.create(data).create())) {
+            // .. and a session producer to crank out the data objects...
+            SessionProducer dof = new SessionProducer(sp);
 
-        // For each session get a data object from the producer
-        boolean isParserComplete = false;
-        while (!isParserComplete) {
-            try {
-                // Use filename-xx for default name
-                String sessionName = fixedName + "-" + (sessionNum + 1);
+            // For each session get a data object from the producer
+            boolean isParserComplete = false;
+            while (!isParserComplete) {
+                try {
+                    // Use filename-xx for default name
+                    String sessionName = fixedName + "-" + (sessionNum + 1);
 
-                IBaseDataObject dataObject = dof.getNextSession(sessionName);
-                sessionNum++;
-                processDataObject(dataObject, sessionName, theFile, false);
-            } catch (ParserEOFException eof) {
-                // expected at end of file
-                isParserComplete = true;
-            } catch (EmissaryException ex) {
-                logger.error("Could not dispatch {}", fixedName, ex);
+                    IBaseDataObject dataObject = dof.getNextSession(sessionName);
+                    sessionNum++;
+                    processDataObject(dataObject, sessionName, theFile, false);
+                } catch (ParserEOFException eof) {
+                    // expected at end of file
+                    isParserComplete = true;
+                } catch (EmissaryException ex) {
+                    logger.error("Could not dispatch {}", fixedName, ex);
+                }
             }
         }
 
@@ -720,6 +1140,8 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
         long startTime = System.currentTimeMillis();
         boolean warningGiven = false;
         int loopCount = 0;
+        FamilyMemoryBudget budget = null;
+        boolean assigned = false;
 
         MDC.put(MDCConstants.SHORT_NAME, payload.shortName());
         try {
@@ -728,6 +1150,20 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
                 agentPool = AgentPool.lookup();
             }
 
+            // Hold new families back while those in flight are using the memory budget
+            final FamilyMemoryBudget familyBudget = FamilyMemoryBudget.getInstance();
+            if (familyBudget.isEnabled()) {
+                try {
+                    if (!familyBudget.admit(payload, timeoutMs)) {
+                        throw new EmissaryException("No memory available for " + payload.shortName() + ", " + familyBudget);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EmissaryException("Interrupted waiting for memory for " + payload.shortName(), e);
+                }
+                budget = familyBudget;
+            }
+
             do {
                 loopCount++;
                 try {
@@ -747,8 +1183,13 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
             }
 
             agent.go(payload, startingLocation);
+            assigned = true;
             Thread.yield();
         } finally {
+            // Once an agent has the payload it releases the family, otherwise nothing else will
+            if (budget != null && !assigned) {
+                budget.release(payload.getInternalId());
+            }
             MDC.remove(MDCConstants.SHORT_NAME);
         }
 
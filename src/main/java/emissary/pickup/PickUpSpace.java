@@ -7,37 +7,75 @@ import jakarta.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of a pick up place that talks to a one or more WorkSpace instances for obtaining distributed work.
  */
 public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
     // List of workspace instances to interact with
-    protected List<String> openSpaceNames = new ArrayList<>();
+    protected List<String> openSpaceNames = new CopyOnWriteArrayList<>();
 
     // Map of how many consecutive take errors by workspace name
-    protected Map<String, Integer> numConsecutiveTakeErrors = new HashMap<>();
+    protected Map<String, Integer> numConsecutiveTakeErrors = new ConcurrentHashMap<>();
 
     // Comms adapter
     protected WorkSpaceAdapter tpa = new WorkSpaceAdapter();
 
     // Map of last bundle size by workspace name
-    protected Map<String, Integer> lastBundleSize = new HashMap<>();
+    protected Map<String, Integer> lastBundleSize = new ConcurrentHashMap<>();
 
     // Map of pending bundles to workspace name to facilitate replying
-    protected Map<String, String> pendingBundles = new HashMap<>();
+    protected Map<String, String> pendingBundles = new ConcurrentHashMap<>();
 
     // Number of consecutive take errors that cause space to close
     protected static final int TAKE_ERROR_MAX = 10;
 
+    // Take batches of bundles in binary form, reporting completions with the next take
+    protected boolean binaryTake = false;
+
+    // Most bundles to take from a space in one request
+    protected int maxTakeBundles = 10;
+
+    // How much work, in millis at the current completion rate, to keep buffered when taking in binary form
+    protected long prefetchMillis = 2000L;
+
+    // Longest time in millis a completion waits for a take before it is sent by itself
+    protected long completionFlushMillis = 1000L;
+
+    // Completions to send with the next binary take, by workspace name
+    protected final Map<String, Map<String, Boolean>> pendingCompletions = new HashMap<>();
+
+    // Smoothed rate bundles are completed at, and when the last one completed
+    protected double bundlesPerSecond = 0.0;
+    protected long lastCompletionNanos = -1L;
+
+    // Background take started when the buffer runs low, and the timer that flushes completions
+    @Nullable
+    protected ScheduledExecutorService prefetcher = null;
+    @Nullable
+    protected Future<Integer> prefetch = null;
+
+    // Held while taking, so a background take and one on the queue server never ask the spaces at the same time
+    protected final Object fetchLock = new Object();
+
     /**
      * Create using default configuration
      */
     public PickUpSpace() throws IOException {
         super();
+        configureTake();
     }
 
     /**
@@ -49,6 +87,7 @@ public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
      */
     public PickUpSpace(String configInfo, @Nullable String dir, String placeLocation) throws IOException {
         super(configInfo, dir, placeLocation);
+        configureTake();
     }
 
     /**
@@ -63,6 +102,7 @@ public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
 
     public PickUpSpace(InputStream configInfo) throws IOException {
         super(configInfo);
+        configureTake();
     }
 
     /**
@@ -74,6 +114,34 @@ public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
      */
     public PickUpSpace(InputStream configStream, String theDir, String thePlaceLocation) throws IOException {
         super(configStream, theDir, thePlaceLocation);
+        configureTake();
+    }
+
+    /**
+     * Configure how work is taken from the spaces
+     * <ul>
+     * <li>BINARY_TAKE: take batches of bundles in binary form and prefetch them in the background, default false</li>
+     * <li>MAX_TAKE_BUNDLES: most bundles to take in one request, default 10</li>
+     * <li>PREFETCH_MILLIS: how much work to keep buffered, in millis of processing at the current rate, default 2000</li>
+     * <li>COMPLETION_FLUSH_MILLIS: longest a completion waits for the next take before it is sent by itself, default
+     * 1000</li>
+     * </ul>
+     */
+    protected void configureTake() {
+        if (configG != null) {
+            binaryTake = configG.findBooleanEntry("BINARY_TAKE", binaryTake);
+            maxTakeBundles = Math.max(1, configG.findIntEntry("MAX_TAKE_BUNDLES", maxTakeBundles));
+            prefetchMillis = configG.findLongEntry("PREFETCH_MILLIS", prefetchMillis);
+            completionFlushMillis = Math.max(1L, configG.findLongEntry("COMPLETION_FLUSH_MILLIS", completionFlushMillis));
+        }
+        if (binaryTake) {
+            prefetcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "PickUpSpace Prefetch " + getClass().getSimpleName());
+                t.setDaemon(true);
+                return t;
+            });
+            prefetcher.scheduleWithFixedDelay(this::flushCompletions, completionFlushMillis, completionFlushMillis, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -102,6 +170,15 @@ public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
         openSpaceNames.remove(spaceName);
         lastBundleSize.remove(spaceName);
         numConsecutiveTakeErrors.remove(spaceName);
+        if (binaryTake) {
+            Map<String, Boolean> completed;
+            synchronized (pendingCompletions) {
+                completed = pendingCompletions.remove(spaceName);
+            }
+            if (completed != null && !completed.isEmpty()) {
+                tpa.outboundWorkSpaceTakeBundles(spaceName, myKey, 0, completed);
+            }
+        }
     }
 
     /**
@@ -147,6 +224,10 @@ public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
             return false;
         }
 
+        if (binaryTake) {
+            return takeBundles();
+        }
+
         // Keep track of space we may have to close
         List<String> closers = new ArrayList<>();
 
@@ -182,6 +263,183 @@ public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
         return countTaken > 0;
     }
 
+    /**
+     * Binary takes buffer work ahead by themselves, so the queue server need not pause after one
+     */
+    @Override
+    public boolean isPrefetching() {
+        return binaryTake;
+    }
+
+    /**
+     * Take in binary form, waiting for a prefetch that is already under way instead of asking again
+     *
+     * @return true if we got at least one
+     */
+    protected boolean takeBundles() {
+        Future<Integer> inFlight;
+        synchronized (pendingCompletions) {
+            inFlight = prefetch;
+        }
+        if (inFlight != null) {
+            try {
+                inFlight.get();
+            } catch (ExecutionException e) {
+                logger.error("Prefetch failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            // Only forget the prefetch once it is done, so no other is started meanwhile
+            synchronized (pendingCompletions) {
+                if (prefetch == inFlight) {
+                    prefetch = null;
+                }
+            }
+        }
+        if (getQueSize() > 0) {
+            return true;
+        }
+        return fetchBundles() > 0;
+    }
+
+    /**
+     * Take a batch of bundles from each space that is active, sending any completions that are waiting. The number taken
+     * is enough to keep {@link #prefetchMillis} of work buffered at the rate bundles are being completed. Only one take
+     * runs at a time.
+     *
+     * @return the number of bundles taken
+     */
+    protected int fetchBundles() {
+        synchronized (fetchLock) {
+            return fetchBundlesLocked();
+        }
+    }
+
+    private int fetchBundlesLocked() {
+        List<String> closers = new ArrayList<>();
+        int countTaken = 0;
+        for (String openSpaceName : getSpaceNames()) {
+            int count = getTakeCount();
+            Map<String, Boolean> completed;
+            synchronized (pendingCompletions) {
+                completed = pendingCompletions.remove(openSpaceName);
+            }
+            if (completed == null) {
+                completed = Collections.emptyMap();
+            }
+
+            List<WorkBundle> paths = null;
+            try {
+                paths = tpa.outboundWorkSpaceTakeBundles(openSpaceName, myKey, count, completed);
+            } catch (RuntimeException ex) {
+                logger.error("Failed to take work from " + openSpaceName, ex);
+            }
+
+            if (paths == null) {
+                // Error, record it and send the completions again next time
+                logger.error("Got a null WorkBundle batch from " + openSpaceName);
+                numConsecutiveTakeErrors.merge(openSpaceName, 1, Integer::sum);
+                if (!completed.isEmpty()) {
+                    synchronized (pendingCompletions) {
+                        pendingCompletions.computeIfAbsent(openSpaceName, k -> new LinkedHashMap<>()).putAll(completed);
+                    }
+                }
+            } else if (paths.isEmpty()) {
+                // Close out message
+                closers.add(openSpaceName);
+            } else {
+                logger.debug("Received " + paths.size() + " bundles from " + openSpaceName);
+                numConsecutiveTakeErrors.put(openSpaceName, 0);
+                for (WorkBundle path : paths) {
+                    lastBundleSize.put(openSpaceName, path.size());
+                    pendingBundles.put(path.getBundleId(), openSpaceName);
+                    if (!enque(path)) {
+                        logger.error("Unable to enqueue bundle " + path.getBundleId() + " from " + openSpaceName + ", losing it.");
+                    }
+                    countTaken++;
+                }
+            }
+        }
+        cleanupFailedSpaces(closers);
+        return countTaken;
+    }
+
+    /**
+     * Number of bundles to take so that the buffer holds enough work to last {@link #prefetchMillis} at the current rate
+     *
+     * @return the number of bundles to ask for, between one and {@link #maxTakeBundles}
+     */
+    protected int getTakeCount() {
+        int target = getPrefetchTarget();
+        return Math.max(1, Math.min(maxTakeBundles, target - Math.max(0, getQueSize())));
+    }
+
+    /**
+     * @return how many bundles should be buffered to cover {@link #prefetchMillis} of processing
+     */
+    protected int getPrefetchTarget() {
+        double rate;
+        synchronized (pendingCompletions) {
+            rate = bundlesPerSecond;
+        }
+        return (int) Math.max(1, Math.min(maxTakeBundles, Math.ceil(rate * prefetchMillis / 1000.0)));
+    }
+
+    /**
+     * Record a completion to go with the next take, update the completion rate, and start a take in the background if the
+     * buffer is running low
+     */
+    protected void recordCompletion(String openSpaceName, String bundleId, boolean itWorked) {
+        long now = System.nanoTime();
+        synchronized (pendingCompletions) {
+            pendingCompletions.computeIfAbsent(openSpaceName, k -> new LinkedHashMap<>()).put(bundleId, itWorked);
+            if (lastCompletionNanos > 0L) {
+                double instant = 1.0e9 / Math.max(1L, now - lastCompletionNanos);
+                bundlesPerSecond = bundlesPerSecond == 0.0 ? instant : (0.8 * bundlesPerSecond + 0.2 * instant);
+            }
+            lastCompletionNanos = now;
+        }
+
+        if (prefetcher != null && getQueSize() <= getPrefetchTarget() / 2) {
+            synchronized (pendingCompletions) {
+                if ((prefetch == null || prefetch.isDone()) && !openSpaceNames.isEmpty()) {
+                    prefetch = prefetcher.submit(this::fetchBundles);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the completions waiting for a take without taking any more work. Runs on a timer so that completions are not
+     * held back while the buffer still has work in it, and at shut down.
+     */
+    protected void flushCompletions() {
+        synchronized (fetchLock) {
+            for (String openSpaceName : getSpaceNames()) {
+                Map<String, Boolean> completed;
+                synchronized (pendingCompletions) {
+                    completed = pendingCompletions.remove(openSpaceName);
+                }
+                if (completed == null || completed.isEmpty()) {
+                    continue;
+                }
+                List<WorkBundle> paths = null;
+                try {
+                    paths = tpa.outboundWorkSpaceTakeBundles(openSpaceName, myKey, 0, completed);
+                } catch (RuntimeException ex) {
+                    logger.error("Failed to send completions to " + openSpaceName, ex);
+                }
+                if (paths == null) {
+                    // Send them again next time
+                    synchronized (pendingCompletions) {
+                        pendingCompletions.computeIfAbsent(openSpaceName, k -> new LinkedHashMap<>()).putAll(completed);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Clean up any spaces that have crosse the consecutive error message threshold and any that are specified in the
      * argument
@@ -219,8 +477,21 @@ public abstract class PickUpSpace extends PickUpPlace implements IPickUpSpace {
             logger.debug("Space is gone before we could notify " + " bundle completion for " + bundleId);
         } else {
             pendingBundles.remove(bundleId);
-            tpa.outboundBundleCompletion(openSpaceName, myKey, bundleId, itWorked);
+            if (binaryTake && openSpaceNames.contains(openSpaceName)) {
+                recordCompletion(openSpaceName, bundleId, itWorked);
+            } else {
+                tpa.outboundBundleCompletion(openSpaceName, myKey, bundleId, itWorked);
+            }
+        }
+    }
+
+    @Override
+    public void shutDown() {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+            flushCompletions();
         }
+        super.shutDown();
     }
 
     /**
@@ -89,10 +89,12 @@ public abstract class QueServer extends Pausable {
                 logger.debug("Que can hold more, trying take()");
                 boolean status = space.take();
                 if (status) {
-                    try {
-                        Thread.sleep(pollingInterval);
-                    } catch (InterruptedException ignore) {
-                        Thread.currentThread().interrupt();
+                    if (!space.isPrefetching()) {
+                        try {
+                            Thread.sleep(pollingInterval);
+                        } catch (InterruptedException ignore) {
+                            Thread.currentThread().interrupt();
+                        }
                     }
                     continue;
                 }
@@ -12,8 +12,10 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -31,6 +33,9 @@ public final class WorkBundle implements Comparable<WorkBundle> {
 
     static final int MAX_UNITS = 1024;
 
+    // Maximum number of WorkBundles in a batch written by writeBundlesToStream
+    static final int MAX_BUNDLES = 1024;
+
     // Unique ID for this work bundle
     String bundleId;
 
@@ -174,6 +179,45 @@ public final class WorkBundle implements Comparable<WorkBundle> {
         }
     }
 
+    /**
+     * Deserialize a batch of WorkBundles written by {@link #writeBundlesToStream(Collection, DataOutputStream)}
+     *
+     * @param in the stream to read from
+     * @return the deserialized WorkBundles, possibly empty
+     * @throws IOException if there is a problem reading the stream or it contains more than <code>MAX_BUNDLES</code>
+     *         bundles.
+     */
+    public static List<WorkBundle> readBundlesFromStream(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_BUNDLES) {
+            throw new IOException("Exception when reading: batch may not contain more then " + MAX_BUNDLES + " WorkBundles (saw: " + count + ").");
+        }
+        List<WorkBundle> bundles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bundles.add(readFromStream(in));
+        }
+        return bundles;
+    }
+
+    /**
+     * Serialize a batch of WorkBundles to a DataOutputStream
+     *
+     * @param bundles the bundles to write
+     * @param out the stream to write to.
+     * @throws IOException if there is a problem writing to the stream or there are more than <code>MAX_BUNDLES</code>
+     *         bundles.
+     */
+    public static void writeBundlesToStream(Collection<WorkBundle> bundles, DataOutputStream out) throws IOException {
+        if (bundles.size() > MAX_BUNDLES) {
+            throw new IOException(
+                    "Exception when writing: batch may not contain more then " + MAX_BUNDLES + " WorkBundles (saw: " + bundles.size() + ").");
+        }
+        out.writeInt(bundles.size());
+        for (WorkBundle wb : bundles) {
+            wb.writeToStream(out);
+        }
+    }
+
     @Nullable
     static String readUtfOrNull(DataInputStream in) throws IOException {
         if (in.readBoolean()) {
@@ -295,7 +339,7 @@ public final class WorkBundle implements Comparable<WorkBundle> {
     }
 
     /**
-     * Add a workunit to the list
+     * Add a workunit to the list, recording the file modification time and size on it
      * 
      * @param workUnit the workUnit to add
      * @param fileModificationTimeInMillis the file modification time in milliseconds since epoch
@@ -306,6 +350,7 @@ public final class WorkBundle implements Comparable<WorkBundle> {
      */
     public int addWorkUnit(WorkUnit workUnit, long fileModificationTimeInMillis, long fileSize) {
         addWorkUnit(workUnit);
+        workUnit.setFileAttributes(fileModificationTimeInMillis, fileSize);
 
         if (fileModificationTimeInMillis < oldestFileModificationTime) {
             oldestFileModificationTime = fileModificationTimeInMillis;
@@ -539,6 +584,25 @@ public final class WorkBundle implements Comparable<WorkBundle> {
         this.totalFileSize = totalFileSize;
     }
 
+    /**
+     * Move the files of another bundle into this one, if both would be handled the same way on the remote side
+     *
+     * @param that the bundle to take the files from, left unchanged
+     * @return true if the files were added, false if the bundles differ or the result would be too large
+     */
+    boolean merge(WorkBundle that) {
+        if (this.priority != that.priority || this.simpleMode != that.simpleMode || this.errorCount != that.errorCount
+                || !Objects.equals(this.outputRoot, that.outputRoot) || !Objects.equals(this.eatPrefix, that.eatPrefix)
+                || !Objects.equals(this.caseId, that.caseId) || this.size() + that.size() > MAX_UNITS) {
+            return false;
+        }
+        workUnitList.addAll(that.workUnitList);
+        oldestFileModificationTime = Math.min(oldestFileModificationTime, that.oldestFileModificationTime);
+        youngestFileModificationTime = Math.max(youngestFileModificationTime, that.youngestFileModificationTime);
+        totalFileSize += that.totalFileSize;
+        return true;
+    }
+
     /**
      * Compare in priority order, lower numbers mean high priority data Note: this comparator imposes ordering that is
      * inconsistent with equals
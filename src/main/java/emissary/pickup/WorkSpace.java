@@ -26,11 +26,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryUsage;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,11 +41,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Recursively process input and distribute files to one or more remote PickUp client instances when they ask for a
@@ -115,10 +121,20 @@ public class WorkSpace implements Runnable {
 
     protected long maxBundleSize = Long.getLong(CLZ + ".maxSizePerBundle", -1);
 
-    // Metrics collection
-    protected long filesProcessed = 0;
+    // Number of threads listing input directories, more than one uses the parallel walker
+    protected int walkerThreads = Integer.getInteger(CLZ + ".walkerThreads", 1);
+    @Nullable
+    protected ParallelDirectoryWalker directoryWalker = null;
+
+    // Time each pickup should spend on the work it takes at once, zero to hand out bundles as collected
+    protected long bundleTargetMillis = Long.getLong(CLZ + ".bundleTargetMillis", 0);
+    @Nullable
+    protected BundleSizer bundleSizer = null;
+
+    // Metrics collection, files and bytes are counted by every collector thread
+    protected final AtomicLong filesProcessed = new AtomicLong();
     protected long bundlesProcessed = 0;
-    protected long bytesProcessed = 0;
+    protected final AtomicLong bytesProcessed = new AtomicLong();
 
     // Data tracking
     protected String dataCaseId = System.getProperty("caseId", null);
@@ -126,6 +142,8 @@ public class WorkSpace implements Runnable {
 
     // List of WorkBundle objects we are going to distribute
     protected PriorityQueue<WorkBundle> outbound = new PriorityQueue<>();
+    protected long outboundFiles = 0;
+    protected long outboundBytes = 0;
 
     // List of WorkBundle objects that are pending completion notice
     // Keyed by bundleId to quickly remove items that are processed
@@ -134,8 +152,16 @@ public class WorkSpace implements Runnable {
 
     // Keep track of files we have seen that are either outbound or pending
     // so that we can avoid using file timestamps in the collector loop
-    protected Map<String, Long> filesSeen = new HashMap<>();
-    protected Map<String, Long> filesDone = new HashMap<>();
+    protected Map<String, Long> filesSeen = new ConcurrentHashMap<>();
+    protected Map<String, Long> filesDone = new ConcurrentHashMap<>();
+
+    // Persistent replacement for filesSeen and filesDone, when configured
+    @Nullable
+    protected FileStateIndex fileIndex = null;
+
+    // Completed files that no longer exist are forgotten by the file index this often
+    protected static final long FILE_INDEX_PRUNE_INTERVAL = 600000L;
+    protected final AtomicLong lastFileIndexPrune = new AtomicLong();
 
     // Used to synchronize access to the pending and outbound queues
     // One lock to rule them all
@@ -185,11 +211,20 @@ public class WorkSpace implements Runnable {
         this.outputRootPath = this.feedCommand.getOutputRoot();
         this.eatPrefix = this.feedCommand.getEatPrefix();
         this.filesPerMessage = this.feedCommand.getBundleSize();
+        this.setWalkerThreads(this.feedCommand.getWalkerThreads());
+        this.setBundleTargetMillis(this.feedCommand.getBundleTargetMillis());
         this.dataCaseId = this.feedCommand.getCaseId();
         this.setSkipDotFiles(this.feedCommand.isSkipDotFile());
         this.wantDirectories = this.feedCommand.isIncludeDirs();
         this.setSimpleMode(this.feedCommand.isSimple());
         this.myDirectories.addAll(this.feedCommand.getPriorityDirectories());
+        if (null != this.feedCommand.getFileIndex()) {
+            try {
+                setFileIndex(this.feedCommand.getFileIndex());
+            } catch (IOException e) {
+                logger.error("Cannot open file index {}, tracking files in memory", this.feedCommand.getFileIndex(), e);
+            }
+        }
 
         if (null != this.feedCommand.getSort()) {
             this.outbound = new PriorityQueue<>(11, this.feedCommand.getSort());
@@ -310,6 +345,61 @@ public class WorkSpace implements Runnable {
                 logger.debug("Agent pool namespace lookup failed", ex);
             }
         }
+        if (this.directoryWalker != null) {
+            this.directoryWalker.close();
+        }
+        if (this.fileIndex != null) {
+            try {
+                this.fileIndex.close();
+            } catch (IOException ex) {
+                logger.error("Cannot close file index", ex);
+            }
+        }
+    }
+
+    /**
+     * Track files in a persistent index instead of in memory. Files that were completed are not collected again, even after
+     * a restart, unless their size or modification time changes. Files that were queued but not completed when the index
+     * was last used are collected again.
+     *
+     * @param directory the directory holding the index
+     * @throws IOException if the index cannot be opened
+     */
+    public void setFileIndex(final Path directory) throws IOException {
+        final FileStateIndex index = FileStateIndex.open(directory);
+        final int requeued = index.removeAll(FileStateIndex.State.SEEN);
+        if (requeued > 0) {
+            logger.info("Collecting {} files again that were not completed before the last shutdown", requeued);
+        }
+        synchronized (this.QLOCK) {
+            this.fileIndex = index;
+        }
+    }
+
+    /**
+     * Set the number of threads used to list input directories. With more than one thread, each directory is listed by
+     * its own task and bundles are queued as they fill, which gets work out sooner on large trees. Takes effect when the
+     * collectors are started.
+     *
+     * @param threads the number of threads
+     */
+    public void setWalkerThreads(final int threads) {
+        this.walkerThreads = threads;
+    }
+
+    /**
+     * Size the work given to each pickup from how fast it has completed earlier work. Collected bundles are merged when
+     * they are taken until the pickup has enough files or bytes to keep it busy for about the target time, but no more
+     * than an even share of the queued work. Collected bundles are never split, so the bundle size and byte limits should
+     * be small when this is used.
+     *
+     * @param targetMillis the time each pickup should spend on the work it takes at once, zero or less to turn off
+     */
+    public void setBundleTargetMillis(final long targetMillis) {
+        synchronized (this.QLOCK) {
+            this.bundleTargetMillis = targetMillis;
+            this.bundleSizer = targetMillis > 0 ? new BundleSizer(targetMillis) : null;
+        }
     }
 
     /**
@@ -563,6 +653,10 @@ public class WorkSpace implements Runnable {
      * Start the file collector threads, one per directory
      */
     public void startCollector() {
+        if (this.walkerThreads > 1 && this.directoryWalker == null) {
+            this.directoryWalker = new ParallelDirectoryWalker(this.walkerThreads);
+            logger.info("Walking input directories with {} threads", this.walkerThreads);
+        }
         for (final PriorityDirectory pd : this.myDirectories) {
             final WorkSpaceCollector collector = new WorkSpaceCollector(pd);
             final Thread collectorThread = new Thread(collector, "WorkSpace Collector " + pd);
@@ -688,6 +782,9 @@ public class WorkSpace implements Runnable {
         int pendCount = 0;
         final String remoteName = KeyManipulator.getServiceHost(remoteKey);
         synchronized (this.QLOCK) {
+            if (this.bundleSizer != null) {
+                this.bundleSizer.consumerRemoved(remoteName);
+            }
             // NB: no enhanced for loop with Iterator.remove()
             for (Iterator<String> i = this.pending.keySet().iterator(); i.hasNext();) {
                 final String id = i.next();
@@ -736,9 +833,7 @@ public class WorkSpace implements Runnable {
                 // record who the work was given to track
                 // completion status
                 this.stats.bump(remoteName);
-                item = this.outbound.poll();
-                item.setSentTo(remoteName);
-                this.pending.put(item.getBundleId(), item);
+                item = pollOutbound(remoteName);
                 logger.info("Gave bundle {} to {}", item, remoteName);
                 final WorkBundle nextItem = this.outbound.peek();
                 if (nextItem != null && logger.isInfoEnabled()) {
@@ -752,6 +847,75 @@ public class WorkSpace implements Runnable {
         return item;
     }
 
+    /**
+     * Take up to a number of bundles at once, for remote PickUp clients that keep a buffer of work. Access via
+     * emissary.server.mvc.internal.WorkSpaceClientSpaceTakeAction
+     *
+     * @param remoteKey key of the requesting PickUp place
+     * @param max the most bundles to return, zero to only report completions
+     * @return the bundles taken, empty if there is no work left when some were asked for
+     */
+    public List<WorkBundle> take(final String remoteKey, final int max) {
+        final String remoteName = KeyManipulator.getServiceHost(remoteKey);
+        final List<WorkBundle> items = new ArrayList<>();
+        if (max <= 0) {
+            return items;
+        }
+        synchronized (this.QLOCK) {
+            if (getOutboundQueueSize() == 0) {
+                // Empty list will let them know to stop asking us
+                logger.info("Sent shutdown msg to {}", remoteName);
+                this.stats.shutDownSent(remoteName);
+                return items;
+            }
+            final int limit = Math.min(max, WorkBundle.MAX_BUNDLES);
+            while (items.size() < limit && !this.outbound.isEmpty()) {
+                this.stats.bump(remoteName);
+                items.add(pollOutbound(remoteName));
+            }
+        }
+        logger.info("Gave {} bundles to {}", items.size(), remoteName);
+        return items;
+    }
+
+    /**
+     * Move the bundle at the head of the outbound queue to the pending list, merging the bundles behind it into it while
+     * the pickup has room for more work. Must be called holding QLOCK with work on the outbound queue.
+     *
+     * @param remoteName the name of the place taking the work
+     * @return the bundle given to the place
+     */
+    private WorkBundle pollOutbound(final String remoteName) {
+        final WorkBundle item = this.outbound.poll();
+        this.outboundFiles -= item.size();
+        this.outboundBytes -= item.getTotalFileSize();
+
+        if (this.bundleSizer != null) {
+            final BundleSizer.Target target = this.bundleSizer.getTarget(remoteName, this.outboundFiles + item.size(),
+                    this.outboundBytes + item.getTotalFileSize(), Math.max(getPickUpPlaceCount(), this.bundleSizer.getConsumerCount()));
+            if (target != null) {
+                int merged = 0;
+                WorkBundle next = this.outbound.peek();
+                while (next != null && item.size() + next.size() <= target.getFiles()
+                        && item.getTotalFileSize() + next.getTotalFileSize() <= target.getBytes() && item.merge(next)) {
+                    this.outbound.poll();
+                    this.outboundFiles -= next.size();
+                    this.outboundBytes -= next.getTotalFileSize();
+                    merged++;
+                    next = this.outbound.peek();
+                }
+                if (merged > 0) {
+                    logger.debug("Merged {} bundles into {} for {} aiming for {}", merged, item.getBundleId(), remoteName, target);
+                }
+            }
+            this.bundleSizer.bundleSent(remoteName, item);
+        }
+
+        item.setSentTo(remoteName);
+        this.pending.put(item.getBundleId(), item);
+        return item;
+    }
+
     /**
      * Add a new bundle of work to the pending queue
      *
@@ -763,11 +927,13 @@ public class WorkSpace implements Runnable {
             this.bundlesProcessed++;
             sz = this.outbound.size();
             this.outbound.add(wb);
-            addFilesSeen(wb.getFileNameList());
+            this.outboundFiles += wb.size();
+            this.outboundBytes += wb.getTotalFileSize();
+            addFilesSeen(wb);
         }
 
         if (logger.isInfoEnabled()) {
-            logger.info("Adding workbundle {} size {} filesSeen {}", wb, sz + 1, this.filesSeen.size());
+            logger.info("Adding workbundle {} size {} filesSeen {}", wb, sz + 1, getFilesSeenCount());
         }
     }
 
@@ -810,7 +976,7 @@ public class WorkSpace implements Runnable {
                     removeFilesSeen(entry.getValue().getFileNameList());
                 }
                 this.pending.clear();
-                logger.debug("Cleared filesSeen leaving {} items", this.filesSeen.size());
+                logger.debug("Cleared filesSeen leaving {} items", getFilesSeenCount());
             }
         }
         return size;
@@ -826,31 +992,56 @@ public class WorkSpace implements Runnable {
      * @return true if the item was removed from the pending list
      */
     public boolean workCompleted(final String remoteName, final String bundleId, final boolean itWorked) {
-        WorkBundle item;
+        return workCompleted(remoteName, Collections.singletonMap(bundleId, itWorked)) > 0;
+    }
+
+    /**
+     * Receive notice that a batch of bundles was completed, as sent along with a batched take. The bundles are measured
+     * together when sizing the work given to the remote client.
+     *
+     * @param remoteName the name of the place that did the processing
+     * @param completed true for each bundle that was processed normally, by bundle id
+     * @return the number of items removed from the pending list
+     */
+    public int workCompleted(final String remoteName, final Map<String, Boolean> completed) {
+        final Map<String, WorkBundle> items = new LinkedHashMap<>();
 
         synchronized (this.QLOCK) {
-            item = this.pending.remove(bundleId);
-            if (item != null) {
-                addFilesDone(item.getFileNameList());
-                removeFilesSeen(item.getFileNameList());
-                logger.debug("Removed {} from filesSeen leaving {}", item.size(), this.filesSeen.size());
+            final Map<String, Boolean> measured = new LinkedHashMap<>();
+            for (Map.Entry<String, Boolean> entry : completed.entrySet()) {
+                final WorkBundle item = this.pending.remove(entry.getKey());
+                measured.put(entry.getKey(), entry.getValue() && item != null);
+                if (item != null) {
+                    items.put(entry.getKey(), item);
+                    addFilesDone(item.getFileNameList());
+                    removeFilesSeen(item.getFileNameList());
+                    logger.debug("Removed {} from filesSeen leaving {}", item.size(), getFilesSeenCount());
+                }
             }
-        }
-        if (item == null) {
-            logger.info("Unknown bundle completed: {}", bundleId);
-        } else if (!itWorked) {
-            item.setSentTo(null); // clear in progress indicator
-            if (item.incrementErrorCount() > MAX_BUNDLE_RETRIES) {
-                logger.error("Bundle {} has too many errors, permanently discarded", item);
-            } else {
-                addOutboundBundle(item); // send to outbound again
+            if (this.bundleSizer != null) {
+                this.bundleSizer.bundlesCompleted(measured);
             }
         }
-        if (logger.isDebugEnabled()) {
-            logger.debug("Bundle {} completed by {}{}", bundleId, remoteName,
-                    itWorked ? "" : (" but failed for the " + (item != null ? item.getErrorCount() : -1) + " time"));
+        for (Map.Entry<String, Boolean> entry : completed.entrySet()) {
+            final String bundleId = entry.getKey();
+            final boolean itWorked = entry.getValue();
+            final WorkBundle item = items.get(bundleId);
+            if (item == null) {
+                logger.info("Unknown bundle completed: {}", bundleId);
+            } else if (!itWorked) {
+                item.setSentTo(null); // clear in progress indicator
+                if (item.incrementErrorCount() > MAX_BUNDLE_RETRIES) {
+                    logger.error("Bundle {} has too many errors, permanently discarded", item);
+                } else {
+                    addOutboundBundle(item); // send to outbound again
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Bundle {} completed by {}{}", bundleId, remoteName,
+                        itWorked ? "" : (" but failed for the " + (item != null ? item.getErrorCount() : -1) + " time"));
+            }
         }
-        return item != null;
+        return items.size();
     }
 
     /**
@@ -880,6 +1071,28 @@ public class WorkSpace implements Runnable {
         logger.debug("got a directory processDirectory({})", dir);
     }
 
+    /**
+     * Add the files of a bundle to the filesSeen list, using the size and lastModifiedDate recorded when each was collected
+     *
+     * @param wb the bundle of files to add
+     */
+    protected void addFilesSeen(final WorkBundle wb) {
+        for (final WorkUnit unit : wb.getWorkUnitList()) {
+            final String fn = unit.getFileName();
+            if (unit.getFileModificationTime() < 0) {
+                addFilesSeen(Collections.singletonList(fn));
+            } else if (this.fileIndex != null) {
+                try {
+                    this.fileIndex.put(fn, unit.getFileSize(), unit.getFileModificationTime(), FileStateIndex.State.SEEN);
+                } catch (IOException e) {
+                    logger.error("Cannot record {} in the file index", fn, e);
+                }
+            } else {
+                this.filesSeen.put(fn, unit.getFileModificationTime());
+            }
+        }
+    }
+
     /**
      * Add each fileName and its respective lastModifiedDate to the filesSeen list
      *
@@ -887,7 +1100,15 @@ public class WorkSpace implements Runnable {
      */
     protected void addFilesSeen(final Collection<String> fileNames) {
         for (final String fn : fileNames) {
-            this.filesSeen.put(fn, getFileModificationDate(fn));
+            if (this.fileIndex != null) {
+                try {
+                    this.fileIndex.put(fn, getFileSize(fn), getFileModificationDate(fn), FileStateIndex.State.SEEN);
+                } catch (IOException e) {
+                    logger.error("Cannot record {} in the file index", fn, e);
+                }
+            } else {
+                this.filesSeen.put(fn, getFileModificationDate(fn));
+            }
         }
     }
 
@@ -898,7 +1119,16 @@ public class WorkSpace implements Runnable {
      */
     protected void addFilesDone(final Collection<String> fileNames) {
         for (final String fn : fileNames) {
-            this.filesDone.put(fn, getFileModificationDate(fn));
+            if (this.fileIndex != null) {
+                // keep the size and time recorded when the file was collected, the file may have been moved by now
+                try {
+                    this.fileIndex.setState(fn, FileStateIndex.State.DONE);
+                } catch (IOException e) {
+                    logger.error("Cannot record {} in the file index", fn, e);
+                }
+            } else {
+                this.filesDone.put(fn, getFileModificationDate(fn));
+            }
         }
     }
 
@@ -909,8 +1139,49 @@ public class WorkSpace implements Runnable {
      */
     protected void removeFilesSeen(final Collection<String> fileNames) {
         for (final String fn : fileNames) {
-            this.filesSeen.remove(fn);
+            if (this.fileIndex != null) {
+                try {
+                    this.fileIndex.remove(fn, FileStateIndex.State.SEEN);
+                } catch (IOException e) {
+                    logger.error("Cannot remove {} from the file index", fn, e);
+                }
+            } else {
+                this.filesSeen.remove(fn);
+            }
+        }
+    }
+
+    /**
+     * Check whether a file has already been queued or completed and should not be collected again. Safe to call without
+     * holding the queue lock.
+     *
+     * @param fileName the file name
+     * @param size the current size of the file
+     * @param lastModified the current modification time of the file
+     * @return true if the file should be skipped
+     */
+    protected boolean isFileTracked(final String fileName, final long size, final long lastModified) {
+        if (this.fileIndex != null) {
+            if (this.fileIndex.contains(fileName, size, lastModified)) {
+                logger.debug("Skipping file in the file index {}, touch file to force add", fileName);
+                return true;
+            }
+        } else if (this.filesDone.remove(fileName) != null) {
+            return true;
+        } else if (Long.valueOf(lastModified).equals(this.filesSeen.get(fileName))) {
+            logger.debug("Skipping file already seen {}, touch file to force add", fileName);
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Get the number of files being tracked as seen, that is collected into bundles that are outbound or pending completion
+     *
+     * @return the count of seen files
+     */
+    protected int getFilesSeenCount() {
+        return this.fileIndex != null ? this.fileIndex.size(FileStateIndex.State.SEEN) : this.filesSeen.size();
     }
 
     /**
@@ -983,12 +1254,43 @@ public class WorkSpace implements Runnable {
             if (!this.timeToQuit) {
                 publishStats();
             }
+            syncFileIndex();
         }
 
         // Case closing actions
         closeCase();
     }
 
+    /**
+     * Flush the file index to disk, if one is used, so little is repeated after a crash
+     */
+    protected void syncFileIndex() {
+        if (this.fileIndex != null) {
+            try {
+                this.fileIndex.sync();
+            } catch (IOException e) {
+                logger.error("Cannot sync the file index", e);
+            }
+        }
+    }
+
+    /**
+     * Remove completed files that no longer exist from the file index, if one is used, at most once per
+     * {@link #FILE_INDEX_PRUNE_INTERVAL}
+     */
+    protected void pruneFileIndex() {
+        final long now = System.currentTimeMillis();
+        final long last = this.lastFileIndexPrune.get();
+        if (this.fileIndex == null || now - last < FILE_INDEX_PRUNE_INTERVAL || !this.lastFileIndexPrune.compareAndSet(last, now)) {
+            return;
+        }
+        try {
+            this.fileIndex.removeMissing();
+        } catch (IOException e) {
+            logger.error("Cannot prune the file index", e);
+        }
+    }
+
     /**
      * Output some information to the logger on what we have been doing lately
      */
@@ -1008,21 +1310,21 @@ public class WorkSpace implements Runnable {
         final int pendingSize = getPendingQueueSize();
 
         return "WorkSpace has outbound=" + outboundSize + ", pending=" + pendingSize + ", total bundles / files / bytes = " + this.bundlesProcessed
-                + " / " + this.filesProcessed + " / " + this.bytesProcessed + " , #clients=" + getPickUpPlaceCount();
+                + " / " + this.filesProcessed.get() + " / " + this.bytesProcessed.get() + " , #clients=" + getPickUpPlaceCount();
     }
 
     /**
      * Return how many files processed so far
      */
     public long getFilesProcessed() {
-        return this.filesProcessed;
+        return this.filesProcessed.get();
     }
 
     /**
      * Return how many bytes processed so far
      */
     public long getBytesProcessed() {
-        return this.bytesProcessed;
+        return this.bytesProcessed.get();
     }
 
     /**
@@ -1159,6 +1461,8 @@ public class WorkSpace implements Runnable {
                         collectFiles(this.myDirectory, WorkSpace.this.wantDirectories, paths, WorkSpace.this.numberOfBundlesToSkip, minFileTime,
                                 WorkSpace.this.skipDotFiles);
 
+                pruneFileIndex();
+
                 // Set times, so we don't redistribute files next loop
                 // if configured to use timestamps
                 if (WorkSpace.this.useFileTimestamps) {
@@ -1207,6 +1511,19 @@ public class WorkSpace implements Runnable {
             long bytesInBundle = 0;
 
             try {
+                // Skipping bundles relies on the order of the serial walk
+                if (WorkSpace.this.directoryWalker != null && numberOfBundlesToSkipArg == 0) {
+                    final ParallelCollector visitor = new ParallelCollector(dir, wantDirectories, basePath, minFileTime, skipDotFilesArg);
+                    WorkSpace.this.directoryWalker.walk(Paths.get(dir.getDirectoryName()), dir.getPriority(), visitor);
+                    collected = visitor.finish();
+                    fileCount = visitor.getFileCount();
+                    WorkSpace.this.filesDone.clear();
+                    if (!WorkSpace.this.outbound.isEmpty()) {
+                        logger.info("Processed {} files into {} bundles.", fileCount, collected);
+                    }
+                    return collected;
+                }
+
                 int ffOptions = FileFind.FILES_FLAG;
                 if (wantDirectories) {
                     ffOptions |= FileFind.DIRECTORIES_FLAG;
@@ -1250,19 +1567,14 @@ public class WorkSpace implements Runnable {
 
                     // Is file too old? (If we aren't configured to use
                     // tstamps minFileTime will always be 0L
-                    if (next.lastModified() < minFileTime) {
+                    final long size = next.length();
+                    final long lastModified = next.lastModified();
+                    if (lastModified < minFileTime) {
                         continue;
                     }
 
-                    synchronized (WorkSpace.this.QLOCK) {
-                        if (WorkSpace.this.filesDone.containsKey(fileName)) {
-                            WorkSpace.this.filesDone.remove(fileName);
-                            continue;
-                        } else if (WorkSpace.this.filesSeen.containsKey(fileName)
-                                && WorkSpace.this.filesSeen.get(fileName) == next.lastModified()) {
-                            logger.debug("Skipping file already seen {}, touch file to force add", fileName);
-                            continue;
-                        }
+                    if (isFileTracked(fileName, size, lastModified)) {
+                        continue;
                     }
 
                     logger.debug("Adding filename to bundle {}", fileName);
@@ -1270,11 +1582,11 @@ public class WorkSpace implements Runnable {
                     // add file to workbundle (at least 1)
                     if (workbundleHasRoom(paths, bytesInBundle)) {
                         logger.debug("Added file to workbundle: {}", fileName);
-                        paths.addFileName(fileName, getFileModificationDate(fileName), getFileSize(fileName));
-                        bytesInBundle += next.length();
-                        WorkSpace.this.filesProcessed++; // overall
+                        paths.addFileName(fileName, lastModified, size);
+                        bytesInBundle += size;
+                        WorkSpace.this.filesProcessed.incrementAndGet(); // overall
                         fileCount++; // this loop
-                        WorkSpace.this.bytesProcessed += next.length(); // overall
+                        WorkSpace.this.bytesProcessed.addAndGet(size); // overall
                     }
                     // if bundle is full, create a new empty and
                     // move it to the outbound queue.
@@ -1308,6 +1620,10 @@ public class WorkSpace implements Runnable {
                 synchronized (WorkSpace.this.QLOCK) {
                     WorkSpace.this.filesDone.clear();
                 }
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while collecting files from {}", dir);
+                Thread.currentThread().interrupt();
+                return collected;
             } catch (Exception e) {
                 logger.error("System error", e);
                 return collected;
@@ -1319,6 +1635,119 @@ public class WorkSpace implements Runnable {
             return collected;
         }
 
+        /**
+         * Fills bundles from the parallel directory walker, queueing each one as soon as it is full. Only this collector's
+         * current bundle is locked while adding a file, the queue lock is only taken to add a full bundle to the queue.
+         */
+        protected class ParallelCollector implements ParallelDirectoryWalker.Visitor {
+            private final PriorityDirectory dir;
+            private final boolean wantDirectories;
+            private final WorkBundle basePath;
+            private final long minFileTime;
+            private final boolean skipDotFiles;
+
+            private WorkBundle paths;
+            private long bytesInBundle = 0;
+            private int fileCount = 0;
+            private int collected = 0;
+
+            public ParallelCollector(final PriorityDirectory dir, final boolean wantDirectories, final WorkBundle basePath, final long minFileTime,
+                    final boolean skipDotFiles) {
+                this.dir = dir;
+                this.wantDirectories = wantDirectories;
+                this.basePath = basePath;
+                this.minFileTime = minFileTime;
+                this.skipDotFiles = skipDotFiles;
+                this.paths = newBundle();
+            }
+
+            private WorkBundle newBundle() {
+                final WorkBundle bundle = new WorkBundle(this.basePath);
+                bundle.setPriority(this.dir.getPriority());
+                bundle.setSimpleMode(getSimpleMode());
+                return bundle;
+            }
+
+            @Override
+            public boolean visitDirectory(final Path directory) {
+                if (this.wantDirectories) {
+                    logger.debug("Doing directory {}", directory);
+                    processDirectory(directory.toFile());
+                }
+                return true;
+            }
+
+            @Override
+            public void visitFile(final Path file, final BasicFileAttributes attributes) {
+                pauseCollector();
+
+                final String fileName = file.toString();
+                try {
+                    if (!attributes.isRegularFile() && !Files.isReadable(file)) {
+                        logger.debug("Cannot access file: {}", fileName);
+                        return;
+                    }
+                    if (this.skipDotFiles && Files.isHidden(file)) {
+                        logger.debug("Skipping dot file {}", fileName);
+                        return;
+                    }
+                } catch (IOException e) {
+                    logger.debug("Cannot access file: {}", fileName, e);
+                    return;
+                }
+
+                final long size = attributes.size();
+                final long lastModified = attributes.lastModifiedTime().toMillis();
+                if (lastModified < this.minFileTime || isFileTracked(fileName, size, lastModified)) {
+                    return;
+                }
+
+                WorkBundle full = null;
+                synchronized (this) {
+                    logger.debug("Added file to workbundle: {}", fileName);
+                    this.paths.addFileName(fileName, lastModified, size);
+                    this.bytesInBundle += size;
+                    this.fileCount++;
+                    WorkSpace.this.filesProcessed.incrementAndGet();
+                    WorkSpace.this.bytesProcessed.addAndGet(size);
+                    if (!workbundleHasRoom(this.paths, this.bytesInBundle)) {
+                        full = this.paths;
+                        this.paths = newBundle();
+                        this.bytesInBundle = 0;
+                        this.collected++;
+                    }
+                }
+                if (full != null) {
+                    logger.debug("Workbundle full, adding it to outbound queue");
+                    addOutboundBundle(full);
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return WorkSpace.this.timeToQuit;
+            }
+
+            /**
+             * Queue the last partly filled bundle once the walk is complete
+             *
+             * @return the number of bundles queued by this collector
+             */
+            public synchronized int finish() {
+                if (this.paths.size() > 0) {
+                    addOutboundBundle(this.paths);
+                    this.paths = newBundle();
+                    this.bytesInBundle = 0;
+                    this.collected++;
+                }
+                return this.collected;
+            }
+
+            public synchronized int getFileCount() {
+                return this.fileCount;
+            }
+        }
+
         /**
          * Convenience method to check if there is room in the work bundle to add more files.
          *
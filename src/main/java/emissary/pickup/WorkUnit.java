@@ -16,6 +16,9 @@ public final class WorkUnit {
     // worker updates this boolean
     private boolean failedToParse = false;
     private boolean failedToProcess = false;
+    // the file as it was when collected, only known where it was collected and not sent to workers
+    private long fileSize = -1L;
+    private long fileModificationTime = -1L;
 
     /**
      * Constructs WorkUnit with specified filename
@@ -125,4 +128,33 @@ public final class WorkUnit {
     public boolean failedToProcess() {
         return failedToProcess;
     }
+
+    /**
+     * Gets the size the file had when it was collected
+     *
+     * @return the size, or -1 if it was not recorded
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Gets the modification time the file had when it was collected
+     *
+     * @return the time in milliseconds since epoch, or -1 if it was not recorded
+     */
+    public long getFileModificationTime() {
+        return fileModificationTime;
+    }
+
+    /**
+     * Record the size and modification time of the file when it is collected
+     *
+     * @param fileModificationTime the file modification time in milliseconds since epoch
+     * @param fileSize the size of the file
+     */
+    void setFileAttributes(long fileModificationTime, long fileSize) {
+        this.fileModificationTime = fileModificationTime;
+        this.fileSize = fileSize;
+    }
 }
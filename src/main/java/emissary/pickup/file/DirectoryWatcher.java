@@ -0,0 +1,247 @@
+package emissary.pickup.file;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Finds new files in a directory using a {@link WatchService} instead of listing the directory on every poll.
+ * </p>
+ *
+ * <p>
+ * Files reported by the watch service are held as pending until their size and modification time have not changed for
+ * a quiet period, so files that are still being written are not picked up early. The directory is also listed
+ * periodically, and immediately after the watch service reports that events were lost, so that nothing is missed.
+ * Hidden files, those whose names start with a '.', are ignored as they are when polling.
+ * </p>
+ *
+ * <p>
+ * This class is not thread safe and is intended to be used by a single {@link FileDataServer} thread.
+ * </p>
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    /** Shortest time to wait for events while files are pending, to avoid spinning */
+    private static final long MIN_WAIT_MILLIS = 10;
+
+    private final Path directory;
+    private final long quietPeriodMillis;
+    private final long reconcileIntervalMillis;
+    private final WatchService watchService;
+
+    // Files seen but not yet returned, in the order they were seen
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    // Time of the next full listing of the directory, starting with one straight away
+    private long nextReconcile = 0;
+
+    private long eventCount = 0;
+    private long overflowCount = 0;
+    private long reconcileCount = 0;
+
+    private static final class Pending {
+        long size = -1;
+        long modified = -1;
+        long changedAt;
+
+        Pending(final long now) {
+            changedAt = now;
+        }
+    }
+
+    /**
+     * Start watching a directory
+     *
+     * @param directory the directory to watch
+     * @param quietPeriodMillis how long a file must be unchanged before it is returned
+     * @param reconcileIntervalMillis how often to list the whole directory in case events were missed
+     * @throws IOException if the directory cannot be watched
+     */
+    public DirectoryWatcher(final Path directory, final long quietPeriodMillis, final long reconcileIntervalMillis) throws IOException {
+        Validate.notNull(directory, "Required: directory not null");
+        Validate.isTrue(quietPeriodMillis >= 0, "Required: quietPeriodMillis >= 0");
+        Validate.isTrue(reconcileIntervalMillis > 0, "Required: reconcileIntervalMillis > 0");
+
+        this.directory = directory;
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.reconcileIntervalMillis = reconcileIntervalMillis;
+        this.watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the names of files that are ready to be picked up. Returned files are forgotten, so callers are expected to move
+     * them out of the directory.
+     *
+     * @param max the most names to return
+     * @return names of files that have not changed for the quiet period, in the order they were seen
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<String> poll(final int max) throws IOException {
+        drainEvents();
+
+        final long now = System.currentTimeMillis();
+        if (now >= nextReconcile) {
+            reconcile(now);
+        }
+
+        final List<String> ready = new ArrayList<>();
+        final Iterator<Map.Entry<String, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext() && ready.size() < max) {
+            final Map.Entry<String, Pending> entry = iterator.next();
+            final Pending file = entry.getValue();
+
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(directory.resolve(entry.getKey()), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                // picked up by someone else sharing the directory, or removed
+                iterator.remove();
+                continue;
+            }
+
+            final long size = attributes.size();
+            final long modified = attributes.lastModifiedTime().toMillis();
+            if (size != file.size || modified != file.modified) {
+                file.size = size;
+                file.modified = modified;
+                file.changedAt = now;
+            }
+            if (now - file.changedAt >= quietPeriodMillis) {
+                ready.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Wait for something to do: a new event, a pending file reaching the end of its quiet period, or the next
+     * reconciliation
+     *
+     * @param timeoutMillis the longest time to wait
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await(final long timeoutMillis) throws InterruptedException {
+        final long now = System.currentTimeMillis();
+        long wait = Math.min(timeoutMillis, nextReconcile - now);
+        if (!pending.isEmpty()) {
+            wait = Math.min(wait, Math.max(MIN_WAIT_MILLIS, quietPeriodMillis));
+        }
+        if (wait <= 0) {
+            return;
+        }
+
+        final WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+        if (key != null) {
+            process(key, System.currentTimeMillis());
+        }
+    }
+
+    private void drainEvents() {
+        final long now = System.currentTimeMillis();
+        for (WatchKey key = watchService.poll(); key != null; key = watchService.poll()) {
+            process(key, now);
+        }
+    }
+
+    private void process(final WatchKey key, final long now) {
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                logger.debug("Watch events lost for {}, listing the directory", directory);
+                overflowCount++;
+                nextReconcile = now;
+                continue;
+            }
+            eventCount++;
+            final String name = event.context().toString();
+            if (!name.startsWith(".")) {
+                final Pending file = pending.get(name);
+                if (file == null) {
+                    pending.put(name, new Pending(now));
+                } else {
+                    file.changedAt = now;
+                }
+            }
+        }
+        if (!key.reset()) {
+            logger.warn("Directory {} can no longer be watched, relying on periodic listing", directory);
+        }
+    }
+
+    private void reconcile(final long now) throws IOException {
+        reconcileCount++;
+        nextReconcile = now + reconcileIntervalMillis;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                if (!name.startsWith(".") && !pending.containsKey(name)) {
+                    pending.put(name, new Pending(now));
+                }
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of files seen but not yet ready
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of create and modify events received
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the number of times the watch service reported lost events
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * @return the number of times the whole directory was listed
+     */
+    public long getReconcileCount() {
+        return reconcileCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -10,6 +10,8 @@ import org.slf4j.MDC;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * Thread to monitor a directory for files
@@ -38,6 +40,10 @@ public class FileDataServer extends Pausable {
     // How many files to group together
     protected int bundleSize = 20;
 
+    // Finds new files from watch events instead of listing the directory, null when polling
+    @Nullable
+    protected DirectoryWatcher watcher = null;
+
     /**
      * Create the directory monitor
      * 
@@ -75,11 +81,89 @@ public class FileDataServer extends Pausable {
         bundleSize = sz;
     }
 
+    /**
+     * Find new files using directory watch events rather than listing the directory every polling interval. Files are
+     * picked up once they have stopped changing for the quiet period, and the directory is still listed every
+     * reconciliation interval in case events are lost. Polling continues if the directory cannot be watched.
+     *
+     * @param quietPeriodMillis how long a file must be unchanged before it is picked up
+     * @param reconcileIntervalMillis how often to list the whole directory
+     * @return true if the directory is being watched
+     */
+    public boolean watchDirectory(long quietPeriodMillis, long reconcileIntervalMillis) {
+        try {
+            watcher = new DirectoryWatcher(theDirectory.toPath(), quietPeriodMillis, reconcileIntervalMillis);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot watch {}, polling instead", theDataDir, e);
+            return false;
+        }
+    }
+
     /**
      * Implement the run method from Thread to start monitoring Runs until the shutdown() method is called
      */
     @Override
     public void run() {
+        try {
+            monitor();
+        } finally {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    logger.debug("Problem closing watcher for {}", theDataDir, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the next batch of at most bundleSize files to process
+     *
+     * @return names of files in the directory, or null if it cannot be read
+     */
+    @Nullable
+    protected String[] nextFiles() {
+        if (watcher != null) {
+            try {
+                List<String> ready = watcher.poll(bundleSize);
+                return ready.toArray(new String[0]);
+            } catch (IOException e) {
+                logger.warn("Cannot list {}", theDataDir, e);
+                return null;
+            }
+        }
+
+        // Process files currently in the pickup directory, list
+        // the first bundleSize in a batch
+        return theDirectory.list(new FilenameFilter() {
+            final int maxFileToList = bundleSize;
+            int filesInList = 0;
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return !name.startsWith(".") && ++filesInList <= maxFileToList;
+            }
+        });
+    }
+
+    /**
+     * Wait for more files after finding nothing to do
+     */
+    protected void waitForFiles() {
+        try {
+            if (watcher != null) {
+                watcher.await(pollingInterval);
+            } else {
+                Thread.sleep(pollingInterval);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void monitor() {
 
         // Loop can be terminated by calling the shutdown() method
         while (!timeToShutdown) {
@@ -91,17 +175,7 @@ public class FileDataServer extends Pausable {
             String holdDir = myParent.getInProcessArea();
             String errDir = myParent.getErrorArea();
 
-            // Process files currently in the pickup directory, list
-            // the first bundleSize in a batch
-            String[] fileList = theDirectory.list(new FilenameFilter() {
-                final int maxFileToList = bundleSize;
-                int filesInList = 0;
-
-                @Override
-                public boolean accept(File dir, String name) {
-                    return !name.startsWith(".") && ++filesInList <= maxFileToList;
-                }
-            });
+            String[] fileList = nextFiles();
 
             // Rename all the selected files out of the polling area
             for (int i = 0; fileList != null && i < fileList.length; i++) {
@@ -154,11 +228,7 @@ public class FileDataServer extends Pausable {
             // nothing to do for this last round, otherwise
             // get right back in there...
             if (processedCount == 0) {
-                try {
-                    Thread.sleep(pollingInterval);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+                waitForFiles();
             }
 
         } // end while
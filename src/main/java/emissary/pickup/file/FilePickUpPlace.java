@@ -25,6 +25,15 @@ public class FilePickUpPlace extends PickUpPlace implements IPickUp {
     // Input directories to poll
     protected String[] inputDataDirs;
 
+    // Find new files from directory watch events rather than polling
+    protected boolean watchDirectories = false;
+
+    // How long a watched file must be unchanged before it is picked up, in millis
+    protected long watchQuietPeriod = 1000;
+
+    // How often to list watched directories in case events are lost, in millis
+    protected long watchReconcileInterval = 60000;
+
     /**
      * Create using default configuration
      */
@@ -50,11 +59,17 @@ public class FilePickUpPlace extends PickUpPlace implements IPickUp {
      * <li>POLLING_INTERVAL: how long to sleep between directory polls</li>
      * <li>BUNDLE_SIZE: how many files to group in a bundle</li>
      * <li>INPUT_DATA: one or more directories to pull files from</li>
+     * <li>WATCH_DIRECTORIES: find new files from directory watch events instead of polling, default false</li>
+     * <li>WATCH_QUIET_PERIOD: how long a watched file must be unchanged before it is picked up</li>
+     * <li>WATCH_RECONCILE_INTERVAL: how often to list watched directories in case events are lost</li>
      * </ul>
      */
     protected void configurePlace() {
         pollingInterval = configG.findIntEntry("POLLING_INTERVAL", pollingInterval);
         bundleSize = configG.findIntEntry("BUNDLE_SIZE", DEFAULT_BUNDLE_SIZE);
+        watchDirectories = configG.findBooleanEntry("WATCH_DIRECTORIES", watchDirectories);
+        watchQuietPeriod = configG.findLongEntry("WATCH_QUIET_PERIOD", watchQuietPeriod);
+        watchReconcileInterval = configG.findLongEntry("WATCH_RECONCILE_INTERVAL", watchReconcileInterval);
         List<String> params = configG.findEntries("INPUT_DATA");
         inputDataDirs = params.toArray(new String[0]);
     }
@@ -120,6 +135,10 @@ public class FilePickUpPlace extends PickUpPlace implements IPickUp {
             // Tell it how many files to pick up at a time
             fds.setBundleSize(bundleSize);
 
+            if (watchDirectories) {
+                fds.watchDirectory(watchQuietPeriod, watchReconcileInterval);
+            }
+
             // Set priority below agent processing
             fds.setPriority(Thread.NORM_PRIORITY - 1);
 
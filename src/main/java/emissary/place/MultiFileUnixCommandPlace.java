@@ -620,7 +620,7 @@ public class MultiFileUnixCommandPlace extends MultiFileServerPlace implements I
         }
 
         // Validate data
-        if (tData.data() == null) {
+        if (tData.getChannelFactory() == null) {
             logger.debug("Received null data: {}", tData);
             tData.addProcessingError("NULL data in " + placeName + ".process");
             tData.pushCurrentForm(newErrorForm);
@@ -639,7 +639,8 @@ public class MultiFileUnixCommandPlace extends MultiFileServerPlace implements I
         int result = -1;
         try {
             // make the directory and write the input file.
-            TempFileNames names = executrix.writeInputDataToNewTempDir(tData.data(), start, len);
+            // copied from the channel, the command only needs the bytes in a file
+            TempFileNames names = executrix.writeInputDataToNewTempDir(tData.dataView(), start, len);
             f = new File(names.getInputFilename());
             logger.debug("Wrote file out to {}", f.getPath());
 
@@ -672,6 +673,8 @@ public class MultiFileUnixCommandPlace extends MultiFileServerPlace implements I
             if (files != null && !files.isEmpty()) {
                 sprouts = sproutResults(tData, files, f.getParent(), parentData);
             }
+        } catch (IOException ex) {
+            logger.error("Cannot write the data for the command", ex);
         } catch (RuntimeException ex) {
             logger.error("Problem in command execution", ex);
         } finally {
@@ -642,7 +642,8 @@ public abstract class ServiceProviderPlace implements IServiceProviderPlace,
     }
 
     /**
-     * Rehash the payload if this is a rehashing place
+     * Rehash the payload if this is a rehashing place. The digests are only computed again if the payload's data has been
+     * set since they were last computed, see {@link IBaseDataObject#getDataGeneration()}.
      *
      * @param payload the payload to evaluate and rehash
      */
@@ -0,0 +1,318 @@
+package emissary.pool;
+
+import emissary.config.ConfigUtil;
+import emissary.config.Configurator;
+import emissary.core.IBaseDataObject;
+import emissary.util.SizeUtil;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Tracks the approximate heap used by each family of payloads in flight on this node and admits new families only while
+ * the total stays within a configurable budget.
+ * </p>
+ *
+ * <p>
+ * A family is admitted by the pick up place before it is handed to an agent, updated by the agent as the family grows
+ * and released when the agent returns to the pool. Sizes are estimated with {@link SizeUtil}, covering the payload data,
+ * alternate views and parameters. When nothing is in flight a family is always admitted, even if it is larger than the
+ * budget on its own.
+ * </p>
+ */
+public final class FamilyMemoryBudget implements MetricSet {
+    private static final Logger logger = LoggerFactory.getLogger(FamilyMemoryBudget.class);
+
+    public static final String ENABLED_KEY = "ENABLED";
+    public static final String BUDGET_BYTES_KEY = "BUDGET_BYTES";
+    public static final String BUDGET_HEAP_PERCENT_KEY = "BUDGET_HEAP_PERCENT";
+
+    /** Families are only made to wait when enabled in configuration */
+    static final boolean DEFAULT_ENABLED = false;
+    static final int DEFAULT_BUDGET_HEAP_PERCENT = 60;
+
+    /** How long an unchanged family goes before agents estimate it again */
+    public static final long ESTIMATE_REFRESH_MILLIS = 10_000;
+
+    /** How long a waiting admission sleeps before checking again, in case a release is missed */
+    private static final long RECHECK_MILLIS = 1000;
+
+    private final boolean enabled;
+    private final long budgetBytes;
+
+    private final Map<UUID, Long> families = new HashMap<>();
+    private long usedBytes = 0;
+    private int waiting = 0;
+    private long admitted = 0;
+    private long delayed = 0;
+
+    /**
+     * Lazily create the node-wide instance from configuration
+     */
+    private static final class Holder {
+        private static final FamilyMemoryBudget INSTANCE = fromConfiguration();
+
+        private Holder() {}
+    }
+
+    /**
+     * Get the node-wide budget, configured from emissary.pool.FamilyMemoryBudget.cfg
+     *
+     * @return the shared budget
+     */
+    public static FamilyMemoryBudget getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static FamilyMemoryBudget fromConfiguration() {
+        Configurator configurator = null;
+        try {
+            configurator = ConfigUtil.getConfigInfo(FamilyMemoryBudget.class);
+        } catch (IOException e) {
+            logger.debug("Could not get configuration, using defaults", e);
+        }
+
+        if (configurator == null) {
+            return new FamilyMemoryBudget(DEFAULT_ENABLED, heapPercent(DEFAULT_BUDGET_HEAP_PERCENT));
+        }
+        return new FamilyMemoryBudget(configurator);
+    }
+
+    /**
+     * Create a budget from configuration. BUDGET_BYTES takes precedence over BUDGET_HEAP_PERCENT.
+     *
+     * @param configurator the configuration to use
+     */
+    public FamilyMemoryBudget(final Configurator configurator) {
+        this(configurator.findBooleanEntry(ENABLED_KEY, DEFAULT_ENABLED), configurator.findSizeEntry(BUDGET_BYTES_KEY,
+                heapPercent(configurator.findIntEntry(BUDGET_HEAP_PERCENT_KEY, DEFAULT_BUDGET_HEAP_PERCENT))));
+    }
+
+    /**
+     * Create a budget
+     *
+     * @param enabled when false families are neither tracked nor made to wait
+     * @param budgetBytes the number of bytes families in flight may use before new families wait
+     */
+    public FamilyMemoryBudget(final boolean enabled, final long budgetBytes) {
+        Validate.isTrue(budgetBytes > 0, "Required: budgetBytes > 0");
+
+        this.enabled = enabled;
+        this.budgetBytes = budgetBytes;
+    }
+
+    private static long heapPercent(final int percent) {
+        Validate.isTrue(percent > 0 && percent <= 100, "Required: 0 < percent <= 100");
+        return Runtime.getRuntime().maxMemory() / 100 * percent;
+    }
+
+    /**
+     * Estimate the heap used by a family
+     *
+     * @param family the payloads of the family
+     * @return the approximate size in bytes
+     */
+    public static long estimate(final List<IBaseDataObject> family) {
+        return SizeUtil.sizeof(family);
+    }
+
+    /**
+     * Summarize the parts of a family that change when its size does, cheaply enough to check after every place: its
+     * members, their data generations and their numbers of alternate views and parameters. Changes the summary misses, like
+     * a view or parameter replaced by a larger one, are picked up when the estimate is refreshed.
+     *
+     * @param family the payloads of the family
+     * @return a value that changes when the family visibly changes
+     */
+    public static long signature(final List<IBaseDataObject> family) {
+        long signature = family.size();
+        for (final IBaseDataObject payload : family) {
+            signature = 31 * signature + System.identityHashCode(payload);
+            signature = 31 * signature + payload.getDataGeneration();
+            signature = 31 * signature + payload.getNumAlternateViews();
+            signature = 31 * signature + payload.getParameterKeys().size();
+        }
+        return signature;
+    }
+
+    /**
+     * Admit a new family, waiting until there is room for it in the budget. Nothing is estimated when the budget is
+     * disabled.
+     *
+     * @param payload the top level payload of the family
+     * @param timeoutMs maximum time in millis to wait, or -1 to wait forever
+     * @return true if the family was admitted, false if the wait timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean admit(final IBaseDataObject payload, final long timeoutMs) throws InterruptedException {
+        if (!enabled) {
+            return true;
+        }
+        return admit(payload.getInternalId(), estimate(Collections.singletonList(payload)), timeoutMs);
+    }
+
+    /**
+     * Admit a new family, waiting until there is room for it in the budget
+     *
+     * @param familyId the internal id of the top level payload of the family
+     * @param bytes the estimated size of the family
+     * @param timeoutMs maximum time in millis to wait, or -1 to wait forever
+     * @return true if the family was admitted, false if the wait timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean admit(final UUID familyId, final long bytes, final long timeoutMs) throws InterruptedException {
+        Validate.notNull(familyId, "Required: familyId not null");
+        Validate.isTrue(bytes >= 0, "Required: bytes >= 0");
+
+        if (!enabled) {
+            return true;
+        }
+        if (mustWait(bytes)) {
+            final long deadline = timeoutMs < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMs;
+            logger.debug("Family {} of {} bytes waiting for memory, {} of {} bytes in use by {} families", familyId, bytes, usedBytes, budgetBytes,
+                    families.size());
+            delayed++;
+            waiting++;
+            try {
+                while (mustWait(bytes)) {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait(Math.min(remaining, RECHECK_MILLIS));
+                }
+            } finally {
+                waiting--;
+            }
+        }
+
+        admitted++;
+        set(familyId, bytes);
+        return true;
+    }
+
+    private boolean mustWait(final long bytes) {
+        return !families.isEmpty() && usedBytes + bytes > budgetBytes;
+    }
+
+    /**
+     * Record the current size of an admitted family. Families that were not admitted on this node are ignored.
+     *
+     * @param familyId the internal id of the top level payload of the family
+     * @param bytes the estimated size of the family
+     */
+    public synchronized void update(final UUID familyId, final long bytes) {
+        if (familyId != null && families.containsKey(familyId)) {
+            set(familyId, bytes);
+        }
+    }
+
+    /**
+     * Release an admitted family, allowing waiting families in if there is now room
+     *
+     * @param familyId the internal id of the top level payload of the family
+     */
+    public synchronized void release(final UUID familyId) {
+        final Long bytes = familyId == null ? null : families.remove(familyId);
+        if (bytes != null) {
+            usedBytes -= bytes;
+            notifyAll();
+        }
+    }
+
+    private void set(final UUID familyId, final long bytes) {
+        final Long previous = families.put(familyId, bytes);
+        usedBytes += bytes - (previous == null ? 0 : previous);
+        if (previous != null && bytes < previous) {
+            notifyAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return the estimated bytes in use by all families in flight
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the number of families in flight
+     */
+    public synchronized int getFamilyCount() {
+        return families.size();
+    }
+
+    /**
+     * @return the number of families waiting to be admitted
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * @return the estimated bytes in use by a family, or zero if it is not in flight
+     */
+    public synchronized long getFamilyBytes(final UUID familyId) {
+        return families.getOrDefault(familyId, 0L);
+    }
+
+    /**
+     * @return a copy of the estimated bytes in use by each family in flight
+     */
+    public synchronized Map<UUID, Long> getFamilyUsage() {
+        return new HashMap<>(families);
+    }
+
+    /**
+     * @return the number of families admitted since startup
+     */
+    public synchronized long getAdmittedCount() {
+        return admitted;
+    }
+
+    /**
+     * @return the number of families that had to wait to be admitted since startup
+     */
+    public synchronized long getDelayedCount() {
+        return delayed;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        final Map<String, Metric> metrics = new TreeMap<>();
+        metrics.put("family.memory.budget.bytes", (Gauge<Long>) this::getBudgetBytes);
+        metrics.put("family.memory.used.bytes", (Gauge<Long>) this::getUsedBytes);
+        metrics.put("family.memory.families", (Gauge<Integer>) this::getFamilyCount);
+        metrics.put("family.memory.waiting", (Gauge<Integer>) this::getWaitingCount);
+        metrics.put("family.memory.admitted", (Gauge<Long>) this::getAdmittedCount);
+        metrics.put("family.memory.delayed", (Gauge<Long>) this::getDelayedCount);
+        return metrics;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Family memory used/budget = " + usedBytes + "/" + budgetBytes + " bytes, families in flight/waiting = " + families.size() + "/"
+                + waiting;
+    }
+}
@@ -9,6 +9,7 @@ import emissary.core.EmissaryException;
 import emissary.core.Namespace;
 import emissary.core.NamespaceException;
 import emissary.directory.EmissaryNode;
+import emissary.pool.FamilyMemoryBudget;
 import emissary.pool.MobileAgentFactory;
 import emissary.server.EmissaryServer;
 
@@ -115,6 +116,11 @@ public class Agents {
                     entity.addError("ERROR - Agent " + agentKey + " not found in Namespace");
                 }
             });
+            FamilyMemoryBudget budget = FamilyMemoryBudget.getInstance();
+            agents.setMemoryUsedBytes(budget.getUsedBytes());
+            agents.setMemoryBudgetBytes(budget.getBudgetBytes());
+            agents.setFamiliesInFlight(budget.getFamilyCount());
+            agents.setFamiliesWaiting(budget.getWaitingCount());
             entity.setLocal(agents);
         } catch (EmissaryException e) {
             // should never happen
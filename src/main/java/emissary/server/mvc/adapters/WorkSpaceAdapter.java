@@ -5,17 +5,23 @@ import emissary.client.EmissaryResponse;
 import emissary.directory.KeyManipulator;
 import emissary.pickup.WorkBundle;
 
+import jakarta.annotation.Nullable;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.entity.UrlEncodedFormEntity;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.message.BasicNameValuePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Stuff for adapting the WorkSpace remote call to HTTP
@@ -28,6 +34,7 @@ public class WorkSpaceAdapter extends EmissaryClient {
     public static final String SPACE_NAME = "workSpaceName";
     public static final String WORK_BUNDLE_ID = "tpId";
     public static final String WORK_BUNDLE_STATUS = "tpStatus";
+    public static final String WORK_BUNDLE_COUNT = "tpCount";
 
     /**
      * Outbound open tells a remote WorkSpace to start pulling data
@@ -78,6 +85,50 @@ public class WorkSpaceAdapter extends EmissaryClient {
         return path;
     }
 
+    /**
+     * Outbound take of a batch of WorkBundles from a remote WorkSpace in binary form, also reporting bundles that were
+     * completed
+     *
+     * @param space the remote space to contact
+     * @param place the name of the requesting place
+     * @param count the most bundles to take, zero to only report completions
+     * @param completed ids of bundles completed since the last call, mapped to whether they were processed normally
+     * @return the bundles taken, empty if the space has no more work, or null if there was an error
+     */
+    @Nullable
+    public List<WorkBundle> outboundWorkSpaceTakeBundles(final String space, final String place, final int count,
+            final Map<String, Boolean> completed) {
+
+        final String placeUrl = KeyManipulator.getServiceHostUrl(space);
+        final HttpPost method = createHttpPost(placeUrl, context, "/WorkSpaceClientSpaceTakeBundles.action");
+
+        final List<NameValuePair> nvps = new ArrayList<>();
+        nvps.add(new BasicNameValuePair(CLIENT_NAME, place));
+        nvps.add(new BasicNameValuePair(SPACE_NAME, space));
+        nvps.add(new BasicNameValuePair(WORK_BUNDLE_COUNT, Integer.toString(count)));
+        for (final Map.Entry<String, Boolean> entry : completed.entrySet()) {
+            nvps.add(new BasicNameValuePair(WORK_BUNDLE_ID, entry.getKey()));
+            nvps.add(new BasicNameValuePair(WORK_BUNDLE_STATUS, entry.getValue().toString()));
+        }
+        method.setEntity(new UrlEncodedFormEntity(nvps, StandardCharsets.UTF_8));
+
+        try {
+            return execute(method, response -> {
+                if (response.getCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+                    logger.debug("Take from space {} was an error: {}", space, response.getCode());
+                    EntityUtils.consume(response.getEntity());
+                    return null;
+                }
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(response.getEntity().getContent()))) {
+                    return WorkBundle.readBundlesFromStream(in);
+                }
+            });
+        } catch (IOException e) {
+            logger.debug("Take from space {} failed", space, e);
+            return null;
+        }
+    }
+
     /**
      * Outbound notice that bundle was completed
      * 
@@ -18,6 +18,15 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static emissary.server.mvc.adapters.WorkSpaceAdapter.WORK_BUNDLE_COUNT;
+
 @Path("")
 // context is /emissary, set in EmissaryServer
 public class WorkSpaceClientSpaceTakeAction {
@@ -74,4 +83,57 @@ public class WorkSpaceClientSpaceTakeAction {
         // return WORKER_SUCCESS;
         return Response.ok().entity(path.toXml()).build();
     }
+
+    /**
+     * Take a batch of bundles in binary form, reporting any bundles completed since the last request. Responds with the
+     * bundles written by {@link WorkBundle#writeBundlesToStream}, an empty batch when bundles were asked for means the
+     * WorkSpace has no more work.
+     */
+    @POST
+    @Path("/WorkSpaceClientSpaceTakeBundles.action")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response clientSpaceTakeBundles(@FormParam(CLIENT_NAME) String placeName, @FormParam(SPACE_NAME) String spaceName,
+            @FormParam(WORK_BUNDLE_COUNT) int count, @FormParam(WORK_BUNDLE_ID) List<String> completedIds,
+            @FormParam(WORK_BUNDLE_STATUS) List<String> completedStatus) {
+        String cleanPlaceName = RequestUtil.sanitizeParameter(placeName);
+        String cleanSpaceName = RequestUtil.sanitizeParameter(spaceName);
+        if (StringUtils.isBlank(cleanPlaceName) || StringUtils.isBlank(cleanSpaceName) || count < 0
+                || completedIds.size() != completedStatus.size()) {
+            return Response.serverError().type(MediaType.TEXT_PLAIN).entity(HtmlEscaper.escapeHtml("Bad params: " + CLIENT_NAME + " - "
+                    + cleanPlaceName + ", " + SPACE_NAME + " - " + cleanSpaceName + ", " + WORK_BUNDLE_COUNT + " - " + count + ", or completions"))
+                    .build();
+        }
+
+        try {
+            return doClientSpaceTakeBundles(cleanPlaceName, cleanSpaceName, count, completedIds, completedStatus);
+        } catch (EmissaryException | IllegalArgumentException | IOException e) {
+            logger.warn("There was an exception in the WorkSpaceClientSpaceTakeBundles", e);
+            return Response.serverError().type(MediaType.TEXT_PLAIN).entity("There was an exception in the WorkSpaceClientSpaceTakeBundles").build();
+        }
+    }
+
+    private static Response doClientSpaceTakeBundles(String placeName, String spaceName, int count, List<String> completedIds,
+            List<String> completedStatus) throws EmissaryException, IOException {
+        String workspaceKey = spaceName.substring("WORKSPACE.WORK_SPACE.INPUT.".length());
+        final WorkSpace space = (WorkSpace) Namespace.lookup(workspaceKey);
+        if (space == null) {
+            throw new IllegalArgumentException("No WorkSpace found using name " + spaceName);
+        }
+
+        final Map<String, Boolean> completed = new LinkedHashMap<>();
+        for (int i = 0; i < completedIds.size(); i++) {
+            completed.put(RequestUtil.sanitizeParameter(completedIds.get(i)), Boolean.parseBoolean(completedStatus.get(i)));
+        }
+        if (!completed.isEmpty()) {
+            space.workCompleted(placeName, completed);
+        }
+
+        final List<WorkBundle> bundles = space.take(placeName, count);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            WorkBundle.writeBundlesToStream(bundles, out);
+        }
+        return Response.ok().entity(bytes.toByteArray()).build();
+    }
 }
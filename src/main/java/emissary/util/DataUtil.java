@@ -5,12 +5,17 @@ import emissary.core.IBaseDataObject;
 import emissary.id.WorkUnit;
 
 import jakarta.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.regex.Pattern;
 
 public class DataUtil {
 
+    private static final Logger logger = LoggerFactory.getLogger(DataUtil.class);
+
     private static final Pattern NL_REPL = Pattern.compile("[\n\r]+");
 
     /**
@@ -48,11 +53,15 @@ public class DataUtil {
     }
 
     /**
-     * Return true if the data slot is empty
+     * Return true if the data slot is empty. Data whose size cannot be read is not empty, as it may still hold something.
      */
     public static boolean isEmpty(final IBaseDataObject d) {
-        final byte[] data = d.data();
-        return isEmpty(data);
+        try {
+            return d.dataView().size() == 0;
+        } catch (IOException e) {
+            logger.error("Cannot read the size of the data of {}", d.shortName(), e);
+            return false;
+        }
     }
 
     /**
@@ -306,6 +306,20 @@ public final class MagicNumberUtil {
         return this.magicNumbers.size();
     }
 
+    /**
+     * Get the number of leading bytes of a sample that the loaded magic numbers, including their continuations, can
+     * examine. Describing only this prefix of a larger sample gives the same result as describing the whole sample.
+     *
+     * @return the number of bytes needed from the start of the data
+     */
+    public int getSampleLength() {
+        int length = 0;
+        for (final MagicNumber item : this.magicNumbers) {
+            length = Math.max(length, item.getSampleLength());
+        }
+        return length;
+    }
+
     public String getErrorLog() {
         if (!this.logErrors) {
             return "";
@@ -1,9 +1,12 @@
 package emissary.util;
 
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.core.channels.SeekableByteChannelHelper;
 
 import jakarta.annotation.Nullable;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -178,7 +181,8 @@ public class SizeUtil {
 
     /**
      * Approximate the amount of memory consumed by the various "payloads" of an IBaseDataObject. In this case, a payload
-     * refers to the header, footer, data (primary view), and all the alternate views.
+     * refers to the header, footer, data (primary view), and all the alternate views. Data and views backed by a file or
+     * any other channel that is not held on the heap are not counted, since they take no heap until they are read.
      * 
      * @param ibdo - The IBaseDataObject to approximate
      * @return - The approximate memory footprint, in bytes, for the IBaseDataObject
@@ -196,7 +200,7 @@ public class SizeUtil {
         // negligible
 
         // Primary view (potentially gigantic)
-        totalSize += ibdo.dataLength(); // This always returns an int
+        totalSize += getHeapSize(ibdo.getChannelFactory());
 
         // Header and footer size (probably not big)
         if (ibdo.footer() != null) {
@@ -206,16 +210,27 @@ public class SizeUtil {
             totalSize += ibdo.header().length;
         }
 
-        // Size up the alternative views
-        for (Map.Entry<String, byte[]> altView : ibdo.getAlternateViews().entrySet()) {
-            if (altView.getValue() != null) {
-                totalSize += altView.getValue().length;
-            }
+        // Size up the alternative views without reading any that are backed by channels
+        for (String viewName : ibdo.getAlternateViewNames()) {
+            totalSize += getHeapSize(ibdo.getAlternateViewChannelFactory(viewName));
         }
 
         return totalSize;
     }
 
+    /**
+     * Approximate the heap held by the data of a channel factory
+     *
+     * @param sbcf the factory, possibly null
+     * @return the size of the data when it is held in a heap buffer, otherwise zero
+     */
+    private static long getHeapSize(@Nullable SeekableByteChannelFactory sbcf) {
+        if (sbcf == null) {
+            return 0L;
+        }
+        return SeekableByteChannelHelper.byteBuffer(sbcf).filter(b -> !b.isDirect()).map(ByteBuffer::remaining).orElse(0);
+    }
+
     /** This class is not meant to be instantiated. */
     private SizeUtil() {}
 }
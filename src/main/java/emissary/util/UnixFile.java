@@ -88,6 +88,16 @@ public class UnixFile {
         return util.size();
     }
 
+    /**
+     * Get the number of leading bytes needed by {@link #evaluateByMagicNumber(byte[])}. Evaluating a prefix of this length
+     * gives the same result as evaluating the whole of the data.
+     *
+     * @return the number of bytes to read from the start of the data
+     */
+    public int getSampleLength() {
+        return util.getSampleLength();
+    }
+
     /**
      * Behaves just like the UNIX file command. First performs a magic number test, then an ascii or binary file test. This
      * is also the same as calling <code>evaluateByMagicNumber (bytes :
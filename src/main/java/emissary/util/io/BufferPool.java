@@ -0,0 +1,398 @@
+package emissary.util.io;
+
+import emissary.config.ConfigUtil;
+import emissary.config.Configurator;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Node-wide pool of transient heap and direct buffers, used by hot I/O paths to reduce allocation rate and GC pressure.
+ * </p>
+ *
+ * <p>
+ * Buffers are pooled in power-of-two size classes between a minimum and maximum buffer size, so an acquired buffer may be
+ * larger than requested. Requests above the largest size class are allocated to the exact size and are not retained on
+ * release. The total number of bytes retained by the pool is bounded separately for heap and direct buffers; buffers
+ * released while the pool is full are simply dropped.
+ * </p>
+ *
+ * <p>
+ * Every acquired buffer should be released exactly once, after which the caller must not use it again. When leak
+ * detection is enabled (normally only in tests) buffers that are garbage collected without being released are reported,
+ * and releasing a buffer twice throws an {@link IllegalStateException}.
+ * </p>
+ */
+public final class BufferPool {
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+
+    public static final String ENABLED_KEY = "ENABLED";
+    public static final String MIN_BUFFER_SIZE_KEY = "MIN_BUFFER_SIZE";
+    public static final String MAX_BUFFER_SIZE_KEY = "MAX_BUFFER_SIZE";
+    public static final String MAX_HEAP_BYTES_KEY = "MAX_HEAP_BYTES";
+    public static final String MAX_DIRECT_BYTES_KEY = "MAX_DIRECT_BYTES";
+    public static final String LEAK_DETECTION_KEY = "LEAK_DETECTION";
+
+    /** System property that turns on leak detection regardless of configuration, set by the test build */
+    public static final String LEAK_DETECTION_PROPERTY = "emissary.buffer.pool.leak.detection";
+
+    /** Size of the buffers used for sequential reads and writes */
+    public static final int DEFAULT_IO_BUFFER_SIZE = 64 * 1024;
+
+    /** Buffers are only retained when enabled in configuration */
+    static final boolean DEFAULT_ENABLED = false;
+    static final int DEFAULT_MIN_BUFFER_SIZE = 1024;
+    static final int DEFAULT_MAX_BUFFER_SIZE = 32 * 1024 * 1024;
+    /** Retained heap is also limited to a sixteenth of the maximum heap unless configured */
+    static final long DEFAULT_MAX_HEAP_BYTES = Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+    static final long DEFAULT_MAX_DIRECT_BYTES = 64L * 1024 * 1024;
+
+    private final boolean enabled;
+    private final int minShift;
+    private final int maxShift;
+    private final long maxHeapBytes;
+    private final long maxDirectBytes;
+
+    private final Deque<byte[]>[] heapClasses;
+    private final Deque<ByteBuffer>[] directClasses;
+
+    private final AtomicLong pooledHeapBytes = new AtomicLong();
+    private final AtomicLong pooledDirectBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Leak tracking, or null when leak detection is disabled */
+    private final LeakDetector leakDetector;
+
+    /**
+     * Lazily create the node-wide instance from configuration
+     */
+    private static final class Holder {
+        private static final BufferPool INSTANCE = fromConfiguration();
+
+        private Holder() {}
+    }
+
+    /**
+     * Get the node-wide pool, configured from emissary.util.io.BufferPool.cfg
+     *
+     * @return the shared pool
+     */
+    public static BufferPool getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static BufferPool fromConfiguration() {
+        Configurator configurator = null;
+        try {
+            configurator = ConfigUtil.getConfigInfo(BufferPool.class);
+        } catch (IOException e) {
+            logger.debug("Could not get configuration, using defaults", e);
+        }
+
+        if (configurator == null) {
+            return new BufferPool(DEFAULT_ENABLED, DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_HEAP_BYTES, DEFAULT_MAX_DIRECT_BYTES,
+                    Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+        }
+        return new BufferPool(configurator);
+    }
+
+    /**
+     * Create a pool from configuration
+     *
+     * @param configurator the configuration to use
+     */
+    public BufferPool(final Configurator configurator) {
+        this(configurator.findBooleanEntry(ENABLED_KEY, DEFAULT_ENABLED),
+                (int) configurator.findSizeEntry(MIN_BUFFER_SIZE_KEY, DEFAULT_MIN_BUFFER_SIZE),
+                (int) configurator.findSizeEntry(MAX_BUFFER_SIZE_KEY, DEFAULT_MAX_BUFFER_SIZE),
+                configurator.findSizeEntry(MAX_HEAP_BYTES_KEY, DEFAULT_MAX_HEAP_BYTES),
+                configurator.findSizeEntry(MAX_DIRECT_BYTES_KEY, DEFAULT_MAX_DIRECT_BYTES),
+                configurator.findBooleanEntry(LEAK_DETECTION_KEY, false) || Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+    }
+
+    /**
+     * Create a pool
+     *
+     * @param enabled when false every acquire allocates and every release is ignored
+     * @param minBufferSize the smallest size class, rounded up to a power of two
+     * @param maxBufferSize the largest size class, rounded up to a power of two
+     * @param maxHeapBytes the maximum number of heap bytes retained by the pool
+     * @param maxDirectBytes the maximum number of direct bytes retained by the pool
+     * @param leakDetection true to track acquired buffers and report those never released
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(final boolean enabled, final int minBufferSize, final int maxBufferSize, final long maxHeapBytes, final long maxDirectBytes,
+            final boolean leakDetection) {
+        Validate.isTrue(minBufferSize > 0, "Required: minBufferSize > 0");
+        Validate.isTrue(maxBufferSize >= minBufferSize, "Required: maxBufferSize >= minBufferSize");
+        Validate.isTrue(maxBufferSize <= (1 << 30), "Required: maxBufferSize <= 1GB");
+        Validate.isTrue(maxHeapBytes >= 0, "Required: maxHeapBytes >= 0");
+        Validate.isTrue(maxDirectBytes >= 0, "Required: maxDirectBytes >= 0");
+
+        this.enabled = enabled;
+        this.minShift = shiftFor(minBufferSize);
+        this.maxShift = shiftFor(maxBufferSize);
+        this.maxHeapBytes = maxHeapBytes;
+        this.maxDirectBytes = maxDirectBytes;
+        this.leakDetector = leakDetection ? new LeakDetector() : null;
+
+        final int classes = maxShift - minShift + 1;
+        this.heapClasses = new Deque[classes];
+        this.directClasses = new Deque[classes];
+        for (int i = 0; i < classes; i++) {
+            heapClasses[i] = new ConcurrentLinkedDeque<>();
+            directClasses[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    /**
+     * Get the capacity of the buffer that would be handed out for a request
+     *
+     * @param minLength the requested size
+     * @return the size class holding minLength, or minLength itself if larger than the largest size class
+     */
+    public int sizeClass(final int minLength) {
+        Validate.isTrue(minLength >= 0, "Required: minLength >= 0");
+
+        final int shift = shiftFor(minLength);
+        return shift > maxShift ? minLength : 1 << Math.max(shift, minShift);
+    }
+
+    /**
+     * Acquire a byte array of at least the requested length. The contents of the array are undefined.
+     *
+     * @param minLength the minimum length of the array
+     * @return an array whose length is {@link #sizeClass(int)} of minLength
+     */
+    public byte[] acquireArray(final int minLength) {
+        return acquireArray(minLength, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Acquire a byte array of at least the requested length, but no longer than maxLength. If the size class holding
+     * minLength is longer than maxLength, an unpooled array of exactly minLength is allocated instead.
+     *
+     * @param minLength the minimum length of the array
+     * @param maxLength the maximum acceptable length of the array
+     * @return an array with a length between minLength and maxLength
+     */
+    public byte[] acquireArray(final int minLength, final int maxLength) {
+        Validate.isTrue(maxLength >= minLength, "Required: maxLength >= minLength");
+
+        final int size = sizeClass(minLength);
+        byte[] array = null;
+        if (size <= maxLength) {
+            final int index = classIndex(size);
+            if (enabled && index >= 0) {
+                array = heapClasses[index].pollFirst();
+            }
+            if (array == null) {
+                misses.incrementAndGet();
+                array = new byte[size];
+            } else {
+                hits.incrementAndGet();
+                pooledHeapBytes.addAndGet(-size);
+            }
+        } else {
+            array = new byte[minLength];
+        }
+
+        track(array);
+        return array;
+    }
+
+    /**
+     * Acquire a heap buffer backed by a pooled array. The buffer is positioned at zero with its limit set to the requested
+     * capacity, although the backing array may be larger.
+     *
+     * @param capacity the number of bytes required
+     * @return the buffer, which must be returned with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquireHeap(final int capacity) {
+        final byte[] array = acquireArray(capacity);
+        final ByteBuffer buffer = ByteBuffer.wrap(array);
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    /**
+     * Acquire a direct buffer. The buffer is positioned at zero with its limit set to the requested capacity, although its
+     * capacity may be larger.
+     *
+     * @param capacity the number of bytes required
+     * @return the buffer, which must be returned with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquireDirect(final int capacity) {
+        final int size = sizeClass(capacity);
+        final int index = classIndex(size);
+
+        ByteBuffer buffer = null;
+        if (enabled && index >= 0) {
+            buffer = directClasses[index].pollFirst();
+        }
+        if (buffer == null) {
+            misses.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            hits.incrementAndGet();
+            pooledDirectBytes.addAndGet(-size);
+        }
+
+        buffer.clear().limit(capacity);
+        track(buffer);
+        return buffer;
+    }
+
+    /**
+     * Return a byte array to the pool. The caller must not use the array afterwards.
+     *
+     * @param array the array to release, ignored if null
+     */
+    public void release(final byte[] array) {
+        if (array == null) {
+            return;
+        }
+
+        untrack(array);
+        final int index = classIndex(array.length);
+        if (enabled && index >= 0 && reserve(pooledHeapBytes, array.length, maxHeapBytes)) {
+            heapClasses[index].offerFirst(array);
+        }
+    }
+
+    /**
+     * Return a buffer acquired by {@link #acquireHeap(int)} or {@link #acquireDirect(int)} to the pool. The caller must not
+     * use the buffer afterwards.
+     *
+     * @param buffer the buffer to release, ignored if null
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        if (!buffer.isDirect()) {
+            Validate.isTrue(buffer.hasArray() && buffer.arrayOffset() == 0, "Required: pooled heap buffer");
+            release(buffer.array());
+            return;
+        }
+
+        untrack(buffer);
+        final int index = classIndex(buffer.capacity());
+        if (enabled && index >= 0 && reserve(pooledDirectBytes, buffer.capacity(), maxDirectBytes)) {
+            directClasses[index].offerFirst(buffer);
+        }
+    }
+
+    /**
+     * Drop every pooled buffer
+     */
+    public void clear() {
+        for (int i = 0; i < heapClasses.length; i++) {
+            while (heapClasses[i].pollFirst() != null) {
+                pooledHeapBytes.addAndGet(-(1L << (i + minShift)));
+            }
+            while (directClasses[i].pollFirst() != null) {
+                pooledDirectBytes.addAndGet(-(1L << (i + minShift)));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return leakDetector != null;
+    }
+
+    /**
+     * @return the number of heap bytes currently held by the pool
+     */
+    public long getPooledHeapBytes() {
+        return pooledHeapBytes.get();
+    }
+
+    /**
+     * @return the number of direct bytes currently held by the pool
+     */
+    public long getPooledDirectBytes() {
+        return pooledDirectBytes.get();
+    }
+
+    /**
+     * @return the number of acquisitions satisfied from the pool
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of pooled size class acquisitions that had to allocate
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of buffers found to have been garbage collected without being released, always zero unless leak
+     *         detection is enabled
+     */
+    public long getLeakCount() {
+        return leakDetector == null ? 0 : leakDetector.poll();
+    }
+
+    /**
+     * @return the number of acquired buffers that have not been released or collected, always zero unless leak detection
+     *         is enabled
+     */
+    public int getOutstandingCount() {
+        return leakDetector == null ? 0 : leakDetector.getOutstandingCount();
+    }
+
+    private void track(final Object buffer) {
+        if (leakDetector != null) {
+            leakDetector.track(buffer);
+        }
+    }
+
+    private void untrack(final Object buffer) {
+        if (leakDetector != null && !leakDetector.untrack(buffer)) {
+            throw new IllegalStateException("Buffer released more than once or not acquired from this pool");
+        }
+    }
+
+    /**
+     * Index of the size class with exactly the given size
+     *
+     * @return the index, or -1 if size is not a pooled size class
+     */
+    private int classIndex(final int size) {
+        if (Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        final int shift = Integer.numberOfTrailingZeros(size);
+        return shift < minShift || shift > maxShift ? -1 : shift - minShift;
+    }
+
+    private static int shiftFor(final int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private static boolean reserve(final AtomicLong pooled, final long size, final long max) {
+        if (pooled.addAndGet(size) > max) {
+            pooled.addAndGet(-size);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+package emissary.util.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks buffers handed out by a {@link BufferPool} and reports those that are garbage collected without having been
+ * released. Tracking records the acquisition stack, so this is only intended for tests and troubleshooting.
+ */
+final class LeakDetector {
+    private static final Logger logger = LoggerFactory.getLogger(LeakDetector.class);
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final Map<Integer, List<Tracker>> outstanding = new HashMap<>();
+    private final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * Weak reference to an acquired buffer along with where it was acquired
+     */
+    private static final class Tracker extends WeakReference<Object> {
+        private final int identity;
+        private final Throwable acquiredAt;
+
+        Tracker(final Object buffer, final ReferenceQueue<Object> queue) {
+            super(buffer, queue);
+            this.identity = System.identityHashCode(buffer);
+            this.acquiredAt = new Throwable("Buffer of " + capacity(buffer) + " bytes acquired here");
+        }
+    }
+
+    /**
+     * Start tracking an acquired buffer
+     *
+     * @param buffer the buffer handed out by the pool
+     */
+    void track(final Object buffer) {
+        poll();
+        final Tracker tracker = new Tracker(buffer, queue);
+        synchronized (outstanding) {
+            outstanding.computeIfAbsent(tracker.identity, k -> new ArrayList<>(1)).add(tracker);
+        }
+    }
+
+    /**
+     * Stop tracking a released buffer
+     *
+     * @param buffer the buffer being returned to the pool
+     * @return false if the buffer was not being tracked, i.e. it was already released or never acquired
+     */
+    boolean untrack(final Object buffer) {
+        poll();
+        final int identity = System.identityHashCode(buffer);
+        synchronized (outstanding) {
+            final List<Tracker> trackers = outstanding.get(identity);
+            if (trackers != null) {
+                for (int i = 0; i < trackers.size(); i++) {
+                    final Tracker tracker = trackers.get(i);
+                    if (tracker.get() == buffer) {
+                        tracker.clear();
+                        remove(identity, trackers, i);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Report any tracked buffers that have been collected since the last call
+     *
+     * @return the total number of leaks found so far
+     */
+    long poll() {
+        Tracker tracker;
+        while ((tracker = (Tracker) queue.poll()) != null) {
+            synchronized (outstanding) {
+                final List<Tracker> trackers = outstanding.get(tracker.identity);
+                if (trackers == null || !trackers.contains(tracker)) {
+                    continue;
+                }
+                remove(tracker.identity, trackers, trackers.indexOf(tracker));
+            }
+            leaks.incrementAndGet();
+            logger.error("Pooled buffer was garbage collected without being released", tracker.acquiredAt);
+        }
+        return leaks.get();
+    }
+
+    /**
+     * @return the number of tracked buffers not yet released or reported
+     */
+    int getOutstandingCount() {
+        poll();
+        synchronized (outstanding) {
+            int count = 0;
+            for (List<Tracker> trackers : outstanding.values()) {
+                count += trackers.size();
+            }
+            return count;
+        }
+    }
+
+    private void remove(final int identity, final List<Tracker> trackers, final int index) {
+        trackers.remove(index);
+        if (trackers.isEmpty()) {
+            outstanding.remove(identity);
+        }
+    }
+
+    private static int capacity(final Object buffer) {
+        return buffer instanceof byte[] ? ((byte[]) buffer).length : ((ByteBuffer) buffer).capacity();
+    }
+}
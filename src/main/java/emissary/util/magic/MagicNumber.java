@@ -245,6 +245,24 @@ public class MagicNumber {
         return describeDependents(data, sb, layer + 1);
     }
 
+    /**
+     * Get the number of leading bytes of a sample examined by this magic number and its continuations. String
+     * substitutions check for two bytes beyond the value, so those are included.
+     *
+     * @return the number of bytes needed from the start of the data
+     */
+    public int getSampleLength() {
+        long length = (long) offset + Math.max(dataTypeLength, 1) + 2;
+        if (dependencies != null) {
+            for (MagicNumber[] layer : dependencies) {
+                for (MagicNumber item : layer) {
+                    length = Math.max(length, item.getSampleLength());
+                }
+            }
+        }
+        return (int) Math.min(length, Integer.MAX_VALUE);
+    }
+
     /**
      * Tests this magic number against the given data
      */
@@ -2,6 +2,7 @@ package emissary.util.shell;
 
 import emissary.config.Configurator;
 import emissary.config.ServiceConfigGuide;
+import emissary.core.channels.DataView;
 import emissary.directory.KeyManipulator;
 import emissary.util.io.FileManipulator;
 
@@ -26,8 +27,10 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -991,6 +994,36 @@ public class Executrix {
         return tnames;
     }
 
+    /**
+     * Write data out for processing into a new subdir under our configured temp area, copying it from its channel rather
+     * than materializing it as an array
+     *
+     * @param data the data to write
+     * @param start offset in the data to start writing
+     * @param len length of data to write
+     * @return the tempNames structure that was created
+     * @throws IOException if the data cannot be read or the file cannot be written
+     */
+    public TempFileNames writeInputDataToNewTempDir(final DataView data, final long start, final long len) throws IOException {
+        final TempFileNames tnames = createTempFilenames();
+        final File file = new File(tnames.getInputFilename());
+        Files.createDirectories(file.getParentFile().toPath());
+        try (SeekableByteChannel in = data.getChannelFactory().create();
+                FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            in.position(start);
+            long written = 0;
+            while (written < len) {
+                final long count = out.transferFrom(in, written, len - written);
+                if (count <= 0) {
+                    throw new EOFException("Only " + written + " of " + len + " bytes available at " + start);
+                }
+                written += count;
+            }
+        }
+        return tnames;
+    }
+
     /**
      * Gets the value of command that this instance will execute adding configured limits and configured paths to the
      * configuration value
@@ -22,9 +22,12 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
@@ -35,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -378,6 +382,94 @@ class BaseDataObjectTest extends UnitTest {
         assertEquals("more stuff", new String(this.b.getAlternateView("T1")), "Appended alternate view contents");
     }
 
+    @Test
+    void testChannelAltView() throws IOException {
+        this.b.addAlternateView("T1", "alternate view".getBytes());
+        this.b.setAlternateViewChannelFactory("T2", SeekableByteChannelHelper.memory("channel view".getBytes()));
+
+        assertEquals(2, this.b.getNumAlternateViews(), "Number of alternate views");
+        assertEquals(new TreeSet<>(Arrays.asList("T1", "T2")), this.b.getAlternateViewNames(), "Alternate view names");
+        assertEquals("channel view", new String(this.b.getAlternateView("T2")), "Channel view contents");
+        assertEquals(12, this.b.alternateDataView("T2").size(), "Channel view size");
+        assertEquals("alternate view", new String(this.b.alternateDataView("T1").readPrefix(100)), "Byte array view through a channel");
+        assertEquals(Collections.singleton("T2"), this.b.getAlternateViewChannelFactories().keySet(), "Only channel backed views");
+
+        final Map<String, byte[]> views = this.b.getAlternateViews();
+        assertEquals(2, views.size(), "Count of views");
+        assertEquals("channel view", new String(views.get("T2")), "Channel view read into map");
+        assertEquals(new ArrayList<>(Arrays.asList("T1", "T2")), new ArrayList<>(views.keySet()), "Views are sorted");
+
+        // the map is live whichever way the views are held
+        assertEquals("channel view", new String(views.remove("T2")), "Removed channel view");
+        assertTrue(this.b.getAlternateViewChannelFactories().isEmpty(), "Channel view removed through the map");
+        views.put("T3", "put view".getBytes());
+        assertEquals("put view", new String(this.b.getAlternateView("T3")), "View put through the map");
+        this.b.setAlternateViewChannelFactory("T4", SeekableByteChannelHelper.memory("later view".getBytes()));
+        assertEquals("later view", new String(views.get("T4")), "View added after the map was fetched");
+        final Iterator<Map.Entry<String, byte[]>> entries = views.entrySet().iterator();
+        entries.next();
+        entries.remove();
+        assertEquals(new TreeSet<>(Arrays.asList("T3", "T4")), this.b.getAlternateViewNames(), "View removed through the iterator");
+    }
+
+    @Test
+    void testReplaceChannelAltView() throws IOException {
+        this.b.setAlternateViewChannelFactory("T1", SeekableByteChannelHelper.memory("channel view".getBytes()));
+        this.b.addAlternateView("T1", "alternate view".getBytes());
+        assertTrue(this.b.getAlternateViewChannelFactories().isEmpty(), "Byte array replaces channel view");
+        assertEquals("alternate view", new String(this.b.getAlternateView("T1")), "Replaced view contents");
+
+        this.b.setAlternateViewChannelFactory("T1", SeekableByteChannelHelper.memory("channel view".getBytes()));
+        assertEquals(1, this.b.getNumAlternateViews(), "Channel view replaces byte array");
+        assertEquals("channel view", new String(this.b.getAlternateView("T1")), "Replaced view contents");
+
+        this.b.setAlternateViewChannelFactory("T1", null);
+        assertEquals(0, this.b.getNumAlternateViews(), "Null removes the view");
+        assertNull(this.b.getAlternateViewChannelFactory("T1"), "Removed view has no factory");
+        assertEquals(0, this.b.alternateDataView("T1").size(), "Removed view is empty");
+    }
+
+    @Test
+    void testAppendChannelAltView() {
+        final SeekableByteChannelFactory sbcf = SeekableByteChannelHelper.memory("alternate view".getBytes());
+        this.b.setAlternateViewChannelFactory("T1", sbcf);
+        this.b.appendAlternateView("T1", "xx more stuff xx".getBytes(), 2, 11);
+
+        assertNotNull(this.b.getAlternateViewChannelFactories().get("T1"), "Appended view stays channel backed");
+        assertEquals("alternate view more stuff", new String(this.b.getAlternateView("T1")), "Appended alternate view contents");
+    }
+
+    @Test
+    void testCloneChannelAltView() throws CloneNotSupportedException {
+        final SeekableByteChannelFactory sbcf = SeekableByteChannelHelper.memory("channel view".getBytes());
+        this.b.setAlternateViewChannelFactory("T1", sbcf);
+
+        final IBaseDataObject clone = this.b.clone();
+        assertEquals(sbcf, clone.getAlternateViewChannelFactory("T1"), "Clone shares the factory");
+
+        clone.setAlternateViewChannelFactory("T1", null);
+        assertEquals(1, this.b.getNumAlternateViews(), "Clone does not share the view map");
+    }
+
+    @Test
+    void testSerializeChannelAltView() throws IOException, ClassNotFoundException {
+        this.b.addAlternateView("T1", "alternate view".getBytes());
+        this.b.setAlternateViewChannelFactory("T2", SeekableByteChannelHelper.memory("channel view".getBytes()));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(this.b);
+        }
+        final IBaseDataObject copy;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (IBaseDataObject) ois.readObject();
+        }
+
+        assertEquals("alternate view", new String(copy.getAlternateView("T1")), "Byte array view");
+        assertEquals("channel view", new String(copy.getAlternateView("T2")), "Channel view");
+        assertEquals(Collections.singleton("T2"), copy.getAlternateViewChannelFactories().keySet(), "Channel view restored as a channel");
+    }
+
     @Test
     void testWindowsShortName() {
         this.b.setFilename("c:\\Program Files\\Windows\\filename.txt");
@@ -1462,4 +1554,56 @@ class BaseDataObjectTest extends UnitTest {
         assertEquals("null;FOUR;  ", this.b.getStringParameter("A"));
     }
 
+    @Test
+    void testDataGeneration() throws Exception {
+        final BaseDataObject bdo = new BaseDataObject("data".getBytes(StandardCharsets.UTF_8), "name");
+        final long generation = bdo.getDataGeneration();
+        assertNotEquals(IBaseDataObject.UNTRACKED_DATA_GENERATION, generation);
+        assertEquals(generation, bdo.getDataGeneration(), "Unchanged data keeps its generation");
+        bdo.putParameter("A", "B");
+        bdo.pushCurrentForm("FORM");
+        assertEquals(generation, bdo.getDataGeneration(), "Only the data changes the generation");
+
+        // setting the same array again marks changes made to it directly
+        final byte[] data = bdo.data();
+        data[0] = 'D';
+        bdo.setData(data);
+        final long afterSet = bdo.getDataGeneration();
+        assertNotEquals(generation, afterSet);
+
+        bdo.setData(data, 0, 2);
+        final long afterCopy = bdo.getDataGeneration();
+        assertNotEquals(afterSet, afterCopy);
+
+        bdo.setChannelFactory(SeekableByteChannelHelper.memory(data));
+        final long afterChannel = bdo.getDataGeneration();
+        assertNotEquals(afterCopy, afterChannel);
+        assertEquals(afterChannel, bdo.getDataGeneration());
+
+        // generations are never shared between objects
+        final IBaseDataObject other = new BaseDataObject("data".getBytes(StandardCharsets.UTF_8), "name");
+        assertNotEquals(generation, other.getDataGeneration());
+        assertNotEquals(afterChannel, other.getDataGeneration());
+        final IBaseDataObject clone = bdo.clone();
+        assertNotEquals(afterChannel, clone.getDataGeneration());
+
+        // nor carried through serialization, since generations from another JVM may clash
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(other);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            final IBaseDataObject read = (IBaseDataObject) in.readObject();
+            assertNotEquals(IBaseDataObject.UNTRACKED_DATA_GENERATION, read.getDataGeneration());
+            assertNotEquals(other.getDataGeneration(), read.getDataGeneration());
+        }
+    }
+
+    @Test
+    void testDataGenerationWhenDataReplacedDirectly() {
+        final ExtendedDataObject bdo = new ExtendedDataObject("data".getBytes(StandardCharsets.UTF_8), "name");
+        final long generation = bdo.getDataGeneration();
+        bdo.theData = "other".getBytes(StandardCharsets.UTF_8);
+        assertNotEquals(generation, bdo.getDataGeneration(), "Replacing the array without a setter changes the generation");
+    }
 }
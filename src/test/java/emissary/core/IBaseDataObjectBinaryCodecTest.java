@@ -0,0 +1,365 @@
+package emissary.core;
+
+import emissary.core.channels.InMemoryChannelFactory;
+import emissary.test.core.junit5.UnitTest;
+import emissary.util.PayloadUtil;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IBaseDataObjectBinaryCodecTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(IBaseDataObjectBinaryCodecTest.class);
+
+    private static final DiffCheckConfiguration CHECK_ALL = DiffCheckConfiguration.configure().enableData().enableTimestamp().enableInternalId()
+            .enableTransformHistory().enableDetailedParameterDiff().build();
+
+    private static IBaseDataObject createIbdo(final String name, final int dataSize) {
+        final byte[] data = new byte[dataSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+
+        final IBaseDataObject ibdo = new BaseDataObject(data, name);
+        ibdo.enqueueCurrentForm("FORM_ONE");
+        ibdo.enqueueCurrentForm("FORM_TWO");
+        ibdo.setFileType("FILE_TYPE");
+        ibdo.appendTransformHistory("*.UNIXFILE.ID.http://localhost:8001/UnixFilePlace");
+        ibdo.appendTransformHistory("*.COORD.TRANSFORM.http://localhost:8001/CoordPlace", true);
+        ibdo.appendTransformHistory("FORM_ONE.TO_TEXT.TRANSFORM.http://localhost:8001/ToTextPlace");
+        ibdo.putParameter("STRING", "value");
+        ibdo.putParameter("LONG_STRING", new String(data, 0, Math.min(dataSize, 500), StandardCharsets.US_ASCII));
+        ibdo.putParameter("INTEGER", -42);
+        ibdo.putParameter("LONG", Long.MAX_VALUE);
+        ibdo.putParameter("DOUBLE", 3.25);
+        ibdo.putParameter("BOOLEAN", true);
+        ibdo.putParameter("MULTI", Arrays.asList("a", "b", "a"));
+        ibdo.putParameter("SERIALIZED", Instant.ofEpochSecond(1234567890L));
+        ibdo.addAlternateView("VIEW_BYTES", "bytes view".getBytes(StandardCharsets.UTF_8));
+        ibdo.setAlternateViewChannelFactory("VIEW_CHANNEL", InMemoryChannelFactory.create("channel view".getBytes(StandardCharsets.UTF_8)));
+        ibdo.setHeader("header".getBytes(StandardCharsets.UTF_8));
+        ibdo.setFooter("footer".getBytes(StandardCharsets.UTF_8));
+        ibdo.setHeaderEncoding("UTF-8");
+        ibdo.setFontEncoding("ASCII");
+        ibdo.setClassification("UNCLASSIFIED");
+        ibdo.addProcessingError("first error");
+        ibdo.addProcessingError("second error");
+        ibdo.setBroken("broken");
+        ibdo.setNumChildren(3);
+        ibdo.setNumSiblings(2);
+        ibdo.setBirthOrder(1);
+        ibdo.setPriority(-5);
+        ibdo.setCreationTimestamp(Instant.ofEpochSecond(1700000000L, 123456789));
+        ibdo.setOutputable(false);
+        ibdo.setId("id");
+        ibdo.setWorkBundleId("bundle");
+        ibdo.setTransactionId("transaction");
+        return ibdo;
+    }
+
+    private static List<IBaseDataObject> createFamily(final int size, final int dataSize) {
+        final List<IBaseDataObject> family = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            family.add(createIbdo("name" + (i == 0 ? "" : "-att-" + i), dataSize));
+        }
+        return family;
+    }
+
+    private static void assertNoDifferences(final List<IBaseDataObject> expected, final List<IBaseDataObject> actual) {
+        final List<String> differences = new ArrayList<>();
+        IBaseDataObjectDiffHelper.diff(expected, actual, "family", differences, CHECK_ALL);
+        assertEquals(Collections.emptyList(), differences);
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec();
+        final IBaseDataObject ibdo = createIbdo("name", 1000);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(ibdo, bytes);
+        final IBaseDataObject decoded = codec.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertNoDifferences(Collections.singletonList(ibdo), Collections.singletonList(decoded));
+        assertEquals(ibdo.getProcessingError(), decoded.getProcessingError());
+        assertEquals(ibdo.getBroken(), decoded.getBroken());
+        assertArrayEquals("channel view".getBytes(StandardCharsets.UTF_8), decoded.getAlternateView("VIEW_CHANNEL"));
+        assertEquals(Instant.ofEpochSecond(1234567890L), decoded.getParameter("SERIALIZED").get(0));
+        assertEquals(-42, decoded.getParameter("INTEGER").get(0));
+        assertEquals(Long.MAX_VALUE, decoded.getParameter("LONG").get(0));
+        assertEquals(Collections.emptyList(), codec.checkRoundTrip(Collections.singletonList(ibdo)));
+    }
+
+    @Test
+    void testEmpty() throws IOException {
+        final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec();
+        final IBaseDataObject ibdo = new BaseDataObject();
+
+        final IBaseDataObject decoded = codec.fromBytes(codec.toBytes(Collections.singletonList(ibdo))).get(0);
+
+        assertNull(decoded.getChannelFactory());
+        assertNull(decoded.getFilename());
+        assertNoDifferences(Collections.singletonList(ibdo), Collections.singletonList(decoded));
+        assertEquals(0, codec.fromBytes(codec.toBytes(Collections.emptyList())).size());
+    }
+
+    @Test
+    void testFamilyWithExtractedRecords() throws IOException {
+        final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec(true);
+        final List<IBaseDataObject> family = createFamily(5, 2000);
+        family.get(0).addExtractedRecord(createIbdo("record1", 10));
+        family.get(0).addExtractedRecord(createIbdo("record2", 20));
+
+        final List<IBaseDataObject> decoded = codec.fromBytes(codec.toBytes(family));
+
+        assertNoDifferences(family, decoded);
+        assertEquals(Collections.emptyList(), codec.checkRoundTrip(family));
+    }
+
+    @Test
+    void testRepeatedStringsAreShared() throws IOException {
+        final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec();
+        final int single = codec.toBytes(createFamily(1, 0)).length;
+        final int many = codec.toBytes(createFamily(10, 0)).length;
+
+        // Every object repeats the same forms, history and parameter names, so later objects are much smaller
+        assertTrue(many < single * 10 / 2, "Expected repeated strings to be shared: " + single + " vs " + many);
+
+        final List<IBaseDataObject> decoded = codec.fromBytes(codec.toBytes(createFamily(2, 0)));
+        assertSame(decoded.get(0).getAllCurrentForms().get(0), decoded.get(1).getAllCurrentForms().get(0));
+    }
+
+    @Test
+    void testCompression() throws IOException {
+        final List<IBaseDataObject> family = createFamily(3, 100_000);
+        final byte[] plain = new IBaseDataObjectBinaryCodec(false).toBytes(family);
+        final byte[] compressed = new IBaseDataObjectBinaryCodec(true).toBytes(family);
+
+        assertTrue(compressed.length < plain.length / 10);
+        // compression is recorded in the stream so any codec can read it
+        assertNoDifferences(family, new IBaseDataObjectBinaryCodec(false).fromBytes(compressed));
+    }
+
+    @Test
+    void testSpill(@TempDir final Path tempDir) throws IOException {
+        final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec(false, tempDir, 100);
+        final IBaseDataObject ibdo = createIbdo("name", 1000);
+
+        final IBaseDataObject decoded = codec.read(new ByteArrayInputStream(codec.toBytes(Collections.singletonList(ibdo))));
+
+        assertEquals(BaseDataObject.DataState.CHANNEL_ONLY, ((BaseDataObject) decoded).getDataState());
+        assertNoDifferences(Collections.singletonList(ibdo), Collections.singletonList(decoded));
+        assertArrayEquals(ibdo.data(), decoded.data());
+    }
+
+    @Test
+    void testSpillDeletedWhenReleased(@TempDir final Path tempDir) throws IOException, InterruptedException {
+        final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec(false, tempDir, 100);
+        IBaseDataObject decoded = codec.read(new ByteArrayInputStream(codec.toBytes(Collections.singletonList(createIbdo("name", 1000)))));
+        assertEquals(1000, decoded.getChannelSize());
+        assertEquals(1, countFiles(tempDir));
+
+        decoded = null;
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (countFiles(tempDir) > 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertEquals(0, countFiles(tempDir), "Spill file is deleted once the object is released");
+    }
+
+    private static long countFiles(final Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void testUnknownFieldsSkipped() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(IBaseDataObjectBinaryCodec.MAGIC);
+        out.writeByte(IBaseDataObjectBinaryCodec.VERSION);
+        out.writeByte(0);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 1);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 1000);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 3);
+        out.write(new byte[] {1, 2, 3});
+        IBaseDataObjectBinaryCodec.writeVarLong(out, IBaseDataObjectBinaryCodec.STRING);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 4);
+        out.write("name".getBytes(StandardCharsets.UTF_8));
+        IBaseDataObjectBinaryCodec.writeVarLong(out, IBaseDataObjectBinaryCodec.FILENAME);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 1);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 0);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, IBaseDataObjectBinaryCodec.END);
+
+        final IBaseDataObject decoded = new IBaseDataObjectBinaryCodec().read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals("name", decoded.getFilename());
+    }
+
+    @Test
+    void testSkippedRecordsKeepStrings() throws IOException {
+        final List<IBaseDataObject> family = createFamily(2, 10);
+        final IBaseDataObject record = createIbdo("record", 10);
+        record.enqueueCurrentForm("RECORD_FORM");
+        family.get(0).addExtractedRecord(record);
+        family.get(1).enqueueCurrentForm("RECORD_FORM");
+        final byte[] bytes = new IBaseDataObjectBinaryCodec().toBytes(family);
+
+        // Renumber the record field to one a reader does not know, so it is skipped
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(6);
+        IBaseDataObjectBinaryCodec.readVarLong(in);
+        int renumbered = 0;
+        while (true) {
+            final int position = bytes.length - in.available();
+            final long tag = IBaseDataObjectBinaryCodec.readVarLong(in);
+            if (tag == IBaseDataObjectBinaryCodec.END) {
+                break;
+            }
+            if (tag == IBaseDataObjectBinaryCodec.EXTRACTED_RECORD) {
+                bytes[position] = 99;
+                renumbered++;
+            }
+            in.skipBytes((int) IBaseDataObjectBinaryCodec.readVarLong(in));
+        }
+        assertEquals(1, renumbered);
+
+        final List<IBaseDataObject> decoded = new IBaseDataObjectBinaryCodec().fromBytes(bytes);
+        assertEquals(0, decoded.get(0).getExtractedRecordCount());
+        assertEquals(family.get(1).getAllCurrentForms(), decoded.get(1).getAllCurrentForms());
+    }
+
+    @Test
+    void testSerializedValuesFiltered() throws IOException {
+        final IBaseDataObject ibdo = createIbdo("name", 10);
+        ibdo.putParameter("UUID_VALUE", UUID.fromString("00000000-0000-0000-0000-000000000001"));
+        ibdo.putParameter("ERROR_VALUE", new IllegalStateException("boom"));
+        final IBaseDataObject decoded = new IBaseDataObjectBinaryCodec().fromBytes(new IBaseDataObjectBinaryCodec().toBytes(
+                Collections.singletonList(ibdo))).get(0);
+        // only values of the allowed packages are serialized
+        assertEquals("00000000-0000-0000-0000-000000000001", decoded.getParameter("UUID_VALUE").get(0));
+        // an allowed class holding one that is not is written as a string too
+        assertEquals("java.lang.IllegalStateException: boom", decoded.getParameter("ERROR_VALUE").get(0));
+        assertEquals(Instant.ofEpochSecond(1234567890L), decoded.getParameter("SERIALIZED").get(0));
+
+        final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+            oos.writeObject(new ArrayList<>(Arrays.asList("a", "b")));
+        }
+        final ByteArrayOutputStream parameters = new ByteArrayOutputStream();
+        final DataOutputStream field = new DataOutputStream(parameters);
+        IBaseDataObjectBinaryCodec.writeVarLong(field, 1);
+        IBaseDataObjectBinaryCodec.writeVarLong(field, 0);
+        IBaseDataObjectBinaryCodec.writeVarLong(field, 1);
+        field.writeByte(IBaseDataObjectBinaryCodec.VALUE_SERIALIZED);
+        IBaseDataObjectBinaryCodec.writeVarLong(field, serialized.size());
+        serialized.writeTo(field);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(IBaseDataObjectBinaryCodec.MAGIC);
+        out.writeByte(IBaseDataObjectBinaryCodec.VERSION);
+        out.writeByte(0);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 1);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, IBaseDataObjectBinaryCodec.STRING);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, 3);
+        out.write("KEY".getBytes(StandardCharsets.UTF_8));
+        IBaseDataObjectBinaryCodec.writeVarLong(out, IBaseDataObjectBinaryCodec.PARAMETERS);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, parameters.size());
+        parameters.writeTo(out);
+        IBaseDataObjectBinaryCodec.writeVarLong(out, IBaseDataObjectBinaryCodec.END);
+
+        assertThrows(IOException.class, () -> new IBaseDataObjectBinaryCodec().fromBytes(bytes.toByteArray()));
+    }
+
+    @Test
+    void testInvalidStreams() throws IOException {
+        final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec();
+        final byte[] valid = codec.toBytes(Collections.singletonList(createIbdo("name", 10)));
+
+        final byte[] badMagic = valid.clone();
+        badMagic[0] = 0;
+        assertThrows(IOException.class, () -> codec.fromBytes(badMagic));
+
+        final byte[] newerVersion = valid.clone();
+        newerVersion[4] = IBaseDataObjectBinaryCodec.VERSION + 1;
+        assertThrows(IOException.class, () -> codec.fromBytes(newerVersion));
+
+        final byte[] truncated = Arrays.copyOf(valid, valid.length / 2);
+        assertThrows(IOException.class, () -> codec.fromBytes(truncated));
+
+        assertThrows(IOException.class, () -> codec.read(new ByteArrayInputStream(codec.toBytes(createFamily(2, 10)))));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final List<IBaseDataObject> family = createFamily(50, 64 * 1024);
+        final int iterations = 20;
+
+        for (final boolean compress : new boolean[] {false, true}) {
+            final IBaseDataObjectBinaryCodec codec = new IBaseDataObjectBinaryCodec(compress);
+            long size = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                final byte[] bytes = codec.toBytes(family);
+                size = bytes.length;
+                codec.fromBytes(bytes);
+            }
+            report(compress ? "binary+deflate" : "binary", size, iterations, System.nanoTime() - start);
+        }
+
+        long size = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(new ArrayList<>(family));
+            }
+            size = bytes.size();
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                ois.readObject();
+            }
+        }
+        report("java serialization", size, iterations, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            size = PayloadUtil.toXmlString(family).length();
+        }
+        report("PayloadUtil.toXml (write only)", size, iterations, System.nanoTime() - start);
+    }
+
+    private static void report(final String name, final long size, final int iterations, final long nanos) {
+        logger.info("{}: {} bytes per family, {} ms per round trip", name, size, nanos / iterations / 1_000_000.0);
+    }
+}
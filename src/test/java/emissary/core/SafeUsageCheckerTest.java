@@ -4,6 +4,7 @@ import emissary.config.ServiceConfigGuide;
 import emissary.test.core.junit5.LogbackTester;
 import emissary.test.core.junit5.UnitTest;
 
+import ch.qos.logback.classic.Level;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
@@ -52,4 +53,34 @@ class SafeUsageCheckerTest extends UnitTest {
             logbackTester.checkLogList(Collections.emptyList());
         }
     }
+
+    @Test
+    void testChangeBeforeArrayHandedOutAgain() throws IOException {
+        final ServiceConfigGuide scg = new ServiceConfigGuide();
+
+        scg.addEntry(SafeUsageChecker.ENABLED_KEY, Boolean.toString(true));
+
+        final SafeUsageChecker suc = new SafeUsageChecker(scg);
+        final byte[] bytes = new byte[10];
+
+        suc.resetCacheThenRecordSnapshot(bytes);
+        Arrays.fill(bytes, (byte) 10);
+        // handing the changed array out again keeps the first snapshot
+        suc.recordSnapshot(bytes);
+
+        try (LogbackTester logbackTester = new LogbackTester(SafeUsageChecker.class.getName())) {
+            suc.checkForUnsafeDataChanges();
+            logbackTester.checkLogList(Collections.singletonList(
+                    new LogbackTester.SimplifiedLogEvent(Level.WARN, SafeUsageChecker.UNSAFE_MODIFICATION_DETECTED, null)));
+        }
+
+        // once set again, the array has a new snapshot
+        suc.resetCacheThenRecordSnapshot(bytes);
+        suc.recordSnapshot(bytes);
+
+        try (LogbackTester logbackTester = new LogbackTester(SafeUsageChecker.class.getName())) {
+            suc.checkForUnsafeDataChanges();
+            logbackTester.checkLogList(Collections.emptyList());
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package emissary.core.channels;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteBufferChannelFactoryTest extends UnitTest {
+
+    @Test
+    void testCannotCreateFactoryWithNullBuffer() {
+        assertThrows(NullPointerException.class, () -> ByteBufferChannelFactory.create(null));
+    }
+
+    @Test
+    void testReadsHeapAndDirectBuffers() throws IOException {
+        final byte[] bytes = new byte[20];
+        new Random(0).nextBytes(bytes);
+
+        ChannelTestHelper.checkByteArrayAgainstSbc(bytes, ByteBufferChannelFactory.create(ByteBuffer.wrap(bytes)));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        ChannelTestHelper.checkByteArrayAgainstSbc(bytes, ByteBufferChannelFactory.create(direct));
+    }
+
+    @Test
+    void testUsesRemainingBytesOnly() throws IOException {
+        final ByteBuffer source = ByteBuffer.wrap("0123456789".getBytes(StandardCharsets.US_ASCII));
+        source.position(2).limit(7);
+
+        final SeekableByteChannelFactory sbcf = ByteBufferChannelFactory.create(source);
+
+        ChannelTestHelper.checkByteArrayAgainstSbc("23456".getBytes(StandardCharsets.US_ASCII), sbcf);
+        assertEquals(2, source.position(), "Source buffer position should not change");
+        assertEquals(7, source.limit(), "Source buffer limit should not change");
+    }
+
+    @Test
+    void testImmutability() throws IOException {
+        final SeekableByteChannelFactory sbcf = ByteBufferChannelFactory.create(ByteBuffer.wrap("Test data".getBytes(StandardCharsets.US_ASCII)));
+        try (SeekableByteChannel sbc = sbcf.create()) {
+            final ByteBuffer buff = ByteBuffer.wrap("New data".getBytes(StandardCharsets.US_ASCII));
+            assertThrows(NonWritableChannelException.class, () -> sbc.write(buff));
+            assertThrows(NonWritableChannelException.class, () -> sbc.truncate(5L));
+        }
+
+        final Optional<ByteBuffer> buffer = SeekableByteChannelHelper.byteBuffer(sbcf);
+        assertTrue(buffer.isPresent());
+        assertTrue(buffer.get().isReadOnly());
+        assertEquals(9, buffer.get().remaining());
+    }
+
+    @Test
+    void testByteBufferOnlyForBufferBackedFactories() {
+        assertTrue(SeekableByteChannelHelper.byteBuffer(InMemoryChannelFactory.create(new byte[3])).isPresent());
+        assertFalse(SeekableByteChannelHelper.byteBuffer(FillChannelFactory.create(3, (byte) 0)).isPresent());
+    }
+}
@@ -0,0 +1,106 @@
+package emissary.core.channels;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DataViewTest extends UnitTest {
+
+    private static final byte[] BYTES = new byte[1000];
+
+    static {
+        new Random(0).nextBytes(BYTES);
+    }
+
+    private static List<DataView> views() {
+        return List.of(DataView.of(InMemoryChannelFactory.create(BYTES)),
+                DataView.of(InputStreamChannelFactory.create(BYTES.length, () -> new ByteArrayInputStream(BYTES))));
+    }
+
+    @Test
+    void testEmpty() throws IOException {
+        final DataView view = DataView.of(null);
+
+        assertEquals(0, view.size());
+        assertArrayEquals(new byte[0], view.readPrefix(10));
+        view.forEachChunk(10, (chunk, position) -> {
+            throw new IllegalStateException("No chunks expected");
+        });
+    }
+
+    @Test
+    void testReadPrefixAndRange() throws IOException {
+        for (final DataView view : views()) {
+            assertEquals(BYTES.length, view.size());
+            assertArrayEquals(Arrays.copyOf(BYTES, 10), view.readPrefix(10));
+            assertArrayEquals(BYTES, view.readPrefix(BYTES.length * 2));
+            assertArrayEquals(Arrays.copyOfRange(BYTES, 500, 520), view.readRange(500, 20));
+            assertArrayEquals(Arrays.copyOfRange(BYTES, 990, 1000), view.readRange(990, 20));
+            assertArrayEquals(new byte[0], view.readRange(2000, 20));
+            assertArrayEquals(new byte[0], view.readRange(0, 0));
+            assertThrows(IllegalArgumentException.class, () -> view.readRange(-1, 1));
+            assertThrows(IllegalArgumentException.class, () -> view.readRange(0, -1));
+        }
+    }
+
+    @Test
+    void testForEachChunk() throws IOException {
+        for (final DataView view : views()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final List<Long> positions = new ArrayList<>();
+
+            view.forEachChunk(300, (chunk, position) -> {
+                assertTrue(chunk.isReadOnly());
+                positions.add(position);
+                final byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                out.write(bytes);
+                return true;
+            });
+
+            assertEquals(List.of(0L, 300L, 600L, 900L), positions);
+            assertArrayEquals(BYTES, out.toByteArray());
+        }
+    }
+
+    @Test
+    void testForEachChunkStopsEarly() throws IOException {
+        for (final DataView view : views()) {
+            final List<Long> positions = new ArrayList<>();
+
+            view.forEachChunk(100, (chunk, position) -> {
+                positions.add(position);
+                return position < 200;
+            });
+
+            assertEquals(List.of(0L, 100L, 200L), positions);
+        }
+    }
+
+    @Test
+    void testDirectBuffer() {
+        assertTrue(DataView.of(InMemoryChannelFactory.create(BYTES)).directBuffer().isPresent());
+        assertTrue(DataView.of(SeekableByteChannelHelper.buffer(ByteBuffer.wrap(BYTES))).directBuffer().isPresent());
+        assertFalse(DataView.of(FillChannelFactory.create(10, (byte) 0)).directBuffer().isPresent());
+
+        final ByteBuffer buffer = DataView.of(InMemoryChannelFactory.create(BYTES)).directBuffer().orElseThrow();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(BYTES.length, buffer.remaining());
+        assertEquals(BYTES[0], buffer.get(0));
+    }
+}
@@ -1,24 +1,39 @@
 package emissary.kff;
 
 import emissary.core.channels.FillChannelFactory;
+import emissary.core.channels.InMemoryChannelFactory;
 import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class ChecksumCalculatorTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(ChecksumCalculatorTest.class);
+
+    private static final String[] ALL = {"CRC32", "MD5", "SHA-1", "SHA-256", "SSDEEP", "CHUNKS"};
 
     static final byte[] DATA = "This is a test".getBytes();
 
@@ -168,4 +183,201 @@ class ChecksumCalculatorTest extends UnitTest {
             assertArrayEquals(crByte.getHash("SHA-256"), crSbcf.getHash("SHA-256"), "SHA-256's do not match!");
         }
     }
+
+    private static byte[] randomText(Random random, int size) {
+        // text with runs of repeats, so ssdeep has to shrink its first guess at a block size for some sizes
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (random.nextInt(4) == 0 && i > 0 ? data[i - 1] : 'a' + random.nextInt(random.nextInt(26) + 1));
+        }
+        return data;
+    }
+
+    private static void assertSameResults(ChecksumResults expected, ChecksumResults actual, String message) {
+        assertEquals(expected.getResultsPresent(), actual.getResultsPresent(), message);
+        assertEquals(expected.getCrc(), actual.getCrc(), message);
+        assertEquals(expected.getSsdeep(), actual.getSsdeep(), message);
+        assertEquals(expected.getHashString("CHUNKS"), actual.getHashString("CHUNKS"), message);
+        for (String alg : List.of("MD5", "SHA-1", "SHA-256")) {
+            assertArrayEquals(expected.getHash(alg), actual.getHash(alg), message + " " + alg);
+        }
+    }
+
+    @Test
+    void testSingleReadMatchesByteArray() throws Exception {
+        final ChecksumCalculator cc = new ChecksumCalculator(ALL);
+        final Random random = new Random(1);
+        final int chunk = ChecksumCalculator.CHUNK_SIZE;
+        for (int size : new int[] {0, 1, 7, 4096, 100_000, chunk - 1, chunk, chunk + 1, 3 * chunk + 17}) {
+            final byte[] data = randomText(random, size);
+            final ChecksumResults expected = cc.digest(data);
+
+            cc.setParallelThreshold(Long.MAX_VALUE);
+            assertSameResults(expected, cc.digest(InMemoryChannelFactory.create(data)), "in turn, size " + size);
+
+            cc.setParallelThreshold(0);
+            assertSameResults(expected, cc.digest(InMemoryChannelFactory.create(data)), "in parallel, size " + size);
+        }
+    }
+
+    @Test
+    void testReadsOnce() throws Exception {
+        final byte[] data = randomText(new Random(2), 5 * ChecksumCalculator.CHUNK_SIZE / 2);
+        final SeekableByteChannelFactory sbcf = InMemoryChannelFactory.create(data);
+        final AtomicInteger opened = new AtomicInteger();
+        final SeekableByteChannelFactory counting = () -> {
+            opened.incrementAndGet();
+            return sbcf.create();
+        };
+
+        final ChecksumCalculator cc = new ChecksumCalculator(ALL);
+        cc.digest(counting);
+        assertEquals(1, opened.get(), "Channel opened once for every hasher");
+        cc.setParallelThreshold(0);
+        cc.digest(counting);
+        assertEquals(2, opened.get(), "Channel opened once for every hasher");
+    }
+
+    @Test
+    void testHashesInTurnWhenThreadsBusy() throws Exception {
+        final byte[] data = randomText(new Random(5), 3 * ChecksumCalculator.CHUNK_SIZE / 2);
+        final ChecksumCalculator cc = new ChecksumCalculator(ALL);
+        final ChecksumResults expected = cc.digest(data);
+        cc.setParallelThreshold(0);
+
+        ChecksumCalculator.hashThreads.acquire(ChecksumCalculator.HASH_THREADS);
+        try {
+            assertSameResults(expected, cc.digest(InMemoryChannelFactory.create(data)), "All hash threads busy");
+        } finally {
+            ChecksumCalculator.hashThreads.release(ChecksumCalculator.HASH_THREADS);
+        }
+        assertEquals(ChecksumCalculator.HASH_THREADS, ChecksumCalculator.hashThreads.availablePermits(), "Hash threads given back");
+    }
+
+    @Test
+    void testUnreadableChannel() throws Exception {
+        final ChecksumCalculator cc = new ChecksumCalculator(ALL);
+        final SeekableByteChannelFactory broken = () -> {
+            throw new IllegalStateException("Cannot open");
+        };
+        assertThrows(IllegalStateException.class, () -> cc.digest(broken));
+
+        final byte[] data = randomText(new Random(3), 1000);
+        final ChecksumResults expected = cc.digest(data);
+        assertSameResults(expected, cc.digest(InMemoryChannelFactory.create(data)), "Usable after a failure");
+    }
+
+    /**
+     * A channel that fails once it has read past a point
+     */
+    private static final class FailingChannel implements SeekableByteChannel {
+        private final SeekableByteChannel channel;
+        private final long failAt;
+
+        FailingChannel(SeekableByteChannel channel, long failAt) {
+            this.channel = channel;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (channel.position() >= failAt) {
+                throw new IOException("Cannot read past " + failAt);
+            }
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @Test
+    void testReadFailureInParallel() throws Exception {
+        final byte[] data = randomText(new Random(6), 4 * ChecksumCalculator.CHUNK_SIZE);
+        final SeekableByteChannelFactory sbcf = InMemoryChannelFactory.create(data);
+        final ChecksumCalculator cc = new ChecksumCalculator(ALL);
+        final ChecksumResults expected = cc.digest(data);
+        cc.setParallelThreshold(0);
+
+        for (int i = 0; i < 20; i++) {
+            final ChecksumResults failed = cc.digest(() -> new FailingChannel(sbcf.create(), 2L * ChecksumCalculator.CHUNK_SIZE));
+            assertTrue(failed.getResultsPresent().isEmpty(), "No results for data that could not be read");
+            assertEquals(ChecksumCalculator.HASH_THREADS, ChecksumCalculator.hashThreads.availablePermits(), "Hash threads given back");
+            // the buffers given back were not still being hashed
+            assertSameResults(expected, cc.digest(sbcf), "Usable after a read failure");
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final Random random = new Random(4);
+        for (int size : new int[] {4 * 1024, 64 * 1024, 1024 * 1024, 16 * 1024 * 1024, 128 * 1024 * 1024}) {
+            final SeekableByteChannelFactory sbcf = InMemoryChannelFactory.create(randomText(random, size));
+            final int rounds = Math.max(3, (256 * 1024 * 1024) / size);
+            for (int round = 0; round < 2; round++) {
+                // what each digest cost before: one read of the data per hasher
+                final long perHasher = time("re-read", size, rounds, () -> {
+                    for (String alg : ALL) {
+                        new ChecksumCalculator(new String[] {alg}).digest(sbcf);
+                    }
+                });
+                final ChecksumCalculator cc = new ChecksumCalculator(ALL);
+                cc.setParallelThreshold(Long.MAX_VALUE);
+                final long inTurn = time("single read", size, rounds, () -> cc.digest(sbcf));
+                cc.setParallelThreshold(0);
+                final long parallel = time("parallel", size, rounds, () -> cc.digest(sbcf));
+                logger.info("{} bytes: single read {}x, parallel {}x faster than re-reading", size, (double) perHasher / inTurn,
+                        (double) perHasher / parallel);
+            }
+        }
+    }
+
+    private interface Digest {
+        void run() throws Exception;
+    }
+
+    private static long time(String name, int size, int rounds, Digest digest) throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            digest.run();
+        }
+        final long elapsed = System.nanoTime() - start;
+        logger.info("{}: {} bytes x {} in {} ms, {} MB/s", name, size, rounds, elapsed / 1_000_000,
+                ((double) size * rounds / (1 << 20)) / (elapsed / 1e9));
+        return elapsed;
+    }
 }
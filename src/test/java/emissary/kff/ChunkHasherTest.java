@@ -0,0 +1,155 @@
+package emissary.kff;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static emissary.kff.ChunkHasher.DEFAULT_AVERAGE_SIZE;
+import static emissary.kff.ChunkHasher.DEFAULT_MAX_SIZE;
+import static emissary.kff.ChunkHasher.DEFAULT_MIN_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkHasherTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkHasherTest.class);
+
+    private static byte[] randomData(Random random, int size) {
+        final byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static List<Integer> lengths(List<ChunkHasher.Chunk> chunks) {
+        final List<Integer> lengths = new ArrayList<>();
+        for (ChunkHasher.Chunk chunk : chunks) {
+            lengths.add(chunk.getLength());
+        }
+        return lengths;
+    }
+
+    private static Set<String> hashes(List<ChunkHasher.Chunk> chunks) {
+        final Set<String> hashes = new HashSet<>();
+        for (ChunkHasher.Chunk chunk : chunks) {
+            hashes.add(Arrays.toString(chunk.getHash()));
+        }
+        return hashes;
+    }
+
+    @Test
+    void testChunks() throws Exception {
+        final byte[] data = randomData(new Random(1), 4 * 1024 * 1024);
+        final List<ChunkHasher.Chunk> chunks = ChunkHasher.chunk(data);
+        long offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            final ChunkHasher.Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.getOffset());
+            assertTrue(chunk.getLength() <= DEFAULT_MAX_SIZE, "chunk " + i);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.getLength() >= DEFAULT_MIN_SIZE, "chunk " + i);
+            }
+            final MessageDigest sha1 = MessageDigest.getInstance(ChunkHasher.ALGORITHM);
+            sha1.update(data, (int) chunk.getOffset(), chunk.getLength());
+            assertArrayEquals(sha1.digest(), chunk.getHash());
+            offset = chunk.getEnd();
+        }
+        assertEquals(data.length, offset);
+        final long average = data.length / chunks.size();
+        assertTrue(average > DEFAULT_AVERAGE_SIZE / 2 && average < DEFAULT_AVERAGE_SIZE * 2, "average " + average);
+    }
+
+    @Test
+    void testPiecesMatchWhole() {
+        final Random random = new Random(2);
+        final byte[] data = randomData(random, 3 * 1024 * 1024 + 17);
+        final List<ChunkHasher.Chunk> whole = ChunkHasher.chunk(data);
+        for (int round = 0; round < 5; round++) {
+            final ChunkHasher hasher = new ChunkHasher();
+            int offset = 0;
+            while (offset < data.length) {
+                // single bytes as well as pieces longer than a chunk
+                final int length = Math.min(data.length - offset, round == 0 ? 1 : 1 + random.nextInt(round * 100_000));
+                hasher.update(data, offset, length);
+                offset += length;
+            }
+            assertEquals(ChunkHasher.format(whole), ChunkHasher.format(hasher.finish()), "round " + round);
+        }
+    }
+
+    @Test
+    void testEditOnlyChangesNearbyChunks() {
+        final Random random = new Random(3);
+        final byte[] data = randomData(random, 4 * 1024 * 1024);
+        final List<ChunkHasher.Chunk> original = ChunkHasher.chunk(data);
+
+        // a few bytes inserted in the middle and more appended
+        final byte[] edited = new byte[data.length + 10 + 100_000];
+        System.arraycopy(data, 0, edited, 0, data.length / 2);
+        System.arraycopy(data, data.length / 2, edited, data.length / 2 + 10, data.length - data.length / 2);
+        final Set<String> shared = hashes(ChunkHasher.chunk(edited));
+        shared.retainAll(hashes(original));
+        assertTrue(shared.size() >= original.size() - 3, shared.size() + " of " + original.size() + " chunks unchanged");
+    }
+
+    @Test
+    void testSmallAndUniformData() {
+        assertEquals(0, ChunkHasher.chunk(new byte[0]).size());
+        assertEquals(List.of(1000), lengths(ChunkHasher.chunk(new byte[1000])));
+        // nothing to cut on, so every chunk is as long as it can be
+        final List<Integer> lengths = lengths(ChunkHasher.chunk(new byte[3 * DEFAULT_MAX_SIZE + 5]));
+        assertEquals(List.of(DEFAULT_MAX_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_SIZE, 5), lengths);
+    }
+
+    @Test
+    void testBoundariesUnchanged() {
+        // known chunk hashes are only useful as long as the same data is cut in the same places
+        final List<Integer> lengths = lengths(ChunkHasher.chunk(randomData(new Random(42), 1024 * 1024)));
+        assertEquals(List.of(73606, 86855, 66375, 103194, 89615, 49506, 125216, 72743, 59673, 87318, 83686, 66019, 83070, 1700), lengths);
+    }
+
+    @Test
+    void testFormat() {
+        final List<ChunkHasher.Chunk> chunks = ChunkHasher.chunk(randomData(new Random(4), 500_000));
+        final String formatted = ChunkHasher.format(chunks);
+        final List<ChunkHasher.Chunk> parsed = ChunkHasher.parse(formatted);
+        assertEquals(chunks.size(), parsed.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(chunks.get(i).getOffset(), parsed.get(i).getOffset());
+            assertEquals(chunks.get(i).getLength(), parsed.get(i).getLength());
+            assertArrayEquals(chunks.get(i).getHash(), parsed.get(i).getHash());
+        }
+        assertEquals(0, ChunkHasher.parse("").size());
+        assertThrows(IllegalArgumentException.class, () -> ChunkHasher.parse("1234:abcd"));
+        assertThrows(IllegalArgumentException.class, () -> new ChunkHasher(1024, 3000, 8192));
+        assertThrows(IllegalArgumentException.class, () -> new ChunkHasher(8192, 4096, 16384));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final byte[] data = randomData(new Random(5), 64 * 1024 * 1024);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            final int chunks = ChunkHasher.chunk(data).size();
+            final double chunked = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            MessageDigest.getInstance(ChunkHasher.ALGORITHM).digest(data);
+            final double whole = (System.nanoTime() - start) / 1e9;
+            logger.info("{} chunks at {} MB/s, SHA-1 of the whole at {} MB/s", chunks, (long) (data.length / chunked / 1e6),
+                    (long) (data.length / whole / 1e6));
+        }
+    }
+}
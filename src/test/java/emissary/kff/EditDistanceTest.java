@@ -0,0 +1,198 @@
+package emissary.kff;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditDistanceTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(EditDistanceTest.class);
+
+    /**
+     * The whole matrix with the ssdeep costs: 1 to insert or delete, 3 to change and 5 to swap
+     */
+    private static int reference(byte[] from, int fromLen, byte[] to, int toLen) {
+        final int[][] d = new int[toLen + 1][fromLen + 1];
+        for (int col = 0; col <= fromLen; col++) {
+            d[0][col] = col;
+        }
+        for (int row = 1; row <= toLen; row++) {
+            d[row][0] = row;
+            for (int col = 1; col <= fromLen; col++) {
+                d[row][col] = Math.min(d[row - 1][col - 1] + (from[col - 1] == to[row - 1] ? 0 : 3), Math.min(d[row - 1][col], d[row][col - 1]) + 1);
+                if (row > 1 && col > 1 && from[col - 1] == to[row - 2] && from[col - 2] == to[row - 1]) {
+                    d[row][col] = Math.min(d[row][col], d[row - 2][col - 2] + 5);
+                }
+            }
+        }
+        return d[toLen][fromLen];
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int distance(String from, String to) {
+        return EditDistance.calculateEditDistance(bytes(from), from.length(), bytes(to), to.length());
+    }
+
+    /**
+     * A random string over the first few characters of the base64 alphabet, so pairs have plenty in common
+     */
+    private static byte[] randomString(Random random, int length, int alphabet) {
+        final byte[] s = new byte[length];
+        for (int i = 0; i < length; i++) {
+            s[i] = (byte) "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".charAt(random.nextInt(alphabet));
+        }
+        return s;
+    }
+
+    @Test
+    void testKnownDistances() {
+        assertEquals(0, distance("abcdef", "abcdef"));
+        assertEquals(4, distance("one", "two"));
+        assertEquals(5, distance("kitten", "sitting"));
+        assertEquals(2, distance("ab", "ba"));
+        assertEquals(3, distance("", "abc"));
+        assertEquals(3, distance("abc", ""));
+        assertEquals(3, EditDistance.calculateEditDistance(null, 0, bytes("abc"), 3));
+        assertEquals(2, EditDistance.calculateEditDistance(bytes("ab"), 2, null, 0));
+        assertEquals(0, EditDistance.calculateEditDistance(null, 0, null, 0));
+    }
+
+    @Test
+    void testMatchesReference() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 50_000; i++) {
+            final byte[] from = randomString(random, random.nextInt(70), 2 + random.nextInt(63));
+            final byte[] to = randomString(random, random.nextInt(70), 2 + random.nextInt(63));
+            // only part of each array may be compared
+            final int fromLen = random.nextInt(4) == 0 ? random.nextInt(from.length + 1) : from.length;
+            final int toLen = random.nextInt(4) == 0 ? random.nextInt(to.length + 1) : to.length;
+            final int expected = reference(from, fromLen, to, toLen);
+            assertEquals(expected, EditDistance.calculateEditDistance(from, fromLen, to, toLen));
+            if (fromLen > 0 && toLen > 0) {
+                assertEquals(expected, EditDistance.dynamicProgramming(from, fromLen, to, toLen));
+            }
+        }
+    }
+
+    @Test
+    void testFullWords() {
+        final Random random = new Random(2);
+        for (int i = 0; i < 10_000; i++) {
+            final byte[] from = randomString(random, EditDistance.MAX_BIT_PARALLEL_LENGTH, 4);
+            final byte[] to = randomString(random, EditDistance.MAX_BIT_PARALLEL_LENGTH - random.nextInt(2), 4);
+            assertEquals(reference(from, from.length, to, to.length), EditDistance.calculateEditDistance(from, from.length, to, to.length));
+        }
+    }
+
+    @Test
+    void testLongStrings() {
+        final Random random = new Random(3);
+        final byte[] from = randomString(random, 300, 64);
+        assertEquals(0, EditDistance.calculateEditDistance(from, from.length, from.clone(), from.length));
+        final byte[] edited = from.clone();
+        edited[100] = '*';
+        edited[200] = '*';
+        assertEquals(4, EditDistance.calculateEditDistance(from, from.length, edited, edited.length));
+        // far apart strings stop being compared once every distance in a row is over the threshold
+        final byte[] other = randomString(random, 300, 2);
+        final int distance = EditDistance.calculateEditDistance(from, from.length, other, other.length);
+        assertEquals(EditDistance.dynamicProgramming(from, from.length, other, other.length), distance);
+        assertTrue(distance > 100 && distance < reference(from, from.length, other, other.length));
+    }
+
+    @Test
+    void testConcurrent() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                final int seed = t;
+                results.add(executor.submit(() -> {
+                    final Random random = new Random(seed);
+                    int wrong = 0;
+                    for (int i = 0; i < 5000; i++) {
+                        final byte[] from = randomString(random, 1 + random.nextInt(100), 8);
+                        final byte[] to = randomString(random, 1 + random.nextInt(100), 8);
+                        final int expected = from.length > EditDistance.MAX_BIT_PARALLEL_LENGTH || to.length > EditDistance.MAX_BIT_PARALLEL_LENGTH
+                                ? EditDistance.dynamicProgramming(from, from.length, to, to.length)
+                                : reference(from, from.length, to, to.length);
+                        if (EditDistance.calculateEditDistance(from, from.length, to, to.length) != expected) {
+                            wrong++;
+                        }
+                    }
+                    return wrong;
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(0, (int) result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testSsdeepScoresRepeatable() {
+        final Ssdeep ssdeep = new Ssdeep();
+        final SpamSumSignature s1 =
+                new SpamSumSignature("96:yu7S12d+QNsvJoN06+7BvJBbZ5EgRzuPkz/ITCtljibxI4UpavVCj5xUnh83BDWN:y1QGvbrtJxPzuPkkMibls1Uh8RDWP3V");
+        final SpamSumSignature s2 =
+                new SpamSumSignature("96:yu7SW2d+QNsfJow2f+7BvJBbZ5E7RzuPkz/ITgtlji+xq4UpavVC15xUnh83BDRN:yaQGfqMtJxKzuPkkCi+ns7Uh8RDRP3V");
+        final int score = ssdeep.compare(s1, s2);
+        final Random random = new Random(4);
+        for (int i = 0; i < 100; i++) {
+            final byte[] from = randomString(random, random.nextInt(64), 64);
+            EditDistance.calculateEditDistance(from, from.length, from, random.nextInt(from.length + 1));
+            assertEquals(score, ssdeep.compare(s1, s2));
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() {
+        final Random random = new Random(5);
+        final List<byte[]> strings = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            strings.add(randomString(random, 40 + random.nextInt(25), 64));
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long total = 0;
+            for (byte[] from : strings) {
+                for (byte[] to : strings) {
+                    total += EditDistance.calculateEditDistance(from, from.length, to, to.length);
+                }
+            }
+            final double bitParallel = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            long dpTotal = 0;
+            for (byte[] from : strings) {
+                for (byte[] to : strings) {
+                    dpTotal += EditDistance.dynamicProgramming(from, from.length, to, to.length);
+                }
+            }
+            final double dynamicProgramming = (System.nanoTime() - start) / 1e9;
+            assertEquals(dpTotal, total);
+            final long pairs = (long) strings.size() * strings.size();
+            logger.info("{} pairs: bit-parallel {} pairs/s, dynamic programming {} pairs/s", pairs, (long) (pairs / bitParallel),
+                    (long) (pairs / dynamicProgramming));
+        }
+    }
+}
@@ -1,17 +1,28 @@
 package emissary.kff;
 
+import emissary.core.channels.InMemoryChannelFactory;
 import emissary.test.core.junit5.UnitTest;
+import emissary.util.Hexl;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class KffChainTest extends UnitTest {
@@ -102,4 +113,125 @@ class KffChainTest extends UnitTest {
         }
     }
 
+    /**
+     * A file filter that counts the searches of the file
+     */
+    static class CountingKffFile extends KffFile {
+        final AtomicInteger searches = new AtomicInteger();
+
+        CountingKffFile(String filename) throws IOException {
+            super(filename, "counting", FilterType.IGNORE);
+        }
+
+        @Override
+        public boolean check(String fname, ChecksumResults csum) throws Exception {
+            searches.incrementAndGet();
+            return super.check(fname, csum);
+        }
+    }
+
+    @Test
+    void testPreFilterSkipsDefiniteMisses(@TempDir Path dir) throws Exception {
+        KffChain chain = new KffChain();
+        chain.addAlgorithm("SHA-1");
+        chain.addAlgorithm("CRC32");
+
+        // a known file holding just the test data
+        ChecksumResults sums = chain.computeSums(DATA);
+        Path file = dir.resolve("known.bin");
+        Files.write(file, ByteBuffer.allocate(KffFile.DEFAULT_RECORD_LENGTH).put(sums.getHash("SHA-1")).putInt((int) sums.getCrc()).array());
+        CountingKffFile kffFile = new CountingKffFile(file.toString());
+        kffFile.loadPreFilter(KffPreFilter.DEFAULT_BITS_PER_KEY);
+        chain.addFilter(kffFile);
+
+        assertTrue(chain.check("known", DATA).isKnown(), "Known data is found");
+        assertEquals(1, kffFile.searches.get());
+
+        for (int i = 0; i < 100; i++) {
+            assertFalse(chain.check("unknown", ("Some other data " + i).getBytes()).isHit());
+        }
+        int falsePositives = kffFile.searches.get() - 1;
+        assertTrue(falsePositives < 10, "Definite misses do not search the file");
+        KffPreFilter pre = kffFile.getPreFilter();
+        assertEquals(101, pre.getLookupCount());
+        assertEquals(100 - falsePositives, pre.getDefiniteMissCount());
+        assertEquals(falsePositives / 100.0, pre.getFalsePositiveRate(), 1e-9);
+    }
+
+    @Test
+    void testPreFilterCountsOnlyFalsePositives(@TempDir Path dir) throws Exception {
+        KffChain chain = new KffChain();
+        chain.addAlgorithm("SHA-1");
+        chain.addAlgorithm("CRC32");
+
+        // the hash of the test data with another CRC
+        ChecksumResults sums = chain.computeSums(DATA);
+        Path file = dir.resolve("known.bin");
+        Files.write(file, ByteBuffer.allocate(KffFile.DEFAULT_RECORD_LENGTH).put(sums.getHash("SHA-1")).putInt((int) sums.getCrc() + 1).array());
+        CountingKffFile kffFile = new CountingKffFile(file.toString());
+        kffFile.loadPreFilter(KffPreFilter.DEFAULT_BITS_PER_KEY);
+        chain.addFilter(kffFile);
+        KffPreFilter pre = kffFile.getPreFilter();
+
+        assertFalse(chain.check("crc", DATA).isHit(), "Another CRC is not a hit");
+        assertEquals(1, kffFile.searches.get());
+        assertEquals(0.0, pre.getFalsePositiveRate(), "The hash is in the file");
+
+        // no hash for the pre-filter to key on
+        KffChain md5 = new KffChain();
+        md5.addAlgorithm("MD5");
+        md5.addFilter(kffFile);
+        assertFalse(md5.check("unkeyed", DATA).isHit());
+        assertEquals(2, kffFile.searches.get());
+        assertEquals(0.0, pre.getFalsePositiveRate(), "Unkeyed hashes are not false positives");
+    }
+
+    @Test
+    void testKnownChunks(@TempDir Path dir) throws Exception {
+        Random random = new Random(1);
+        byte[] known = new byte[2 * 1024 * 1024];
+        random.nextBytes(known);
+
+        // a file of the chunk hashes of the known data
+        List<String> lines = new ArrayList<>();
+        for (ChunkHasher.Chunk chunk : ChunkHasher.chunk(known)) {
+            lines.add(Hexl.toUnformattedHexString(chunk.getHash()));
+        }
+        Path list = dir.resolve("chunks.txt");
+        Files.write(list, lines);
+        Path file = dir.resolve("chunks.bin");
+        new KffFileBuilder(ChunkHasher.HASH_LENGTH, false).build(List.of(list), null, file);
+        KffMappedFile chunkFile = new KffMappedFile(file.toString(), "chunks", KffFilter.FilterType.IGNORE, ChunkHasher.HASH_LENGTH);
+
+        KffChain chain = new KffChain();
+        chain.addAlgorithm("SHA-1");
+        chain.addAlgorithm("CHUNKS");
+        chain.addChunkFilter(chunkFile);
+        assertEquals(1, chain.chunkFilterSize());
+
+        // the known data with a few bytes inserted and more appended
+        byte[] edited = new byte[known.length + 10 + 300_000];
+        random.nextBytes(edited);
+        System.arraycopy(known, 0, edited, 0, known.length / 2);
+        System.arraycopy(known, known.length / 2, edited, known.length / 2 + 10, known.length / 2);
+
+        for (KffResult r : List.of(chain.check("edited", edited), chain.check("edited", InMemoryChannelFactory.create(edited)))) {
+            assertFalse(r.isHit(), "The whole is not known");
+            assertNotNull(r.getResultString("CHUNKS"));
+            long knownBytes = r.getKnownChunkBytes();
+            assertTrue(knownBytes > known.length - 3 * ChunkHasher.DEFAULT_MAX_SIZE && knownBytes <= known.length, "known bytes " + knownBytes);
+            String[] ranges = r.getKnownChunkRanges().split(",");
+            assertTrue(ranges.length >= 2 && ranges.length <= 3, r.getKnownChunkRanges());
+            assertTrue(ranges[0].startsWith("0-"), "The start is known");
+            long end = Long.parseLong(ranges[ranges.length - 1].split("-")[1]);
+            assertTrue(end <= known.length + 10, "The appended data is not known");
+        }
+
+        byte[] unknown = new byte[known.length];
+        random.nextBytes(unknown);
+        KffResult r = chain.check("unknown", unknown);
+        assertNotNull(r.getChunks());
+        assertNull(r.getKnownChunkRanges());
+        assertEquals(0, r.getKnownChunkBytes());
+    }
 }
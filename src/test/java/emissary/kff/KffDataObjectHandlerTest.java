@@ -17,8 +17,11 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
@@ -275,6 +278,84 @@ class KffDataObjectHandlerTest extends UnitTest {
         assertEquals(DATA_MD5, payload.getParameterAsString(KffDataObjectHandler.MD5_ORIGINAL));
     }
 
+    @Test
+    void testUnchangedDataNotHashedAgain() throws Exception {
+        final KffChain chain = KffChainLoader.getChainInstance();
+        final AtomicInteger checks = new AtomicInteger();
+        final KffChain counting = new KffChain() {
+            @Override
+            public KffResult check(String itemName, byte[] content) throws NoSuchAlgorithmException {
+                checks.incrementAndGet();
+                return chain.check(itemName, content);
+            }
+
+            @Override
+            public KffResult check(String itemName, SeekableByteChannelFactory sbcf) throws NoSuchAlgorithmException, IOException {
+                checks.incrementAndGet();
+                return chain.check(itemName, sbcf);
+            }
+        };
+        kff = new KffDataObjectHandler(KffDataObjectHandler.KEEP_KNOWN_DATA, true, true);
+        kff.kff = counting;
+        kff.hash(payload);
+        assertEquals(1, checks.get());
+        assertEquals(DATA_MD5, KffDataObjectHandler.getMd5Value(payload));
+
+        // a handler in the next place finds the digests already computed, and puts back any that were removed
+        final KffDataObjectHandler next = new KffDataObjectHandler(KffDataObjectHandler.KEEP_KNOWN_DATA, true, true);
+        next.kff = counting;
+        payload.deleteParameter(KffDataObjectHandler.KFF_PARAM_MD5);
+        next.hash(payload);
+        assertEquals(1, checks.get());
+        assertEquals(DATA_MD5, KffDataObjectHandler.getMd5Value(payload));
+        assertEquals(DATA_SHA256, KffDataObjectHandler.getSha256Value(payload));
+        assertNull(payload.getParameterAsString(KffDataObjectHandler.MD5_ORIGINAL));
+
+        // hashing through the channel is kept apart, as it can see more data than the array
+        kff.hash(payload, true);
+        kff.hash(payload, true);
+        assertEquals(2, checks.get());
+        assertEquals(DATA_MD5, KffDataObjectHandler.getMd5Value(payload));
+
+        // setting the data again, even the same array, means it may have changed
+        final byte[] data = payload.data();
+        data[0] = (byte) (data[0] + 1);
+        payload.setData(data);
+        kff.hash(payload);
+        assertEquals(3, checks.get());
+        assertNotEquals(DATA_MD5, KffDataObjectHandler.getMd5Value(payload));
+        assertEquals(DATA_MD5, payload.getParameterAsString(KffDataObjectHandler.MD5_ORIGINAL));
+    }
+
+    @Test
+    void testChunksListedOnlyForSmallerData() {
+        final KffChain chain = new KffChain();
+        chain.addAlgorithm("SHA-1");
+        chain.addAlgorithm("CHUNKS");
+        kff.kff = chain;
+        final Random random = new Random(1);
+
+        final byte[] small = new byte[2 * 1024 * 1024];
+        random.nextBytes(small);
+        payload.setData(small);
+        kff.hash(payload);
+        final int smallCount = KffDataObjectHandler.getChunkCount(payload);
+        assertTrue(smallCount > 1 && smallCount <= KffDataObjectHandler.MAX_RECORDED_CHUNKS, "chunks " + smallCount);
+        assertEquals(smallCount, KffDataObjectHandler.getChunks(payload).size());
+
+        final byte[] large = new byte[2 * KffDataObjectHandler.MAX_RECORDED_CHUNKS * ChunkHasher.DEFAULT_AVERAGE_SIZE];
+        random.nextBytes(large);
+        payload.setData(large);
+        kff.hash(payload);
+        assertTrue(KffDataObjectHandler.getChunkCount(payload) > KffDataObjectHandler.MAX_RECORDED_CHUNKS);
+        assertNull(payload.getParameter(KffDataObjectHandler.KFF_PARAM_CHUNKS));
+        assertTrue(KffDataObjectHandler.getChunks(payload).isEmpty());
+        assertNotNull(KffDataObjectHandler.getSha1Value(payload));
+
+        KffDataObjectHandler.removeHash(payload);
+        assertEquals(0, KffDataObjectHandler.getChunkCount(payload));
+    }
+
     @Test
     void testParentToChildMethod() {
         payload.setParameter(KffDataObjectHandler.KFF_PARAM_DUPE_HIT, payload);
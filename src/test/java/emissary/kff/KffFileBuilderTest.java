@@ -0,0 +1,297 @@
+package emissary.kff;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static emissary.kff.KffFile.DEFAULT_RECORD_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KffFileBuilderTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(KffFileBuilderTest.class);
+
+    private static final int SHA1_LENGTH = 20;
+
+    @TempDir
+    Path dir;
+
+    private static List<byte[]> randomRecords(Random random, int count, int length) {
+        final List<byte[]> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] rec = new byte[length];
+            random.nextBytes(rec);
+            // crowd some prefixes so that their buckets need sorting
+            if (random.nextInt(4) == 0) {
+                rec[0] = 0;
+                rec[1] = (byte) random.nextInt(2);
+            }
+            records.add(rec);
+        }
+        return records;
+    }
+
+    private static String hex(byte[] bytes, int from, int to) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            sb.append(String.format(Locale.ROOT, "%02x", bytes[i] & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] sortedUnique(List<byte[]> records) {
+        final TreeSet<byte[]> sorted = new TreeSet<>(Arrays::compareUnsigned);
+        sorted.addAll(records);
+        final ByteBuffer all = ByteBuffer.allocate(sorted.size() * records.get(0).length);
+        for (byte[] rec : sorted) {
+            all.put(rec);
+        }
+        return all.array();
+    }
+
+    private Path writeLines(String name, List<String> lines) throws IOException {
+        final Path file = dir.resolve(name);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static ChecksumResults sums(byte[] rec) {
+        final ChecksumResults sums = new ChecksumResults();
+        sums.setHash("SHA-1", Arrays.copyOf(rec, SHA1_LENGTH));
+        sums.setCrc(ByteBuffer.wrap(rec, SHA1_LENGTH, 4).getInt() & 0xffffffffL);
+        return sums;
+    }
+
+    @Test
+    void testHexListsAcrossRuns() throws Exception {
+        final Random random = new Random(1);
+        final List<byte[]> records = randomRecords(random, 3000, DEFAULT_RECORD_LENGTH);
+        // every tenth record is listed again
+        final List<byte[]> listed = new ArrayList<>(records);
+        for (int i = 0; i < records.size(); i += 10) {
+            listed.add(records.get(random.nextInt(records.size())));
+        }
+
+        final List<Path> inputs = new ArrayList<>();
+        for (int file = 0; file < 3; file++) {
+            final List<String> lines = new ArrayList<>();
+            lines.add("# hash crc");
+            for (int i = file; i < listed.size(); i += 3) {
+                final byte[] rec = listed.get(i);
+                final String hash = hex(rec, 0, SHA1_LENGTH);
+                final String crc = hex(rec, SHA1_LENGTH, DEFAULT_RECORD_LENGTH);
+                switch (i % 4) {
+                    case 0:
+                        lines.add(hash + " " + crc);
+                        break;
+                    case 1:
+                        lines.add(hash.toUpperCase(Locale.ROOT) + "," + crc + ",file" + i);
+                        break;
+                    case 2:
+                        lines.add("  " + hash + crc);
+                        break;
+                    default:
+                        lines.add(hash + ":" + crc);
+                        lines.add("");
+                        break;
+                }
+            }
+            lines.add("not a hash 1234");
+            lines.add(hex(records.get(0), 0, SHA1_LENGTH));
+            lines.add(hex(records.get(0), 0, SHA1_LENGTH - 1) + " " + hex(records.get(0), SHA1_LENGTH, DEFAULT_RECORD_LENGTH));
+            inputs.add(writeLines("list" + file + ".txt", lines));
+        }
+
+        final KffFileBuilder builder = new KffFileBuilder(SHA1_LENGTH, true);
+        // about a hundred records a run and several merge passes
+        builder.setMemoryLimit(100L * (DEFAULT_RECORD_LENGTH + Integer.BYTES));
+        builder.mergeWidth = 3;
+        builder.setTempDir(dir);
+        final Path output = dir.resolve("known.bin");
+        final KffFileBuilder.Result result = builder.build(inputs, null, output);
+
+        final byte[] expected = sortedUnique(records);
+        assertArrayEquals(expected, Files.readAllBytes(output));
+        assertEquals(listed.size(), result.getRecordsRead());
+        assertEquals(9, result.getBadLines());
+        assertEquals(expected.length / DEFAULT_RECORD_LENGTH, result.getRecordsWritten());
+        assertEquals(listed.size() - result.getRecordsWritten(), result.getDuplicates());
+        assertTrue(result.getRuns() > 30, "runs " + result.getRuns());
+        assertTrue(result.getMergePasses() > 2, "passes " + result.getMergePasses());
+        // only the inputs and the output are left
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(4, files.count());
+        }
+
+        final KffMappedFile mapped = new KffMappedFile(output.toString(), "built", KffFilter.FilterType.IGNORE);
+        for (byte[] rec : records) {
+            assertTrue(mapped.check("known", sums(rec)));
+        }
+    }
+
+    @Test
+    void testNsrlCsv() throws Exception {
+        final List<byte[]> records = randomRecords(new Random(2), 200, DEFAULT_RECORD_LENGTH);
+        final List<String> lines = new ArrayList<>();
+        lines.add("\"SHA-1\",\"MD5\",\"CRC32\",\"FileName\",\"FileSize\",\"ProductCode\",\"OpSystemCode\",\"SpecialCode\"");
+        for (int i = 0; i < records.size(); i++) {
+            final byte[] rec = records.get(i);
+            lines.add("\"" + hex(rec, 0, SHA1_LENGTH).toUpperCase(Locale.ROOT) + "\",\"00000000000000000000000000000000\",\""
+                    + hex(rec, SHA1_LENGTH, DEFAULT_RECORD_LENGTH).toUpperCase(Locale.ROOT) + "\",\"a, \"\"quoted\"\" name " + i
+                    + "\",1024,1,\"WIN\",\"\"");
+        }
+        lines.add("\"truncated\"");
+        lines.add("\"ZZ\",\"\",\"00000000\",\"bad hash\",1,1,\"WIN\",\"\"");
+
+        final KffFileBuilder builder = new KffFileBuilder(SHA1_LENGTH, true);
+        builder.setFormat(KffFileBuilder.Format.CSV);
+        final Path output = dir.resolve("nsrl.bin");
+        final KffFileBuilder.Result result = builder.build(List.of(writeLines("NSRLFile.txt", lines)), null, output);
+        assertArrayEquals(sortedUnique(records), Files.readAllBytes(output));
+        assertEquals(2, result.getBadLines());
+        assertEquals(1, result.getRuns());
+
+        // the hashes alone from another column
+        final KffFileBuilder md5 = new KffFileBuilder(16, false);
+        md5.setFormat(KffFileBuilder.Format.CSV);
+        md5.setColumns("md5", "CRC32");
+        final Path md5Output = dir.resolve("md5.bin");
+        assertEquals(1, md5.build(List.of(dir.resolve("NSRLFile.txt")), null, md5Output).getRecordsWritten());
+        assertArrayEquals(new byte[16], Files.readAllBytes(md5Output));
+
+        final KffFileBuilder missing = new KffFileBuilder(SHA1_LENGTH, true);
+        missing.setFormat(KffFileBuilder.Format.CSV);
+        missing.setColumns("SHA-256", "CRC32");
+        assertThrows(IllegalArgumentException.class, () -> missing.build(List.of(dir.resolve("NSRLFile.txt")), null, dir.resolve("none.bin")));
+    }
+
+    @Test
+    void testMergeIntoExisting() throws Exception {
+        final Random random = new Random(3);
+        final List<byte[]> first = randomRecords(random, 500, DEFAULT_RECORD_LENGTH);
+        final List<byte[]> update = randomRecords(random, 300, DEFAULT_RECORD_LENGTH);
+        update.addAll(first.subList(0, 100));
+
+        final List<String> firstLines = new ArrayList<>();
+        for (byte[] rec : first) {
+            firstLines.add(hex(rec, 0, DEFAULT_RECORD_LENGTH));
+        }
+        final List<String> updateLines = new ArrayList<>();
+        for (byte[] rec : update) {
+            updateLines.add(hex(rec, 0, DEFAULT_RECORD_LENGTH));
+        }
+
+        final KffFileBuilder builder = new KffFileBuilder(SHA1_LENGTH, true);
+        builder.setMemoryLimit(64L * (DEFAULT_RECORD_LENGTH + Integer.BYTES));
+        builder.mergeWidth = 2;
+        builder.setTempDir(dir);
+        final Path output = dir.resolve("known.bin");
+        builder.build(List.of(writeLines("first.txt", firstLines)), null, output);
+        final KffFileBuilder.Result result = builder.build(List.of(writeLines("update.txt", updateLines)), output, output);
+
+        final List<byte[]> all = new ArrayList<>(first);
+        all.addAll(update);
+        assertArrayEquals(sortedUnique(all), Files.readAllBytes(output));
+        assertEquals(100, result.getDuplicates());
+        assertEquals(800, result.getRecordsWritten());
+
+        // an existing file must be sorted whole records
+        Files.write(dir.resolve("odd.bin"), new byte[DEFAULT_RECORD_LENGTH + 1]);
+        assertThrows(IOException.class, () -> builder.build(List.of(dir.resolve("update.txt")), dir.resolve("odd.bin"), output));
+        final byte[] unsorted = new byte[2 * DEFAULT_RECORD_LENGTH];
+        unsorted[0] = 1;
+        Files.write(dir.resolve("unsorted.bin"), unsorted);
+        assertThrows(IOException.class, () -> builder.build(List.of(dir.resolve("update.txt")), dir.resolve("unsorted.bin"), output));
+        assertArrayEquals(sortedUnique(all), Files.readAllBytes(output));
+    }
+
+    @Test
+    void testPrefixIndex() throws Exception {
+        final List<byte[]> records = randomRecords(new Random(4), 2000, DEFAULT_RECORD_LENGTH);
+        final List<String> lines = new ArrayList<>();
+        for (byte[] rec : records) {
+            lines.add(hex(rec, 0, SHA1_LENGTH) + " " + hex(rec, SHA1_LENGTH, DEFAULT_RECORD_LENGTH));
+        }
+        final KffFileBuilder builder = new KffFileBuilder(SHA1_LENGTH, true);
+        builder.setWritePrefixIndex(true);
+        final Path output = dir.resolve("known.bin");
+        builder.build(List.of(writeLines("list.txt", lines)), null, output);
+
+        final long[] starts = KffMappedFile.readPrefixIndex(output.toString(), DEFAULT_RECORD_LENGTH);
+        assertNotNull(starts);
+        final byte[] sorted = Files.readAllBytes(output);
+        final long count = sorted.length / DEFAULT_RECORD_LENGTH;
+        assertEquals(count, starts[KffMappedFile.PREFIXES]);
+        for (int i = 0; i < count; i++) {
+            final int prefix = ((sorted[i * DEFAULT_RECORD_LENGTH] & 0xff) << 8) | (sorted[i * DEFAULT_RECORD_LENGTH + 1] & 0xff);
+            assertTrue(starts[prefix] <= i && i < starts[prefix + 1], "record " + i);
+        }
+        assertNull(KffMappedFile.readPrefixIndex(output.toString(), 16));
+
+        final KffMappedFile mapped = new KffMappedFile(output.toString(), "indexed", KffFilter.FilterType.IGNORE);
+        for (byte[] rec : records) {
+            assertTrue(mapped.check("known", sums(rec)));
+        }
+
+        // once the file changes the index is ignored and built again
+        final byte[] extra = new byte[DEFAULT_RECORD_LENGTH];
+        Arrays.fill(extra, (byte) 0xff);
+        Files.write(output, extra, StandardOpenOption.APPEND);
+        assertNull(KffMappedFile.readPrefixIndex(output.toString(), DEFAULT_RECORD_LENGTH));
+        final KffMappedFile changed = new KffMappedFile(output.toString(), "changed", KffFilter.FilterType.IGNORE);
+        assertTrue(changed.check("extra", sums(extra)));
+        for (byte[] rec : records) {
+            assertTrue(changed.check("known", sums(rec)));
+        }
+        assertFalse(changed.check("unknown", sums(new byte[DEFAULT_RECORD_LENGTH])));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final int count = Integer.getInteger("emissary.benchmark.kffRecords", 2_000_000);
+        final Random random = new Random(5);
+        final Path input = dir.resolve("list.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(input)) {
+            final byte[] rec = new byte[DEFAULT_RECORD_LENGTH];
+            for (int i = 0; i < count; i++) {
+                random.nextBytes(rec);
+                writer.write(hex(rec, 0, SHA1_LENGTH));
+                writer.write(' ');
+                writer.write(hex(rec, SHA1_LENGTH, DEFAULT_RECORD_LENGTH));
+                writer.newLine();
+            }
+        }
+        for (long memory : new long[] {KffFileBuilder.DEFAULT_MEMORY_LIMIT, 8L * 1024 * 1024}) {
+            final KffFileBuilder builder = new KffFileBuilder(SHA1_LENGTH, true);
+            builder.setMemoryLimit(memory);
+            builder.setTempDir(dir);
+            final KffFileBuilder.Result result = builder.build(List.of(input), null, dir.resolve("known.bin"));
+            logger.info("{} MB: {}", memory / (1024 * 1024), result);
+        }
+    }
+}
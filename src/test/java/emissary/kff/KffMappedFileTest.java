@@ -0,0 +1,244 @@
+package emissary.kff;
+
+import emissary.test.core.junit5.UnitTest;
+import emissary.util.io.ResourceReader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static emissary.kff.KffFile.DEFAULT_RECORD_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KffMappedFileTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(KffMappedFileTest.class);
+
+    private static final String resourcePath = new ResourceReader().getResource("emissary/kff/KffFileTest/tmp.bin").getPath();
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Sorted unique records, with the first bytes drawn from a few values so that some prefixes have many records
+     */
+    private static List<byte[]> sortedRecords(Random random, int count) {
+        final List<byte[]> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] rec = new byte[DEFAULT_RECORD_LENGTH];
+            random.nextBytes(rec);
+            if (random.nextBoolean()) {
+                rec[0] = (byte) random.nextInt(3);
+                rec[1] = (byte) (0xfe + random.nextInt(2));
+            }
+            records.add(rec);
+        }
+        records.sort(Arrays::compareUnsigned);
+        for (int i = records.size() - 1; i > 0; i--) {
+            if (Arrays.equals(records.get(i), records.get(i - 1))) {
+                records.remove(i);
+            }
+        }
+        return records;
+    }
+
+    private Path write(List<byte[]> records) throws IOException {
+        final Path file = dir.resolve("known.bin");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (byte[] rec : records) {
+                os.write(rec);
+            }
+        }
+        return file;
+    }
+
+    private static ChecksumResults sums(byte[] rec) {
+        final ChecksumResults sums = new ChecksumResults();
+        sums.setHash("SHA-1", Arrays.copyOf(rec, DEFAULT_RECORD_LENGTH - 4));
+        sums.setCrc(ByteBuffer.wrap(rec, DEFAULT_RECORD_LENGTH - 4, 4).getInt() & 0xffffffffL);
+        return sums;
+    }
+
+    @Test
+    void testMatchesKffFile() throws Exception {
+        final KffFile kffFile = new KffFile(resourcePath, "file", KffFilter.FilterType.IGNORE);
+        final KffMappedFile mapped = new KffMappedFile(resourcePath, "mapped", KffFilter.FilterType.IGNORE);
+        assertEquals("mapped", mapped.getName());
+        assertEquals(Files.size(Path.of(resourcePath)) / DEFAULT_RECORD_LENGTH, mapped.getRecordCount());
+
+        final byte[] all = Files.readAllBytes(Path.of(resourcePath));
+        final Random random = new Random(1);
+        for (int i = 0; i < mapped.getRecordCount(); i++) {
+            final byte[] rec = Arrays.copyOfRange(all, i * DEFAULT_RECORD_LENGTH, (i + 1) * DEFAULT_RECORD_LENGTH);
+            assertTrue(mapped.check("known", sums(rec)), "record " + i);
+            assertTrue(kffFile.check("known", sums(rec)), "record " + i);
+
+            rec[random.nextInt(rec.length)] ^= (byte) (1 + random.nextInt(255));
+            assertEquals(kffFile.check("changed", sums(rec)), mapped.check("changed", sums(rec)), "changed record " + i);
+        }
+    }
+
+    @Test
+    void testAcrossSegments() throws Exception {
+        final Random random = new Random(2);
+        final List<byte[]> records = sortedRecords(random, 5000);
+        final Path file = write(records);
+        // segments that hold an odd number of records and do not end on a record boundary
+        final KffMappedFile mapped =
+                new KffMappedFile(file.toString(), "mapped", KffFilter.FilterType.IGNORE, DEFAULT_RECORD_LENGTH, 37L * DEFAULT_RECORD_LENGTH + 5);
+        final KffFile kffFile = new KffFile(file.toString(), "file", KffFilter.FilterType.IGNORE);
+        assertEquals(records.size(), mapped.getRecordCount());
+
+        for (byte[] rec : records) {
+            assertTrue(mapped.check("known", sums(rec)));
+
+            // the hash alone is enough when there is no CRC
+            final ChecksumResults hashOnly = new ChecksumResults();
+            hashOnly.setHash("SHA-1", Arrays.copyOf(rec, DEFAULT_RECORD_LENGTH - 4));
+            assertTrue(mapped.check("known", hashOnly));
+        }
+        for (int i = 0; i < 5000; i++) {
+            final byte[] rec = sortedRecords(random, 1).get(0);
+            assertEquals(kffFile.check("random", sums(rec)), mapped.check("random", sums(rec)));
+        }
+    }
+
+    @Test
+    void testShortRecords() throws Exception {
+        // MD5 only, as in KffQuincyFile
+        final List<byte[]> records = new ArrayList<>();
+        for (byte[] rec : sortedRecords(new Random(3), 500)) {
+            records.add(Arrays.copyOf(rec, 16));
+        }
+        final KffMappedFile mapped = new KffMappedFile(write(records).toString(), "md5", KffFilter.FilterType.IGNORE, 16);
+        mapped.setPreferredAlgorithm("MD5");
+        for (byte[] rec : records) {
+            final ChecksumResults sums = new ChecksumResults();
+            sums.setHash("MD5", rec);
+            assertTrue(mapped.check("known", sums));
+            sums.setHash("MD5", Arrays.copyOf(rec, 15));
+            assertTrue(mapped.check("prefix", sums));
+        }
+        final ChecksumResults sums = new ChecksumResults();
+        sums.setHash("SHA-1", records.get(0));
+        assertFalse(mapped.check("no md5", sums));
+    }
+
+    @Test
+    void testEmptyFile() throws Exception {
+        final KffMappedFile mapped = new KffMappedFile(write(List.of()).toString(), "empty", KffFilter.FilterType.IGNORE);
+        assertEquals(0, mapped.getRecordCount());
+        assertFalse(mapped.check("anything", sums(new byte[DEFAULT_RECORD_LENGTH])));
+    }
+
+    @Test
+    void testConcurrentChecks() throws Exception {
+        final List<byte[]> records = sortedRecords(new Random(4), 20_000);
+        final KffMappedFile mapped = new KffMappedFile(write(records).toString(), "mapped", KffFilter.FilterType.IGNORE);
+        final ExecutorService executor = Executors.newFixedThreadPool(64);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 64; t++) {
+                final int seed = t;
+                results.add(executor.submit(() -> {
+                    final Random random = new Random(seed);
+                    int wrong = 0;
+                    for (int i = 0; i < 5000; i++) {
+                        final byte[] rec = records.get(random.nextInt(records.size())).clone();
+                        if (random.nextBoolean()) {
+                            rec[DEFAULT_RECORD_LENGTH - 1] ^= 0x5a;
+                        }
+                        final boolean known = Collections.binarySearch(records, rec, Arrays::compareUnsigned) >= 0;
+                        if (mapped.check("item", sums(rec)) != known) {
+                            wrong++;
+                        }
+                    }
+                    return wrong;
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(0, (int) result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final int count = Integer.getInteger("emissary.benchmark.kffRecords", 2_000_000);
+        final List<byte[]> records = sortedRecords(new Random(5), count);
+        final String file = write(records).toString();
+        final KffFile kffFile = new KffFile(file, "file", KffFilter.FilterType.IGNORE);
+        final KffMappedFile mapped = new KffMappedFile(file, "mapped", KffFilter.FilterType.IGNORE);
+
+        // half of the lookups are known
+        final List<ChecksumResults> lookups = new ArrayList<>();
+        final Random random = new Random(6);
+        for (int i = 0; i < 100_000; i++) {
+            final byte[] rec = records.get(random.nextInt(records.size())).clone();
+            if (random.nextBoolean()) {
+                rec[2] ^= 0x5a;
+            }
+            lookups.add(sums(rec));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            final int fileHits = lookups(kffFile, lookups, 64);
+            final int mappedHits = lookups(mapped, lookups, 64);
+            assertEquals(fileHits, mappedHits);
+        }
+    }
+
+    private static int lookups(KffFile filter, List<ChecksumResults> lookups, int threads) throws Exception {
+        final int perThread = Integer.getInteger("emissary.benchmark.kffLookupsPerThread", 50_000);
+        final AtomicInteger hits = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            final long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 997;
+                results.add(executor.submit(() -> {
+                    int found = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        if (filter.check("item", lookups.get((offset + i) % lookups.size()))) {
+                            found++;
+                        }
+                    }
+                    hits.addAndGet(found);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            logger.info("{}: {} lookups on {} threads in {} s, {} lookups/s", filter.getClass().getSimpleName(), (long) perThread * threads,
+                    threads, seconds, (long) (perThread * threads / seconds));
+        } finally {
+            executor.shutdown();
+        }
+        return hits.get();
+    }
+}
@@ -1,5 +1,7 @@
 package emissary.kff;
 
+import emissary.config.Configurator;
+import emissary.config.ServiceConfigGuide;
 import emissary.kff.KffFilter.FilterType;
 import emissary.test.core.junit5.UnitTest;
 
@@ -23,10 +25,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -106,6 +110,116 @@ class KffMemcachedTest extends UnitTest {
         assertTrue(mcdFilter.check(TEST_ID_WITH_SPACES, createSums(mcdFilter)), "Filter should hit");
     }
 
+    @Test
+    void testAgainstStandIn() throws Exception {
+        try (MemcachedStandIn server = new MemcachedStandIn()) {
+            KffMemcached mcdFilter = createStandInFilter(server, "MEMCACHED_STORE_ID_DUPE", "true");
+            try {
+                assertFalse(mcdFilter.check("first-id", createSums(mcdFilter)), "Filter should not hit");
+                assertEquals("first-id", server.getString(TEST_UNFORMATTED_ID_HASH));
+                assertTrue(mcdFilter.check("second-id", createSums(mcdFilter)), "Filter should hit");
+                assertEquals(TEST_UNFORMATTED_ID_HASH, server.getString("second-id"), "Duplicate id stored");
+                assertEquals(2, server.getGetCommands());
+            } finally {
+                mcdFilter.shutdown();
+                mcdFilter.client.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testNearCache() throws Exception {
+        try (MemcachedStandIn server = new MemcachedStandIn()) {
+            KffMemcached mcdFilter = createStandInFilter(server, "MEMCACHED_NEAR_CACHE_SIZE", "10", "MEMCACHED_NEAR_CACHE_TTL_MILLIS", "200");
+            try {
+                assertFalse(mcdFilter.check("first-id", createSums(mcdFilter)), "Filter should not hit");
+                // known from the write, so not looked up again
+                for (int i = 0; i < 10; i++) {
+                    assertTrue(mcdFilter.check("next-id", createSums(mcdFilter)), "Filter should hit");
+                }
+                assertEquals(1, server.getGetCommands());
+
+                Thread.sleep(300);
+                assertTrue(mcdFilter.check("expired-id", createSums(mcdFilter)), "Filter should hit");
+                assertEquals(2, server.getGetCommands(), "Looked up again once expired");
+            } finally {
+                mcdFilter.client.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testBatchedGets() throws Exception {
+        try (MemcachedStandIn server = new MemcachedStandIn()) {
+            KffMemcached mcdFilter = createStandInFilter(server, "MEMCACHED_BATCH_GETS", "true", "MEMCACHED_WRITE_QUEUE_SIZE", "100");
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            try {
+                // half of the payloads are already known
+                for (int i = 0; i < 64; i += 2) {
+                    assertFalse(mcdFilter.check("seed-" + i, createSums(mcdFilter, i)));
+                }
+                waitFor(() -> server.getSetCommands() == 32);
+                int seeded = server.getGetCommands();
+                server.setGetDelayMillis(20);
+
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    final int payload = i;
+                    results.add(executor.submit(() -> mcdFilter.check("id-" + payload, createSums(mcdFilter, payload))));
+                }
+                for (int i = 0; i < 64; i++) {
+                    assertEquals(i % 2 == 0, results.get(i).get(), "payload " + i);
+                }
+                assertEquals(64, server.getKeysRequested() - seeded);
+                assertTrue(server.getGetCommands() - seeded < 64, "Lookups combined into " + (server.getGetCommands() - seeded) + " gets");
+                waitFor(() -> server.getSetCommands() == 64);
+                assertEquals(0, mcdFilter.getDroppedWrites());
+            } finally {
+                executor.shutdown();
+                mcdFilter.shutdown();
+                mcdFilter.client.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testQueuedWrites() throws Exception {
+        try (MemcachedStandIn server = new MemcachedStandIn()) {
+            KffMemcached mcdFilter = createStandInFilter(server, "MEMCACHED_WRITE_QUEUE_SIZE", "10");
+            try {
+                assertFalse(mcdFilter.check("first-id", createSums(mcdFilter)), "Filter should not hit");
+                waitFor(() -> server.contains(TEST_UNFORMATTED_ID_HASH));
+                assertEquals("first-id", server.getString(TEST_UNFORMATTED_ID_HASH));
+                assertTrue(mcdFilter.check("second-id", createSums(mcdFilter)), "Filter should hit");
+            } finally {
+                mcdFilter.shutdown();
+                mcdFilter.client.shutdown();
+            }
+        }
+    }
+
+    private static KffMemcached createStandInFilter(MemcachedStandIn server, String... entries) throws IOException {
+        Configurator config = new ServiceConfigGuide();
+        config.addEntry("MEMCACHED_SERVER", "127.0.0.1:" + server.getAddress().getPort());
+        config.addEntry("PREF_ALG", "SHA-256");
+        for (int i = 0; i + 1 < entries.length; i += 2) {
+            config.addEntry(entries[i], entries[i + 1]);
+        }
+        return new KffMemcached(TEST_ID_WITH_SPACES, "KFF", FilterType.DUPLICATE, null, config);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+
+    private static ChecksumResults createSums(KffMemcached mcd, int payload) throws NoSuchAlgorithmException {
+        return new ChecksumCalculator(List.of(mcd.getPreferredAlgorithm())).digest((TEST_PAYLOAD + payload).getBytes());
+    }
+
     private static ChecksumResults createSums(KffMemcached mcd) throws NoSuchAlgorithmException {
         List<String> kffalgs = new ArrayList<>();
         kffalgs.add(mcd.getPreferredAlgorithm());
@@ -0,0 +1,247 @@
+package emissary.kff;
+
+import emissary.test.core.junit5.UnitTest;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static emissary.kff.KffFile.DEFAULT_RECORD_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KffPreFilterTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(KffPreFilterTest.class);
+
+    @TempDir
+    Path dir;
+
+    private static List<byte[]> sortedRecords(Random random, int count) {
+        final List<byte[]> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] rec = new byte[DEFAULT_RECORD_LENGTH];
+            random.nextBytes(rec);
+            records.add(rec);
+        }
+        records.sort(Arrays::compareUnsigned);
+        return records;
+    }
+
+    private Path write(String name, List<byte[]> records) throws IOException {
+        final Path file = dir.resolve(name);
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (byte[] rec : records) {
+                os.write(rec);
+            }
+        }
+        return file;
+    }
+
+    private static ChecksumResults sums(byte[] rec) {
+        final ChecksumResults sums = new ChecksumResults();
+        sums.setHash("SHA-1", Arrays.copyOf(rec, DEFAULT_RECORD_LENGTH - 4));
+        return sums;
+    }
+
+    private static double falsePositiveRate(KffPreFilter filter, Random random, int trials) {
+        int passed = 0;
+        for (int i = 0; i < trials; i++) {
+            if (filter.mightContainKey(random.nextLong())) {
+                passed++;
+            }
+        }
+        return (double) passed / trials;
+    }
+
+    @Test
+    void testNoFalseNegatives() throws Exception {
+        final List<byte[]> records = sortedRecords(new Random(1), 100_000);
+        final Path file = write("known.bin", records);
+        final KffPreFilter filter = KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", KffPreFilter.DEFAULT_BITS_PER_KEY);
+        assertNotNull(filter);
+        assertEquals(records.size(), filter.getKeyCount());
+        for (byte[] rec : records) {
+            assertTrue(filter.mightContain(sums(rec)));
+        }
+
+        final double rate = falsePositiveRate(filter, new Random(2), 1_000_000);
+        logger.debug("False positive rate {}", rate);
+        assertTrue(rate < 0.01, "False positive rate " + rate);
+        assertFalse(new KffPreFilter(0, 1, "SHA-1").mightContainKey(new Random(3).nextLong()), "Nothing in an empty filter");
+    }
+
+    @Test
+    void testPersisted() throws Exception {
+        final List<byte[]> records = sortedRecords(new Random(4), 1000);
+        final Path file = write("known.bin", records);
+        final Path persisted = Path.of(file + KffPreFilter.SUFFIX);
+
+        final KffPreFilter built = KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", 16);
+        assertTrue(Files.exists(persisted));
+        final FileTime written = Files.getLastModifiedTime(persisted);
+
+        // read back rather than built again, even when asked for a different size
+        final KffPreFilter loaded = KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", 8);
+        assertEquals(written, Files.getLastModifiedTime(persisted));
+        final Random random = new Random(5);
+        for (int i = 0; i < 100_000; i++) {
+            final long key = random.nextLong();
+            assertEquals(built.mightContainKey(key), loaded.mightContainKey(key));
+        }
+        for (byte[] rec : records) {
+            assertTrue(loaded.mightContain(sums(rec)));
+        }
+    }
+
+    @Test
+    void testRebuiltForChangedFile() throws Exception {
+        final Path file = write("known.bin", sortedRecords(new Random(6), 1000));
+        KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", KffPreFilter.DEFAULT_BITS_PER_KEY);
+
+        final List<byte[]> replaced = sortedRecords(new Random(7), 2000);
+        write("known.bin", replaced);
+        final KffPreFilter filter = KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", KffPreFilter.DEFAULT_BITS_PER_KEY);
+        assertEquals(2000, filter.getKeyCount());
+        for (byte[] rec : replaced) {
+            assertTrue(filter.mightContain(sums(rec)));
+        }
+    }
+
+    @Test
+    void testTruncatedFilterIgnored() throws Exception {
+        final List<byte[]> records = sortedRecords(new Random(8), 1000);
+        final Path file = write("known.bin", records);
+        final Path persisted = Path.of(file + KffPreFilter.SUFFIX);
+        KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", KffPreFilter.DEFAULT_BITS_PER_KEY);
+        final long size = Files.size(persisted);
+        try (FileChannel channel = FileChannel.open(persisted, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 100);
+        }
+
+        final KffPreFilter filter = KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", KffPreFilter.DEFAULT_BITS_PER_KEY);
+        for (byte[] rec : records) {
+            assertTrue(filter.mightContain(sums(rec)));
+        }
+        assertEquals(size, Files.size(persisted), "Written again");
+    }
+
+    @Test
+    void testShortRecords() throws Exception {
+        final Path file = Files.write(dir.resolve("short.bin"), new byte[40]);
+        assertNull(KffPreFilter.load(file.toString(), 4, "CRC32", KffPreFilter.DEFAULT_BITS_PER_KEY));
+    }
+
+    @Test
+    void testUnkeyedHashesPass() throws Exception {
+        final KffPreFilter filter = new KffPreFilter(10, KffPreFilter.DEFAULT_BITS_PER_KEY, "SHA-1");
+        assertTrue(filter.mightContain(new ChecksumResults()), "Not computed");
+        final ChecksumResults sums = new ChecksumResults();
+        sums.setHash("SHA-1", new byte[4]);
+        assertTrue(filter.mightContain(sums), "Too short");
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        final byte[] known = new byte[DEFAULT_RECORD_LENGTH];
+        Arrays.fill(known, (byte) 7);
+        final Path file = write("known.bin", List.of(known));
+        final KffPreFilter filter = KffPreFilter.load(file.toString(), DEFAULT_RECORD_LENGTH, "SHA-1", KffPreFilter.DEFAULT_BITS_PER_KEY);
+        final MetricRegistry registry = new MetricRegistry();
+        filter.registerMetrics(registry, "KffChain.test");
+        // registering again replaces the metrics
+        filter.registerMetrics(registry, "KffChain.test");
+
+        assertTrue(filter.mightContain(sums(known)));
+        final Random random = new Random(9);
+        int passed = 0;
+        for (int i = 0; i < 1000; i++) {
+            final byte[] rec = new byte[DEFAULT_RECORD_LENGTH];
+            random.nextBytes(rec);
+            if (filter.mightContain(sums(rec))) {
+                filter.falsePositive();
+                passed++;
+            }
+        }
+        assertEquals(1001, filter.getLookupCount());
+        assertEquals(1000 - passed, filter.getDefiniteMissCount());
+        assertEquals(passed / 1000.0, filter.getFalsePositiveRate(), 1e-9);
+        assertEquals(1001, registry.getMeters().get("KffChain.test.preFilter.lookups").getCount());
+        final Gauge<?> rate = registry.getGauges().get("KffChain.test.preFilter.falsePositiveRate");
+        assertEquals(filter.getFalsePositiveRate(), (Double) rate.getValue(), 1e-9);
+    }
+
+    @Test
+    void testKffFileLoad() throws Exception {
+        final List<byte[]> records = sortedRecords(new Random(10), 100);
+        final KffFile kffFile = new KffMappedFile(write("known.bin", records).toString(), "known", KffFilter.FilterType.IGNORE);
+        assertNull(kffFile.getPreFilter());
+        kffFile.loadPreFilter(KffPreFilter.DEFAULT_BITS_PER_KEY);
+        assertNotNull(kffFile.getPreFilter());
+        assertEquals("SHA-1", kffFile.getPreFilter().getAlgorithm());
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final int count = Integer.getInteger("emissary.benchmark.kffRecords", 2_000_000);
+        final List<byte[]> records = sortedRecords(new Random(11), count);
+        final Path file = write("known.bin", records);
+        final KffMappedFile mapped = new KffMappedFile(file.toString(), "mapped", KffFilter.FilterType.IGNORE);
+        long start = System.nanoTime();
+        mapped.loadPreFilter(KffPreFilter.DEFAULT_BITS_PER_KEY);
+        logger.info("Built pre-filter of {} keys in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+
+        // lookups that are almost all misses, as in production
+        final List<ChecksumResults> lookups = new ArrayList<>();
+        final Random random = new Random(12);
+        for (int i = 0; i < 1_000_000; i++) {
+            final byte[] rec = new byte[DEFAULT_RECORD_LENGTH];
+            random.nextBytes(rec);
+            lookups.add(sums(i % 100 == 0 ? records.get(random.nextInt(count)) : rec));
+        }
+        final KffPreFilter pre = mapped.getPreFilter();
+        for (int round = 0; round < 3; round++) {
+            final int plainHits = lookups("without pre-filter", lookups, sums -> mapped.check("item", sums));
+            final int filteredHits = lookups("with pre-filter", lookups, sums -> pre.mightContain(sums) && mapped.check("item", sums));
+            assertEquals(plainHits, filteredHits);
+        }
+        logger.info("Observed false positive rate {}", falsePositiveRate(pre, random, 1_000_000));
+    }
+
+    private interface Check {
+        boolean check(ChecksumResults sums) throws Exception;
+    }
+
+    private static int lookups(String name, List<ChecksumResults> lookups, Check check) throws Exception {
+        final long start = System.nanoTime();
+        int hits = 0;
+        for (ChecksumResults sums : lookups) {
+            if (check.check(sums)) {
+                hits++;
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("{}: {} lookups, {} hits, {} lookups/s", name, lookups.size(), hits, (long) (lookups.size() / seconds));
+        return hits;
+    }
+}
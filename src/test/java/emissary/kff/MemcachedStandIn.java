@@ -0,0 +1,201 @@
+package emissary.kff;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process server speaking enough of the memcached text protocol (get, gets, set, delete, version) for a client to
+ * be tested against it. Values never expire.
+ */
+class MemcachedStandIn implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MemcachedStandIn.class);
+
+    private static final class Stored {
+        final int flags;
+        final byte[] data;
+
+        Stored(int flags, byte[] data) {
+            this.flags = flags;
+            this.data = data;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Stored> store = new ConcurrentHashMap<>();
+    private final AtomicInteger getCommands = new AtomicInteger();
+    private final AtomicInteger keysRequested = new AtomicInteger();
+    private final AtomicInteger setCommands = new AtomicInteger();
+    private volatile long getDelayMillis = 0;
+
+    MemcachedStandIn() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread(this::accept, "MemcachedStandIn");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    /**
+     * Slow down each get, so lookups pile up behind it as they would behind a remote server
+     */
+    void setGetDelayMillis(long getDelayMillis) {
+        this.getDelayMillis = getDelayMillis;
+    }
+
+    int getGetCommands() {
+        return getCommands.get();
+    }
+
+    int getKeysRequested() {
+        return keysRequested.get();
+    }
+
+    int getSetCommands() {
+        return setCommands.get();
+    }
+
+    boolean contains(String key) {
+        return store.containsKey(key);
+    }
+
+    String getString(String key) {
+        final Stored stored = store.get(key);
+        return stored == null ? null : new String(stored.data, StandardCharsets.UTF_8);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                final Thread connection = new Thread(() -> serve(socket), "MemcachedStandIn connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.debug("Could not accept connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (!command(line.split(" "), in, out)) {
+                    break;
+                }
+                // the client pipelines commands, so only flush once it has sent all it has
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            logger.debug("Connection closed", e);
+        }
+    }
+
+    private boolean command(String[] words, InputStream in, OutputStream out) throws IOException {
+        switch (words[0]) {
+            case "get":
+            case "gets":
+                get(words, out);
+                break;
+            case "set":
+                final byte[] data = readData(in, Integer.parseInt(words[4]));
+                store.put(words[1], new Stored(Integer.parseInt(words[2]), data));
+                setCommands.incrementAndGet();
+                if (words.length < 6 || !"noreply".equals(words[5])) {
+                    write(out, "STORED\r\n");
+                }
+                break;
+            case "delete":
+                write(out, store.remove(words[1]) == null ? "NOT_FOUND\r\n" : "DELETED\r\n");
+                break;
+            case "version":
+                write(out, "VERSION 1.6.0\r\n");
+                break;
+            case "quit":
+                return false;
+            default:
+                write(out, "ERROR\r\n");
+        }
+        return true;
+    }
+
+    private void get(String[] words, OutputStream out) throws IOException {
+        getCommands.incrementAndGet();
+        keysRequested.addAndGet(words.length - 1);
+        if (getDelayMillis > 0) {
+            try {
+                Thread.sleep(getDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int i = 1; i < words.length; i++) {
+            final Stored stored = store.get(words[i]);
+            if (stored != null) {
+                write(out, "VALUE " + words[i] + " " + stored.flags + " " + stored.data.length
+                        + ("gets".equals(words[0]) ? " 1" : "") + "\r\n");
+                out.write(stored.data);
+                write(out, "\r\n");
+            }
+        }
+        write(out, "END\r\n");
+    }
+
+    private static void write(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] readData(InputStream in, int length) throws IOException {
+        final byte[] data = in.readNBytes(length);
+        // the data is followed by \r\n
+        if (data.length < length || in.read() != '\r' || in.read() != '\n') {
+            throw new IOException("Truncated data block");
+        }
+        return data;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                final byte[] bytes = line.toByteArray();
+                final int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,251 @@
+package emissary.kff;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SsdeepIndexTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(SsdeepIndexTest.class);
+
+    private static final String B64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final Ssdeep ssdeep = new Ssdeep();
+
+    /** Signatures of random files and of edited copies of them, some of a size that changes the block size */
+    private static final List<String> known = new ArrayList<>();
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void hashFiles() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            final byte[] data = new byte[2000 + random.nextInt(60_000)];
+            random.nextBytes(data);
+            known.add(ssdeep.fuzzyHash(data));
+            for (int j = 0; j < 3; j++) {
+                known.add(ssdeep.fuzzyHash(edit(data, random)));
+            }
+        }
+    }
+
+    private static byte[] edit(byte[] data, Random random) {
+        final byte[] edited = random.nextInt(4) == 0 ? new byte[data.length * 2] : data.clone();
+        System.arraycopy(data, 0, edited, 0, data.length);
+        for (int i = data.length; i < edited.length; i++) {
+            edited[i] = (byte) random.nextInt();
+        }
+        final int changes = 1 + random.nextInt(20);
+        for (int i = 0; i < changes; i++) {
+            edited[random.nextInt(edited.length)] = (byte) random.nextInt();
+        }
+        return edited;
+    }
+
+    private static SsdeepIndex index(List<String> signatures) {
+        final SsdeepIndex.Builder builder = SsdeepIndex.builder();
+        for (int i = 0; i < signatures.size(); i++) {
+            builder.add(signatures.get(i), "file" + i);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The numbers of the signatures that score above zero when compared to every signature
+     */
+    private static List<Integer> scan(List<String> signatures, String signature) {
+        final SpamSumSignature parsed = new SpamSumSignature(signature);
+        final List<Integer> matches = new ArrayList<>();
+        for (int i = 0; i < signatures.size(); i++) {
+            if (ssdeep.compare(parsed, new SpamSumSignature(signatures.get(i))) > 0) {
+                matches.add(i);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The name and score of each signature scoring at least minScore when compared to every signature, best first
+     */
+    private static List<String> scores(List<String> signatures, String signature, int minScore) {
+        final SpamSumSignature parsed = new SpamSumSignature(signature);
+        final List<String> scores = new ArrayList<>();
+        for (int score = 100; score >= minScore; score--) {
+            for (int i = 0; i < signatures.size(); i++) {
+                if (ssdeep.compare(parsed, new SpamSumSignature(signatures.get(i))) == score) {
+                    scores.add("file" + i + " " + score);
+                }
+            }
+        }
+        return scores;
+    }
+
+    private static List<String> scores(List<SsdeepIndex.Match> matches) {
+        final List<String> scores = new ArrayList<>();
+        for (SsdeepIndex.Match match : matches) {
+            scores.add(match.getName() + " " + match.getScore());
+        }
+        return scores;
+    }
+
+    private static List<String> names(List<SsdeepIndex.Match> matches) {
+        final List<String> names = new ArrayList<>();
+        for (SsdeepIndex.Match match : matches) {
+            names.add(match.getName());
+        }
+        return names;
+    }
+
+    @Test
+    void testMatchesScan() {
+        final SsdeepIndex index = index(known);
+        assertEquals(known.size(), index.size());
+        long candidates = 0;
+        for (String signature : known) {
+            final int[] found = index.candidates(new SpamSumSignature(signature));
+            for (int id : scan(known, signature)) {
+                assertTrue(Arrays.binarySearch(found, id) >= 0, signature + " matches " + known.get(id));
+            }
+            candidates += found.length;
+
+            assertEquals(scores(known, signature, 1), scores(index.query(signature, 1)), signature);
+            assertEquals(scores(known, signature, 50), scores(index.query(signature, 50)), signature);
+        }
+        logger.debug("{} candidates scored for {} queries of {} signatures", candidates, known.size(), known.size());
+        assertTrue(candidates < 8L * known.size(), "Candidates pruned to " + candidates);
+    }
+
+    @Test
+    void testBlockSizes() {
+        final String signature = "96:" + B64.substring(0, 40) + ":" + B64.substring(20, 50);
+        final SsdeepIndex index = SsdeepIndex.builder()
+                .add("96:" + B64.substring(0, 40) + ":" + B64.substring(20, 50), "same")
+                // the first part of this one is at the block size of the query's second
+                .add("192:" + B64.substring(24, 50) + ":zzzzzzzzzzzzzzzzzz", "double")
+                // and the second part of this one at the block size of the query's first
+                .add("48:" + B64.substring(40) + ":" + B64.substring(2, 30), "half")
+                .add("384:" + B64.substring(20, 50) + ":" + B64.substring(20, 50), "too big")
+                .add("24:" + B64.substring(0, 40) + ":" + B64.substring(0, 40), "too small")
+                .build();
+        assertEquals(List.of("same", "double", "half"), names(index.query(signature, 1)));
+    }
+
+    @Test
+    void testNoCommonRun() {
+        final SsdeepIndex index = SsdeepIndex.builder().add("3:" + B64.substring(0, 30) + ":" + B64.substring(0, 15), "known").build();
+        // only six characters in a row in common
+        assertEquals(0, index.query("3:" + B64.substring(24, 30) + "------" + ":" + B64.substring(9, 15), 0).size());
+        // repeats are cut short before looking for runs
+        assertEquals(0, SsdeepIndex.builder().add("3:AAAAAAAAAAAAA:AAAAAAA", "a").build().query("3:AAAAAAA:AAAAAAA", 0).size());
+    }
+
+    @Test
+    void testPersisted() throws Exception {
+        final SsdeepIndex index = index(known);
+        final Path file = dir.resolve("known.ssdi");
+        index.write(file);
+        final SsdeepIndex read = SsdeepIndex.read(file);
+        assertEquals(index.size(), read.size());
+        for (String signature : known) {
+            assertEquals(scores(index.query(signature, 1)), scores(read.query(signature, 1)), signature);
+        }
+
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> SsdeepIndex.read(file));
+    }
+
+    @Test
+    void testBadSignature() {
+        final SsdeepIndex.Builder builder = SsdeepIndex.builder();
+        assertThrows(IllegalArgumentException.class, () -> builder.add("no colons", "bad"));
+        assertEquals(0, builder.build().query("3:ABCDEFGH:ABCD", 1).size());
+    }
+
+    /**
+     * Signatures of families of similar files, built from random base64 rather than hashed from data
+     */
+    private static List<String> corpus(Random random, int count) {
+        final List<String> corpus = new ArrayList<>(count);
+        while (corpus.size() < count) {
+            final long blockSize = 3L << random.nextInt(16);
+            final char[] part1 = randomChars(random, 64);
+            final char[] part2 = randomChars(random, 32);
+            for (int variant = 0; variant < 4 && corpus.size() < count; variant++) {
+                for (int i = 0; i < variant * 3; i++) {
+                    part1[random.nextInt(part1.length)] = B64.charAt(random.nextInt(64));
+                    part2[random.nextInt(part2.length)] = B64.charAt(random.nextInt(64));
+                }
+                corpus.add(blockSize + ":" + new String(part1) + ":" + new String(part2));
+            }
+        }
+        return corpus;
+    }
+
+    private static char[] randomChars(Random random, int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = B64.charAt(random.nextInt(64));
+        }
+        return chars;
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final int count = Integer.getInteger("emissary.benchmark.ssdeepSignatures", 1_000_000);
+        final Random random = new Random(2);
+        final List<String> corpus = corpus(random, count);
+
+        long start = System.nanoTime();
+        final SsdeepIndex index = index(corpus);
+        logger.info("Indexed {} signatures in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+
+        final Path file = dir.resolve("corpus.ssdi");
+        start = System.nanoTime();
+        index.write(file);
+        logger.info("Wrote {} bytes in {} ms", Files.size(file), (System.nanoTime() - start) / 1_000_000);
+        start = System.nanoTime();
+        final SsdeepIndex read = SsdeepIndex.read(file);
+        logger.info("Read back in {} ms", (System.nanoTime() - start) / 1_000_000);
+
+        final List<String> queries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            queries.add(corpus.get(random.nextInt(count)));
+        }
+        start = System.nanoTime();
+        long matches = 0;
+        for (String query : queries) {
+            matches += read.query(query, 1).size();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Indexed: {} queries, {} matches, {} queries/s", queries.size(), matches, (long) (queries.size() / seconds));
+
+        // comparing to every signature is too slow for more than a few queries
+        start = System.nanoTime();
+        for (String query : queries.subList(0, 5)) {
+            final int[] found = read.candidates(new SpamSumSignature(query));
+            for (int id : scan(corpus, query)) {
+                assertTrue(Arrays.binarySearch(found, id) >= 0);
+            }
+        }
+        logger.info("Scan: {} queries/s", 5 / ((System.nanoTime() - start) / 1e9));
+    }
+}
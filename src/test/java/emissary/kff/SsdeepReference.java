@@ -0,0 +1,108 @@
+package emissary.kff;
+
+import java.util.Arrays;
+
+/**
+ * The SpamSum hash as {@link Ssdeep} computed it before it hashed all block sizes in one pass: a byte at a time, with
+ * full 32 bit FNV sums, hashing all of the data again with half the block size whenever the signature is too short. Kept
+ * to check that the faster hashing gives the same signatures.
+ */
+final class SsdeepReference {
+
+    private static final int SPAMSUM_LENGTH = 64;
+    private static final int MIN_BLOCKSIZE = 3;
+    private static final int ROLLING_WINDOW_SIZE = 7;
+    private static final long HASH_INIT = 0x28021967;
+    private static final long HASH_PRIME = 0x01000193;
+    private static final long MASK32 = 0xffffffffL;
+    private static final byte[] b64Table = SpamSumSignature.getBytes("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+
+    private final byte[] fuzzHash1 = new byte[SPAMSUM_LENGTH + 1];
+    private final byte[] fuzzHash2 = new byte[SPAMSUM_LENGTH / 2 + 1];
+    private int fuzzLen1;
+    private int fuzzLen2;
+    private long sumHash1;
+    private long sumHash2;
+    private long blockSize;
+
+    private final int[] window = new int[ROLLING_WINDOW_SIZE];
+    private int windowPosition;
+    private long h1;
+    private long h2;
+    private long h3;
+
+    private SsdeepReference(final long expectedInputLength) {
+        blockSize = MIN_BLOCKSIZE;
+        while ((blockSize * SPAMSUM_LENGTH) < expectedInputLength) {
+            blockSize *= 2;
+        }
+    }
+
+    /**
+     * Calculate the SpamSum hash for a byte array.
+     *
+     * @param data The bytes to be hashed.
+     * @return The SpamSum signature for the bytes.
+     */
+    static String fuzzyHash(final byte[] data) {
+        final SsdeepReference ctx = new SsdeepReference(data.length);
+        while (true) {
+            final SpamSumSignature signature = ctx.generateHash(data);
+
+            // Our blocksize guess may have been way off, repeat with
+            // a smaller block size if necessary.
+            if ((ctx.blockSize > MIN_BLOCKSIZE) && (ctx.fuzzLen1 < (SPAMSUM_LENGTH / 2))) {
+                ctx.blockSize = ctx.blockSize / 2;
+            } else {
+                return signature.toString();
+            }
+        }
+    }
+
+    private SpamSumSignature generateHash(final byte[] data) {
+        fuzzLen1 = 0;
+        fuzzLen2 = 0;
+        sumHash1 = HASH_INIT;
+        sumHash2 = HASH_INIT;
+        Arrays.fill(window, 0);
+        windowPosition = 0;
+        h1 = 0;
+        h2 = 0;
+        h3 = 0;
+
+        for (final byte datum : data) {
+            final int nextByte = datum & 0xff;
+            final long rollingHash = roll(nextByte);
+            sumHash1 = ((sumHash1 * HASH_PRIME) ^ nextByte) & MASK32;
+            sumHash2 = ((sumHash2 * HASH_PRIME) ^ nextByte) & MASK32;
+
+            if ((rollingHash % blockSize) == (blockSize - 1)) {
+                if (fuzzLen1 < (SPAMSUM_LENGTH - 1)) {
+                    fuzzHash1[fuzzLen1++] = b64Table[(int) (sumHash1 & 0x3f)];
+                    sumHash1 = HASH_INIT;
+                }
+                if ((rollingHash % (blockSize * 2)) == ((blockSize * 2) - 1)) {
+                    if (fuzzLen2 < (SPAMSUM_LENGTH / 2 - 1)) {
+                        fuzzHash2[fuzzLen2++] = b64Table[(int) (sumHash2 & 0x3f)];
+                        sumHash2 = HASH_INIT;
+                    }
+                }
+            }
+        }
+
+        if (((h1 + h2 + h3) & MASK32) != 0) {
+            fuzzHash1[fuzzLen1++] = b64Table[(int) (sumHash1 & 0x3f)];
+            fuzzHash2[fuzzLen2++] = b64Table[(int) (sumHash2 & 0x3f)];
+        }
+        return new SpamSumSignature(blockSize, Arrays.copyOf(fuzzHash1, fuzzLen1), Arrays.copyOf(fuzzHash2, fuzzLen2));
+    }
+
+    private long roll(final int b) {
+        h2 = (h2 - h1 + (ROLLING_WINDOW_SIZE * ((long) b))) & MASK32;
+        h1 = (h1 + b - window[windowPosition]) & MASK32;
+        window[windowPosition] = b;
+        windowPosition = (windowPosition == (ROLLING_WINDOW_SIZE - 1)) ? 0 : windowPosition + 1;
+        h3 = ((h3 << 5) & MASK32) ^ b;
+        return (h1 + h2 + h3) & MASK32;
+    }
+}
@@ -1,11 +1,17 @@
 package emissary.kff;
 
+import emissary.core.channels.InMemoryChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 import emissary.util.Hexl;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.util.Random;
 
@@ -18,6 +24,7 @@ import static org.junit.jupiter.api.Assertions.fail;
  * Unit tests for {@link Ssdeep}.
  */
 final class SsdeepTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(SsdeepTest.class);
 
     private final Ssdeep ss = new Ssdeep();
 
@@ -130,6 +137,103 @@ final class SsdeepTest extends UnitTest {
         assertEquals(MANY_RANDOM_EXPECTED_HEX_DIGEST, digestHex, "Digest hex does not match");
     }
 
+    @Test
+    void testHashChannelMatchesArray() {
+        // Hashing a channel reads it once, keeping contexts for smaller block sizes instead of hashing again, so check it
+        // against the array hash for inputs that need every number of retries
+        final Random rng = new Random(MANY_RANDOM_SEED);
+        for (int i = 0; i < 500; i++) {
+            final byte[] input = new byte[rng.nextInt(1 << (4 + i % 16))];
+            final int alphabet = 1 + rng.nextInt(256);
+            for (int j = 0; j < input.length; j++) {
+                input[j] = (byte) (rng.nextInt(8) == 0 ? rng.nextInt(alphabet) : j % alphabet);
+            }
+            assertEquals(ss.fuzzyHash(input), ss.fuzzyHash(InMemoryChannelFactory.create(input)), "input " + i + " of length " + input.length);
+        }
+    }
+
+    @Test
+    void testHasherInPieces() {
+        final byte[] input = getStringAsUtf8(LOREM_IPSUM);
+        final Ssdeep.Hasher hasher = new Ssdeep.Hasher(input.length);
+        for (int i = 0; i < input.length; i += 7) {
+            hasher.update(input, i, Math.min(input.length, i + 7));
+        }
+        assertEquals(LOREM_IPSUM_HASH, hasher.finish());
+    }
+
+    /**
+     * Random data with runs, repeats and a small alphabet mixed in, so that signatures come out at every length and the
+     * block size estimate is often too large
+     */
+    private static byte[] randomInput(final Random rng, final int length) {
+        final byte[] input = new byte[length];
+        final int alphabet = 1 + rng.nextInt(256);
+        final int period = 1 + rng.nextInt(5000);
+        for (int i = 0; i < length; i++) {
+            switch (rng.nextInt(4)) {
+                case 0:
+                    input[i] = (byte) rng.nextInt(alphabet);
+                    break;
+                case 1:
+                    input[i] = i >= period ? input[i - period] : (byte) i;
+                    break;
+                default:
+                    input[i] = (byte) ((i / 64) % alphabet);
+            }
+        }
+        return input;
+    }
+
+    @Test
+    void testMatchesReference() throws Exception {
+        final Random rng = new Random(97531);
+        for (int i = 0; i < 2000; i++) {
+            final byte[] input = i % 2 == 0 ? randomInput(rng, rng.nextInt(1 << (4 + i % 15))) : new byte[rng.nextInt(1 << (4 + i % 15))];
+            if (i % 2 == 1) {
+                rng.nextBytes(input);
+            }
+            final String expected = SsdeepReference.fuzzyHash(input);
+            assertEquals(expected, ss.fuzzyHash(input), "input " + i + " of length " + input.length);
+
+            // in pieces of any size
+            final Ssdeep.Hasher hasher = new Ssdeep.Hasher(input.length);
+            for (int start = 0; start < input.length;) {
+                final int end = Math.min(input.length, start + 1 + rng.nextInt(1 + rng.nextInt(100_000)));
+                hasher.update(input, start, end);
+                start = end;
+            }
+            assertEquals(expected, hasher.finish(), "input " + i + " in pieces");
+        }
+
+        final byte[] input = randomInput(rng, 3_000_000);
+        final Path file = Files.createTempFile("ssdeep", ".bin");
+        try {
+            Files.write(file, input);
+            assertEquals(SsdeepReference.fuzzyHash(input), ss.fuzzyHashFile(file.toFile()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() {
+        final byte[] input = randomInput(new Random(86420), Integer.getInteger("emissary.benchmark.ssdeepBytes", 64 * 1024 * 1024));
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            final String hash = ss.fuzzyHash(input);
+            final double seconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            final String reference = SsdeepReference.fuzzyHash(input);
+            final double referenceSeconds = (System.nanoTime() - start) / 1e9;
+            assertEquals(reference, hash);
+            logger.info("{} MB: {} MB/s, reference {} MB/s", input.length >> 20, (long) ((input.length >> 20) / seconds),
+                    (long) ((input.length >> 20) / referenceSeconds));
+        }
+    }
+
     @Test
     void testCompareEqualHashes() {
         final SpamSumSignature hash1 = new SpamSumSignature(ss.fuzzyHash(getStringAsUtf8(LOREM_IPSUM)));
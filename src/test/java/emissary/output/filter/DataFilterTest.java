@@ -4,11 +4,13 @@ import emissary.config.Configurator;
 import emissary.config.ServiceConfigGuide;
 import emissary.core.DataObjectFactory;
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.SeekableByteChannelHelper;
 import emissary.test.core.junit5.UnitTest;
 import emissary.util.shell.Executrix;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
@@ -56,4 +58,26 @@ class DataFilterTest extends UnitTest {
 
         expected.delete();
     }
+
+    @Test
+    void testChannelAltViewToStream() {
+        Configurator config = new ServiceConfigGuide();
+        config.addEntry("OUTPUT_SPEC_FOO", "/tmp/%S%.%F%");
+        config.addEntry("OUTPUT_TYPE", "FTYPE.VIEW");
+
+        IDropOffFilter f = new DataFilter();
+        f.initialize(config, "FOO", config);
+
+        IBaseDataObject payload = DataObjectFactory.getInstance();
+        payload.setData("This is the data".getBytes());
+        payload.setFileType("FTYPE");
+        payload.setFilename("/this/is/a/testfile");
+        payload.setAlternateViewChannelFactory("VIEW", SeekableByteChannelHelper.memory("This is the view".getBytes()));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = f.filter(payload, new HashMap<>(), output);
+
+        assertEquals(IDropOffFilter.STATUS_SUCCESS, status, "Status of filter should be success");
+        assertEquals("This is the view", output.toString(), "Output must be the view and nothing else");
+    }
 }
@@ -5,11 +5,20 @@ import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.stream.Stream;
 
 import static emissary.parser.DataIdentifier.UNKNOWN_TYPE;
@@ -17,6 +26,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DataIdentifierTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(DataIdentifierTest.class);
 
     static final byte[] DATA = new byte[1000];
 
@@ -55,6 +65,146 @@ class DataIdentifierTest extends UnitTest {
         assertEquals(expected, result, msg);
     }
 
+    @Test
+    void testLongestMatchWins() {
+        ServiceConfigGuide config = new ServiceConfigGuide();
+        config.addEntry("TYPE_ZIP", "PK");
+        config.addEntry("TYPE_ZIPENTRY", "PK\u0003\u0004");
+        config.addEntry("TYPE_MBOX", "From ");
+        DataIdentifier id = new DataIdentifier(config);
+        assertEquals("ZIPENTRY", id.identify("PK\u0003\u0004rest".getBytes()));
+        assertEquals("ZIP", id.identify("PK\u0003\u0005".getBytes()));
+        assertEquals("ZIP", id.identify("PK".getBytes()));
+        assertEquals("MBOX", id.identify("From someone".getBytes()));
+        assertEquals(UNKNOWN_TYPE, id.identify("From".getBytes()));
+    }
+
+    @Test
+    void testHighBytes() {
+        ServiceConfigGuide config = new ServiceConfigGuide();
+        config.addEntry("TYPE_HIGH", "\u00ff\u00fe");
+        config.addEntry("TYPE_LOW", "\u0001");
+        DataIdentifier id = new DataIdentifier(config);
+        assertEquals("HIGH", id.identify(new byte[] {(byte) 0xff, (byte) 0xfe, (byte) 0xfd}));
+        assertEquals("LOW", id.identify(new byte[] {1, (byte) 0xff}));
+        assertEquals(UNKNOWN_TYPE, id.identify(new byte[] {(byte) 0x80}));
+    }
+
+    @Test
+    void testBeyondIsoLatin1() {
+        ServiceConfigGuide config = new ServiceConfigGuide();
+        config.addEntry("TYPE_WIDE", "a\u0100b");
+        config.addEntry("TYPE_A", "a");
+        DataIdentifier id = new DataIdentifier(config);
+        // would have been compiled as a?b
+        assertEquals("A", id.identify("a?b".getBytes()));
+        assertEquals("A", id.identify("a\u0100b".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testRecompile() {
+        MyDataIdentifier id = new MyDataIdentifier();
+        assertEquals(UNKNOWN_TYPE, id.identify("%PDF-1.4".getBytes()));
+        id.addType("PDF", "%PDF-");
+        assertEquals("PDF", id.identify("%PDF-1.4".getBytes()));
+    }
+
+    @Test
+    void testMatchesEveryPrefix() {
+        // short strings over a small alphabet overlap a lot
+        final Random random = new Random(7);
+        final ServiceConfigGuide config = new ServiceConfigGuide();
+        final Map<String, String> types = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            final String value = randomString(random, 1 + random.nextInt(6));
+            if (!types.containsValue(value)) {
+                types.put("T" + i, value);
+                config.addEntry("TYPE_T" + i, value);
+            }
+        }
+        final DataIdentifier id = new DataIdentifier(config);
+        for (int i = 0; i < 10_000; i++) {
+            final byte[] data = randomString(random, random.nextInt(10)).getBytes();
+            assertEquals(longestMatch(types, data), id.identify(data), new String(data));
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check every type against the data, as identification used to
+     */
+    private static String longestMatch(Map<String, String> types, byte[] data) {
+        String found = UNKNOWN_TYPE;
+        int foundLength = -1;
+        for (Map.Entry<String, String> entry : types.entrySet()) {
+            final byte[] pattern = entry.getValue().getBytes();
+            if (pattern.length > foundLength && pattern.length <= data.length
+                    && Arrays.equals(pattern, 0, pattern.length, data, 0, pattern.length)) {
+                found = entry.getKey();
+                foundLength = pattern.length;
+            }
+        }
+        return found;
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() {
+        final String[] magic = {"%PDF-", "PK\u0003\u0004", "PK\u0005\u0006", "GIF87a", "GIF89a", "\u0089PNG", "\u00ff\u00d8\u00ff", "BM",
+                "II*\u0000", "MM\u0000*", "<?xml", "<html", "<HTML", "<!DOCTYPE", "From ", "Received: ", "Return-Path:", "MIME-Version:",
+                "Message-ID:", "Date: ", "\u001f\u008b", "BZh", "\u00fd7zXZ", "7z\u00bc\u00af", "Rar!", "\u007fELF", "MZ", "\u00ca\u00fe\u00ba\u00be",
+                "{\\rtf", "\u00d0\u00cf\u0011\u00e0", "OggS", "RIFF", "ID3", "fLaC", "\u0000\u0000\u0001\u00ba", "BEGIN:VCARD", "BEGIN:VCALENDAR",
+                "-----BEGIN PGP", "-----BEGIN CERTIFICATE", "#!/bin/sh", "#!/usr/bin/env", "SQLite format 3", "\u0000asm", "wOFF", "wOF2",
+                "%!PS", "{\"", "[{", "ustar", "\u0000\u0001\u0000\u0000"};
+        final ServiceConfigGuide config = new ServiceConfigGuide();
+        final Map<String, String> types = new HashMap<>();
+        for (int i = 0; i < magic.length; i++) {
+            config.addEntry("TYPE_M" + i, magic[i]);
+            types.put("M" + i, magic[i]);
+        }
+        final DataIdentifier id = new DataIdentifier(config);
+
+        final Random random = new Random(8);
+        final List<byte[]> inputs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final byte[] data = new byte[100];
+            random.nextBytes(data);
+            if (random.nextBoolean()) {
+                final byte[] prefix = magic[random.nextInt(magic.length)].getBytes();
+                System.arraycopy(prefix, 0, data, 0, prefix.length);
+            }
+            inputs.add(data);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (int n = 0; n < 1000; n++) {
+                for (byte[] data : inputs) {
+                    found += UNKNOWN_TYPE.equals(longestMatch(types, data)) ? 0 : 1;
+                }
+            }
+            final long loop = System.nanoTime() - start;
+            start = System.nanoTime();
+            int trieFound = 0;
+            for (int n = 0; n < 1000; n++) {
+                for (byte[] data : inputs) {
+                    trieFound += UNKNOWN_TYPE.equals(id.identify(data)) ? 0 : 1;
+                }
+            }
+            final long trie = System.nanoTime() - start;
+            assertEquals(found, trieFound);
+            logger.info("{} types, per identification: loop {} ns, trie {} ns", magic.length, loop / 1_000_000.0, trie / 1_000_000.0);
+        }
+    }
+
     @Test
     void testExtensibility() {
         MyDataIdentifier id = new MyDataIdentifier();
@@ -79,6 +229,11 @@ class DataIdentifierTest extends UnitTest {
         public String checkString(byte[] DATA, int limit) {
             return super.getTestString(DATA, limit);
         }
+
+        public void addType(String type, String value) {
+            typesMap.put(type, value);
+            compileTypes();
+        }
     }
 
 
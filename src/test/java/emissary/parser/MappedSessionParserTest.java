@@ -0,0 +1,393 @@
+package emissary.parser;
+
+import emissary.core.channels.DataView;
+import emissary.core.channels.InMemoryChannelFactory;
+import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.test.core.junit5.UnitTest;
+import emissary.util.io.BufferPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedSessionParserTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(MappedSessionParserTest.class);
+
+    private static final byte[] DELIMITER = "\n--END--\n".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Sessions that are each followed by a delimiter
+     */
+    static class DelimitedMappedParser extends MappedSessionParser {
+        long position = 0;
+
+        DelimitedMappedParser(SeekableByteChannel channel) throws ParserException {
+            super(channel);
+        }
+
+        @Override
+        protected InputSession nextInputSession() throws ParserException {
+            if (position >= size) {
+                setFullyParsed(true);
+                throw new ParserEOFException("Past end of data");
+            }
+            final long end = indexOf(DELIMITER, position);
+            if (end < 0) {
+                throw new ParserException("Unexpectedly malformed data at " + position);
+            }
+            final InputSession session = new InputSession(new PositionRecord(position, end + DELIMITER.length - position),
+                    new PositionRecord(position, end - position));
+            session.addHeaderRec(new PositionRecord(position, Math.min(4, end - position)));
+            session.addMetaDataRec("END", new PositionRecord(end, DELIMITER.length));
+            session.setValid(true);
+            position = end + DELIMITER.length;
+            if (position >= size) {
+                setFullyParsed(true);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * The same format read into heap arrays by the NIO parser
+     */
+    static class DelimitedNioParser extends FillingNIOParser {
+        DelimitedNioParser(SeekableByteChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        public DecomposedSession getNextSession() throws ParserException {
+            if (isFullyParsed()) {
+                throw new ParserEOFException("Past end of data");
+            }
+            if (data == null) {
+                data = nextChunkOrDie(null);
+            }
+            int searched = sessionStart;
+            while (true) {
+                final int end = indexOf(data, searched, writeOffset);
+                if (end >= 0) {
+                    final DecomposedSession d = new DecomposedSession();
+                    d.setData(data, sessionStart, end);
+                    sessionStart = end + DELIMITER.length;
+                    return d;
+                }
+                searched = Math.max(sessionStart, writeOffset - DELIMITER.length + 1);
+                final int compacted = sessionStart;
+                data = nextChunkOrDie(data);
+                searched -= compacted - sessionStart;
+            }
+        }
+
+        private static int indexOf(byte[] data, int from, int to) {
+            for (int i = from; i <= to - DELIMITER.length; i++) {
+                int j = 0;
+                while (j < DELIMITER.length && data[i + j] == DELIMITER[j]) {
+                    j++;
+                }
+                if (j == DELIMITER.length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private Path writeSessions(List<byte[]> sessions) throws IOException {
+        final Path file = dir.resolve("sessions");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (byte[] session : sessions) {
+                os.write(session);
+                os.write(DELIMITER);
+            }
+        }
+        return file;
+    }
+
+    private static List<byte[]> randomSessions(Random random, int count, int maxLength) {
+        final List<byte[]> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final byte[] session = new byte[random.nextInt(maxLength)];
+            for (int j = 0; j < session.length; j++) {
+                session[j] = (byte) ('a' + random.nextInt(26));
+            }
+            sessions.add(session);
+        }
+        return sessions;
+    }
+
+    private static byte[] read(SeekableByteChannelFactory sbcf) throws IOException {
+        final DataView view = DataView.of(sbcf);
+        return view.readRange(0, (int) view.size());
+    }
+
+    private static List<DecomposedSession> parseAll(SessionParser parser) throws ParserException {
+        final List<DecomposedSession> found = new ArrayList<>();
+        while (true) {
+            try {
+                found.add(parser.getNextSession());
+            } catch (ParserEOFException e) {
+                return found;
+            }
+        }
+    }
+
+    @Test
+    void testSessionsAcrossWindows() throws Exception {
+        final List<byte[]> sessions = randomSessions(new Random(1), 200, 300);
+        final Path file = writeSessions(sessions);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final DelimitedMappedParser parser = new DelimitedMappedParser(channel);
+            // small enough that sessions and delimiters cross windows and some sessions span several
+            parser.setWindowSize(128);
+            final List<DecomposedSession> found = parseAll(parser);
+
+            assertEquals(sessions.size(), found.size());
+            for (int i = 0; i < sessions.size(); i++) {
+                final DecomposedSession d = found.get(i);
+                assertTrue(d.isValid());
+                assertNull(d.getData(), "Data is not copied");
+                assertNotNull(d.getDataChannelFactory());
+                assertArrayEquals(sessions.get(i), read(d.getDataChannelFactory()), "session " + i);
+                assertEquals(Integer.toString(sessions.get(i).length), d.getStringMetadataItem(SessionParser.ORIG_DOC_SIZE_KEY));
+                assertEquals("--END--", d.getStringMetadataItem("END"));
+            }
+            assertTrue(parser.isFullyParsed());
+            assertTrue(parser.getMapCount() > 1);
+        }
+    }
+
+    @Test
+    void testSessionsSurviveClose() throws Exception {
+        final List<byte[]> sessions = randomSessions(new Random(2), 10, 1000);
+        final Path file = writeSessions(sessions);
+
+        final List<DecomposedSession> found;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            found = parseAll(new DelimitedMappedParser(channel));
+        }
+        assertEquals(sessions.size(), found.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            assertArrayEquals(sessions.get(i), read(found.get(i).getDataChannelFactory()));
+        }
+    }
+
+    @Test
+    void testMatchesNioParser() throws Exception {
+        final List<byte[]> sessions = randomSessions(new Random(3), 50, 100_000);
+        final Path file = writeSessions(sessions);
+
+        final List<DecomposedSession> nio;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final DelimitedNioParser parser = new DelimitedNioParser(channel);
+            parser.minChunkSize = 64 * 1024;
+            nio = parseAll(parser);
+        }
+        final List<DecomposedSession> mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = parseAll(new DelimitedMappedParser(channel));
+        }
+
+        assertEquals(sessions.size(), nio.size());
+        assertEquals(sessions.size(), mapped.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            assertArrayEquals(nio.get(i).getData(), read(mapped.get(i).getDataChannelFactory()));
+        }
+    }
+
+    @Test
+    void testNioParserReleasesChunkOnClose() throws Exception {
+        final Path file = writeSessions(randomSessions(new Random(4), 50, 100_000));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final DelimitedNioParser parser = new DelimitedNioParser(channel);
+            parser.minChunkSize = 64 * 1024;
+            parser.getNextSession();
+            assertNotNull(parser.data);
+
+            parser.close();
+            assertNull(parser.data);
+            parser.close();
+        }
+    }
+
+    @Test
+    void testNioParserReleasesTrimmedChunkOnClose() throws Exception {
+        final List<byte[]> sessions = randomSessions(new Random(6), 5, 1000);
+        final Path file = writeSessions(sessions);
+        final BufferPool pool = BufferPool.getInstance();
+        final int outstanding = pool.getOutstandingCount();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final DelimitedNioParser parser = new DelimitedNioParser(channel);
+            parser.minChunkSize = 64 * 1024;
+            assertEquals(sessions.size(), parseAll(parser).size());
+            assertEquals(Files.size(file), parser.data.length, "The final chunk is trimmed");
+
+            parser.close();
+            assertNull(parser.data);
+            assertEquals(outstanding, pool.getOutstandingCount());
+            parser.close();
+        }
+    }
+
+    @Test
+    void testNioParserResumes() throws Exception {
+        final List<byte[]> sessions = randomSessions(new Random(5), 50, 100_000);
+        final Path file = writeSessions(sessions);
+
+        final long position;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final DelimitedNioParser parser = new DelimitedNioParser(channel);
+            parser.minChunkSize = 64 * 1024;
+            assertEquals(0L, parser.getPosition());
+            for (int i = 0; i < 20; i++) {
+                parser.getNextSession();
+            }
+            position = parser.getPosition();
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final DelimitedNioParser parser = new DelimitedNioParser(channel);
+            parser.minChunkSize = 64 * 1024;
+            assertTrue(parser.seek(position));
+            final List<DecomposedSession> rest = parseAll(parser);
+            assertEquals(sessions.size() - 20, rest.size());
+            for (int i = 0; i < rest.size(); i++) {
+                assertArrayEquals(sessions.get(i + 20), rest.get(i).getData(), "session " + (i + 20));
+            }
+            assertEquals(Files.size(file), parser.getPosition());
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final DelimitedNioParser parser = new DelimitedNioParser(channel);
+            assertThrows(ParserException.class, () -> parser.seek(Files.size(file) + 1));
+        }
+    }
+
+    @Test
+    void testSimpleMappedParser() throws Exception {
+        final byte[] content = "the whole file is one session".getBytes(StandardCharsets.US_ASCII);
+        final Path file = Files.write(dir.resolve("simple"), content);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final SimpleMappedParser parser = new SimpleMappedParser(channel);
+            final DecomposedSession d = parser.getNextSession();
+            assertTrue(d.hasData());
+            assertArrayEquals(content, read(d.getDataChannelFactory()));
+            assertEquals(Integer.toString(content.length), d.getStringMetadataItem(SessionParser.ORIG_DOC_SIZE_KEY));
+            assertThrows(ParserEOFException.class, parser::getNextSession);
+        }
+    }
+
+    @Test
+    void testMapOutsideFile() throws Exception {
+        final Path file = Files.write(dir.resolve("small"), new byte[10]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final SimpleMappedParser parser = new SimpleMappedParser(channel);
+            assertEquals(10, parser.map(0, 10).remaining());
+            assertThrows(ParserException.class, () -> parser.map(5, 6));
+            assertEquals(-1, parser.indexOf(DELIMITER, 0));
+        }
+    }
+
+    @Test
+    void testRequiresFileChannel() {
+        final SeekableByteChannel channel = InMemoryChannelFactory.create(new byte[10]).create();
+        assertThrows(ParserException.class, () -> new SimpleMappedParser(channel));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final long target = Long.getLong("emissary.benchmark.mappedParserBytes", 1024L * 1024 * 1024);
+        final Path file = dir.resolve("benchmark");
+        final Random random = new Random(4);
+        final byte[] block = new byte[4 * 1024 * 1024];
+        random.nextBytes(block);
+        for (int i = 0; i < block.length; i++) {
+            // keep the delimiter out of the session data
+            block[i] = (byte) (block[i] | 0x80);
+        }
+        long written = 0;
+        int sessionCount = 0;
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file), 1024 * 1024)) {
+            while (written < target) {
+                // mostly small sessions with some that are several megabytes
+                final int length = random.nextInt(10) == 0 ? random.nextInt(block.length) : random.nextInt(64 * 1024);
+                os.write(block, random.nextInt(block.length - length + 1), length);
+                os.write(DELIMITER);
+                written += length + DELIMITER.length;
+                sessionCount++;
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            final long nioChecksum = time("nio", written, sessionCount, () -> {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    final CRC32 crc = new CRC32();
+                    for (DecomposedSession d : parseAll(new DelimitedNioParser(channel))) {
+                        crc.update(d.getData());
+                    }
+                    return crc.getValue();
+                }
+            });
+            final long mappedChecksum = time("mapped", written, sessionCount, () -> {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    final CRC32 crc = new CRC32();
+                    final DelimitedMappedParser parser = new DelimitedMappedParser(channel);
+                    while (true) {
+                        try {
+                            DataView.of(parser.getNextSession().getDataChannelFactory()).forEachChunk((ByteBuffer chunk, long position) -> {
+                                crc.update(chunk);
+                                return true;
+                            });
+                        } catch (ParserEOFException e) {
+                            return crc.getValue();
+                        }
+                    }
+                }
+            });
+            assertEquals(nioChecksum, mappedChecksum);
+        }
+    }
+
+    private interface Parse {
+        long run() throws Exception;
+    }
+
+    private static long time(String name, long bytes, int sessions, Parse parse) throws Exception {
+        final long start = System.nanoTime();
+        final long checksum = parse.run();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("{}: {} sessions, {} MB in {} s, {} MB/s", name, sessions, bytes >> 20, seconds, (bytes >> 20) / seconds);
+        return checksum;
+    }
+}
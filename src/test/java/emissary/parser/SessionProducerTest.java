@@ -1,6 +1,8 @@
 package emissary.parser;
 
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.InMemoryChannelFactory;
+import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.Test;
@@ -22,6 +24,20 @@ class SessionProducerTest extends UnitTest {
         assertEquals("This is a test", new String(payload.data()), "Parser/Producer should create payload object with correct data");
     }
 
+    @Test
+    void testChannelFactoryData() throws Exception {
+        SessionParser parser = Mockito.mock(SessionParser.class);
+        SeekableByteChannelFactory sbcf = InMemoryChannelFactory.create("This is channel data".getBytes());
+        DecomposedSession d = new DecomposedSession();
+        d.setDataChannelFactory(sbcf);
+        Mockito.when(parser.getNextSession()).thenReturn(d);
+        SessionProducer sp = new SessionProducer(parser, "UNKNOWN");
+        IBaseDataObject payload = sp.getNextSession("name");
+        assertEquals(sbcf, payload.getChannelFactory(), "Channel factory data must not be copied");
+        assertEquals(20L, payload.getChannelSize());
+        assertEquals("This is channel data", new String(payload.data()));
+    }
+
     @Test
     void testZoneAssignments() {
         SessionParser parser = Mockito.mock(SessionParser.class);
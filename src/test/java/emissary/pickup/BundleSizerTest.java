@@ -0,0 +1,140 @@
+package emissary.pickup;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BundleSizerTest extends UnitTest {
+
+    private static final long MILLI = 1_000_000L;
+
+    private static WorkBundle bundle(final int files, final long bytesPerFile) {
+        final WorkBundle wb = new WorkBundle("/fake/root", "/fake/eat");
+        for (int i = 0; i < files; i++) {
+            wb.addFileName("file" + i, i, bytesPerFile);
+        }
+        return wb;
+    }
+
+    @Test
+    void testTargetFromRate() {
+        final BundleSizer sizer = new BundleSizer(1000);
+        assertNull(sizer.getTarget("a", 100, 100, 1), "No target before anything is measured");
+
+        // 10 files of 100 bytes in 100ms
+        final WorkBundle wb = bundle(10, 100);
+        sizer.bundleSent("a", wb, 0);
+        sizer.bundleCompleted(wb.getBundleId(), true, 100 * MILLI);
+
+        final BundleSizer.Target target = sizer.getTarget("a", 10_000, 1_000_000, 1);
+        assertEquals(100, target.getFiles());
+        assertEquals(10_000L, target.getBytes());
+        assertNull(sizer.getTarget("b", 10_000, 1_000_000, 1));
+    }
+
+    @Test
+    void testFairShare() {
+        final BundleSizer sizer = new BundleSizer(1000);
+        final WorkBundle wb = bundle(10, 100);
+        sizer.bundleSent("a", wb, 0);
+        sizer.bundleCompleted(wb.getBundleId(), true, 100 * MILLI);
+
+        final BundleSizer.Target target = sizer.getTarget("a", 41, 4100, 4);
+        assertEquals(11, target.getFiles());
+        assertEquals(1025L, target.getBytes());
+
+        final BundleSizer.Target last = sizer.getTarget("a", 1, 0, 4);
+        assertEquals(1, last.getFiles(), "Always at least one file");
+        assertEquals(1L, last.getBytes());
+    }
+
+    @Test
+    void testQueuedTimeNotCounted() {
+        final BundleSizer sizer = new BundleSizer(1000);
+        final WorkBundle first = bundle(10, 1);
+        final WorkBundle second = bundle(10, 1);
+        sizer.bundleSent("a", first, 0);
+        sizer.bundleSent("a", second, 0);
+        sizer.bundleCompleted(first.getBundleId(), true, 100 * MILLI);
+        // the second bundle waited for the first, so it only took 100ms
+        sizer.bundleCompleted(second.getBundleId(), true, 200 * MILLI);
+
+        assertEquals(100, sizer.getTarget("a", 10_000, 10_000, 1).getFiles());
+    }
+
+    @Test
+    void testBatchMeasuredTogether() {
+        final BundleSizer sizer = new BundleSizer(1000);
+        final WorkBundle first = bundle(10, 1);
+        sizer.bundleSent("a", first, 0);
+        sizer.bundleCompleted(first.getBundleId(), true, 100 * MILLI);
+
+        // three bundles reported together 300ms after the last completion ran at the same 10 files per 100ms
+        final Map<String, Boolean> completed = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            final WorkBundle wb = bundle(10, 1);
+            sizer.bundleSent("a", wb, 0);
+            completed.put(wb.getBundleId(), true);
+        }
+        final WorkBundle failed = bundle(10, 1);
+        sizer.bundleSent("a", failed, 0);
+        completed.put(failed.getBundleId(), false);
+        sizer.bundlesCompleted(completed, 400 * MILLI);
+
+        assertEquals(100, sizer.getTarget("a", 10_000, 10_000, 1).getFiles());
+    }
+
+    @Test
+    void testSmoothing() {
+        final BundleSizer sizer = new BundleSizer(1000);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            final WorkBundle wb = bundle(10, 1);
+            sizer.bundleSent("a", wb, now);
+            now += 100 * MILLI;
+            sizer.bundleCompleted(wb.getBundleId(), true, now);
+        }
+        assertEquals(100, sizer.getTarget("a", 10_000, 10_000, 1).getFiles());
+
+        // one slow bundle moves the rate part of the way
+        final WorkBundle slow = bundle(10, 1);
+        sizer.bundleSent("a", slow, now);
+        sizer.bundleCompleted(slow.getBundleId(), true, now + 1000 * MILLI);
+        final int files = sizer.getTarget("a", 10_000, 10_000, 1).getFiles();
+        assertTrue(files > 10 && files < 100, "smoothed target was " + files);
+    }
+
+    @Test
+    void testFailuresAndRemoval() {
+        final BundleSizer sizer = new BundleSizer(1000);
+        final WorkBundle failed = bundle(10, 1);
+        sizer.bundleSent("a", failed, 0);
+        sizer.bundleCompleted(failed.getBundleId(), false, 100 * MILLI);
+        assertNull(sizer.getTarget("a", 100, 100, 1), "Failed bundles are not measured");
+
+        final WorkBundle wb = bundle(10, 1);
+        sizer.bundleSent("a", wb, 0);
+        sizer.bundleCompleted(wb.getBundleId(), true, 100 * MILLI);
+        assertEquals(1, sizer.getConsumerCount());
+
+        final WorkBundle lost = bundle(10, 1);
+        sizer.bundleSent("a", lost, 0);
+        sizer.consumerRemoved("a");
+        assertEquals(0, sizer.getConsumerCount());
+        sizer.bundleCompleted(lost.getBundleId(), true, 100 * MILLI);
+        assertNull(sizer.getTarget("a", 100, 100, 1));
+    }
+
+    @Test
+    void testBadTarget() {
+        assertThrows(IllegalArgumentException.class, () -> new BundleSizer(0));
+    }
+}
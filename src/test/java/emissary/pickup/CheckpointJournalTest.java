@@ -0,0 +1,122 @@
+package emissary.pickup;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointJournalTest extends UnitTest {
+
+    @TempDir
+    Path dir;
+
+    private File input;
+
+    @BeforeEach
+    void writeInput() throws Exception {
+        input = Files.write(dir.resolve("input.dat"), new byte[100]).toFile();
+    }
+
+    @Test
+    void testReadBack() throws Exception {
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, true)) {
+            assertEquals(0, journal.getSessions());
+            assertEquals(-1L, journal.getPosition());
+            journal.completed(1, 10);
+            journal.completed(2, 25);
+            assertEquals(2, journal.getSessions());
+        }
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, true)) {
+            assertEquals(2, journal.getSessions());
+            assertEquals(25L, journal.getPosition());
+            journal.completed(3, 40);
+        }
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, false)) {
+            assertEquals(3, journal.getSessions());
+            assertEquals(40L, journal.getPosition());
+        }
+    }
+
+    @Test
+    void testOutOfOrder() throws Exception {
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, false)) {
+            journal.completed(2, 20);
+            journal.completed(3, 30);
+            assertEquals(0, journal.getSessions(), "Nothing is claimed while session 1 is outstanding");
+            journal.completed(1, 10);
+            assertEquals(3, journal.getSessions());
+            assertEquals(30L, journal.getPosition());
+            journal.completed(2, 20);
+            assertEquals(3, journal.getSessions(), "Repeats are ignored");
+            journal.completed(5, 50);
+            assertEquals(3, journal.getSessions());
+        }
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, false)) {
+            assertEquals(3, journal.getSessions());
+        }
+    }
+
+    @Test
+    void testTornRecord() throws Exception {
+        final Path path;
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, true)) {
+            journal.completed(1, 10);
+            journal.completed(2, 20);
+            path = journal.getPath();
+        }
+        // a crash part way through writing the second record
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(CheckpointJournal.HEADER_SIZE + CheckpointJournal.RECORD_SIZE + 5);
+        }
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, true)) {
+            assertEquals(1, journal.getSessions());
+            assertEquals(10L, journal.getPosition());
+            journal.completed(2, 20);
+        }
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, true)) {
+            assertEquals(2, journal.getSessions());
+            assertEquals(20L, journal.getPosition());
+        }
+    }
+
+    @Test
+    void testDifferentInput() throws Exception {
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, true)) {
+            journal.completed(1, 10);
+        }
+        // a new file of the same name
+        Files.write(input.toPath(), new byte[200]);
+        try (CheckpointJournal journal = new CheckpointJournal(dir, input, true)) {
+            assertEquals(0, journal.getSessions());
+        }
+    }
+
+    @Test
+    void testJournalName() {
+        final String a = CheckpointJournal.journalName(new File("/a/x"));
+        final String b = CheckpointJournal.journalName(new File("/b/x"));
+        assertFalse(a.equals(b), "Same name in different directories");
+        assertTrue(a.startsWith("x.") && a.endsWith(".checkpoint"), a);
+        assertEquals(a, CheckpointJournal.journalName(new File("/a/x")));
+    }
+
+    @Test
+    void testDelete() throws Exception {
+        final CheckpointJournal journal = new CheckpointJournal(dir, input, true);
+        journal.completed(1, 10);
+        assertTrue(Files.exists(journal.getPath()));
+        journal.delete();
+        assertFalse(Files.exists(journal.getPath()));
+    }
+}
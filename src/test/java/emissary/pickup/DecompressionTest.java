@@ -0,0 +1,195 @@
+package emissary.pickup;
+
+import emissary.parser.DecomposedSession;
+import emissary.parser.ParserEOFException;
+import emissary.parser.SimpleNioParser;
+import emissary.test.core.junit5.UnitTest;
+
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DecompressionTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(DecompressionTest.class);
+
+    private static final byte[] DATA = "Some data that is compressed and then picked up\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+
+    private File gzip(String name, byte[]... members) throws IOException {
+        final Path file = dir.resolve(name);
+        try (OutputStream os = Files.newOutputStream(file)) {
+            // each member is a complete gzip stream, as written by cat a.gz b.gz
+            for (byte[] member : members) {
+                final GZIPOutputStream gz = new GZIPOutputStream(os);
+                gz.write(member);
+                gz.finish();
+            }
+        }
+        return file.toFile();
+    }
+
+    @Test
+    void testDetect() throws Exception {
+        assertEquals(CompressorStreamFactory.GZIP, Decompression.detect(gzip("data.gz", DATA)));
+
+        final Path bzip2 = dir.resolve("data.bz2");
+        try (OutputStream os = new BZip2CompressorOutputStream(Files.newOutputStream(bzip2))) {
+            os.write(DATA);
+        }
+        assertEquals(CompressorStreamFactory.BZIP2, Decompression.detect(bzip2.toFile()));
+
+        // the name does not matter, only the contents
+        assertNull(Decompression.detect(Files.write(dir.resolve("plain.gz"), DATA).toFile()));
+        assertNull(Decompression.detect(Files.write(dir.resolve("empty"), new byte[0]).toFile()));
+    }
+
+    @Test
+    void testOpenConcatenated() throws Exception {
+        final byte[] second = "second member".getBytes(StandardCharsets.UTF_8);
+        final File file = gzip("data.gz", DATA, second);
+        try (InputStream is = Decompression.open(file, CompressorStreamFactory.GZIP)) {
+            final byte[] all = is.readAllBytes();
+            assertEquals(DATA.length + second.length, all.length);
+            assertEquals("second member", new String(all, DATA.length, second.length, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testParseFromSpool() throws Exception {
+        final Path spooled = Decompression.spool(gzip("data.gz", DATA), CompressorStreamFactory.GZIP, dir);
+        try (SeekableByteChannel channel = FileChannel.open(spooled, StandardOpenOption.READ)) {
+            assertEquals(DATA.length, channel.size());
+            final SimpleNioParser parser = new SimpleNioParser(channel);
+            final DecomposedSession session = parser.getNextSession();
+            assertArrayEquals(DATA, session.getData());
+            assertThrows(ParserEOFException.class, parser::getNextSession);
+        }
+        Decompression.deleteSpool(spooled);
+        assertFalse(Files.exists(spooled));
+        // already gone is not an error
+        Decompression.deleteSpool(spooled);
+    }
+
+    @Test
+    void testSpool() throws Exception {
+        final Path spooled = Decompression.spool(gzip("data.gz", DATA), CompressorStreamFactory.GZIP, dir);
+        assertArrayEquals(DATA, Files.readAllBytes(spooled));
+    }
+
+    @Test
+    void testSpoolCorrupt() throws Exception {
+        final byte[] compressed = Files.readAllBytes(gzip("data.gz", DATA).toPath());
+        final File truncated = Files.write(dir.resolve("truncated.gz"), Arrays.copyOf(compressed, compressed.length / 2)).toFile();
+        final Path spoolDir = Files.createDirectory(dir.resolve("spool"));
+
+        assertThrows(IOException.class, () -> Decompression.spool(truncated, CompressorStreamFactory.GZIP, spoolDir));
+        try (Stream<Path> left = Files.list(spoolDir)) {
+            assertFalse(left.findAny().isPresent(), "Spooled file removed after failure");
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final int size = Integer.getInteger("emissary.benchmark.decompressionBytes", 256 * 1024 * 1024);
+        final Path file = dir.resolve("benchmark.gz");
+        final Random random = new Random(1);
+        final byte[] words = new byte[64 * 1024];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = (byte) (random.nextInt(8) == 0 ? ' ' : 'a' + random.nextInt(16));
+        }
+        try (OutputStream os = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), 64 * 1024)) {
+            for (int written = 0; written < size; written += words.length) {
+                os.write(words, 0, Math.min(words.length, size - written));
+            }
+        }
+        final File input = file.toFile();
+        logger.info("{} bytes compressed to {}", size, input.length());
+
+        for (int round = 0; round < 3; round++) {
+            // what a place does today: the whole compressed file as a payload, expanded into a new payload
+            final long whole = measure("whole", size, () -> {
+                final byte[] compressed = Files.readAllBytes(input.toPath());
+                try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                    return checksum(is.readAllBytes());
+                }
+            });
+            final long spooled = measure("spooled", size, () -> {
+                final Path spool = Decompression.spool(input, CompressorStreamFactory.GZIP, dir);
+                try {
+                    return checksum(Files.readAllBytes(spool));
+                } finally {
+                    Files.delete(spool);
+                }
+            });
+            assertEquals(whole, spooled);
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private interface Run {
+        long run() throws Exception;
+    }
+
+    private static long measure(String name, long bytes, Run run) throws Exception {
+        System.gc();
+        long before = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                before += pool.getUsage().getUsed();
+            }
+        }
+        final long start = System.nanoTime();
+        final long checksum = run.run();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        logger.info("{}: {} MB in {} s, {} MB/s, peak heap growth {} MB", name, bytes >> 20, seconds, (bytes >> 20) / seconds,
+                (peak - before) >> 20);
+        return checksum;
+    }
+}
@@ -0,0 +1,267 @@
+package emissary.pickup;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileStateIndexTest extends UnitTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testPutAndRemove() throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertNull(index.getState("/data/one"));
+            assertFalse(index.contains("/data/one", 10, 100));
+
+            index.put("/data/one", 10, 100, FileStateIndex.State.SEEN);
+            assertTrue(index.contains("/data/one", 10, 100));
+            assertFalse(index.contains("/data/one", 11, 100), "changed size is not tracked");
+            assertFalse(index.contains("/data/one", 10, 101), "changed modification time is not tracked");
+            assertEquals(FileStateIndex.State.SEEN, index.getState("/data/one"));
+            assertEquals(1, index.size(FileStateIndex.State.SEEN));
+
+            assertTrue(index.setState("/data/one", FileStateIndex.State.DONE));
+            assertEquals(FileStateIndex.State.DONE, index.getState("/data/one"));
+            assertEquals(0, index.size(FileStateIndex.State.SEEN));
+            assertEquals(1, index.size(FileStateIndex.State.DONE));
+            assertTrue(index.contains("/data/one", 10, 100));
+            assertFalse(index.setState("/data/two", FileStateIndex.State.DONE));
+
+            assertFalse(index.remove("/data/one", FileStateIndex.State.SEEN), "state does not match");
+            assertEquals(1, index.size());
+            assertTrue(index.remove("/data/one"));
+            assertFalse(index.remove("/data/one"));
+            assertEquals(0, index.size());
+            assertNull(index.getState("/data/one"));
+        }
+    }
+
+    @Test
+    void testReopen() throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            index.put("/data/seen", 1, 2, FileStateIndex.State.SEEN);
+            index.put("/data/done", 3, 4, FileStateIndex.State.DONE);
+            index.put("/data/gone", 5, 6, FileStateIndex.State.DONE);
+            index.remove("/data/gone");
+        }
+
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(2, index.size());
+            assertEquals(1, index.size(FileStateIndex.State.SEEN));
+            assertTrue(index.contains("/data/seen", 1, 2));
+            assertTrue(index.contains("/data/done", 3, 4));
+            assertEquals(FileStateIndex.State.DONE, index.getState("/data/done"));
+            assertNull(index.getState("/data/gone"));
+        }
+    }
+
+    @Test
+    void testRecoveryWithoutClose(@TempDir final Path copy) throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            index.put("/data/one", 1, 1, FileStateIndex.State.DONE);
+            index.put("/data/two", 2, 2, FileStateIndex.State.SEEN);
+            index.sync();
+
+            // a snapshot of an index that is still open is what a crash leaves behind
+            copyIndex(dir, copy);
+        }
+
+        try (FileStateIndex index = FileStateIndex.open(copy)) {
+            assertEquals(2, index.size());
+            assertEquals(1, index.size(FileStateIndex.State.SEEN));
+            assertEquals(FileStateIndex.State.DONE, index.getState("/data/one"));
+            assertEquals(FileStateIndex.State.SEEN, index.getState("/data/two"));
+        }
+    }
+
+    @Test
+    void testTornLogTail() throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            index.put("/data/one", 1, 1, FileStateIndex.State.DONE);
+            index.put("/data/two", 2, 2, FileStateIndex.State.DONE);
+        }
+        final Path log = dir.resolve(FileStateIndex.LOG_FILE);
+        final long goodLength = Files.size(log);
+
+        // a record that was only partly written, which also leaves the table stale
+        Files.write(log, new byte[] {0, 0, 0, 40, 2, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(2, index.size());
+            assertEquals(goodLength, index.getLogLength());
+            index.put("/data/three", 3, 3, FileStateIndex.State.SEEN);
+        }
+
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(3, index.size());
+            assertTrue(index.contains("/data/three", 3, 3));
+        }
+    }
+
+    @Test
+    void testCorruptRecord() throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            index.put("/data/one", 1, 1, FileStateIndex.State.DONE);
+            index.put("/data/two", 2, 2, FileStateIndex.State.DONE);
+        }
+        final Path log = dir.resolve(FileStateIndex.LOG_FILE);
+        final byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 6] ^= 0x55;
+        Files.write(log, bytes);
+        // a clean table is trusted, so force the log to be replayed
+        Files.delete(dir.resolve(FileStateIndex.INDEX_FILE));
+
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(1, index.size());
+            assertTrue(index.contains("/data/one", 1, 1));
+            assertNull(index.getState("/data/two"));
+        }
+    }
+
+    @Test
+    void testGrowth() throws IOException {
+        final int entries = 10_000;
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            for (int i = 0; i < entries; i++) {
+                index.put("/data/file" + i, i, i, FileStateIndex.State.DONE);
+            }
+            assertEquals(entries, index.size());
+            assertTrue(index.getCapacity() > FileStateIndex.MIN_CAPACITY);
+            for (int i = 0; i < entries; i++) {
+                assertTrue(index.contains("/data/file" + i, i, i));
+            }
+        }
+
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(entries, index.size());
+            for (int i = 0; i < entries; i += 97) {
+                assertTrue(index.contains("/data/file" + i, i, i));
+            }
+            assertFalse(index.contains("/data/file" + entries, entries, entries));
+        }
+    }
+
+    @Test
+    void testRemoveAll() throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            for (int i = 0; i < 100; i++) {
+                index.put("/data/file" + i, i, i, i % 2 == 0 ? FileStateIndex.State.SEEN : FileStateIndex.State.DONE);
+            }
+            assertEquals(50, index.size(FileStateIndex.State.SEEN));
+            assertEquals(50, index.removeAll(FileStateIndex.State.SEEN));
+            assertEquals(50, index.size());
+            assertEquals(0, index.size(FileStateIndex.State.SEEN));
+            index.put("/data/file0", 0, 0, FileStateIndex.State.SEEN);
+            index.remove("/data/file0");
+        }
+
+        // replaying the log gives the same result
+        Files.delete(dir.resolve(FileStateIndex.INDEX_FILE));
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(50, index.size());
+            assertEquals(0, index.size(FileStateIndex.State.SEEN));
+            assertEquals(50, index.size(FileStateIndex.State.DONE));
+            assertNull(index.getState("/data/file0"));
+            assertEquals(FileStateIndex.State.DONE, index.getState("/data/file1"));
+        }
+    }
+
+    @Test
+    void testCompact() throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            for (int i = 0; i < 1000; i++) {
+                index.put("/data/file" + i, i, i, FileStateIndex.State.SEEN);
+                index.setState("/data/file" + i, FileStateIndex.State.DONE);
+                if (i % 10 != 0) {
+                    index.remove("/data/file" + i);
+                }
+            }
+            final long before = index.getLogLength();
+            index.compact();
+            assertTrue(index.getLogLength() < before / 10);
+            assertEquals(100, index.size());
+            assertEquals(FileStateIndex.State.DONE, index.getState("/data/file990"));
+
+            index.put("/data/after", 1, 1, FileStateIndex.State.SEEN);
+            assertEquals(1, index.removeAll(FileStateIndex.State.SEEN));
+        }
+
+        Files.delete(dir.resolve(FileStateIndex.INDEX_FILE));
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(100, index.size());
+            assertTrue(index.contains("/data/file0", 0, 0));
+            assertNull(index.getState("/data/after"));
+        }
+    }
+
+    @Test
+    void testRemoveMissing(@TempDir final Path files) throws IOException {
+        final Path kept = Files.createFile(files.resolve("kept"));
+        final Path seen = files.resolve("seen");
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            index.put(kept.toString(), 0, 0, FileStateIndex.State.DONE);
+            index.put(files.resolve("gone").toString(), 0, 0, FileStateIndex.State.DONE);
+            index.put(seen.toString(), 0, 0, FileStateIndex.State.SEEN);
+
+            assertEquals(1, index.removeMissing());
+            assertEquals(2, index.size());
+            assertEquals(FileStateIndex.State.DONE, index.getState(kept.toString()));
+            assertEquals(FileStateIndex.State.SEEN, index.getState(seen.toString()), "work in flight is kept");
+        }
+
+        Files.delete(dir.resolve(FileStateIndex.INDEX_FILE));
+        try (FileStateIndex index = FileStateIndex.open(dir)) {
+            assertEquals(2, index.size());
+            assertNull(index.getState(files.resolve("gone").toString()));
+        }
+    }
+
+    @Test
+    void testFullTableForgetsMissingFiles(@TempDir final Path files) throws IOException {
+        try (FileStateIndex index = FileStateIndex.open(dir, FileStateIndex.MIN_CAPACITY)) {
+            // many times the capacity of files that are completed and then deleted
+            for (int i = 0; i < 5 * FileStateIndex.MIN_CAPACITY; i++) {
+                final Path file = Files.createFile(files.resolve("file" + i));
+                index.put(file.toString(), 0, 0, FileStateIndex.State.SEEN);
+                index.setState(file.toString(), FileStateIndex.State.DONE);
+                Files.delete(file);
+            }
+            assertEquals(FileStateIndex.MIN_CAPACITY, index.getCapacity());
+            assertTrue(index.size() < FileStateIndex.MIN_CAPACITY);
+
+            // completed files that still exist cannot be forgotten
+            final Path kept = Files.createFile(files.resolve("kept"));
+            index.put(kept.toString(), 0, 0, FileStateIndex.State.DONE);
+            IOException full = null;
+            for (int i = 0; i < FileStateIndex.MIN_CAPACITY && full == null; i++) {
+                final Path file = Files.createFile(files.resolve("existing" + i));
+                try {
+                    index.put(file.toString(), 0, 0, FileStateIndex.State.DONE);
+                } catch (IOException e) {
+                    full = e;
+                }
+            }
+            assertNotNull(full, "The table is full of files that exist");
+            assertEquals(FileStateIndex.State.DONE, index.getState(kept.toString()));
+        }
+    }
+
+    private static void copyIndex(final Path from, final Path to) throws IOException {
+        Files.copy(from.resolve(FileStateIndex.LOG_FILE), to.resolve(FileStateIndex.LOG_FILE));
+        Files.copy(from.resolve(FileStateIndex.INDEX_FILE), to.resolve(FileStateIndex.INDEX_FILE));
+    }
+}
@@ -0,0 +1,238 @@
+package emissary.pickup;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelDirectoryWalkerTest extends UnitTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Create a tree of directories, each holding a few files
+     */
+    private static Set<String> createTree(final Path root, final int depth, final int width, final int files) throws IOException {
+        final Set<String> created = new TreeSet<>();
+        for (int f = 0; f < files; f++) {
+            final Path file = Files.createFile(root.resolve("file" + f));
+            created.add(file.toString());
+        }
+        if (depth > 0) {
+            for (int d = 0; d < width; d++) {
+                created.addAll(createTree(Files.createDirectory(root.resolve("dir" + d)), depth - 1, width, files));
+            }
+        }
+        return created;
+    }
+
+    private static class Collecting implements ParallelDirectoryWalker.Visitor {
+        final Set<String> files = ConcurrentHashMap.newKeySet();
+        final Set<String> directories = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public boolean visitDirectory(final Path directory) {
+            directories.add(directory.toString());
+            return true;
+        }
+
+        @Override
+        public void visitFile(final Path file, final BasicFileAttributes attributes) {
+            files.add(file.toString());
+        }
+    }
+
+    @Test
+    void testWalkFindsEverything() throws Exception {
+        final Set<String> expected = createTree(dir, 3, 4, 3);
+
+        try (ParallelDirectoryWalker walker = new ParallelDirectoryWalker(4)) {
+            final Collecting visitor = new Collecting();
+            walker.walk(dir, 10, visitor);
+            assertEquals(expected, new TreeSet<>(visitor.files));
+            assertEquals(4 + 16 + 64, visitor.directories.size());
+
+            // the walker can be reused
+            final Collecting again = new Collecting();
+            walker.walk(dir, 10, again);
+            assertEquals(expected, new TreeSet<>(again.files));
+        }
+    }
+
+    @Test
+    void testSkipDirectory() throws Exception {
+        createTree(dir, 2, 2, 1);
+
+        try (ParallelDirectoryWalker walker = new ParallelDirectoryWalker(2)) {
+            final Collecting visitor = new Collecting() {
+                @Override
+                public boolean visitDirectory(final Path directory) {
+                    return !directory.getFileName().toString().equals("dir0");
+                }
+            };
+            walker.walk(dir, 10, visitor);
+            assertEquals(3, visitor.files.size());
+            assertTrue(visitor.files.stream().noneMatch(f -> f.contains("dir0")));
+        }
+    }
+
+    @Test
+    void testSymbolicLinkCycle() throws Exception {
+        final Set<String> expected = createTree(dir, 1, 2, 1);
+        Files.createSymbolicLink(dir.resolve("dir0").resolve("up"), dir);
+        Files.createSymbolicLink(dir.resolve("dir1").resolve("self"), dir.resolve("dir1"));
+
+        try (ParallelDirectoryWalker walker = new ParallelDirectoryWalker(2)) {
+            final Collecting visitor = new Collecting();
+            walker.walk(dir, 10, visitor);
+            assertEquals(expected, new TreeSet<>(visitor.files));
+        }
+    }
+
+    @Test
+    void testSingleFileRoot() throws Exception {
+        final Path file = Files.createFile(dir.resolve("single"));
+        try (ParallelDirectoryWalker walker = new ParallelDirectoryWalker(1)) {
+            final Collecting visitor = new Collecting();
+            walker.walk(file, 10, visitor);
+            assertEquals(Collections.singleton(file.toString()), visitor.files);
+        }
+    }
+
+    @Test
+    void testMissingRoot() {
+        try (ParallelDirectoryWalker walker = new ParallelDirectoryWalker(1)) {
+            assertThrows(IOException.class, () -> walker.walk(dir.resolve("missing"), 10, new Collecting()));
+        }
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        createTree(dir, 3, 4, 3);
+
+        try (ParallelDirectoryWalker walker = new ParallelDirectoryWalker(2)) {
+            final AtomicInteger visited = new AtomicInteger();
+            walker.walk(dir, 10, new ParallelDirectoryWalker.Visitor() {
+                @Override
+                public void visitFile(final Path file, final BasicFileAttributes attributes) {
+                    visited.incrementAndGet();
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return visited.get() >= 5;
+                }
+            });
+            assertTrue(visited.get() < 10, "walk stopped early, visited " + visited.get());
+        }
+    }
+
+    @Test
+    void testPriorityOrder() throws Exception {
+        final Path low = Files.createDirectory(dir.resolve("low"));
+        final Path high = Files.createDirectory(dir.resolve("high"));
+        for (int i = 0; i < 5; i++) {
+            Files.createFile(Files.createDirectory(low.resolve("d" + i)).resolve("f"));
+            Files.createFile(Files.createDirectory(high.resolve("d" + i)).resolve("f"));
+        }
+
+        try (ParallelDirectoryWalker walker = new ParallelDirectoryWalker(1)) {
+            // hold the only thread so both walks queue their roots before anything is listed
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final Path blocker = Files.createDirectory(dir.resolve("blocker"));
+            Files.createFile(blocker.resolve("f"));
+            final Thread blockingWalk = new Thread(() -> {
+                try {
+                    walker.walk(blocker, 0, (file, attributes) -> {
+                        blocked.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            blockingWalk.start();
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+            final List<String> order = Collections.synchronizedList(new ArrayList<>());
+            final Thread lowWalk = new Thread(() -> walkRecording(walker, low, 20, order, "low"));
+            final Thread highWalk = new Thread(() -> walkRecording(walker, high, 5, order, "high"));
+            lowWalk.start();
+            highWalk.start();
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (walker.getQueuedDirectoryCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            blockingWalk.join(10000);
+            lowWalk.join(10000);
+            highWalk.join(10000);
+
+            assertEquals(10, order.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("high", order.get(i), "higher priority walk is listed first: " + order);
+            }
+        }
+    }
+
+    private static void walkRecording(final ParallelDirectoryWalker walker, final Path root, final int priority, final List<String> order,
+            final String name) {
+        try {
+            walker.walk(root, priority, (file, attributes) -> order.add(name));
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void testCloseEndsWalk() throws Exception {
+        createTree(dir, 2, 3, 1);
+        final ParallelDirectoryWalker walker = new ParallelDirectoryWalker(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread walk = new Thread(() -> {
+            try {
+                walker.walk(dir, 10, (file, attributes) -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        walk.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        walker.close();
+        walk.join(10000);
+        assertFalse(walk.isAlive(), "walk returned after the walker was closed");
+    }
+}
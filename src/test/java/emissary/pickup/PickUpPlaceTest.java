@@ -1,18 +1,396 @@
 package emissary.pickup;
 
+import emissary.core.EmissaryException;
+import emissary.core.IBaseDataObject;
 import emissary.core.IMobileAgent;
+import emissary.core.constants.Parameters;
+import emissary.parser.DecomposedSession;
+import emissary.parser.ParserEOFException;
+import emissary.parser.ParserException;
+import emissary.parser.ParserFactory;
+import emissary.parser.SessionParser;
+import emissary.parser.SimpleNioParser;
 import emissary.pickup.file.FilePickUpClient;
 import emissary.pickup.file.FilePickUpPlace;
 import emissary.server.EmissaryServer;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class PickUpPlaceTest extends UnitTest {
 
+    private static final String CONFIG = "PLACE_NAME = \"PickUpPlaceTest\"\n" + "SERVICE_NAME = \"TEST_PICKUP\"\n"
+            + "SERVICE_TYPE = \"INPUT\"\n" + "SERVICE_DESCRIPTION = \"test pickup\"\n" + "SERVICE_COST = 50\n" + "SERVICE_QUALITY = 50\n"
+            + "SERVICE_PROXY = \"TEST_PICKUP_PROXY\"\n";
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Stands in for the node dying
+     */
+    static class Crash extends Error {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Records the sessions handed to agents instead of dispatching them
+     */
+    static class RecordingPickUpPlace extends PickUpPlace {
+        final Set<String> dispatched = ConcurrentHashMap.newKeySet();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final Map<String, IBaseDataObject> objects = new ConcurrentHashMap<>();
+        final AtomicInteger active = new AtomicInteger();
+        volatile int maxActive = 0;
+        volatile int failAt = -1;
+        volatile int crashAt = -1;
+        volatile int crashAfterCheckpoint = -1;
+
+        RecordingPickUpPlace(String config, int sessions) throws IOException {
+            super(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+            parserFactory = new CountingParserFactory(sessions);
+        }
+
+        @Override
+        protected boolean processDataObject(IBaseDataObject d, String fixedName, File theFile, boolean simpleMode) throws EmissaryException {
+            maxActive = Math.max(maxActive, active.incrementAndGet());
+            try {
+                threads.add(Thread.currentThread().getName());
+                if (fixedName.endsWith("-" + failAt)) {
+                    throw new EmissaryException("Cannot dispatch " + fixedName);
+                }
+                if (fixedName.endsWith("-" + crashAt)) {
+                    throw new Crash();
+                }
+                Thread.sleep(2);
+                dispatched.add(fixedName);
+                objects.put(fixedName, d);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EmissaryException("Interrupted", e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected CheckpointJournal openCheckpoint(File theFile) throws IOException {
+            if (checkpointArea == null) {
+                return null;
+            }
+            return new CheckpointJournal(Paths.get(checkpointArea), theFile, checkpointForce) {
+                @Override
+                protected void write(int sessions, long position) throws IOException {
+                    super.write(sessions, position);
+                    if (sessions == crashAfterCheckpoint) {
+                        throw new Crash();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Makes parsers producing a fixed number of sessions
+     */
+    static class CountingParserFactory extends ParserFactory {
+        final int sessions;
+        boolean seekable = false;
+        final AtomicInteger parsed = new AtomicInteger();
+
+        CountingParserFactory(int sessions) {
+            this.sessions = sessions;
+        }
+
+        @Override
+        public SessionParser makeSessionParser(SeekableByteChannel channel) {
+            return new SessionParser() {
+                int count = 0;
+
+                @Override
+                public DecomposedSession getNextSession() throws ParserException {
+                    if (count == sessions) {
+                        setFullyParsed(true);
+                        throw new ParserEOFException("Past end of data");
+                    }
+                    count++;
+                    parsed.incrementAndGet();
+                    final DecomposedSession d = new DecomposedSession();
+                    d.setData(("session " + count).getBytes(StandardCharsets.UTF_8));
+                    return d;
+                }
+
+                @Override
+                public long getPosition() {
+                    return seekable ? count : -1L;
+                }
+
+                @Override
+                public boolean seek(long position) {
+                    if (seekable) {
+                        count = (int) position;
+                    }
+                    return seekable;
+                }
+            };
+        }
+    }
+
+    /**
+     * Makes parsers taking the whole input as one session
+     */
+    static class WholeParserFactory extends ParserFactory {
+        @Override
+        public SessionParser makeSessionParser(SeekableByteChannel channel) {
+            try {
+                return new SimpleNioParser(channel);
+            } catch (ParserException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private File input() throws IOException {
+        return Files.write(dir.resolve("input"), new byte[1]).toFile();
+    }
+
+    @Test
+    void testPipelinedSessions() throws Exception {
+        final RecordingPickUpPlace place = new RecordingPickUpPlace(CONFIG + "SESSION_DISPATCHERS = 4\nSESSION_QUEUE_SIZE = 2\n", 100);
+        try {
+            assertEquals(100, place.processSessions(input(), "input"));
+            assertEquals(100, place.dispatched.size());
+            for (int i = 1; i <= 100; i++) {
+                assertTrue(place.dispatched.contains("input-" + i), "session " + i);
+            }
+            assertTrue(place.maxActive > 1, "Sessions were dispatched in parallel");
+            assertFalse(place.threads.contains(Thread.currentThread().getName()), "Sessions were not dispatched by the parser");
+        } finally {
+            place.shutDown();
+        }
+    }
+
+    @Test
+    void testDispatchThreadsBounded() throws Exception {
+        final RecordingPickUpPlace place = new RecordingPickUpPlace(CONFIG + "SESSION_DISPATCHERS = 4\nSESSION_DISPATCH_THREADS = 2\n", 100);
+        try {
+            assertEquals(100, place.processSessions(input(), "input"));
+            assertEquals(100, place.dispatched.size());
+            assertTrue(place.maxActive <= 2, "At most two sessions dispatched at once");
+            assertTrue(place.threads.size() <= 2, "At most two dispatch threads");
+        } finally {
+            place.shutDown();
+        }
+    }
+
+    @Test
+    void testPipelinedDispatchFailure() throws Exception {
+        final RecordingPickUpPlace place = new RecordingPickUpPlace(CONFIG + "SESSION_DISPATCHERS = 2\n", 1000);
+        place.failAt = 10;
+        try {
+            final ParserException e = assertThrows(ParserException.class, () -> place.processSessions(input(), "input"));
+            assertInstanceOf(EmissaryException.class, e.getCause());
+            assertFalse(place.dispatched.contains("input-10"));
+            assertTrue(place.dispatched.size() < 1000, "Parsing stopped after the failure");
+        } finally {
+            place.shutDown();
+        }
+    }
+
+    @Test
+    void testDecompressInput() throws Exception {
+        final byte[] content = "compressed content\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        final File compressed = dir.resolve("input.gz").toFile();
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+            os.write(content);
+        }
+        final Path spool = Files.createDirectory(dir.resolve("spool"));
+
+        for (String config : new String[] {"DECOMPRESS_INPUT = \"true\"\n",
+                "DECOMPRESS_INPUT = \"true\"\nDECOMPRESS_SPOOL_AREA = \"" + spool + "\"\n"}) {
+            final RecordingPickUpPlace place = new RecordingPickUpPlace(CONFIG + config, 0);
+            place.parserFactory = new WholeParserFactory();
+            try {
+                assertEquals(1, place.processSessions(compressed, "input"));
+                final IBaseDataObject d = place.objects.get("input-1");
+                assertArrayEquals(content, d.data());
+                assertEquals("gz", d.getStringParameter(Parameters.FILE_COMPRESSION));
+                try (Stream<Path> left = Files.list(spool)) {
+                    assertFalse(left.findAny().isPresent(), "Spooled data removed");
+                }
+            } finally {
+                place.shutDown();
+            }
+        }
+
+        // left alone when not configured
+        final RecordingPickUpPlace place = new RecordingPickUpPlace(CONFIG, 0);
+        place.parserFactory = new WholeParserFactory();
+        try {
+            assertEquals(1, place.processSessions(compressed, "input"));
+            final IBaseDataObject d = place.objects.get("input-1");
+            assertArrayEquals(Files.readAllBytes(compressed.toPath()), d.data());
+            assertNull(d.getParameter(Parameters.FILE_COMPRESSION));
+        } finally {
+            place.shutDown();
+        }
+    }
+
+    @Test
+    void testDecompressSimpleLimit() throws Exception {
+        final byte[] content = "compressed content\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        final File compressed = dir.resolve("input.gz").toFile();
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+            os.write(content);
+        }
+        assertTrue(compressed.length() < 1000);
+
+        for (int max : new int[] {content.length, content.length - 1}) {
+            final Set<String> oversize = ConcurrentHashMap.newKeySet();
+            final String config = CONFIG + "DECOMPRESS_INPUT = \"true\"\nMAXIMUM_DATA_SIZE = " + max + "\n";
+            final RecordingPickUpPlace place = new RecordingPickUpPlace(config, 0) {
+                @Override
+                protected boolean handleOversizePayload(File theFile, String fixedName, boolean simpleMode) {
+                    oversize.add(fixedName);
+                    return true;
+                }
+            };
+            try {
+                assertTrue(place.handleSimplePayload(compressed, "input"));
+                if (max == content.length) {
+                    assertArrayEquals(content, place.objects.get("input").data());
+                    assertTrue(oversize.isEmpty());
+                } else {
+                    assertTrue(place.objects.isEmpty(), "Nothing read past the limit");
+                    assertTrue(oversize.contains("input"));
+                }
+            } finally {
+                place.shutDown();
+            }
+        }
+    }
+
+    /**
+     * Crash at every point of a file and check that each session is dispatched once over the crash and the restart
+     */
+    @Test
+    void testCheckpointResume() throws Exception {
+        final int sessions = 8;
+        final File input = input();
+        final String config = CONFIG + "CHECKPOINT_AREA = \"" + Files.createDirectory(dir.resolve("checkpoint")) + "\"\n";
+        for (boolean seekable : new boolean[] {true, false}) {
+            for (boolean afterCheckpoint : new boolean[] {true, false}) {
+                for (int crash = 1; crash <= sessions; crash++) {
+                    final String run = "seekable=" + seekable + " afterCheckpoint=" + afterCheckpoint + " crash=" + crash;
+                    final Map<String, Integer> counts = new HashMap<>();
+
+                    final RecordingPickUpPlace first = new RecordingPickUpPlace(config, sessions);
+                    ((CountingParserFactory) first.parserFactory).seekable = seekable;
+                    if (afterCheckpoint) {
+                        first.crashAfterCheckpoint = crash;
+                    } else {
+                        first.crashAt = crash;
+                    }
+                    assertThrows(Crash.class, () -> first.processSessions(input, "input"), run);
+                    first.dispatched.forEach(name -> counts.merge(name, 1, Integer::sum));
+                    first.shutDown();
+
+                    final RecordingPickUpPlace second = new RecordingPickUpPlace(config, sessions);
+                    final CountingParserFactory parser = (CountingParserFactory) second.parserFactory;
+                    parser.seekable = seekable;
+                    assertEquals(sessions, second.processSessions(input, "input"), run);
+                    second.dispatched.forEach(name -> counts.merge(name, 1, Integer::sum));
+                    second.shutDown();
+
+                    for (int i = 1; i <= sessions; i++) {
+                        assertEquals(1, counts.getOrDefault("input-" + i, 0), run + " session " + i);
+                    }
+                    final int resumedAt = afterCheckpoint ? crash : crash - 1;
+                    assertEquals(seekable ? sessions - resumedAt : sessions, parser.parsed.get(), run + " sessions parsed on restart");
+                    try (Stream<Path> left = Files.list(dir.resolve("checkpoint"))) {
+                        assertFalse(left.findAny().isPresent(), run + " journal removed");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * With several dispatchers the sessions in flight at a crash are dispatched again, but none are lost
+     */
+    @Test
+    void testPipelinedCheckpointResume() throws Exception {
+        final int sessions = 50;
+        final File input = input();
+        final String config = CONFIG + "SESSION_DISPATCHERS = 3\nSESSION_QUEUE_SIZE = 2\nCHECKPOINT_AREA = \""
+                + Files.createDirectory(dir.resolve("checkpoint")) + "\"\n";
+        final Map<String, Integer> counts = new HashMap<>();
+
+        final RecordingPickUpPlace first = new RecordingPickUpPlace(config, sessions);
+        first.crashAt = 20;
+        assertThrows(Crash.class, () -> first.processSessions(input, "input"));
+        first.dispatched.forEach(name -> counts.merge(name, 1, Integer::sum));
+        first.shutDown();
+
+        final RecordingPickUpPlace second = new RecordingPickUpPlace(config, sessions);
+        assertEquals(sessions, second.processSessions(input, "input"));
+        second.dispatched.forEach(name -> counts.merge(name, 1, Integer::sum));
+        second.shutDown();
+
+        int repeated = 0;
+        for (int i = 1; i <= sessions; i++) {
+            final int count = counts.getOrDefault("input-" + i, 0);
+            assertTrue(count >= 1, "session " + i + " dispatched");
+            assertTrue(count <= 2, "session " + i + " dispatched at most once more");
+            if (i < 20) {
+                assertEquals(1, count, "session " + i + " before the crash dispatched once");
+            }
+            repeated += count - 1;
+        }
+        // no more than the dispatchers and the queue held at the time
+        assertTrue(repeated <= 3 + 2, "repeated " + repeated);
+    }
+
+    @Test
+    void testSynchronousSessions() throws Exception {
+        final RecordingPickUpPlace place = new RecordingPickUpPlace(CONFIG, 10);
+        try {
+            assertEquals(10, place.processSessions(input(), "input"));
+            assertEquals(10, place.dispatched.size());
+            assertEquals(1, place.maxActive);
+            assertTrue(place.threads.contains(Thread.currentThread().getName()));
+        } finally {
+            place.shutDown();
+        }
+    }
+
     @Test
     void testIsPickUpTrue() {
         assertTrue(PickUpPlace.implementsPickUpPlace(FilePickUpPlace.class));
@@ -0,0 +1,235 @@
+package emissary.pickup;
+
+import emissary.server.mvc.adapters.WorkSpaceAdapter;
+import emissary.test.core.junit5.UnitTest;
+
+import jakarta.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PickUpSpaceTest extends UnitTest {
+
+    private static final String SPACE = "WORKSPACE.WORK_SPACE.INPUT.http://localhost:8001/WorkSpace";
+
+    private static final String CONFIG = "PLACE_NAME = \"PickUpSpaceTest\"\n" + "SERVICE_NAME = \"TEST_PICKUP_SPACE\"\n"
+            + "SERVICE_TYPE = \"INPUT\"\n" + "SERVICE_DESCRIPTION = \"test pickup space\"\n" + "SERVICE_COST = 50\n"
+            + "SERVICE_QUALITY = 50\n" + "SERVICE_PROXY = \"TEST_PICKUP_SPACE_PROXY\"\n" + "BINARY_TAKE = \"true\"\n"
+            + "MAX_TAKE_BUNDLES = \"10\"\n" + "PREFETCH_MILLIS = \"2000\"\n";
+
+    @Nullable
+    private TestSpace space;
+
+    /**
+     * One request made to the space
+     */
+    static final class Request {
+        final int count;
+        final Map<String, Boolean> completed;
+
+        Request(int count, Map<String, Boolean> completed) {
+            this.count = count;
+            this.completed = new LinkedHashMap<>(completed);
+        }
+    }
+
+    /**
+     * Records the requests made to the space and answers them with bundles made up on the spot
+     */
+    static final class RecordingAdapter extends WorkSpaceAdapter {
+        final List<Request> requests = new CopyOnWriteArrayList<>();
+        volatile boolean fail = false;
+
+        @Override
+        @Nullable
+        public List<WorkBundle> outboundWorkSpaceTakeBundles(String space, String place, int count, Map<String, Boolean> completed) {
+            requests.add(new Request(count, completed));
+            if (fail) {
+                return null;
+            }
+            final List<WorkBundle> bundles = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final WorkBundle wb = new WorkBundle("/fake/root", "/fake/eat");
+                wb.addFileName("file" + i);
+                bundles.add(wb);
+            }
+            return bundles;
+        }
+
+        @Override
+        public boolean outboundBundleCompletion(String space, String place, String bundleId, boolean itWorked) {
+            throw new AssertionError("Completions should go with a take");
+        }
+    }
+
+    static final class TestSpace extends PickUpSpace {
+        final Queue<WorkBundle> queue = new ConcurrentLinkedQueue<>();
+        final RecordingAdapter adapter = new RecordingAdapter();
+
+        TestSpace(String config) throws IOException {
+            super(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+            tpa = adapter;
+        }
+
+        @Override
+        public boolean enque(WorkBundle path) {
+            return queue.add(path);
+        }
+
+        @Override
+        public int getQueSize() {
+            return queue.size();
+        }
+    }
+
+    @AfterEach
+    public void shutDownSpace() {
+        if (space != null) {
+            space.shutDown();
+            space = null;
+        }
+    }
+
+    private TestSpace open(long flushMillis) throws IOException {
+        space = new TestSpace(CONFIG + "COMPLETION_FLUSH_MILLIS = \"" + flushMillis + "\"\n");
+        space.openSpace(SPACE);
+        return space;
+    }
+
+    private static void fill(TestSpace s, int bundles) {
+        for (int i = 0; i < bundles; i++) {
+            s.queue.add(new WorkBundle());
+        }
+    }
+
+    @Test
+    void testCompletionsSentWithNextTake() throws IOException {
+        final TestSpace s = open(60_000);
+        s.bundlesPerSecond = 1.0;
+        assertTrue(s.take());
+        assertEquals(2, s.getQueSize());
+        // no background takes or flushes, so only the test takes
+        s.prefetcher.shutdownNow();
+        s.prefetcher = null;
+
+        final WorkBundle first = s.queue.poll();
+        s.bundleCompleted(first.getBundleId(), true);
+        assertEquals(1, s.adapter.requests.size(), "Completion is held for the next take");
+
+        final WorkBundle second = s.queue.poll();
+        s.bundleCompleted(second.getBundleId(), false);
+        assertTrue(s.fetchBundles() > 0);
+
+        final Request request = s.adapter.requests.get(s.adapter.requests.size() - 1);
+        assertEquals(Boolean.TRUE, request.completed.get(first.getBundleId()));
+        assertEquals(Boolean.FALSE, request.completed.get(second.getBundleId()));
+        assertTrue(s.pendingCompletions.isEmpty());
+    }
+
+    @Test
+    void testTakeCountFromRate() throws IOException {
+        final TestSpace s = open(60_000);
+        assertEquals(1, s.getTakeCount(), "Nothing measured yet");
+
+        s.bundlesPerSecond = 2.0;
+        assertEquals(4, s.getPrefetchTarget());
+        fill(s, 1);
+        assertEquals(3, s.getTakeCount());
+
+        s.bundlesPerSecond = 1000.0;
+        assertEquals(10, s.getPrefetchTarget(), "Capped at MAX_TAKE_BUNDLES");
+    }
+
+    @Test
+    void testCompletionRate() throws IOException, InterruptedException {
+        final TestSpace s = open(60_000);
+        fill(s, 10);
+        s.recordCompletion(SPACE, "one", true);
+        assertEquals(0.0, s.bundlesPerSecond, "One completion gives no rate");
+        Thread.sleep(10);
+        s.recordCompletion(SPACE, "two", true);
+        assertTrue(s.bundlesPerSecond > 0.0 && s.bundlesPerSecond <= 100.0, "rate was " + s.bundlesPerSecond);
+    }
+
+    @Test
+    void testPrefetchWhenLow() throws Exception {
+        final TestSpace s = open(60_000);
+        s.bundlesPerSecond = 2.0;
+        s.recordCompletion(SPACE, "done", true);
+
+        final Future<Integer> prefetch;
+        synchronized (s.pendingCompletions) {
+            prefetch = s.prefetch;
+        }
+        assertNotNull(prefetch, "Empty buffer starts a prefetch");
+        assertEquals(4, prefetch.get(5, TimeUnit.SECONDS).intValue());
+        assertEquals(4, s.getQueSize());
+        assertEquals(Collections.singletonMap("done", true), s.adapter.requests.get(0).completed);
+
+        // the buffer is full, so the next completion waits for a take
+        fill(s, 6);
+        s.recordCompletion(SPACE, "later", true);
+        assertEquals(1, s.adapter.requests.size());
+    }
+
+    @Test
+    void testCompletionsFlushedOnTimer() throws IOException, InterruptedException {
+        final TestSpace s = open(50);
+        fill(s, 2);
+        s.recordCompletion(SPACE, "done", true);
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (s.adapter.requests.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, s.adapter.requests.size());
+        assertEquals(0, s.adapter.requests.get(0).count, "Flush takes no work");
+        assertEquals(Collections.singletonMap("done", true), s.adapter.requests.get(0).completed);
+        assertEquals(2, s.getQueSize());
+    }
+
+    @Test
+    void testFailedFlushKeepsCompletions() throws IOException {
+        final TestSpace s = open(60_000);
+        fill(s, 2);
+        s.recordCompletion(SPACE, "done", true);
+        s.adapter.fail = true;
+        s.flushCompletions();
+        assertEquals(Collections.singletonMap("done", true), s.pendingCompletions.get(SPACE));
+
+        s.adapter.fail = false;
+        s.flushCompletions();
+        assertNull(s.pendingCompletions.get(SPACE));
+        assertEquals(2, s.adapter.requests.size());
+    }
+
+    @Test
+    void testCompletionsFlushedOnShutDown() throws IOException {
+        final TestSpace s = open(60_000);
+        fill(s, 2);
+        s.recordCompletion(SPACE, "done", true);
+        s.shutDown();
+        space = null;
+
+        assertEquals(1, s.adapter.requests.size());
+        assertEquals(Collections.singletonMap("done", true), s.adapter.requests.get(0).completed);
+    }
+}
@@ -11,11 +11,13 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -133,6 +135,39 @@ class WorkBundleTest extends UnitTest {
         assertTrue(w4.toString().contains(w4.getBundleId()), "ToString with bundle id");
     }
 
+    @Test
+    void testMerge() {
+        WorkBundle w1 = new WorkBundle("/output/root", "/eat/prefix");
+        w1.addFileName("file1.txt", 15L, 4L);
+        WorkBundle w2 = new WorkBundle("/output/root", "/eat/prefix");
+        w2.addFileName("file2.txt", 7L, 10L);
+        w2.addFileName("file3.txt", 20L, 1L);
+
+        assertTrue(w1.merge(w2));
+        assertEquals(Arrays.asList("file1.txt", "file2.txt", "file3.txt"), w1.getFileNameList());
+        assertEquals(7L, w1.getOldestFileModificationTime());
+        assertEquals(20L, w1.getYoungestFileModificationTime());
+        assertEquals(15L, w1.getTotalFileSize());
+        assertEquals(2, w2.size(), "Merged bundle is unchanged");
+
+        WorkBundle other = new WorkBundle("/output/root", "/other/prefix");
+        other.addFileName("file4.txt");
+        assertFalse(w1.merge(other), "Bundles for a different eat prefix are not merged");
+        other = new WorkBundle("/output/root", "/eat/prefix");
+        other.setPriority(1);
+        assertFalse(w1.merge(other), "Bundles of a different priority are not merged");
+        other = new WorkBundle("/output/root", "/eat/prefix");
+        other.incrementErrorCount();
+        assertFalse(w1.merge(other), "Bundles being retried are not merged with new work");
+
+        WorkBundle full = new WorkBundle("/output/root", "/eat/prefix");
+        for (int i = 0; i < WorkBundle.MAX_UNITS; i++) {
+            full.addFileName("file" + i);
+        }
+        assertFalse(w1.merge(full), "Merged bundles are limited to MAX_UNITS");
+        assertEquals(3, w1.size());
+    }
+
     @Test
     void testBundleXml() {
         WorkBundle w = new WorkBundle("/output/root", "/eat/prefix");
@@ -240,6 +275,10 @@ class WorkBundleTest extends UnitTest {
         w.addFileName("<file2.txt&foo=bar>", 7L, 10L);
         assertEquals(15L, w.getYoungestFileModificationTime());
         assertEquals(7L, w.getOldestFileModificationTime());
+        assertEquals(7L, w.getWorkUnitList().get(1).getFileModificationTime());
+        assertEquals(10L, w.getWorkUnitList().get(1).getFileSize());
+        w.addFileName("file3.txt");
+        assertEquals(-1L, w.getWorkUnitList().get(2).getFileModificationTime());
     }
 
     @Test
@@ -263,6 +302,40 @@ class WorkBundleTest extends UnitTest {
         assertEquals(0, w1.compareTo(w2));
     }
 
+    @Test
+    void testBatchSerDe() throws IOException {
+        List<WorkBundle> bundles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            WorkBundle wb = new WorkBundle("/output/root", "/etc/prefix");
+            wb.addFileName("file" + i + ".txt", 15L, i);
+            wb.setPriority(i);
+            bundles.add(wb);
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bout)) {
+            WorkBundle.writeBundlesToStream(bundles, out);
+            WorkBundle.writeBundlesToStream(Collections.emptyList(), out);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bout.toByteArray()))) {
+            List<WorkBundle> read = WorkBundle.readBundlesFromStream(in);
+            assertEquals(3, read.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(bundles.get(i).getBundleId(), read.get(i).getBundleId());
+                assertEquals(bundles.get(i).getFileNameList(), read.get(i).getFileNameList());
+                assertEquals(i, read.get(i).getPriority());
+            }
+            assertTrue(WorkBundle.readBundlesFromStream(in).isEmpty());
+        }
+
+        ByteArrayOutputStream tooMany = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(tooMany)) {
+            out.writeInt(WorkBundle.MAX_BUNDLES + 1);
+        }
+        assertThrows(IOException.class, () -> WorkBundle.readBundlesFromStream(new DataInputStream(new ByteArrayInputStream(tooMany.toByteArray()))));
+    }
+
     @Test
     void testLimitAdd() {
         // generate test data.
@@ -9,7 +9,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -63,6 +65,87 @@ class WorkSpaceTest extends UnitTest {
         assertEquals(1, taken.getPriority(), "Highest priority work must be taken first");
     }
 
+    @Test
+    void testTakeBatch() {
+        String C1 = "INITIAL.INPUT.A.http://otherhost:7001/FilePickUpClient";
+        mws.addPickUp(C1);
+
+        for (int i = 0; i < 5; i++) {
+            WorkBundle wb = new WorkBundle("/fake/root", "/fake/eat");
+            wb.addFileName("faker-" + i + ".txt");
+            wb.setPriority(5 - i);
+            mws.addOutboundBundle(wb);
+        }
+
+        assertTrue(mws.take(C1, 0).isEmpty(), "Nothing taken when none asked for");
+        assertEquals(5, mws.getOutboundQueueSize());
+
+        List<WorkBundle> taken = mws.take(C1, 3);
+        assertEquals(3, taken.size());
+        assertEquals(1, taken.get(0).getPriority(), "Highest priority work must be taken first");
+        assertEquals(3, mws.getPendingQueueSize());
+
+        assertEquals(2, mws.take(C1, 3).size());
+        assertTrue(mws.take(C1, 3).isEmpty(), "Empty batch when no work is left");
+
+        assertTrue(mws.workCompleted(C1, taken.get(0).getBundleId(), true));
+        assertEquals(4, mws.getPendingQueueSize());
+    }
+
+    @Test
+    void testBatchCompleted() {
+        String C1 = "INITIAL.INPUT.A.http://otherhost:7001/FilePickUpClient";
+        mws.addPickUp(C1);
+
+        for (int i = 0; i < 3; i++) {
+            WorkBundle wb = new WorkBundle("/fake/root", "/fake/eat");
+            wb.addFileName("faker-" + i + ".txt");
+            mws.addOutboundBundle(wb);
+        }
+        List<WorkBundle> taken = mws.take(C1, 3);
+        assertEquals(3, taken.size());
+
+        Map<String, Boolean> completed = new LinkedHashMap<>();
+        completed.put(taken.get(0).getBundleId(), true);
+        completed.put(taken.get(1).getBundleId(), false);
+        completed.put("unknown", true);
+        assertEquals(2, mws.workCompleted(C1, completed));
+        assertEquals(1, mws.getPendingQueueSize());
+        assertEquals(1, mws.getOutboundQueueSize(), "Failed bundle is sent again");
+    }
+
+    @Test
+    void testAdaptiveBundleSize() {
+        String C1 = "INITIAL.INPUT.A.http://otherhost:7001/FilePickUpClient";
+        String C2 = "INITIAL.INPUT.A.http://thirdhost:7001/FilePickUpClient";
+        mws.addPickUp(C1);
+        mws.setBundleTargetMillis(60000L);
+
+        for (int i = 0; i < 31; i++) {
+            WorkBundle wb = new WorkBundle("/fake/root", "/fake/eat");
+            wb.addFileName("faker-" + i + ".txt", i, 5L);
+            wb.setPriority(5);
+            mws.addOutboundBundle(wb);
+        }
+
+        WorkBundle first = mws.take(C1);
+        assertEquals(1, first.size(), "Nothing is merged until the pickup has completed some work");
+        pause(20L);
+        assertTrue(mws.workCompleted(C1, first.getBundleId(), true));
+
+        // a second pickup limits each one to half of the queued work
+        mws.addPickUp(C2);
+        WorkBundle merged = mws.take(C1);
+        assertEquals(15, merged.size());
+        assertEquals(75L, merged.getTotalFileSize());
+        assertEquals(15, mws.getOutboundQueueSize());
+        assertEquals(1, mws.getPendingQueueSize());
+
+        assertEquals(1, mws.take(C2).size(), "Nothing measured for the new pickup yet");
+        assertTrue(mws.workCompleted(C1, merged.getBundleId(), true));
+        assertEquals(15, mws.getFilesSeenCount());
+    }
+
     /**
      * Test the WorkBundle sorting of the "oldest first" sorting when the priorities are even (and hence, don't override the
      * time based ordering)
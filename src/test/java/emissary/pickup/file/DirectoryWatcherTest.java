@@ -0,0 +1,187 @@
+package emissary.pickup.file;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryWatcherTest extends UnitTest {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcherTest.class);
+
+    @TempDir
+    Path dir;
+
+    private static List<String> pollUntil(final DirectoryWatcher watcher, final int count, final long timeoutMillis) throws Exception {
+        final List<String> found = new ArrayList<>();
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (found.size() < count && System.currentTimeMillis() < deadline) {
+            found.addAll(watcher.poll(Integer.MAX_VALUE));
+            if (found.size() < count) {
+                watcher.await(100);
+            }
+        }
+        return found;
+    }
+
+    private void write(final String name, final String content) throws IOException {
+        Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testExistingFilesFound() throws Exception {
+        write("one", "1");
+        write("two", "2");
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, 0, 60000)) {
+            final List<String> found = pollUntil(watcher, 2, 5000);
+            Collections.sort(found);
+            assertEquals(Arrays.asList("one", "two"), found);
+            assertEquals(1, watcher.getReconcileCount());
+        }
+    }
+
+    @Test
+    void testNewFilesFound() throws Exception {
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, 0, 60000)) {
+            assertEquals(Collections.emptyList(), watcher.poll(10));
+
+            write("new", "data");
+            assertEquals(Collections.singletonList("new"), pollUntil(watcher, 1, 10000));
+            assertEquals(1, watcher.getReconcileCount());
+        }
+    }
+
+    @Test
+    void testHiddenFilesAndMax() throws Exception {
+        write(".hidden", "h");
+        for (int i = 0; i < 5; i++) {
+            write("file" + i, "f");
+        }
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, 0, 60000)) {
+            assertEquals(3, watcher.poll(3).size());
+            final List<String> rest = pollUntil(watcher, 2, 5000);
+            assertEquals(2, rest.size());
+            assertTrue(watcher.poll(10).isEmpty());
+            assertEquals(0, watcher.getPendingCount());
+        }
+    }
+
+    @Test
+    void testFileBeingWrittenIsHeld() throws Exception {
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, 500, 60000);
+                OutputStream os = Files.newOutputStream(dir.resolve("growing"), StandardOpenOption.CREATE_NEW)) {
+            final long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < 1200) {
+                os.write(new byte[100]);
+                os.flush();
+                assertEquals(Collections.emptyList(), watcher.poll(10));
+                Thread.sleep(50);
+            }
+            os.close();
+
+            assertEquals(Collections.singletonList("growing"), pollUntil(watcher, 1, 5000));
+            assertTrue(System.currentTimeMillis() - start >= 1200 + 500);
+        }
+    }
+
+    @Test
+    void testRemovedFileForgotten() throws Exception {
+        write("gone", "g");
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, 60000, 60000)) {
+            assertEquals(Collections.emptyList(), watcher.poll(10));
+            assertEquals(1, watcher.getPendingCount());
+
+            Files.delete(dir.resolve("gone"));
+            assertEquals(Collections.emptyList(), watcher.poll(10));
+            assertEquals(0, watcher.getPendingCount());
+        }
+    }
+
+    @Test
+    void testPeriodicReconcile() throws Exception {
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, 0, 200)) {
+            final long reconciles = watcher.getReconcileCount();
+            Thread.sleep(300);
+            watcher.poll(10);
+            assertTrue(watcher.getReconcileCount() > reconciles);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "emissary.benchmark", matches = "true")
+    void benchmark() throws Exception {
+        final int existing = 100_000;
+        final int arrivals = 50;
+        final long intervalNanos = 200_000_000L;
+        for (int i = 0; i < existing; i++) {
+            Files.createFile(dir.resolve(".existing" + i));
+        }
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        // Polling as FileDataServer does without a watcher, with files arriving at random points between polls
+        long cpu = threads.getCurrentThreadCpuTime();
+        long latency = 0;
+        final File directory = dir.toFile();
+        long nextPoll = System.nanoTime() + intervalNanos;
+        for (int i = 0; i < arrivals; i++) {
+            final long arrival = nextPoll - (long) (Math.random() * intervalNanos);
+            sleepUntil(arrival);
+            write("poll" + i, "x");
+            sleepUntil(nextPoll);
+            final String[] names = directory.list((d, n) -> !n.startsWith("."));
+            assertTrue(names != null && Arrays.asList(names).contains("poll" + i));
+            latency += System.nanoTime() - arrival;
+            Files.delete(dir.resolve("poll" + i));
+            nextPoll += intervalNanos;
+        }
+        report("polling", latency / arrivals, threads.getCurrentThreadCpuTime() - cpu);
+
+        // Watching, with no quiet period so only detection is measured
+        cpu = threads.getCurrentThreadCpuTime();
+        latency = 0;
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, 0, 60000)) {
+            watcher.poll(Integer.MAX_VALUE);
+            for (int i = 0; i < arrivals; i++) {
+                final long arrival = System.nanoTime();
+                write("watch" + i, "x");
+                assertEquals(1, pollUntil(watcher, 1, 10000).size());
+                latency += System.nanoTime() - arrival;
+                Files.delete(dir.resolve("watch" + i));
+            }
+        }
+        report("watching", latency / arrivals, threads.getCurrentThreadCpuTime() - cpu);
+    }
+
+    private static void sleepUntil(final long nanoTime) throws InterruptedException {
+        final long millis = (nanoTime - System.nanoTime()) / 1_000_000;
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    private static void report(final String name, final long averageLatencyNanos, final long cpuNanos) {
+        logger.info("{}: average detection latency {} ms, cpu {} ms", name, averageLatencyNanos / 1_000_000.0, cpuNanos / 1_000_000.0);
+    }
+}
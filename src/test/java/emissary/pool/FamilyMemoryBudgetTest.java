@@ -0,0 +1,184 @@
+package emissary.pool;
+
+import emissary.core.BaseDataObject;
+import emissary.core.IBaseDataObject;
+import emissary.core.channels.SeekableByteChannelHelper;
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FamilyMemoryBudgetTest extends UnitTest {
+
+    @Test
+    void testAdmitWithinBudget() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(true, 1000);
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+
+        assertTrue(budget.admit(first, 400, 0));
+        assertTrue(budget.admit(second, 600, 0));
+        assertEquals(1000, budget.getUsedBytes());
+        assertEquals(2, budget.getFamilyCount());
+        assertEquals(600, budget.getFamilyBytes(second));
+
+        budget.release(first);
+        assertEquals(600, budget.getUsedBytes());
+        assertEquals(1, budget.getFamilyCount());
+        assertEquals(0, budget.getFamilyBytes(first));
+    }
+
+    @Test
+    void testTimeout() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(true, 1000);
+        assertTrue(budget.admit(UUID.randomUUID(), 800, 0));
+
+        assertFalse(budget.admit(UUID.randomUUID(), 300, 50));
+        assertEquals(800, budget.getUsedBytes());
+        assertEquals(1, budget.getDelayedCount());
+        assertEquals(0, budget.getWaitingCount());
+    }
+
+    @Test
+    void testOversizedFamilyAdmittedWhenIdle() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(true, 1000);
+        assertTrue(budget.admit(UUID.randomUUID(), 5000, 0));
+        assertEquals(5000, budget.getUsedBytes());
+        assertFalse(budget.admit(UUID.randomUUID(), 1, 0));
+    }
+
+    @Test
+    void testWaitForRelease() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(true, 1000);
+        final UUID first = UUID.randomUUID();
+        assertTrue(budget.admit(first, 800, 0));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean admitted = new AtomicBoolean();
+        final Thread waiter = new Thread(() -> {
+            try {
+                admitted.set(budget.admit(UUID.randomUUID(), 300, -1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        waiter.start();
+
+        for (int i = 0; i < 100 && budget.getWaitingCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, budget.getWaitingCount());
+        assertFalse(admitted.get());
+
+        budget.release(first);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(admitted.get());
+        assertEquals(300, budget.getUsedBytes());
+    }
+
+    @Test
+    void testUpdate() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(true, 1000);
+        final UUID family = UUID.randomUUID();
+        assertTrue(budget.admit(family, 100, 0));
+
+        budget.update(family, 700);
+        assertEquals(700, budget.getUsedBytes());
+        assertFalse(budget.admit(UUID.randomUUID(), 400, 0));
+
+        budget.update(family, 200);
+        assertEquals(200, budget.getUsedBytes());
+        assertTrue(budget.admit(UUID.randomUUID(), 400, 0));
+
+        // families admitted elsewhere are not tracked
+        budget.update(UUID.randomUUID(), 10000);
+        budget.release(UUID.randomUUID());
+        budget.release(null);
+        assertEquals(600, budget.getUsedBytes());
+    }
+
+    @Test
+    void testDisabled() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(false, 1000);
+        assertTrue(budget.admit(UUID.randomUUID(), 800, 0));
+        assertTrue(budget.admit(UUID.randomUUID(), 800, 0));
+        assertTrue(budget.admit(new BaseDataObject(new byte[800], "test"), 0));
+        assertEquals(0, budget.getUsedBytes(), "Families are not tracked when disabled");
+        assertEquals(0, budget.getFamilyCount());
+    }
+
+    @Test
+    void testAdmitPayload() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(true, 1_000_000);
+        final IBaseDataObject payload = new BaseDataObject(new byte[1000], "test");
+        payload.addAlternateView("VIEW", new byte[500]);
+
+        assertTrue(budget.admit(payload, 0));
+        final long estimate = FamilyMemoryBudget.estimate(Collections.singletonList(payload));
+        assertTrue(estimate >= 1500);
+        assertEquals(estimate, budget.getFamilyBytes(payload.getInternalId()));
+    }
+
+    @Test
+    void testEstimateSkipsChannelViews(@TempDir final Path tempDir) throws IOException {
+        final Path file = Files.write(tempDir.resolve("view.bin"), new byte[100_000]);
+        final IBaseDataObject payload = new BaseDataObject(new byte[1000], "test");
+        final long heap = FamilyMemoryBudget.estimate(Collections.singletonList(payload));
+
+        payload.setAlternateViewChannelFactory("FILE", SeekableByteChannelHelper.file(file));
+        assertEquals(heap, FamilyMemoryBudget.estimate(Collections.singletonList(payload)), "File backed views take no heap");
+
+        payload.setChannelFactory(SeekableByteChannelHelper.file(file));
+        assertTrue(FamilyMemoryBudget.estimate(Collections.singletonList(payload)) < heap, "File backed data takes no heap");
+    }
+
+    @Test
+    void testSignature() {
+        final IBaseDataObject payload = new BaseDataObject(new byte[1000], "test");
+        final List<IBaseDataObject> family = new ArrayList<>(Collections.singletonList(payload));
+        final long signature = FamilyMemoryBudget.signature(family);
+        assertEquals(signature, FamilyMemoryBudget.signature(family));
+
+        payload.setData(new byte[2000]);
+        final long data = FamilyMemoryBudget.signature(family);
+        assertNotEquals(signature, data);
+
+        payload.addAlternateView("VIEW", new byte[500]);
+        final long view = FamilyMemoryBudget.signature(family);
+        assertNotEquals(data, view);
+
+        payload.putParameter("KEY", "value");
+        final long parameter = FamilyMemoryBudget.signature(family);
+        assertNotEquals(view, parameter);
+
+        family.add(new BaseDataObject(new byte[10], "child"));
+        assertNotEquals(parameter, FamilyMemoryBudget.signature(family));
+    }
+
+    @Test
+    void testMetrics() throws InterruptedException {
+        final FamilyMemoryBudget budget = new FamilyMemoryBudget(true, 1000);
+        budget.admit(UUID.randomUUID(), 10, 0);
+
+        assertTrue(budget.getMetrics().containsKey("family.memory.used.bytes"));
+        assertTrue(budget.getMetrics().containsKey("family.memory.budget.bytes"));
+        assertTrue(budget.getMetrics().containsKey("family.memory.waiting"));
+    }
+}
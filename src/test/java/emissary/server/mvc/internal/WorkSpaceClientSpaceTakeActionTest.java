@@ -15,15 +15,23 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.NullAndEmptySource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
+import static emissary.server.mvc.adapters.WorkSpaceAdapter.WORK_BUNDLE_COUNT;
 import static emissary.server.mvc.internal.WorkSpaceClientSpaceTakeAction.CLIENT_NAME;
 import static emissary.server.mvc.internal.WorkSpaceClientSpaceTakeAction.SPACE_NAME;
+import static emissary.server.mvc.internal.WorkSpaceClientSpaceTakeAction.WORK_BUNDLE_ID;
+import static emissary.server.mvc.internal.WorkSpaceClientSpaceTakeAction.WORK_BUNDLE_STATUS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 class WorkSpaceClientSpaceTakeActionTest extends EndpointTestBase {
 
@@ -32,6 +40,7 @@ class WorkSpaceClientSpaceTakeActionTest extends EndpointTestBase {
     private static final String WORKSPACE_BIND_KEY = "http://workSpaceCLientSpaceTakeActionTest:7001/WorkSpace";
     private static final String WORKSPACE_NAME = "WORKSPACE.WORK_SPACE.INPUT." + WORKSPACE_BIND_KEY;
     private static final String CLIENT_SPACE_TAKE_ACTION = "WorkSpaceClientSpaceTake.action";
+    private static final String CLIENT_SPACE_TAKE_BUNDLES_ACTION = "WorkSpaceClientSpaceTakeBundles.action";
     @SuppressWarnings("unused")
     private static final String FAILURE_RESULT = "<entryList />";
 
@@ -116,6 +125,44 @@ class WorkSpaceClientSpaceTakeActionTest extends EndpointTestBase {
         }
     }
 
+    @Test
+    void successfulTakeBundles() throws Exception {
+        // setup
+        WorkSpace spy = spy(new WorkSpace());
+        WorkBundle wb1 = new WorkBundle();
+        wb1.addFileName("file1");
+        WorkBundle wb2 = new WorkBundle();
+        wb2.addFileName("file2");
+        doReturn(Arrays.asList(wb1, wb2)).when(spy).take(PLACE_NAME, 2);
+        doReturn(1).when(spy).workCompleted(PLACE_NAME, Collections.singletonMap("done", true));
+        Namespace.bind(WORKSPACE_BIND_KEY, spy);
+        formParams.put(WORK_BUNDLE_COUNT, Collections.singletonList("2"));
+        formParams.put(WORK_BUNDLE_ID, Collections.singletonList("done"));
+        formParams.put(WORK_BUNDLE_STATUS, Collections.singletonList("true"));
+
+        // test
+        try (Response response = target(CLIENT_SPACE_TAKE_BUNDLES_ACTION).request().post(Entity.form(formParams))) {
+            assertEquals(200, response.getStatus());
+            final byte[] result = response.readEntity(byte[].class);
+            final List<WorkBundle> bundles = WorkBundle.readBundlesFromStream(new DataInputStream(new ByteArrayInputStream(result)));
+            assertEquals(2, bundles.size());
+            assertEquals(wb1.getBundleId(), bundles.get(0).getBundleId());
+            assertEquals(wb2.getFileNameList(), bundles.get(1).getFileNameList());
+        }
+        verify(spy).workCompleted(PLACE_NAME, Collections.singletonMap("done", true));
+    }
+
+    @Test
+    void badTakeBundlesParams() {
+        formParams.put(WORK_BUNDLE_ID, Arrays.asList("one", "two"));
+        formParams.put(WORK_BUNDLE_STATUS, Collections.singletonList("true"));
+
+        try (Response response = target(CLIENT_SPACE_TAKE_BUNDLES_ACTION).request().post(Entity.form(formParams))) {
+            assertEquals(500, response.getStatus());
+            assertTrue(response.readEntity(String.class).startsWith("Bad params:"));
+        }
+    }
+
     @Test
     void successfulTake() throws Exception {
         // setup
@@ -3,11 +3,14 @@ package emissary.util;
 import emissary.core.DataObjectFactory;
 import emissary.core.Form;
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.AbstractSeekableByteChannel;
 import emissary.id.WorkUnit;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -65,6 +68,29 @@ class DataUtilTest extends UnitTest {
         }
     }
 
+    @Test
+    void testUnreadableDataNotEmpty() {
+        final IBaseDataObject d = DataObjectFactory.getInstance();
+        d.setChannelFactory(() -> new AbstractSeekableByteChannel() {
+            @Override
+            protected void closeImpl() {
+                // Do nothing
+            }
+
+            @Override
+            protected int readImpl(ByteBuffer byteBuffer) throws IOException {
+                throw new IOException("Test exception");
+            }
+
+            @Override
+            protected long sizeImpl() throws IOException {
+                throw new IOException("Test exception");
+            }
+        });
+        assertFalse(DataUtil.isEmpty(d), "Unreadable data is not known to be empty");
+        assertTrue(DataUtil.isNotEmpty(d), "Unreadable data is not known to be empty");
+    }
+
     @Test
     void testEmptyWorkUnit() {
         assertTrue(DataUtil.isEmpty(new WorkUnit()), "Empty work unit is empty");
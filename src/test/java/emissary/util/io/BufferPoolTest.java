@@ -0,0 +1,173 @@
+package emissary.util.io;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest extends UnitTest {
+
+    private static BufferPool newPool(final long maxHeapBytes, final boolean leakDetection) {
+        return new BufferPool(true, 1024, 64 * 1024, maxHeapBytes, 128 * 1024, leakDetection);
+    }
+
+    @Test
+    void testSizeClass() {
+        final BufferPool pool = newPool(1024 * 1024, false);
+
+        assertEquals(1024, pool.sizeClass(0));
+        assertEquals(1024, pool.sizeClass(1));
+        assertEquals(1024, pool.sizeClass(1024));
+        assertEquals(2048, pool.sizeClass(1025));
+        assertEquals(64 * 1024, pool.sizeClass(64 * 1024));
+        assertEquals(64 * 1024 + 1, pool.sizeClass(64 * 1024 + 1));
+        assertThrows(IllegalArgumentException.class, () -> pool.sizeClass(-1));
+    }
+
+    @Test
+    void testArrayReuse() {
+        final BufferPool pool = newPool(1024 * 1024, false);
+
+        final byte[] first = pool.acquireArray(3000);
+        assertEquals(4096, first.length);
+        pool.release(first);
+        assertEquals(4096, pool.getPooledHeapBytes());
+
+        assertSame(first, pool.acquireArray(2049));
+        assertEquals(0, pool.getPooledHeapBytes());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+
+        assertNotSame(first, pool.acquireArray(3000));
+    }
+
+    @Test
+    void testMaxLength() {
+        final BufferPool pool = newPool(1024 * 1024, false);
+
+        assertEquals(4096, pool.acquireArray(3000, 4096).length);
+        assertEquals(3000, pool.acquireArray(3000, 4095).length);
+        assertThrows(IllegalArgumentException.class, () -> pool.acquireArray(3000, 2999));
+    }
+
+    @Test
+    void testOversizedNotPooled() {
+        final BufferPool pool = newPool(1024 * 1024, false);
+
+        final byte[] large = pool.acquireArray(100 * 1024);
+        assertEquals(100 * 1024, large.length);
+        pool.release(large);
+        assertEquals(0, pool.getPooledHeapBytes());
+
+        // arrays that were not sized by the pool are dropped
+        pool.release(new byte[3000]);
+        assertEquals(0, pool.getPooledHeapBytes());
+    }
+
+    @Test
+    void testBounded() {
+        final BufferPool pool = newPool(8 * 1024, false);
+
+        final byte[] a = pool.acquireArray(4096);
+        final byte[] b = pool.acquireArray(4096);
+        final byte[] c = pool.acquireArray(4096);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(8 * 1024, pool.getPooledHeapBytes());
+
+        pool.clear();
+        assertEquals(0, pool.getPooledHeapBytes());
+    }
+
+    @Test
+    void testHeapBuffer() {
+        final BufferPool pool = newPool(1024 * 1024, false);
+
+        final ByteBuffer buffer = pool.acquireHeap(1500);
+        assertEquals(0, buffer.position());
+        assertEquals(1500, buffer.limit());
+        assertEquals(2048, buffer.capacity());
+        pool.release(buffer);
+
+        assertSame(buffer.array(), pool.acquireArray(2048));
+    }
+
+    @Test
+    void testDirectBuffer() {
+        final BufferPool pool = newPool(1024 * 1024, false);
+
+        final ByteBuffer buffer = pool.acquireDirect(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(5000, buffer.limit());
+        assertEquals(8192, buffer.capacity());
+        buffer.position(100);
+        pool.release(buffer);
+        assertEquals(8192, pool.getPooledDirectBytes());
+
+        final ByteBuffer again = pool.acquireDirect(8000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(8000, again.limit());
+        assertEquals(0, pool.getPooledDirectBytes());
+    }
+
+    @Test
+    void testDisabled() {
+        final BufferPool pool = new BufferPool(false, 1024, 64 * 1024, 1024 * 1024, 1024 * 1024, false);
+
+        final byte[] array = pool.acquireArray(1024);
+        pool.release(array);
+        assertEquals(0, pool.getPooledHeapBytes());
+        assertNotSame(array, pool.acquireArray(1024));
+    }
+
+    @Test
+    void testDoubleRelease() {
+        final BufferPool pool = newPool(1024 * 1024, true);
+
+        final byte[] array = pool.acquireArray(1024);
+        assertEquals(1, pool.getOutstandingCount());
+        pool.release(array);
+        assertEquals(0, pool.getOutstandingCount());
+        assertThrows(IllegalStateException.class, () -> pool.release(array));
+        assertThrows(IllegalStateException.class, () -> pool.release(new byte[1024]));
+    }
+
+    @Test
+    void testLeakDetection() throws InterruptedException {
+        final BufferPool pool = newPool(1024 * 1024, true);
+        assertTrue(pool.isLeakDetectionEnabled());
+
+        acquireAndDrop(pool);
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(1, pool.getLeakCount());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    void testNoLeakDetectionByDefault() {
+        final BufferPool pool = newPool(1024 * 1024, false);
+
+        pool.acquireArray(1024);
+        assertFalse(pool.isLeakDetectionEnabled());
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(0, pool.getLeakCount());
+    }
+
+    private static void acquireAndDrop(final BufferPool pool) {
+        assertEquals(1024, pool.acquireArray(1000).length);
+    }
+}
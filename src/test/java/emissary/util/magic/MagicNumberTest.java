@@ -5,6 +5,7 @@ import emissary.test.core.junit5.UnitTest;
 import jakarta.xml.bind.DatatypeConverter;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -235,4 +236,13 @@ class MagicNumberTest extends UnitTest {
         assertTrue(m.test(DatatypeConverter.parseHexBinary("F2")), "LessEqual than magic operator failed");
     }
 
+    @Test
+    void testSampleLength() throws ParseException {
+        assertEquals(4 + 2, MagicNumberFactory.buildMagicNumber("0 belong 0x41424344 FOO").getSampleLength());
+        assertEquals(0x10 + 3 + 2, MagicNumberFactory.buildMagicNumber("0x10 string ABC FOO").getSampleLength());
+
+        MagicNumber m = MagicNumberFactory.buildMagicNumber("0 string ABCD FOO");
+        m.addDependencyLayer(new MagicNumber[] {MagicNumberFactory.buildMagicNumber(">0x20 byte 0x41 BAR")});
+        assertEquals(0x20 + 1 + 2, m.getSampleLength());
+    }
 }
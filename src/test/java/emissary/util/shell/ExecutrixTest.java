@@ -1,5 +1,7 @@
 package emissary.util.shell;
 
+import emissary.core.channels.DataView;
+import emissary.core.channels.SeekableByteChannelHelper;
 import emissary.test.core.junit5.UnitTest;
 
 import jakarta.annotation.Nullable;
@@ -9,6 +11,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -30,6 +33,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.validateMockitoUsage;
@@ -391,6 +395,20 @@ class ExecutrixTest extends UnitTest {
         assertFalse(tdir.exists(), "Temp area should be gone");
     }
 
+    @Test
+    void testWriteInputDataFromView() throws IOException {
+        final byte[] data = "0123456789".getBytes(StandardCharsets.UTF_8);
+        final DataView view = DataView.of(SeekableByteChannelHelper.memory(data));
+
+        final TempFileNames names = e.writeInputDataToNewTempDir(view, 2, 5);
+        try {
+            assertArrayEquals("23456".getBytes(StandardCharsets.UTF_8), Executrix.readDataFromFile(names.getInputFilename()));
+            assertThrows(EOFException.class, () -> e.writeInputDataToNewTempDir(view, 8, 5));
+        } finally {
+            Executrix.cleanupDirectory(names.getTempDir());
+        }
+    }
+
     /**
      * Identical to {@link #testExecute}, but with the new TempFileNames API for constructing temp filenames
      */